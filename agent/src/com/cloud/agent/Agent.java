@@ -46,7 +46,9 @@ import com.cloud.agent.api.Command;
 import com.cloud.agent.api.CronCommand;
 import com.cloud.agent.api.MaintainAnswer;
 import com.cloud.agent.api.MaintainCommand;
+import com.cloud.agent.api.PingAnswer;
 import com.cloud.agent.api.PingCommand;
+import com.cloud.agent.api.PingRoutingCommand;
 import com.cloud.agent.api.ReadyCommand;
 import com.cloud.agent.api.ShutdownCommand;
 import com.cloud.agent.api.StartupAnswer;
@@ -115,6 +117,7 @@ public class Agent implements HandlerFactory, IAgentControl {
     long _lastPingResponseTime = 0;
     long _pingInterval = 0;
     AtomicInteger _inProgress = new AtomicInteger();
+    final HostVmStateReportTracker _vmStateReportTracker = new HostVmStateReportTracker();
 
     StartupTask _startup = null;
     long _startupWaitDefault = 180000;
@@ -237,7 +240,7 @@ public class Agent implements HandlerFactory, IAgentControl {
             try {
                 if (_link != null) {
                     Request req = new Request((_id != null ? _id : -1), -1, cmd, false);
-                    _link.send(req.toBytes());
+                    _link.send(req.toBytes(_link.isBinaryCapable()));
                 }
             } catch (final ClosedChannelException e) {
                 s_logger.warn("Unable to send: " + cmd.toString());
@@ -315,8 +318,9 @@ public class Agent implements HandlerFactory, IAgentControl {
                 s_logger.debug("Sending Startup: " + request.toString());
             }
             lockStartupTask(link);
+            _vmStateReportTracker.reset();
             try {
-                link.send(request.toBytes());
+                link.send(request.toBytes(link.isBinaryCapable()));
             } catch (final ClosedChannelException e) {
                 s_logger.warn("Unable to send reques: " + request.toString());
             }
@@ -535,7 +539,7 @@ public class Agent implements HandlerFactory, IAgentControl {
 
             if (response != null) {
                 try {
-                    link.send(response.toBytes());
+                    link.send(response.toBytes(link.isBinaryCapable()));
                 } catch (final ClosedChannelException e) {
                     s_logger.warn("Unable to send response: " + response.toString());
                 }
@@ -558,6 +562,9 @@ public class Agent implements HandlerFactory, IAgentControl {
                 }
             }
         } else {
+            if (answer instanceof PingAnswer) {
+                _vmStateReportTracker.processPingAnswer((PingAnswer)answer);
+            }
             setLastPingResponseTime();
         }
     }
@@ -583,6 +590,9 @@ public class Agent implements HandlerFactory, IAgentControl {
             }
 
             final PingCommand ping = _resource.getCurrentStatus(getId());
+            if (ping instanceof PingRoutingCommand) {
+                _vmStateReportTracker.prepare((PingRoutingCommand)ping);
+            }
             final Request request = new Request(_id, -1, ping, false);
             request.setSequence(getNextSequence());
             if (s_logger.isDebugEnabled()) {
@@ -590,7 +600,7 @@ public class Agent implements HandlerFactory, IAgentControl {
             }
 
             try {
-                task.getLink().send(request.toBytes());
+                task.getLink().send(request.toBytes(task.getLink().isBinaryCapable()));
                 //if i can send pingcommand out, means the link is ok
                 setLastPingResponseTime();
             } catch (final ClosedChannelException e) {
@@ -614,7 +624,7 @@ public class Agent implements HandlerFactory, IAgentControl {
                     s_logger.debug("Watch Sent: " + response.toString());
                 }
                 try {
-                    task.getLink().send(response.toBytes());
+                    task.getLink().send(response.toBytes(task.getLink().isBinaryCapable()));
                 } catch (final ClosedChannelException e) {
                     s_logger.warn("Unable to send response: " + response.toString());
                 }
@@ -680,7 +690,7 @@ public class Agent implements HandlerFactory, IAgentControl {
     private void postRequest(Request request) throws AgentControlChannelException {
         if (_link != null) {
             try {
-                _link.send(request.toBytes());
+                _link.send(request.toBytes(_link.isBinaryCapable()));
             } catch (final ClosedChannelException e) {
                 s_logger.warn("Unable to post agent control reques: " + request.toString());
                 throw new AgentControlChannelException("Unable to post agent control request due to " + e.getMessage());
@@ -829,6 +839,9 @@ public class Agent implements HandlerFactory, IAgentControl {
                 Request request;
                 try {
                     request = Request.parse(task.getData());
+                    if (request.isBinaryCapable()) {
+                        task.getLink().setBinaryCapable(true);
+                    }
                     if (request instanceof Response) {
                         //It's for pinganswer etc, should be processed immediately.
                         processResponse((Response)request, task.getLink());
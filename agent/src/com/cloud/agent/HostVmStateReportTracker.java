@@ -0,0 +1,99 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.agent;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import com.cloud.agent.api.HostVmStateReportEntry;
+import com.cloud.agent.api.PingAnswer;
+import com.cloud.agent.api.PingRoutingCommand;
+
+/**
+ * HostVmStateReportTracker turns the VM state report in the pings of the
+ * agent into deltas once the management server said it takes them.  Every
+ * ping still carries the checksum of the complete state, so the management
+ * server can ask for a full report when what it has doesn't add up.
+ */
+public class HostVmStateReportTracker {
+    private static final Logger s_logger = Logger.getLogger(HostVmStateReportTracker.class);
+
+    // Send a full report every so many pings even if nobody asked for it.
+    public static final int FULL_REPORT_INTERVAL = 30;
+
+    private Map<String, HostVmStateReportEntry> _lastReport;
+    private boolean _deltaSupported;
+    private boolean _fullReportNeeded = true;
+    private int _pingsSinceFullReport;
+
+    public synchronized void prepare(PingRoutingCommand ping) {
+        Map<String, HostVmStateReportEntry> report = ping.getHostVmStateReport();
+        if (report == null) {
+            // The resource couldn't tell, so what was sent last can't be trusted either.
+            _fullReportNeeded = true;
+            return;
+        }
+
+        ping.setHostVmStateChecksum(PingRoutingCommand.vmStateChecksum(report));
+        Map<String, HostVmStateReportEntry> lastReport = _lastReport;
+        _lastReport = new HashMap<String, HostVmStateReportEntry>(report);
+        if (!_deltaSupported || _fullReportNeeded || lastReport == null || ++_pingsSinceFullReport >= FULL_REPORT_INTERVAL) {
+            _fullReportNeeded = false;
+            _pingsSinceFullReport = 0;
+            return;
+        }
+
+        Map<String, HostVmStateReportEntry> changed = new HashMap<String, HostVmStateReportEntry>();
+        for (Map.Entry<String, HostVmStateReportEntry> entry : report.entrySet()) {
+            HostVmStateReportEntry last = lastReport.remove(entry.getKey());
+            if (last == null || last.getState() != entry.getValue().getState() || !equals(last.getHost(), entry.getValue().getHost())) {
+                changed.put(entry.getKey(), entry.getValue());
+            }
+        }
+        List<String> removed = new ArrayList<String>(lastReport.keySet());
+        ping.setHostVmStateReportDelta(changed, removed);
+        if (s_logger.isDebugEnabled()) {
+            s_logger.debug("VM state report of " + report.size() + " VMs sent as " + changed.size() + " changed and " + removed.size() + " removed");
+        }
+    }
+
+    public synchronized void processPingAnswer(PingAnswer answer) {
+        _deltaSupported = answer.isVmStateReportDeltaSupported();
+        if (answer.isFullVmStateReportNeeded()) {
+            s_logger.info("Management server asked for a full VM state report");
+            _fullReportNeeded = true;
+        }
+    }
+
+    /**
+     * Starts over with a full report, e.g. after connecting to a management server.
+     */
+    public synchronized void reset() {
+        _lastReport = null;
+        _deltaSupported = false;
+        _fullReportNeeded = true;
+        _pingsSinceFullReport = 0;
+    }
+
+    private static boolean equals(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
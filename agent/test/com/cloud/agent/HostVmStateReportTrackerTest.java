@@ -0,0 +1,98 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.agent;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.cloud.agent.api.HostVmStateReportEntry;
+import com.cloud.agent.api.PingAnswer;
+import com.cloud.agent.api.PingRoutingCommand;
+import com.cloud.host.Host;
+import com.cloud.vm.VirtualMachine.PowerState;
+
+public class HostVmStateReportTrackerTest {
+    private static PingRoutingCommand ping(String... runningVms) {
+        Map<String, HostVmStateReportEntry> report = new HashMap<String, HostVmStateReportEntry>();
+        for (String vm : runningVms) {
+            report.put(vm, new HostVmStateReportEntry(PowerState.PowerOn, "host"));
+        }
+        return new PingRoutingCommand(Host.Type.Routing, 1, report);
+    }
+
+    private static PingAnswer answer(PingRoutingCommand ping, boolean delta, boolean full) {
+        PingAnswer answer = new PingAnswer(ping);
+        answer.setVmStateReportDeltaSupported(delta);
+        answer.setFullVmStateReportNeeded(full);
+        return answer;
+    }
+
+    @Test
+    public void fullUntilDeltaSupported() {
+        HostVmStateReportTracker tracker = new HostVmStateReportTracker();
+        PingRoutingCommand ping = ping("a", "b");
+        tracker.prepare(ping);
+        Assert.assertFalse(ping.isHostVmStateReportDelta());
+        Assert.assertEquals(PingRoutingCommand.vmStateChecksum(ping.getHostVmStateReport()), ping.getHostVmStateChecksum());
+
+        tracker.processPingAnswer(answer(ping, false, false));
+        ping = ping("a", "b");
+        tracker.prepare(ping);
+        Assert.assertFalse(ping.isHostVmStateReportDelta());
+        Assert.assertEquals(2, ping.getHostVmStateReport().size());
+    }
+
+    @Test
+    public void onlyChangesOnceDeltaSupported() {
+        HostVmStateReportTracker tracker = new HostVmStateReportTracker();
+        PingRoutingCommand ping = ping("a", "b");
+        tracker.prepare(ping);
+        tracker.processPingAnswer(answer(ping, true, false));
+
+        ping = ping("a", "c");
+        long checksum = PingRoutingCommand.vmStateChecksum(ping.getHostVmStateReport());
+        tracker.prepare(ping);
+        Assert.assertTrue(ping.isHostVmStateReportDelta());
+        Assert.assertEquals(1, ping.getHostVmStateReport().size());
+        Assert.assertTrue(ping.getHostVmStateReport().containsKey("c"));
+        Assert.assertEquals(1, ping.getRemovedVms().size());
+        Assert.assertEquals("b", ping.getRemovedVms().get(0));
+        Assert.assertEquals(checksum, ping.getHostVmStateChecksum());
+
+        tracker.processPingAnswer(answer(ping, true, true));
+        ping = ping("a", "c");
+        tracker.prepare(ping);
+        Assert.assertFalse(ping.isHostVmStateReportDelta());
+        Assert.assertEquals(2, ping.getHostVmStateReport().size());
+    }
+
+    @Test
+    public void resetStartsWithFullReport() {
+        HostVmStateReportTracker tracker = new HostVmStateReportTracker();
+        PingRoutingCommand ping = ping("a");
+        tracker.prepare(ping);
+        tracker.processPingAnswer(answer(ping, true, false));
+        tracker.reset();
+        ping = ping("a");
+        tracker.prepare(ping);
+        Assert.assertFalse(ping.isHostVmStateReportDelta());
+    }
+}
@@ -26,6 +26,8 @@ public class RequestLimitException extends PermissionDeniedException {
 
     private static final long serialVersionUID = SerialVersionUID.AccountLimitException;
 
+    private long retryAfter;
+
     protected RequestLimitException() {
         super();
     }
@@ -38,4 +40,19 @@ public class RequestLimitException extends PermissionDeniedException {
         super(msg, cause);
     }
 
+    /**
+     * @param retryAfter milliseconds after which the request can be retried
+     */
+    public RequestLimitException(String msg, long retryAfter) {
+        super(msg);
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * @return milliseconds after which the request can be retried, 0 if unknown
+     */
+    public long getRetryAfter() {
+        return retryAfter;
+    }
+
 }
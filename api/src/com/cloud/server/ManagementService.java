@@ -37,6 +37,7 @@ import org.apache.cloudstack.api.command.admin.resource.ArchiveAlertsCmd;
 import org.apache.cloudstack.api.command.admin.resource.DeleteAlertsCmd;
 import org.apache.cloudstack.api.command.admin.resource.ListAlertsCmd;
 import org.apache.cloudstack.api.command.admin.resource.ListCapacityCmd;
+import org.apache.cloudstack.api.command.admin.resource.ListStatsHistoryCmd;
 import org.apache.cloudstack.api.command.admin.resource.UploadCustomCertificateCmd;
 import org.apache.cloudstack.api.command.admin.systemvm.DestroySystemVmCmd;
 import org.apache.cloudstack.api.command.admin.systemvm.ListSystemVMsCmd;
@@ -280,6 +281,14 @@ public interface ManagementService {
      */
     List<? extends Capacity> listCapacities(ListCapacityCmd cmd);
 
+    /**
+     * list the recent stats history of a host, vm or storage
+     *
+     * @param cmd
+     * @return one series per metric, empty if the stats history is disabled
+     */
+    List<? extends StatsSeries> listStatsHistory(ListStatsHistoryCmd cmd);
+
     /**
      * List system VMs by the given search criteria
      *
@@ -0,0 +1,45 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.server;
+
+/**
+ * History of a single metric of a host, vm or storage, downsampled to a
+ * fixed interval.
+ */
+public interface StatsSeries {
+    public enum ResourceType {
+        Host, VirtualMachine, StoragePool, ImageStore
+    }
+
+    ResourceType getResourceType();
+
+    String getResourceUuid();
+
+    String getMetric();
+
+    /**
+     * @return milliseconds between two samples
+     */
+    long getInterval();
+
+    /**
+     * @return start of the interval of each sample, in milliseconds
+     */
+    long[] getTimestamps();
+
+    double[] getValues();
+}
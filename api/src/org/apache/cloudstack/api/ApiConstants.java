@@ -239,12 +239,14 @@ public class ApiConstants {
     public static final String SHOW_REMOVED = "showremoved";
     public static final String SIGNATURE = "signature";
     public static final String SIGNATURE_VERSION = "signatureversion";
+    public static final String SIGNATURE_METHOD = "signaturemethod";
     public static final String SIZE = "size";
     public static final String SNAPSHOT_ID = "snapshotid";
     public static final String SNAPSHOT_POLICY_ID = "snapshotpolicyid";
     public static final String SNAPSHOT_TYPE = "snapshottype";
     public static final String SNAPSHOT_QUIESCEVM = "quiescevm";
     public static final String SOURCE_ZONE_ID = "sourcezoneid";
+    public static final String START_AFTER = "startafter";
     public static final String START_DATE = "startdate";
     public static final String START_IP = "startip";
     public static final String START_IPV6 = "startipv6";
@@ -297,6 +299,7 @@ public class ApiConstants {
     public static final String PAGE = "page";
     public static final String PAGE_SIZE = "pagesize";
     public static final String COUNT = "count";
+    public static final String NEXT_START_AFTER = "nextstartafter";
     public static final String TRAFFIC_TYPE = "traffictype";
     public static final String NETWORK_OFFERING_ID = "networkofferingid";
     public static final String NETWORK_IDS = "networkids";
@@ -631,6 +634,9 @@ public class ApiConstants {
     public static final String PHYSICAL_SIZE = "physicalsize";
     public static final String GURU_NAME = "guruname";
     public static final String GLOBO_RESOURCE_CONFIG = "globoresourceconfig";
+    public static final String METRIC = "metric";
+    public static final String SAMPLES = "samples";
+    public static final String TIMESTAMP = "timestamp";
 
     public enum HostDetails {
         all, capacity, events, stats, min;
@@ -18,6 +18,8 @@ package org.apache.cloudstack.api;
 
 import com.cloud.exception.CloudAuthenticationException;
 import javax.servlet.http.HttpSession;
+import java.io.IOException;
+import java.io.Writer;
 import java.util.Map;
 
 public interface ApiServerService {
@@ -38,5 +40,10 @@ public interface ApiServerService {
 
     public String handleRequest(Map params, String responseType, StringBuilder auditTrailSb) throws ServerApiException;
 
+    /**
+     * Executes the request and serializes its response to out as it goes, without building it as a string first.
+     */
+    public void handleRequest(Map params, String responseType, StringBuilder auditTrailSb, Writer out) throws ServerApiException, IOException;
+
     public Class<?> getCmdClass(String cmdName);
 }
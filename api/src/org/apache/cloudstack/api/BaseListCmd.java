@@ -126,7 +126,11 @@ public abstract class BaseListCmd extends BaseCmd {
             pageSize = Long.valueOf((String)pageSizeObj);
         }
 
-        if (params.get(ApiConstants.PAGE) == null &&
+        if (params.get(ApiConstants.START_AFTER) != null) {
+            if (params.get(ApiConstants.PAGE) != null) {
+                throw new ServerApiException(ApiErrorCode.PARAM_ERROR, "\"page\" and \"startafter\" parameters are mutually exclusive");
+            }
+        } else if (params.get(ApiConstants.PAGE) == null &&
                 pageSize != null &&
                 !pageSize.equals(BaseListCmd.s_pageSizeUnlimited)) {
             final ServerApiException ex = new ServerApiException(ApiErrorCode.PARAM_ERROR, "\"page\" parameter is required when \"pagesize\" is specified");
@@ -0,0 +1,130 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.api.command.admin.resource;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import org.apache.cloudstack.api.APICommand;
+import org.apache.cloudstack.api.ApiConstants;
+import org.apache.cloudstack.api.BaseCmd;
+import org.apache.cloudstack.api.Parameter;
+import org.apache.cloudstack.api.response.ListResponse;
+import org.apache.cloudstack.api.response.StatsSampleResponse;
+import org.apache.cloudstack.api.response.StatsSeriesResponse;
+
+import com.cloud.exception.InvalidParameterValueException;
+import com.cloud.server.StatsSeries;
+import com.cloud.server.StatsSeries.ResourceType;
+import com.cloud.user.Account;
+
+@APICommand(name = "listStatsHistory", description = "Lists the recent stats history of a host, virtual machine, storage pool or image store.",
+        responseObject = StatsSeriesResponse.class, since = "4.6.0", requestHasSensitiveInfo = false, responseHasSensitiveInfo = false)
+public class ListStatsHistoryCmd extends BaseCmd {
+
+    public static final Logger s_logger = Logger.getLogger(ListStatsHistoryCmd.class.getName());
+
+    private static final String s_name = "liststatshistoryresponse";
+
+    /////////////////////////////////////////////////////
+    //////////////// API parameters /////////////////////
+    /////////////////////////////////////////////////////
+
+    @Parameter(name = ApiConstants.RESOURCE_TYPE, type = CommandType.STRING, required = true,
+               description = "the type of the resource: Host, VirtualMachine, StoragePool or ImageStore")
+    private String resourceType;
+
+    @Parameter(name = ApiConstants.ID, type = CommandType.STRING, required = true, description = "the ID of the resource")
+    private String id;
+
+    @Parameter(name = ApiConstants.METRIC, type = CommandType.STRING, description = "the metric to list, all metrics of the resource if not specified")
+    private String metric;
+
+    @Parameter(name = ApiConstants.START_DATE, type = CommandType.DATE, description = "lists the samples from"
+        + " (including) this date (use format \"yyyy-MM-dd\" or the new format \"yyyy-MM-ddThh:mm:ss\")")
+    private Date startDate;
+
+    /////////////////////////////////////////////////////
+    /////////////////// Accessors ///////////////////////
+    /////////////////////////////////////////////////////
+
+    public ResourceType getResourceType() {
+        for (ResourceType type : ResourceType.values()) {
+            if (type.name().equalsIgnoreCase(resourceType)) {
+                return type;
+            }
+        }
+        throw new InvalidParameterValueException("Invalid resource type " + resourceType + ", supported types are Host, VirtualMachine, StoragePool and ImageStore");
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getMetric() {
+        return metric;
+    }
+
+    public Date getStartDate() {
+        return startDate;
+    }
+
+    /////////////////////////////////////////////////////
+    /////////////// API Implementation///////////////////
+    /////////////////////////////////////////////////////
+
+    @Override
+    public String getCommandName() {
+        return s_name;
+    }
+
+    @Override
+    public long getEntityOwnerId() {
+        return Account.ACCOUNT_ID_SYSTEM;
+    }
+
+    @Override
+    public void execute() {
+        List<? extends StatsSeries> result = _mgr.listStatsHistory(this);
+
+        ListResponse<StatsSeriesResponse> response = new ListResponse<StatsSeriesResponse>();
+        List<StatsSeriesResponse> seriesResponses = new ArrayList<StatsSeriesResponse>();
+        for (StatsSeries series : result) {
+            StatsSeriesResponse seriesResponse = new StatsSeriesResponse();
+            seriesResponse.setResourceType(series.getResourceType().name());
+            seriesResponse.setResourceId(series.getResourceUuid());
+            seriesResponse.setMetric(series.getMetric());
+            seriesResponse.setInterval(series.getInterval() / 1000);
+
+            long[] timestamps = series.getTimestamps();
+            double[] values = series.getValues();
+            List<StatsSampleResponse> samples = new ArrayList<StatsSampleResponse>(timestamps.length);
+            for (int i = 0; i < timestamps.length; i++) {
+                samples.add(new StatsSampleResponse(new Date(timestamps[i]), values[i]));
+            }
+            seriesResponse.setSamples(samples);
+            seriesResponse.setObjectName("statsseries");
+            seriesResponses.add(seriesResponse);
+        }
+        response.setResponses(seriesResponses);
+        response.setResponseName(getCommandName());
+        setResponseObject(response);
+    }
+}
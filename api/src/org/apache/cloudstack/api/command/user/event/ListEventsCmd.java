@@ -65,6 +65,10 @@ public class ListEventsCmd extends BaseListProjectAndAccountResourcesCmd {
     @Parameter(name = ApiConstants.TYPE, type = CommandType.STRING, description = "the event type (see event types)")
     private String type;
 
+    @Parameter(name = ApiConstants.START_AFTER, type = CommandType.STRING, description = "list the events following this position, "
+        + "the nextstartafter value of the previous page. Pages are fetched by position instead of page number and the total count is not returned", since = "4.6")
+    private String startAfter;
+
     /////////////////////////////////////////////////////
     /////////////////// Accessors ///////////////////////
     /////////////////////////////////////////////////////
@@ -97,6 +101,10 @@ public class ListEventsCmd extends BaseListProjectAndAccountResourcesCmd {
         return type;
     }
 
+    public String getStartAfter() {
+        return startAfter;
+    }
+
     /////////////////////////////////////////////////////
     /////////////// API Implementation///////////////////
     /////////////////////////////////////////////////////
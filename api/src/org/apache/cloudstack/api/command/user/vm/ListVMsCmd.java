@@ -129,6 +129,10 @@ public class ListVMsCmd extends BaseListTaggedResourcesCmd {
     @Parameter(name = "simple", type = CommandType.BOOLEAN, description = "List only basic VM data")
     private boolean simple;
 
+    @Parameter(name = ApiConstants.START_AFTER, type = CommandType.STRING, description = "list the virtual machines following this position, "
+        + "the nextstartafter value of the previous page. Pages are fetched by position instead of page number and the total count is not returned", since = "4.6")
+    private String startAfter;
+
     /////////////////////////////////////////////////////
     /////////////////// Accessors ///////////////////////
     /////////////////////////////////////////////////////
@@ -216,6 +220,11 @@ public class ListVMsCmd extends BaseListTaggedResourcesCmd {
         }
         return super.getDisplay();
     }
+
+    public String getStartAfter() {
+        return startAfter;
+    }
+
     /////////////////////////////////////////////////////
     /////////////// API Implementation///////////////////
     /////////////////////////////////////////////////////
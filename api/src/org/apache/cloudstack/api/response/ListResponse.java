@@ -24,6 +24,7 @@ import org.apache.cloudstack.api.ResponseObject;
 public class ListResponse<T extends ResponseObject> extends BaseResponse {
     List<T> responses;
     private transient Integer count;
+    private transient String nextStartAfter;
 
     public ListResponse(){
         buildCurrentContext();
@@ -53,4 +54,16 @@ public class ListResponse<T extends ResponseObject> extends BaseResponse {
 
         return null;
     }
+
+    /**
+     * @return position of the last response, to be passed as startafter to
+     *         fetch the following page, null if this is the last page
+     */
+    public String getNextStartAfter() {
+        return nextStartAfter;
+    }
+
+    public void setNextStartAfter(String nextStartAfter) {
+        this.nextStartAfter = nextStartAfter;
+    }
 }
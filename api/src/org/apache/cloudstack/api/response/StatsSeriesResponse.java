@@ -0,0 +1,89 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.api.response;
+
+import java.util.List;
+
+import com.google.gson.annotations.SerializedName;
+
+import org.apache.cloudstack.api.ApiConstants;
+import org.apache.cloudstack.api.BaseResponse;
+
+import com.cloud.serializer.Param;
+
+public class StatsSeriesResponse extends BaseResponse {
+
+    @SerializedName(ApiConstants.RESOURCE_TYPE)
+    @Param(description = "the type of the resource")
+    private String resourceType;
+
+    @SerializedName(ApiConstants.RESOURCE_ID)
+    @Param(description = "the ID of the resource")
+    private String resourceId;
+
+    @SerializedName(ApiConstants.METRIC)
+    @Param(description = "the name of the metric")
+    private String metric;
+
+    @SerializedName(ApiConstants.INTERVAL)
+    @Param(description = "the interval in seconds each sample covers")
+    private long interval;
+
+    @SerializedName(ApiConstants.SAMPLES)
+    @Param(description = "the samples of the metric, oldest first", responseObject = StatsSampleResponse.class)
+    private List<StatsSampleResponse> samples;
+
+    public String getResourceType() {
+        return resourceType;
+    }
+
+    public void setResourceType(String resourceType) {
+        this.resourceType = resourceType;
+    }
+
+    public String getResourceId() {
+        return resourceId;
+    }
+
+    public void setResourceId(String resourceId) {
+        this.resourceId = resourceId;
+    }
+
+    public String getMetric() {
+        return metric;
+    }
+
+    public void setMetric(String metric) {
+        this.metric = metric;
+    }
+
+    public long getInterval() {
+        return interval;
+    }
+
+    public void setInterval(long interval) {
+        this.interval = interval;
+    }
+
+    public List<StatsSampleResponse> getSamples() {
+        return samples;
+    }
+
+    public void setSamples(List<StatsSampleResponse> samples) {
+        this.samples = samples;
+    }
+}
@@ -59,6 +59,8 @@ public class CallContext {
     private User user;
     private long userId;
     private final Map<Object, Object> context = new HashMap<Object, Object>();
+    // access decisions made for the calling account, they are not passed on to async jobs
+    private final Map<String, Boolean> accessDecisions = new HashMap<String, Boolean>();
 
     private String ndcContext;
 
@@ -93,6 +95,17 @@ public class CallContext {
         return context.get(key);
     }
 
+    /**
+     * @return whether the calling account was granted the capability earlier in this call, null if it was not checked yet
+     */
+    public Boolean getAccessDecision(String capability) {
+        return accessDecisions.get(capability);
+    }
+
+    public void putAccessDecision(String capability, boolean granted) {
+        accessDecisions.put(capability, granted);
+    }
+
     public long getCallingUserId() {
         return userId;
     }
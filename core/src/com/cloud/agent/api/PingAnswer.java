@@ -22,6 +22,10 @@ package com.cloud.agent.api;
 public class PingAnswer extends Answer {
     private PingCommand _command = null;
 
+    // Set by management servers that take VM state reports as deltas.
+    private boolean _vmStateReportDeltaSupported;
+    private boolean _fullVmStateReportNeeded;
+
     protected PingAnswer() {
     }
 
@@ -33,4 +37,20 @@ public class PingAnswer extends Answer {
     public PingCommand getCommand() {
         return _command;
     }
+
+    public boolean isVmStateReportDeltaSupported() {
+        return _vmStateReportDeltaSupported;
+    }
+
+    public void setVmStateReportDeltaSupported(boolean supported) {
+        _vmStateReportDeltaSupported = supported;
+    }
+
+    public boolean isFullVmStateReportNeeded() {
+        return _fullVmStateReportNeeded;
+    }
+
+    public void setFullVmStateReportNeeded(boolean needed) {
+        _fullVmStateReportNeeded = needed;
+    }
 }
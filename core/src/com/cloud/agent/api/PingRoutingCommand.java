@@ -19,14 +19,26 @@
 
 package com.cloud.agent.api;
 
+import java.util.List;
 import java.util.Map;
 
 import com.cloud.host.Host;
+import com.cloud.vm.VirtualMachine.PowerState;
 
 public class PingRoutingCommand extends PingCommand {
 
     Map<String, HostVmStateReportEntry> _hostVmStateReport;
 
+    // If set, _hostVmStateReport only holds the VMs that changed since the
+    // last report and _removedVms the VMs that are gone.
+    boolean _hostVmStateReportDelta;
+    List<String> _removedVms;
+    // Checksum of the complete VM state on the host, see vmStateChecksum().
+    long _hostVmStateChecksum;
+
+    // Set on the receiving side when the report doesn't match what it has.
+    transient boolean _fullVmStateReportNeeded;
+
     boolean _gatewayAccessible = true;
     boolean _vnetAccessible = true;
 
@@ -42,6 +54,64 @@ public class PingRoutingCommand extends PingCommand {
         return this._hostVmStateReport;
     }
 
+    public boolean isHostVmStateReportDelta() {
+        return _hostVmStateReportDelta;
+    }
+
+    public List<String> getRemovedVms() {
+        return _removedVms;
+    }
+
+    public long getHostVmStateChecksum() {
+        return _hostVmStateChecksum;
+    }
+
+    public void setHostVmStateChecksum(long checksum) {
+        _hostVmStateChecksum = checksum;
+    }
+
+    /**
+     * Replaces the full report by the changes since the last report.
+     */
+    public void setHostVmStateReportDelta(Map<String, HostVmStateReportEntry> changedVms, List<String> removedVms) {
+        _hostVmStateReport = changedVms;
+        _removedVms = removedVms;
+        _hostVmStateReportDelta = true;
+    }
+
+    public boolean isFullVmStateReportNeeded() {
+        return _fullVmStateReportNeeded;
+    }
+
+    public void setFullVmStateReportNeeded(boolean needed) {
+        _fullVmStateReportNeeded = needed;
+    }
+
+    /**
+     * The checksum of a VM state report is the sum of this over its VMs, so
+     * that it doesn't depend on the order of the VMs and can be kept up to
+     * date one VM at a time.
+     */
+    public static long vmStateChecksum(String vmName, PowerState state) {
+        long h = vmName.hashCode() * 0x9E3779B97F4A7C15L + (state != null ? state.name().hashCode() : 0);
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    public static long vmStateChecksum(Map<String, HostVmStateReportEntry> report) {
+        long checksum = 0;
+        if (report != null) {
+            for (Map.Entry<String, HostVmStateReportEntry> entry : report.entrySet()) {
+                checksum += vmStateChecksum(entry.getKey(), entry.getValue().getState());
+            }
+        }
+        return checksum;
+    }
+
     public boolean isGatewayAccessible() {
         return _gatewayAccessible;
     }
@@ -0,0 +1,918 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.agent.transport;
+
+import java.io.Externalizable;
+import java.io.Serializable;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.log4j.Logger;
+
+import com.google.gson.annotations.Since;
+import com.google.gson.annotations.Until;
+
+import com.cloud.utils.exception.CloudRuntimeException;
+
+/**
+ * BinaryCodec encodes commands and answers in a compact tagged binary format
+ * and is what Request uses for Version.v4.  It is meant to carry the same
+ * content as the Gson encoding, only cheaper to produce and to parse:
+ *   - The fields of a class are looked up once and cached.
+ *   - The first object of a class in a message carries the class name and
+ *     the names of its fields.  The following ones only refer to it.
+ *   - Every value is tagged with its type so the receiving side can skip
+ *     fields it doesn't know and leave the fields it didn't receive alone.
+ *     This is what lets the agent and the management server run different
+ *     versions of a command class.
+ *   - Like Gson, null fields are not set and static, transient, synthetic
+ *     and version excluded fields are not sent.
+ *
+ * Encoding fails with an IllegalArgumentException for values it doesn't
+ * know how to carry, e.g. JDK classes other than the boxed primitives,
+ * strings, dates, collections and maps, anonymous and local classes, and
+ * collections and maps the decoding side can't rebuild as they were, such
+ * as EnumSet or a TreeMap with a comparator, and cyclic object graphs.
+ * Request then falls back to Gson.
+ *
+ * Decoding checks every length and count against the bytes left and limits
+ * the nesting, so a malformed message fails with a CloudRuntimeException.
+ * Only classes of com.cloud and org.apache.cloudstack, and the JDK value
+ * types arrays are made of, are carried by name.  The decoder loads them
+ * without initializing them and only creates an object when its class fits
+ * where it is decoded to.
+ *
+ * encode(values, true) is for values that would otherwise be Java serialized.
+ * It also rejects what wouldn't decode as Java serialization decodes it:
+ * classes with a super class that isn't Serializable, Externalizable classes,
+ * serialization methods such as writeObject or readResolve, @Since and @Until
+ * fields, inner classes, fields hidden by a field of the same name, no-arg
+ * constructors that set fields a null or transient field would keep, and
+ * objects referenced more than once.
+ */
+public class BinaryCodec {
+    private static final Logger s_logger = Logger.getLogger(BinaryCodec.class);
+
+    protected static final byte FORMAT = 1;
+    // The version GsonHelper configures Gson with, for @Since and @Until.
+    protected static final double GSON_VERSION = 1.5;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    protected static final byte NULL = 0;
+    protected static final byte TRUE = 1;
+    protected static final byte FALSE = 2;
+    protected static final byte BYTE = 3;
+    protected static final byte SHORT = 4;
+    protected static final byte CHAR = 5;
+    protected static final byte INT = 6;
+    protected static final byte LONG = 7;
+    protected static final byte FLOAT = 8;
+    protected static final byte DOUBLE = 9;
+    protected static final byte STRING = 10;
+    protected static final byte ENUM = 11;
+    protected static final byte DATE = 12;
+    protected static final byte BYTES = 13;
+    protected static final byte ARRAY = 14;
+    protected static final byte LIST = 15;
+    protected static final byte SET = 16;
+    protected static final byte MAP = 17;
+    protected static final byte OBJECT = 18;
+
+    // Deeper than any command, it keeps a malformed message from overflowing the stack.
+    protected static final int MAX_DEPTH = 256;
+
+    private static final Map<Class<?>, ClassInfo> s_classInfos = new ConcurrentHashMap<Class<?>, ClassInfo>();
+    private static final Map<String, Class<?>> s_primitives = new HashMap<String, Class<?>>();
+    // The JDK classes that may be named in the content, as the component type of arrays.
+    private static final Set<String> s_jdkValueTypes = new HashSet<String>();
+    static {
+        for (Class<?> clazz : new Class<?>[] {boolean.class, byte.class, short.class, char.class, int.class, long.class, float.class, double.class}) {
+            s_primitives.put(clazz.getName(), clazz);
+        }
+        for (Class<?> clazz : new Class<?>[] {Object.class, String.class, Boolean.class, Byte.class, Short.class, Character.class, Integer.class, Long.class,
+            Float.class, Double.class, Number.class, Date.class}) {
+            s_jdkValueTypes.add(clazz.getName());
+        }
+    }
+
+    private static final String[] SERIALIZATION_METHODS = {"writeObject", "readObject", "readObjectNoData", "writeReplace", "readResolve"};
+
+    private static Object s_unsafe;
+    private static Method s_allocateInstance;
+
+    /**
+     * @param cmds commands or answers to encode.
+     * @return the encoded commands.
+     * @throws IllegalArgumentException if the commands contain something that can't be encoded.
+     */
+    public static byte[] encode(Object[] cmds) {
+        return encode(cmds, false);
+    }
+
+    /**
+     * @param values values to encode.
+     * @param serializable whether to only encode values that decode the way Java serialization decodes them.
+     * @return the encoded values.
+     * @throws IllegalArgumentException if the values contain something that can't be encoded.
+     */
+    public static byte[] encode(Object[] values, boolean serializable) {
+        Encoder encoder = new Encoder(serializable);
+        encoder._out.write(FORMAT);
+        encoder.writeValue(values);
+        return encoder._out.toByteArray();
+    }
+
+    public static Object[] decode(byte[] bytes, int offset, int length) {
+        Decoder decoder = new Decoder(bytes, offset, length);
+        byte format = decoder.readByte();
+        if (format != FORMAT) {
+            throw new CloudRuntimeException("Unsupported binary format " + format);
+        }
+        Object values = decoder.readValue(Object[].class);
+        if (!(values instanceof Object[])) {
+            throw new CloudRuntimeException("Binary content doesn't hold an array");
+        }
+        return (Object[])values;
+    }
+
+    protected static ClassInfo getClassInfo(Class<?> clazz) {
+        ClassInfo info = s_classInfos.get(clazz);
+        if (info == null) {
+            info = new ClassInfo(clazz);
+            s_classInfos.put(clazz, info);
+        }
+        return info;
+    }
+
+    /**
+     * @return true if the class may be named in binary content.
+     */
+    protected static boolean isNamedClass(String name) {
+        String component = name;
+        if (name.startsWith("[")) {
+            component = name.substring(name.lastIndexOf('[') + 1);
+            if (component.length() == 1) {
+                // an array of primitives
+                return true;
+            }
+            if (!component.startsWith("L") || !component.endsWith(";")) {
+                return false;
+            }
+            component = component.substring(1, component.length() - 1);
+        }
+        return s_primitives.containsKey(component) || s_jdkValueTypes.contains(component) || component.startsWith("com.cloud.") ||
+            component.startsWith("org.apache.cloudstack.");
+    }
+
+    protected static boolean isJdkClass(Class<?> clazz) {
+        String name = clazz.getName();
+        return name.startsWith("java.") || name.startsWith("javax.") || name.startsWith("sun.") || name.startsWith("com.sun.");
+    }
+
+    /**
+     * Fields and constructor of a class, looked up once.
+     */
+    protected static class ClassInfo {
+        final Class<?> _clazz;
+        final Field[] _fields;
+        final String[] _names;
+        final Map<String, Field> _fieldsByName = new HashMap<String, Field>();
+        final Constructor<?> _constructor;
+        private volatile String _serializationIssue;
+        private volatile boolean _serializationChecked;
+
+        ClassInfo(Class<?> clazz) {
+            _clazz = clazz;
+            List<Field> fields = new ArrayList<Field>();
+            for (Class<?> c = clazz; c != null && c != Object.class; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    if (isExcluded(field) || _fieldsByName.containsKey(field.getName())) {
+                        continue;
+                    }
+                    field.setAccessible(true);
+                    fields.add(field);
+                    _fieldsByName.put(field.getName(), field);
+                }
+            }
+            _fields = fields.toArray(new Field[fields.size()]);
+            _names = new String[_fields.length];
+            for (int i = 0; i < _fields.length; i++) {
+                _names[i] = _fields[i].getName();
+            }
+
+            Constructor<?> constructor = null;
+            try {
+                constructor = clazz.getDeclaredConstructor();
+                constructor.setAccessible(true);
+            } catch (NoSuchMethodException e) {
+                // Created without running a constructor, as Gson does.
+            }
+            _constructor = constructor;
+        }
+
+        static boolean isExcluded(Field field) {
+            int modifiers = field.getModifiers();
+            if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.isSynthetic()) {
+                return true;
+            }
+            Since since = field.getAnnotation(Since.class);
+            if (since != null && since.value() > GSON_VERSION) {
+                return true;
+            }
+            Until until = field.getAnnotation(Until.class);
+            return until != null && until.value() <= GSON_VERSION;
+        }
+
+        Object newInstance() {
+            try {
+                if (_constructor != null) {
+                    return _constructor.newInstance();
+                }
+                return allocateInstance(_clazz);
+            } catch (Exception e) {
+                throw new CloudRuntimeException("Unable to create an instance of " + _clazz.getName(), e);
+            }
+        }
+
+        /**
+         * @return why instances wouldn't decode as they do with Java serialization, or null if they would.
+         */
+        String getSerializationIssue() {
+            if (!_serializationChecked) {
+                _serializationIssue = findSerializationIssue();
+                _serializationChecked = true;
+            }
+            return _serializationIssue;
+        }
+
+        String findSerializationIssue() {
+            if (Externalizable.class.isAssignableFrom(_clazz)) {
+                return "is Externalizable";
+            }
+            List<Field> unsent = new ArrayList<Field>();
+            for (Class<?> c = _clazz; c != null && c != Object.class; c = c.getSuperclass()) {
+                if (!Serializable.class.isAssignableFrom(c)) {
+                    // Java serialization runs the constructor of the super class instead of restoring its fields.
+                    return "extends " + c.getName() + " which isn't Serializable";
+                }
+                for (Method method : c.getDeclaredMethods()) {
+                    for (String name : SERIALIZATION_METHODS) {
+                        if (method.getName().equals(name)) {
+                            return "declares " + name + "()";
+                        }
+                    }
+                }
+                for (Field field : c.getDeclaredFields()) {
+                    if (Modifier.isStatic(field.getModifiers())) {
+                        continue;
+                    }
+                    if (field.isSynthetic()) {
+                        return "refers to its enclosing instance";
+                    }
+                    if (field.isAnnotationPresent(Since.class) || field.isAnnotationPresent(Until.class)) {
+                        return "has the versioned field " + field.getName();
+                    }
+                    if (!isExcluded(field) && !field.equals(_fieldsByName.get(field.getName()))) {
+                        return "has more than one field named " + field.getName();
+                    }
+                    // Primitive fields that are sent are always set, the others keep what the constructor set.
+                    if (!field.getType().isPrimitive() || !field.equals(_fieldsByName.get(field.getName()))) {
+                        unsent.add(field);
+                    }
+                }
+            }
+            if (_constructor == null) {
+                return null;
+            }
+            Object instance = newInstance();
+            try {
+                for (Field field : unsent) {
+                    field.setAccessible(true);
+                    Object value = field.get(instance);
+                    Object zero = field.getType().isPrimitive() ? Array.get(Array.newInstance(field.getType(), 1), 0) : null;
+                    if (value != null && !value.equals(zero)) {
+                        return "has a constructor that sets " + field.getName();
+                    }
+                }
+            } catch (IllegalAccessException e) {
+                return "has fields that can't be read";
+            }
+            return null;
+        }
+    }
+
+    protected static synchronized Object allocateInstance(Class<?> clazz) throws Exception {
+        if (s_allocateInstance == null) {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            s_unsafe = field.get(null);
+            s_allocateInstance = unsafeClass.getMethod("allocateInstance", Class.class);
+        }
+        return s_allocateInstance.invoke(s_unsafe, clazz);
+    }
+
+    protected static class Output {
+        byte[] _buf = new byte[1024];
+        int _len = 0;
+
+        void ensure(int n) {
+            if (_len + n > _buf.length) {
+                byte[] buf = new byte[Math.max(_buf.length * 2, _len + n)];
+                System.arraycopy(_buf, 0, buf, 0, _len);
+                _buf = buf;
+            }
+        }
+
+        void write(int b) {
+            ensure(1);
+            _buf[_len++] = (byte)b;
+        }
+
+        void write(byte[] bytes) {
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, _buf, _len, bytes.length);
+            _len += bytes.length;
+        }
+
+        void writeVarLong(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                _buf[_len++] = (byte)((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            _buf[_len++] = (byte)value;
+        }
+
+        void writeZigZag(long value) {
+            writeVarLong((value << 1) ^ (value >> 63));
+        }
+
+        void writeString(String value) {
+            byte[] bytes = value.getBytes(UTF8);
+            writeVarLong(bytes.length);
+            write(bytes);
+        }
+
+        byte[] toByteArray() {
+            byte[] bytes = new byte[_len];
+            System.arraycopy(_buf, 0, bytes, 0, _len);
+            return bytes;
+        }
+    }
+
+    protected static class Encoder {
+        final Output _out = new Output();
+        final Map<Class<?>, Integer> _classIds = new HashMap<Class<?>, Integer>();
+        final Set<Class<?>> _described = new HashSet<Class<?>>();
+        // The containers and objects being written, to detect cycles.
+        final Map<Object, Boolean> _path = new IdentityHashMap<Object, Boolean>();
+        final boolean _serializable;
+        // Every container and object written, Java serialization decodes shared ones as a single instance.
+        final Map<Object, Boolean> _written;
+
+        Encoder(boolean serializable) {
+            _serializable = serializable;
+            _written = serializable ? new IdentityHashMap<Object, Boolean>() : null;
+        }
+
+        void enter(Object value) {
+            if (_path.put(value, Boolean.TRUE) != null) {
+                throw new IllegalArgumentException("Cyclic reference to an instance of " + value.getClass().getName());
+            }
+            if (_serializable && _written.put(value, Boolean.TRUE) != null) {
+                throw new IllegalArgumentException("Shared reference to an instance of " + value.getClass().getName());
+            }
+        }
+
+        void exit(Object value) {
+            _path.remove(value);
+        }
+
+        void writeClass(Class<?> clazz) {
+            Integer id = _classIds.get(clazz);
+            if (id != null) {
+                _out.writeVarLong(id);
+                return;
+            }
+            if (!isNamedClass(clazz.getName())) {
+                throw new IllegalArgumentException("Unsupported class " + clazz.getName());
+            }
+            id = _classIds.size();
+            _classIds.put(clazz, id);
+            _out.writeVarLong(id);
+            _out.writeString(clazz.getName());
+        }
+
+        void writeValue(Object value) {
+            writeValue(value, Object.class);
+        }
+
+        /**
+         * @param type the declared type of the value, which is what the decoding side
+         *     rebuilds collections and maps from.
+         */
+        void writeValue(Object value, Class<?> type) {
+            if (value == null) {
+                _out.write(NULL);
+            } else if (value instanceof String) {
+                _out.write(STRING);
+                _out.writeString((String)value);
+            } else if (value instanceof Boolean) {
+                _out.write((Boolean)value ? TRUE : FALSE);
+            } else if (value instanceof Integer) {
+                _out.write(INT);
+                _out.writeZigZag((Integer)value);
+            } else if (value instanceof Long) {
+                _out.write(LONG);
+                _out.writeZigZag((Long)value);
+            } else if (value instanceof Enum) {
+                _out.write(ENUM);
+                writeClass(((Enum<?>)value).getDeclaringClass());
+                _out.writeString(((Enum<?>)value).name());
+            } else if (value instanceof Double) {
+                _out.write(DOUBLE);
+                _out.writeVarLong(Double.doubleToRawLongBits((Double)value));
+            } else if (value instanceof Float) {
+                _out.write(FLOAT);
+                _out.writeVarLong(Float.floatToRawIntBits((Float)value) & 0xFFFFFFFFL);
+            } else if (value instanceof Short) {
+                _out.write(SHORT);
+                _out.writeZigZag((Short)value);
+            } else if (value instanceof Byte) {
+                _out.write(BYTE);
+                _out.write((Byte)value);
+            } else if (value instanceof Character) {
+                _out.write(CHAR);
+                _out.writeVarLong((Character)value);
+            } else if (value.getClass() == Date.class) {
+                _out.write(DATE);
+                _out.writeZigZag(((Date)value).getTime());
+            } else if (value instanceof byte[]) {
+                byte[] bytes = (byte[])value;
+                _out.write(BYTES);
+                _out.writeVarLong(bytes.length);
+                _out.write(bytes);
+            } else if (value.getClass().isArray()) {
+                enter(value);
+                int length = Array.getLength(value);
+                _out.write(ARRAY);
+                writeClass(value.getClass().getComponentType());
+                _out.writeVarLong(length);
+                Class<?> component = value.getClass().getComponentType();
+                for (int i = 0; i < length; i++) {
+                    writeValue(Array.get(value, i), component);
+                }
+                exit(value);
+            } else if (value instanceof Collection) {
+                checkCollection((Collection<?>)value, type);
+                enter(value);
+                Collection<?> collection = (Collection<?>)value;
+                _out.write(value instanceof Set ? SET : LIST);
+                _out.writeVarLong(collection.size());
+                for (Object element : collection) {
+                    writeValue(element);
+                }
+                exit(value);
+            } else if (value instanceof Map) {
+                checkMap((Map<?, ?>)value, type);
+                enter(value);
+                Map<?, ?> map = (Map<?, ?>)value;
+                _out.write(MAP);
+                _out.writeVarLong(map.size());
+                for (Map.Entry<?, ?> entry : map.entrySet()) {
+                    writeValue(entry.getKey());
+                    writeValue(entry.getValue());
+                }
+                exit(value);
+            } else {
+                enter(value);
+                writeObject(value);
+                exit(value);
+            }
+        }
+
+        void checkJdkContainer(Object value) {
+            if (!isJdkClass(value.getClass())) {
+                throw new IllegalArgumentException("Unsupported container " + value.getClass().getName());
+            }
+        }
+
+        void checkCollection(Collection<?> value, Class<?> type) {
+            checkJdkContainer(value);
+            if (value instanceof EnumSet) {
+                // The element type of an empty EnumSet is lost.
+                throw new IllegalArgumentException("Unsupported container " + value.getClass().getName());
+            }
+            if (value instanceof SortedSet && ((SortedSet<?>)value).comparator() != null) {
+                throw new IllegalArgumentException("Unsupported comparator of " + value.getClass().getName());
+            }
+            Class<?> decoded = Decoder.collectionClass(type, value instanceof Set);
+            if (!type.isAssignableFrom(decoded) || (value instanceof SortedSet && !SortedSet.class.isAssignableFrom(decoded))) {
+                throw new IllegalArgumentException(value.getClass().getName() + " would be decoded as " + decoded.getName());
+            }
+        }
+
+        void checkMap(Map<?, ?> value, Class<?> type) {
+            checkJdkContainer(value);
+            if (value instanceof EnumMap) {
+                throw new IllegalArgumentException("Unsupported container " + value.getClass().getName());
+            }
+            if (value instanceof SortedMap && ((SortedMap<?, ?>)value).comparator() != null) {
+                throw new IllegalArgumentException("Unsupported comparator of " + value.getClass().getName());
+            }
+            Class<?> decoded = Decoder.mapClass(type);
+            if (!type.isAssignableFrom(decoded) || (value instanceof SortedMap && !SortedMap.class.isAssignableFrom(decoded))) {
+                throw new IllegalArgumentException(value.getClass().getName() + " would be decoded as " + decoded.getName());
+            }
+        }
+
+        void writeObject(Object value) {
+            Class<?> clazz = value.getClass();
+            // Entities enhanced by cglib are sent as the entity class.
+            while (clazz.getName().contains("$$")) {
+                clazz = clazz.getSuperclass();
+            }
+            if (isJdkClass(clazz)) {
+                throw new IllegalArgumentException("Unsupported class " + clazz.getName());
+            }
+            if (clazz.isAnonymousClass() || clazz.isLocalClass()) {
+                // Gson leaves these out, which would silently drop the value.
+                throw new IllegalArgumentException("Unsupported anonymous or local class " + clazz.getName());
+            }
+
+            ClassInfo info = getClassInfo(clazz);
+            if (_serializable) {
+                if (clazz != value.getClass()) {
+                    throw new IllegalArgumentException("Unsupported enhanced class " + value.getClass().getName());
+                }
+                String issue = info.getSerializationIssue();
+                if (issue != null) {
+                    throw new IllegalArgumentException(clazz.getName() + " " + issue);
+                }
+            }
+            _out.write(OBJECT);
+            writeClass(clazz);
+            if (_described.add(clazz)) {
+                _out.writeVarLong(info._names.length);
+                for (String name : info._names) {
+                    _out.writeString(name);
+                }
+            }
+            try {
+                for (Field field : info._fields) {
+                    writeValue(field.get(value), field.getType());
+                }
+            } catch (IllegalAccessException e) {
+                throw new IllegalArgumentException("Unable to read the fields of " + clazz.getName(), e);
+            }
+        }
+    }
+
+    protected static class Decoder {
+        final byte[] _buf;
+        int _pos;
+        final int _end;
+        final List<String> _classNames = new ArrayList<String>();
+        final List<Class<?>> _classes = new ArrayList<Class<?>>();
+        final Map<Integer, Field[]> _schemas = new HashMap<Integer, Field[]>();
+        int _depth;
+
+        Decoder(byte[] buf, int offset, int length) {
+            _buf = buf;
+            _pos = offset;
+            _end = offset + length;
+        }
+
+        byte readByte() {
+            if (_pos >= _end) {
+                throw new CloudRuntimeException("Unexpected end of binary content");
+            }
+            return _buf[_pos++];
+        }
+
+        long readVarLong() {
+            long value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = readByte();
+                value |= (long)(b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return value;
+        }
+
+        long readZigZag() {
+            long value = readVarLong();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        int readLength() {
+            long length = readVarLong();
+            if (length < 0 || length > _end - _pos) {
+                throw new CloudRuntimeException("Invalid length " + length + " in binary content");
+            }
+            return (int)length;
+        }
+
+        /**
+         * @return the number of elements, fields or entries that follow, each of which takes at least a byte.
+         */
+        int readCount() {
+            long count = readVarLong();
+            if (count < 0 || count > _end - _pos) {
+                throw new CloudRuntimeException("Invalid count " + count + " in binary content");
+            }
+            return (int)count;
+        }
+
+        String readString() {
+            int length = readLength();
+            String value = new String(_buf, _pos, length, UTF8);
+            _pos += length;
+            return value;
+        }
+
+        /**
+         * @return the index of the class; the class itself may be null if it isn't known here.
+         */
+        int readClass() {
+            long id = readVarLong();
+            if (id == _classNames.size()) {
+                String name = readString();
+                _classNames.add(name);
+                _classes.add(loadClass(name));
+            } else if (id < 0 || id > _classNames.size()) {
+                throw new CloudRuntimeException("Invalid class reference " + id + " in binary content");
+            }
+            return (int)id;
+        }
+
+        Class<?> loadClass(String name) {
+            Class<?> clazz = s_primitives.get(name);
+            if (clazz != null) {
+                return clazz;
+            }
+            if (!isNamedClass(name)) {
+                throw new CloudRuntimeException("Unsupported class " + name + " in binary content");
+            }
+            try {
+                // not initialized, a class only gets initialized once an instance of it is created
+                return Class.forName(name, false, BinaryCodec.class.getClassLoader());
+            } catch (ClassNotFoundException e) {
+                s_logger.debug("Unable to find " + name + " while decoding binary content");
+                return null;
+            }
+        }
+
+        Object readValue(Class<?> type) {
+            if (++_depth > MAX_DEPTH) {
+                throw new CloudRuntimeException("Binary content is nested deeper than " + MAX_DEPTH);
+            }
+            try {
+                return readTaggedValue(type);
+            } finally {
+                _depth--;
+            }
+        }
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Object readTaggedValue(Class<?> type) {
+            byte tag = readByte();
+            switch (tag) {
+            case NULL:
+                return null;
+            case TRUE:
+                return Boolean.TRUE;
+            case FALSE:
+                return Boolean.FALSE;
+            case BYTE:
+                return readByte();
+            case SHORT:
+                return (short)readZigZag();
+            case CHAR:
+                return (char)readVarLong();
+            case INT:
+                return (int)readZigZag();
+            case LONG:
+                return readZigZag();
+            case FLOAT:
+                return Float.intBitsToFloat((int)readVarLong());
+            case DOUBLE:
+                return Double.longBitsToDouble(readVarLong());
+            case STRING:
+                return readString();
+            case DATE:
+                return new Date(readZigZag());
+            case ENUM: {
+                Class<?> clazz = _classes.get(readClass());
+                String name = readString();
+                if (clazz == null || !clazz.isEnum() || (type != null && !type.isAssignableFrom(clazz))) {
+                    return null;
+                }
+                try {
+                    return Enum.valueOf((Class<Enum>)clazz, name);
+                } catch (IllegalArgumentException e) {
+                    s_logger.debug("Unknown constant " + name + " of " + clazz.getName());
+                    return null;
+                }
+            }
+            case BYTES: {
+                int length = readLength();
+                byte[] bytes = new byte[length];
+                System.arraycopy(_buf, _pos, bytes, 0, length);
+                _pos += length;
+                return bytes;
+            }
+            case ARRAY: {
+                int id = readClass();
+                Class<?> component = _classes.get(id);
+                if (component == null) {
+                    throw new CloudRuntimeException("Unable to find " + _classNames.get(id));
+                }
+                int length = readCount();
+                Object array = Array.newInstance(component, length);
+                for (int i = 0; i < length; i++) {
+                    Object element = readValue(component);
+                    if (element != null || !component.isPrimitive()) {
+                        Array.set(array, i, element);
+                    }
+                }
+                return array;
+            }
+            case LIST:
+            case SET: {
+                int size = readCount();
+                Collection collection = newCollection(type, tag == SET);
+                for (int i = 0; i < size; i++) {
+                    collection.add(readValue(Object.class));
+                }
+                return collection;
+            }
+            case MAP: {
+                int size = readCount();
+                Map map = newMap(type);
+                for (int i = 0; i < size; i++) {
+                    Object key = readValue(Object.class);
+                    map.put(key, readValue(Object.class));
+                }
+                return map;
+            }
+            case OBJECT:
+                return readObject(type);
+            default:
+                throw new CloudRuntimeException("Unknown tag " + tag + " in binary content");
+            }
+        }
+
+        Object readObject(Class<?> type) {
+            int id = readClass();
+            Class<?> known = _classes.get(id);
+            Class<?> clazz = known;
+            if (clazz == null && type != null && !type.isInterface() && !Modifier.isAbstract(type.getModifiers()) && type != Object.class) {
+                clazz = type;
+            } else if (clazz != null && type != null && !type.isAssignableFrom(clazz)) {
+                s_logger.debug("Skipping an instance of " + clazz.getName() + " where a " + type.getName() + " is expected");
+                clazz = null;
+            }
+
+            Field[] fields = _schemas.get(id);
+            if (fields == null) {
+                int count = readCount();
+                fields = new Field[count];
+                // The schema is shared by every instance of the class in the content, whatever they are decoded to.
+                ClassInfo info = known != null ? getClassInfo(known) : clazz != null ? getClassInfo(clazz) : null;
+                for (int i = 0; i < count; i++) {
+                    String name = readString();
+                    fields[i] = info != null ? info._fieldsByName.get(name) : null;
+                }
+                _schemas.put(id, fields);
+            }
+
+            Object object = clazz != null ? getClassInfo(clazz).newInstance() : null;
+            for (Field field : fields) {
+                Object value = readValue(field != null ? field.getType() : Object.class);
+                if (object == null || field == null || value == null) {
+                    continue;
+                }
+                try {
+                    field.set(object, value);
+                } catch (IllegalArgumentException e) {
+                    s_logger.debug("Skipping " + field + " which can't be set to a " + value.getClass().getName());
+                } catch (IllegalAccessException e) {
+                    throw new CloudRuntimeException("Unable to set " + field, e);
+                }
+            }
+            if (object == null) {
+                s_logger.debug("Dropped an instance of " + _classNames.get(id) + " which isn't known here");
+            }
+            return object;
+        }
+
+        static boolean isInstantiable(Class<?> type) {
+            if (type.isInterface() || Modifier.isAbstract(type.getModifiers())) {
+                return false;
+            }
+            try {
+                type.getConstructor();
+                return true;
+            } catch (NoSuchMethodException e) {
+                return false;
+            }
+        }
+
+        /**
+         * @return the class of the collection decoded for a field of the type.
+         */
+        static Class<?> collectionClass(Class<?> type, boolean set) {
+            if (type != null && Collection.class.isAssignableFrom(type) && isInstantiable(type)) {
+                return type;
+            }
+            if (type != null && SortedSet.class.isAssignableFrom(type)) {
+                return TreeSet.class;
+            } else if (type != null && Set.class.isAssignableFrom(type)) {
+                return HashSet.class;
+            } else if (type != null && Queue.class.isAssignableFrom(type)) {
+                return LinkedList.class;
+            } else if (type != null && List.class.isAssignableFrom(type)) {
+                return ArrayList.class;
+            }
+            return set ? HashSet.class : ArrayList.class;
+        }
+
+        /**
+         * @return the class of the map decoded for a field of the type.
+         */
+        static Class<?> mapClass(Class<?> type) {
+            if (type != null && Map.class.isAssignableFrom(type) && isInstantiable(type)) {
+                return type;
+            }
+            if (type != null && SortedMap.class.isAssignableFrom(type)) {
+                return TreeMap.class;
+            }
+            return LinkedHashMap.class;
+        }
+
+        @SuppressWarnings("rawtypes")
+        static Collection newCollection(Class<?> type, boolean set) {
+            Class<?> clazz = collectionClass(type, set);
+            try {
+                return (Collection)clazz.newInstance();
+            } catch (Exception e) {
+                throw new CloudRuntimeException("Unable to create a " + clazz.getName(), e);
+            }
+        }
+
+        @SuppressWarnings("rawtypes")
+        static Map newMap(Class<?> type) {
+            Class<?> clazz = mapClass(type);
+            try {
+                return (Map)clazz.newInstance();
+            } catch (Exception e) {
+                throw new CloudRuntimeException("Unable to create a " + clazz.getName(), e);
+            }
+        }
+    }
+}
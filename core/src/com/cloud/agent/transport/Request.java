@@ -26,6 +26,7 @@ import java.io.StringReader;
 import java.lang.reflect.Type;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
@@ -72,6 +73,11 @@ import com.cloud.utils.exception.CloudRuntimeException;
  * 6. AgentId - 8 bytes;
  * 7. Data Package.
  *
+ * The data package is the commands or answers in json, or for Version.v4
+ * encoded by BinaryCodec.  Both sides set FLAG_BINARY_CAPABLE on what they
+ * send and only use the binary encoding once the other side has done the
+ * same, so either side can still talk to an older peer.
+ *
  */
 public class Request {
     private static final Logger s_logger = Logger.getLogger(Request.class);
@@ -79,11 +85,13 @@ public class Request {
     protected static final Gson s_gson = GsonHelper.getGson();
     protected static final Gson s_gogger = GsonHelper.getGsonLogger();
     protected static final Logger s_gsonLogger = GsonHelper.getLogger();
+    protected static final boolean s_binaryEnabled = !Boolean.getBoolean("cloud.agent.transport.gson.only");
 
     public enum Version {
         v1, // using gson to marshall
         v2, // now using gson as marshalled.
-        v3; // Adding routing information into the Request data structure.
+        v3, // Adding routing information into the Request data structure.
+        v4; // Binary encoding of the commands, see BinaryCodec.
 
         public static Version get(final byte ver) throws UnsupportedVersionException {
             for (final Version version : Version.values()) {
@@ -99,6 +107,7 @@ public class Request {
     protected static final short FLAG_REQUEST = 0x1;
     protected static final short FLAG_STOP_ON_ERROR = 0x2;
     protected static final short FLAG_IN_SEQUENCE = 0x4;
+    protected static final short FLAG_BINARY_CAPABLE = 0x10;
     protected static final short FLAG_FROM_SERVER = 0x20;
     protected static final short FLAG_CONTROL = 0x40;
     protected static final short FLAG_COMPRESSED = 0x80;
@@ -112,6 +121,7 @@ public class Request {
     protected long _agentId;
     protected Command[] _cmds;
     protected String _content;
+    protected byte[] _binary;
     protected String _agentName;
 
     protected Request() {
@@ -137,6 +147,11 @@ public class Request {
         _content = content;
     }
 
+    protected Request(Version ver, long seq, long agentId, long mgmtId, long via, short flags, final byte[] binary) {
+        this(ver, seq, agentId, mgmtId, via, flags, (Command[])null);
+        _binary = binary;
+    }
+
     public Request(long agentId, long mgmtId, Command command, boolean fromServer) {
         this(agentId, mgmtId, new Command[] {command}, true, fromServer);
     }
@@ -232,6 +247,13 @@ public class Request {
         return _seq;
     }
 
+    /**
+     * @return true if the sender can read requests encoded by BinaryCodec.
+     */
+    public boolean isBinaryCapable() {
+        return (_flags & FLAG_BINARY_CAPABLE) > 0;
+    }
+
     public boolean stopOnError() {
         return (_flags & FLAG_STOP_ON_ERROR) > 0;
     }
@@ -242,6 +264,9 @@ public class Request {
     }
 
     public Command[] getCommands() {
+        if (_cmds == null && _binary != null) {
+            _cmds = decodeBinary();
+        }
         if (_cmds == null) {
             try {
                 StringReader reader = new StringReader(_content);
@@ -256,13 +281,26 @@ public class Request {
         return _cmds;
     }
 
+    protected Command[] decodeBinary() {
+        try {
+            return (Command[])BinaryCodec.decode(_binary, 0, _binary.length);
+        } catch (RuntimeException e) {
+            s_logger.error("Caught problem decoding " + _binary.length + " bytes of binary content", e);
+            throw e;
+        }
+    }
+
     protected String getType() {
         return "Cmd ";
     }
 
     protected ByteBuffer serializeHeader(final int contentSize) {
+        return serializeHeader(_ver, contentSize);
+    }
+
+    protected ByteBuffer serializeHeader(final Version ver, final int contentSize) {
         final ByteBuffer buffer = ByteBuffer.allocate(40);
-        buffer.put(getVersionInByte());
+        buffer.put((byte)ver.ordinal());
         buffer.put((byte)0);
         buffer.putShort(getFlags());
         buffer.putLong(_seq);
@@ -322,13 +360,39 @@ public class Request {
     }
 
     public ByteBuffer[] toBytes() {
+        return toBytes(false);
+    }
+
+    /**
+     * @param binary true if the receiving side is binary capable.
+     * @return the header and the content of the request, encoded by BinaryCodec
+     *         if the receiving side is binary capable and the commands can be
+     *         encoded that way, in json otherwise.
+     */
+    public ByteBuffer[] toBytes(boolean binary) {
         final ByteBuffer[] buffers = new ByteBuffer[2];
         ByteBuffer tmp;
 
-        if (_content == null) {
-            _content = s_gson.toJson(_cmds, _cmds.getClass());
+        Version ver = _ver == Version.v4 ? Version.v1 : _ver;
+        if (binary && s_binaryEnabled && _binary == null && _cmds != null) {
+            try {
+                _binary = BinaryCodec.encode(_cmds);
+            } catch (IllegalArgumentException e) {
+                if (s_logger.isDebugEnabled()) {
+                    s_logger.debug("Sending seq " + _agentId + "-" + _seq + " in json: " + e.getMessage());
+                }
+            }
+        }
+        if (binary && s_binaryEnabled && _binary != null) {
+            ver = Version.v4;
+            tmp = ByteBuffer.wrap(_binary);
+        } else {
+            if (_content == null) {
+                Command[] cmds = this instanceof Response ? ((Response)this).getAnswers() : getCommands();
+                _content = s_gson.toJson(cmds, cmds.getClass());
+            }
+            tmp = ByteBuffer.wrap(_content.getBytes());
         }
-        tmp = ByteBuffer.wrap(_content.getBytes());
         int capacity = tmp.capacity();
         /* Check if we need to compress the data */
         if (capacity >= 8192) {
@@ -336,7 +400,7 @@ public class Request {
             _flags |= FLAG_COMPRESSED;
         }
         buffers[1] = tmp;
-        buffers[0] = serializeHeader(capacity);
+        buffers[0] = serializeHeader(ver, capacity);
 
         return buffers;
     }
@@ -351,12 +415,38 @@ public class Request {
         return bytes;
     }
 
+    /**
+     * Encodes a request or response received as Version.v4 in json again, for
+     * receivers that may not read BinaryCodec, such as other management servers.
+     * FLAG_BINARY_CAPABLE is cleared as well, it is only for an agent and the
+     * management server it is connected to to agree on.
+     * @param bytes request or response as received.
+     * @return the bytes as they were if they are in json and not flagged.
+     */
+    public static byte[] toJsonBytes(final byte[] bytes) throws ClassNotFoundException, UnsupportedVersionException {
+        byte[] json = bytes;
+        if (getVersion(bytes) == Version.v4) {
+            final Request req = parse(bytes);
+            // The content is compressed again if it needs to be.
+            req._flags &= ~FLAG_COMPRESSED;
+            json = req.getBytes();
+        }
+        if ((json[3] & FLAG_BINARY_CAPABLE) == 0) {
+            return json;
+        }
+        if (json == bytes) {
+            json = Arrays.copyOf(bytes, bytes.length);
+        }
+        json[3] &= ~FLAG_BINARY_CAPABLE;
+        return json;
+    }
+
     protected byte getVersionInByte() {
         return (byte)_ver.ordinal();
     }
 
     protected short getFlags() {
-        return (short)(((this instanceof Response) ? FLAG_RESPONSE : FLAG_REQUEST) | _flags);
+        return (short)(((this instanceof Response) ? FLAG_RESPONSE : FLAG_REQUEST) | (s_binaryEnabled ? FLAG_BINARY_CAPABLE : 0) | _flags);
     }
 
     public void logD(String msg) {
@@ -393,6 +483,9 @@ public class Request {
 
     protected String log(String msg, boolean logContent, Level level) {
         StringBuilder content = new StringBuilder();
+        if (_cmds == null && _binary != null) {
+            _cmds = decodeBinary();
+        }
         if (logContent) {
             if (_cmds == null) {
                 try {
@@ -485,7 +578,7 @@ public class Request {
         ByteBuffer buff = ByteBuffer.wrap(bytes);
         final byte ver = buff.get();
         final Version version = Version.get(ver);
-        if (version.ordinal() != Version.v1.ordinal() && version.ordinal() != Version.v3.ordinal()) {
+        if (version.ordinal() != Version.v1.ordinal() && version.ordinal() != Version.v3.ordinal() && version.ordinal() != Version.v4.ordinal()) {
             throw new UnsupportedVersionException("This version is no longer supported: " + version.toString(), UnsupportedVersionException.IncompatibleVersion);
         }
         buff.get();
@@ -499,7 +592,7 @@ public class Request {
         final long agentId = buff.getLong();
 
         long via;
-        if (version.ordinal() == Version.v1.ordinal()) {
+        if (version.ordinal() == Version.v1.ordinal() || version.ordinal() == Version.v4.ordinal()) {
             via = buff.getLong();
         } else {
             via = agentId;
@@ -520,6 +613,16 @@ public class Request {
             offset = 0;
         }
 
+        if (version.ordinal() == Version.v4.ordinal()) {
+            final byte[] binary = new byte[command.length - offset];
+            System.arraycopy(command, offset, binary, 0, binary.length);
+            if (isRequest) {
+                return new Request(version, seq, agentId, mgmtId, via, flags, binary);
+            } else {
+                return new Response(version, seq, agentId, mgmtId, via, flags, binary);
+            }
+        }
+
         final String content = new String(command, offset, command.length - offset);
 
         if (isRequest) {
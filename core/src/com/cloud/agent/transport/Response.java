@@ -51,12 +51,19 @@ public class Response extends Request {
         super(ver, seq, agentId, mgmtId, via, flags, ans);
     }
 
+    protected Response(Version ver, long seq, long agentId, long mgmtId, long via, short flags, byte[] ans) {
+        super(ver, seq, agentId, mgmtId, via, flags, ans);
+    }
+
     public Answer getAnswer() {
         Answer[] answers = getAnswers();
         return answers[0];
     }
 
     public Answer[] getAnswers() {
+        if (_cmds == null && _binary != null) {
+            _cmds = decodeBinary();
+        }
         if (_cmds == null) {
             _cmds = s_gson.fromJson(_content, Answer[].class);
         }
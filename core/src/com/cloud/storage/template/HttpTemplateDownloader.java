@@ -20,12 +20,17 @@
 package com.cloud.storage.template;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.RandomAccessFile;
+import java.io.OutputStream;
+import java.math.BigInteger;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.net.URL;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Date;
 
 import org.apache.commons.httpclient.Credentials;
@@ -79,6 +84,7 @@ public class HttpTemplateDownloader extends ManagedContextRunnable implements Te
     private long maxTemplateSizeInBytes;
     private ResourceType resourceType = ResourceType.TEMPLATE;
     private final HttpMethodRetryHandler myretryhandler;
+    private String checksum;
 
     public HttpTemplateDownloader(StorageLayer storageLayer, String downloadUrl, String toDir, DownloadCompleteCallback callback, long maxTemplateSizeInBytes,
             String user, String password, Proxy proxy, ResourceType resourceType) {
@@ -232,65 +238,70 @@ public class HttpTemplateDownloader extends ManagedContextRunnable implements Te
                 remoteSize = maxTemplateSizeInBytes;
             }
 
-            URL url = new URL(getDownloadUrl());
-            InputStream in = url.openStream();
+            // read the body of the request made above, with the range if resuming
+            InputStream in = request.getResponseBodyAsStream();
 
-            RandomAccessFile out = new RandomAccessFile(file, "rw");
-            out.seek(localFileSize);
+            // the checksum is computed while the file is written, so it does not have to be read again afterwards
+            MessageDigest digest = createDigest(file, localFileSize);
+            FileOutputStream fos = new FileOutputStream(file, localFileSize > 0);
+            OutputStream out = new DigestOutputStream(fos, digest);
 
             s_logger.info("Starting download from " + getDownloadUrl() + " to " + toFile + " remoteSize=" + remoteSize + " , max size=" + maxTemplateSizeInBytes);
 
-            byte[] block = new byte[CHUNK_SIZE];
-            long offset = 0;
-            boolean done = false;
-            boolean verifiedFormat=false;
-            status = TemplateDownloader.Status.IN_PROGRESS;
-            while (!done && status != Status.ABORTED && offset <= remoteSize) {
-                if ((bytes = in.read(block, 0, CHUNK_SIZE)) > -1) {
-                    out.write(block, 0, bytes);
-                    offset += bytes;
-                    out.seek(offset);
-                    totalBytes += bytes;
+            try {
+                byte[] block = new byte[CHUNK_SIZE];
+                long offset = 0;
+                boolean done = false;
+                boolean verifiedFormat = false;
+                status = TemplateDownloader.Status.IN_PROGRESS;
+                while (!done && status != Status.ABORTED && offset <= remoteSize) {
+                    if ((bytes = in.read(block, 0, CHUNK_SIZE)) > -1) {
+                        out.write(block, 0, bytes);
+                        offset += bytes;
+                        totalBytes += bytes;
                         if (!verifiedFormat && (offset >= 1048576 || offset >= remoteSize)) { //let's check format after we get 1MB or full file
-                        String uripath = null;
-                        try {
-                            URI str = new URI(getDownloadUrl());
-                            uripath = str.getPath();
-                        } catch (URISyntaxException e) {
-                            s_logger.warn("Invalid download url: " + getDownloadUrl() + ", This should not happen since we have validated the url before!!");
-                        }
-                        String unsupportedFormat = TemplateUtils.checkTemplateFormat(file.getAbsolutePath(), uripath);
+                            out.flush();
+                            String uripath = null;
+                            try {
+                                URI str = new URI(getDownloadUrl());
+                                uripath = str.getPath();
+                            } catch (URISyntaxException e) {
+                                s_logger.warn("Invalid download url: " + getDownloadUrl() + ", This should not happen since we have validated the url before!!");
+                            }
+                            String unsupportedFormat = checkTemplateFormat(file.getAbsolutePath(), uripath);
                             if (unsupportedFormat == null || !unsupportedFormat.isEmpty()) {
-                                 try {
-                                     request.abort();
-                                     out.close();
-                                     in.close();
-                                 } catch (Exception ex) {
-                                     s_logger.debug("Error on http connection : " + ex.getMessage());
-                                 }
-                                 status = Status.UNRECOVERABLE_ERROR;
-                                 errorString = "Template content is unsupported, or mismatch between selected format and template content. Found  : " + unsupportedFormat;
-                                 return 0;
+                                request.abort();
+                                status = Status.UNRECOVERABLE_ERROR;
+                                errorString = "Template content is unsupported, or mismatch between selected format and template content. Found  : " + unsupportedFormat;
+                                return 0;
                             }
                             s_logger.debug("Verified format of downloading file " + file.getAbsolutePath() + " is supported");
                             verifiedFormat = true;
                         }
-                } else {
-                    done = true;
+                    } else {
+                        done = true;
+                    }
+                }
+                out.flush();
+                fos.getFD().sync();
+            } finally {
+                try {
+                    out.close();
+                    in.close();
+                } catch (IOException ex) {
+                    s_logger.debug("Error on http connection : " + ex.getMessage());
                 }
             }
-            out.getFD().sync();
 
             Date finish = new Date();
             String downloaded = "(incomplete download)";
             if (totalBytes >= remoteSize) {
+                checksum = String.format("%032x", new BigInteger(1, digest.digest()));
                 status = TemplateDownloader.Status.DOWNLOAD_FINISHED;
                 downloaded = "(download complete remote=" + remoteSize + "bytes)";
             }
             errorString = "Downloaded " + totalBytes + " bytes " + downloaded;
             downloadTime += finish.getTime() - start.getTime();
-            in.close();
-            out.close();
 
             return totalBytes;
         } catch (HttpException hte) {
@@ -311,6 +322,38 @@ public class HttpTemplateDownloader extends ManagedContextRunnable implements Te
         return 0;
     }
 
+    /**
+     * @return an empty string if the content of the file matches the format of the url, what the content looks like otherwise
+     */
+    protected String checkTemplateFormat(String path, String uripath) {
+        return TemplateUtils.checkTemplateFormat(path, uripath);
+    }
+
+    /**
+     * @return an MD5 digest that has been fed the part of the file downloaded before a resume
+     */
+    private static MessageDigest createDigest(File file, long length) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("MD5 is not supported", e);
+        }
+
+        if (length > 0) {
+            byte[] buffer = new byte[CHUNK_SIZE];
+            try (InputStream is = new FileInputStream(file)) {
+                long remaining = length;
+                int read;
+                while (remaining > 0 && (read = is.read(buffer, 0, (int)Math.min(buffer.length, remaining))) > 0) {
+                    digest.update(buffer, 0, read);
+                    remaining -= read;
+                }
+            }
+        }
+        return digest;
+    }
+
     public String getDownloadUrl() {
         return downloadUrl;
     }
@@ -404,6 +447,11 @@ public class HttpTemplateDownloader extends ManagedContextRunnable implements Te
         return getToFile();
     }
 
+    @Override
+    public String getDownloadChecksum() {
+        return checksum;
+    }
+
     @Override
     public void setResume(boolean resume) {
         this.resume = resume;
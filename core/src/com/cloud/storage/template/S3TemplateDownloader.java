@@ -393,6 +393,11 @@ public class S3TemplateDownloader extends ManagedContextRunnable implements Temp
         return s3Key;
     }
 
+    @Override
+    public String getDownloadChecksum() {
+        return null;
+    }
+
     @Override
     public void setResume(boolean resume) {
         this.resume = resume;
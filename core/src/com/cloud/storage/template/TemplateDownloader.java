@@ -83,6 +83,11 @@ public interface TemplateDownloader extends Runnable {
      */
     public String getDownloadLocalPath();
 
+    /**
+     * @return MD5 checksum of the downloaded file if it was computed while downloading, null otherwise
+     */
+    public String getDownloadChecksum();
+
     public void setStatus(TemplateDownloader.Status status);
 
     public void setDownloadError(String string);
@@ -66,6 +66,11 @@ public abstract class TemplateDownloaderBase extends ManagedContextRunnable impl
         return file.getAbsolutePath();
     }
 
+    @Override
+    public String getDownloadChecksum() {
+        return null;
+    }
+
     @Override
     public int getDownloadPercent() {
         if (_remoteSize == 0) {
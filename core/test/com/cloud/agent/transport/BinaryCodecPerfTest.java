@@ -0,0 +1,78 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.agent.transport;
+
+import junit.framework.TestCase;
+
+import org.apache.log4j.Logger;
+
+import com.google.gson.Gson;
+
+import com.cloud.agent.api.Command;
+import com.cloud.serializer.GsonHelper;
+
+/**
+ * Compares encoding and decoding a ping with a large vm report with the
+ * Gson path.  It is excluded from the regular build, run it with
+ * -Dtest=BinaryCodecPerfTest.
+ */
+public class BinaryCodecPerfTest extends TestCase {
+    private static final Logger s_logger = Logger.getLogger(BinaryCodecPerfTest.class);
+
+    public void testAgainstGson() throws Exception {
+        Gson gson = GsonHelper.getGson();
+        Command[] cmds = new Command[] {BinaryCodecTest.createPing(2000)};
+        int rounds = 500;
+        // warm up both paths before measuring
+        for (int i = 0; i < rounds / 5; i++) {
+            byte[] binary = BinaryCodec.encode(cmds);
+            BinaryCodec.decode(binary, 0, binary.length);
+            gson.fromJson(gson.toJson(cmds, Command[].class), Command[].class);
+        }
+
+        long start = System.nanoTime();
+        byte[] binary = null;
+        for (int i = 0; i < rounds; i++) {
+            binary = BinaryCodec.encode(cmds);
+        }
+        long binaryEncode = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            BinaryCodec.decode(binary, 0, binary.length);
+        }
+        long binaryDecode = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        String json = null;
+        for (int i = 0; i < rounds; i++) {
+            json = gson.toJson(cmds, Command[].class);
+        }
+        long gsonEncode = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            gson.fromJson(json, Command[].class);
+        }
+        long gsonDecode = System.nanoTime() - start;
+
+        s_logger.info("Ping with 2000 vms, " + rounds + " rounds: binary " + binary.length + " bytes, encode " + binaryEncode / rounds / 1000 + " us, decode " +
+            binaryDecode / rounds / 1000 + " us; gson " + json.getBytes("UTF-8").length + " bytes, encode " + gsonEncode / rounds / 1000 + " us, decode " +
+            gsonDecode / rounds / 1000 + " us");
+    }
+}
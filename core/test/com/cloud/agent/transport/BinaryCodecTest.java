@@ -0,0 +1,488 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.agent.transport;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import junit.framework.TestCase;
+
+import com.google.gson.Gson;
+import com.google.gson.annotations.Since;
+
+import com.cloud.agent.api.Answer;
+import com.cloud.agent.api.Command;
+import com.cloud.agent.api.GetHostStatsCommand;
+import com.cloud.agent.api.HostVmStateReportEntry;
+import com.cloud.agent.api.PingRoutingCommand;
+import com.cloud.agent.api.SecStorageFirewallCfgCommand;
+import com.cloud.agent.api.UpdateHostPasswordCommand;
+import com.cloud.agent.api.storage.ListTemplateCommand;
+import com.cloud.agent.api.to.NfsTO;
+import com.cloud.host.Host;
+import com.cloud.serializer.GsonHelper;
+import com.cloud.storage.DataStoreRole;
+import com.cloud.utils.exception.CloudRuntimeException;
+import com.cloud.vm.VirtualMachine.PowerState;
+
+public class BinaryCodecTest extends TestCase {
+    private static final Gson s_gson = GsonHelper.getGson();
+
+    public static class UnsupportedCommand extends Command {
+        AtomicLong counter = new AtomicLong(5);
+
+        @Override
+        public boolean executeInSequence() {
+            return false;
+        }
+    }
+
+    public static class ContainerCommand extends Command {
+        Collection<PowerState> states;
+        Map<String, String> names;
+
+        @Override
+        public boolean executeInSequence() {
+            return false;
+        }
+    }
+
+    public static class LinkedCommand extends Command {
+        Object next;
+
+        @Override
+        public boolean executeInSequence() {
+            return false;
+        }
+    }
+
+    public static class SerializableValue implements Serializable {
+        private static final long serialVersionUID = 1L;
+        Object value;
+    }
+
+    public static class DefaultedValue implements Serializable {
+        private static final long serialVersionUID = 1L;
+        String name = "default";
+    }
+
+    public static class ResolvedValue implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private Object readResolve() {
+            return this;
+        }
+    }
+
+    public static class TypedCommand extends Command {
+        Command next;
+
+        @Override
+        public boolean executeInSequence() {
+            return false;
+        }
+    }
+
+    static final List<String> s_events = new ArrayList<String>();
+
+    public static class NotACommand {
+        static {
+            s_events.add("initialized");
+        }
+
+        public NotACommand() {
+            s_events.add("created");
+        }
+    }
+
+    public static class VersionedValue implements Serializable {
+        private static final long serialVersionUID = 1L;
+        @Since(1.0)
+        String name;
+    }
+
+    private static void assertNotDecoded(BinaryCodec.Output out) {
+        byte[] bytes = out.toByteArray();
+        try {
+            BinaryCodec.decode(bytes, 0, bytes.length);
+            fail("Decoded malformed content");
+        } catch (CloudRuntimeException e) {
+            // expected
+        }
+    }
+
+    // the start of an Object[] with a single element
+    private static BinaryCodec.Output startArray() {
+        BinaryCodec.Output out = new BinaryCodec.Output();
+        out.write(BinaryCodec.FORMAT);
+        out.write(BinaryCodec.ARRAY);
+        out.writeVarLong(0);
+        out.writeString(Object.class.getName());
+        out.writeVarLong(1);
+        return out;
+    }
+
+    private static void assertNotEncoded(Object cmd) {
+        try {
+            BinaryCodec.encode(new Object[] {cmd});
+            fail("Encoded " + cmd.getClass().getName());
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private static void assertNotEncodedAsSerializable(Object value) {
+        BinaryCodec.encode(new Object[] {value});
+        try {
+            BinaryCodec.encode(new Object[] {value}, true);
+            fail("Encoded " + value.getClass().getName() + " as Java serialization would");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private static byte[] toBytes(Request req, boolean binary) {
+        ByteBuffer[] buffers = req.toBytes(binary);
+        byte[] bytes = new byte[buffers[0].remaining() + buffers[1].remaining()];
+        int len = buffers[0].remaining();
+        buffers[0].get(bytes, 0, len);
+        buffers[1].get(bytes, len, bytes.length - len);
+        return bytes;
+    }
+
+    static PingRoutingCommand createPing(int vms) {
+        Map<String, HostVmStateReportEntry> report = new HashMap<String, HostVmStateReportEntry>();
+        for (int i = 0; i < vms; i++) {
+            report.put("i-2-" + i + "-VM", new HostVmStateReportEntry(i % 3 == 0 ? PowerState.PowerOff : PowerState.PowerOn, "host-" + (i % 7)));
+        }
+        return new PingRoutingCommand(Host.Type.Routing, 42, report);
+    }
+
+    public void testRequestRoundTrip() throws Exception {
+        SecStorageFirewallCfgCommand cmd = new SecStorageFirewallCfgCommand();
+        cmd.addPortConfig("127.0.0.1", "44", false, "eth1");
+        cmd.setContextParam("job", "job-7");
+        Command[] cmds = new Command[] {new UpdateHostPasswordCommand("abc", "def"), cmd, new GetHostStatsCommand("hostguid", "hostname", 101), createPing(10)};
+        Request sreq = new Request(2, 3, cmds, true, true);
+        sreq.setSequence(892403719);
+
+        byte[] bytes = toBytes(sreq, true);
+        assertEquals(Request.Version.v4, Request.getVersion(bytes));
+        assertEquals(892403719, Request.getSequence(bytes));
+        assertEquals(2, Request.getViaAgentId(bytes));
+
+        Request creq = Request.parse(bytes);
+        assertTrue(creq.isBinaryCapable());
+        assertTrue(creq.stopOnError());
+        assertEquals(s_gson.toJson(cmds, Command[].class), s_gson.toJson(creq.getCommands(), Command[].class));
+        assertEquals("job-7", creq.getCommands()[1].getContextParam("job"));
+
+        Response cresp = new Response(creq, new Answer(cmds[0], true, "No Problem"));
+        Response sresp = Response.parse(toBytes(cresp, true));
+        assertEquals("No Problem", sresp.getAnswer().getDetails());
+        assertTrue(sresp.getAnswer().getResult());
+
+        // A response to a binary request still goes out in json to a peer that isn't binary capable.
+        bytes = toBytes(cresp, false);
+        assertEquals(Request.Version.v1, Request.getVersion(bytes));
+        assertEquals("No Problem", Response.parse(bytes).getAnswer().getDetails());
+    }
+
+    public void testDataTORoundTrip() throws Exception {
+        NfsTO nfs = new NfsTO("nfs://192.168.56.10/opt/storage/secondary", DataStoreRole.Image);
+        Request creq = Request.parse(toBytes(new Request(2, 3, new ListTemplateCommand(nfs), true), true));
+        NfsTO store = (NfsTO)((ListTemplateCommand)creq.getCommand()).getDataStore();
+        assertEquals("nfs://192.168.56.10/opt/storage/secondary", store.getUrl());
+        assertEquals(DataStoreRole.Image, store.getRole());
+    }
+
+    public void testFallbackToJson() throws Exception {
+        Request sreq = new Request(2, 3, new UnsupportedCommand(), true);
+        byte[] bytes = toBytes(sreq, true);
+        assertEquals(Request.Version.v1, Request.getVersion(bytes));
+        assertTrue(Request.parse(bytes).getCommand() instanceof UnsupportedCommand);
+    }
+
+    public void testUnknownFieldsAreSkipped() {
+        // What a newer sender with an extra field in GetHostStatsCommand would send.
+        BinaryCodec.Output out = new BinaryCodec.Output();
+        out.write(BinaryCodec.FORMAT);
+        out.write(BinaryCodec.ARRAY);
+        out.writeVarLong(0);
+        out.writeString(Command.class.getName());
+        out.writeVarLong(1);
+        out.write(BinaryCodec.OBJECT);
+        out.writeVarLong(1);
+        out.writeString(GetHostStatsCommand.class.getName());
+        out.writeVarLong(3);
+        out.writeString("hostName");
+        out.writeString("addedLater");
+        out.writeString("hostId");
+        out.write(BinaryCodec.STRING);
+        out.writeString("hostname");
+        out.write(BinaryCodec.OBJECT);
+        out.writeVarLong(2);
+        out.writeString("com.cloud.agent.api.NotHereYet");
+        out.writeVarLong(1);
+        out.writeString("value");
+        out.write(BinaryCodec.INT);
+        out.writeZigZag(-3);
+        out.write(BinaryCodec.LONG);
+        out.writeZigZag(101);
+
+        byte[] bytes = out.toByteArray();
+        Object[] cmds = BinaryCodec.decode(bytes, 0, bytes.length);
+        GetHostStatsCommand cmd = (GetHostStatsCommand)cmds[0];
+        assertEquals("hostname", cmd.getHostName());
+        assertNull(cmd.getHostGuid());
+        assertEquals(101, cmd.getHostId());
+    }
+
+    public void testBinaryIsSmaller() throws Exception {
+        Command[] cmds = new Command[] {createPing(500)};
+        byte[] binary = BinaryCodec.encode(cmds);
+        assertTrue(binary.length < s_gson.toJson(cmds, Command[].class).getBytes().length);
+        assertEquals(s_gson.toJson(cmds, Command[].class), s_gson.toJson(BinaryCodec.decode(binary, 0, binary.length), Command[].class));
+    }
+
+    public void testToJsonBytesForPeers() throws Exception {
+        Request sreq = new Request(2, 3, new Command[] {createPing(500)}, true, true);
+        byte[] binary = toBytes(sreq, true);
+        assertEquals(Request.Version.v4, Request.getVersion(binary));
+
+        byte[] json = Request.toJsonBytes(binary);
+        assertEquals(Request.Version.v1, Request.getVersion(json));
+        assertEquals(Request.getSequence(binary), Request.getSequence(json));
+        assertEquals(Request.getViaAgentId(binary), Request.getViaAgentId(json));
+        Request creq = Request.parse(json);
+        assertEquals(s_gson.toJson(sreq.getCommands(), Command[].class), s_gson.toJson(creq.getCommands(), Command[].class));
+
+        // What is already in json goes out as it is.
+        assertSame(json, Request.toJsonBytes(json));
+    }
+
+    public void testForwardedRequestIsNotBinaryCapable() throws Exception {
+        Request sreq = new Request(2, 3, new Command[] {createPing(500)}, true, true);
+        assertTrue(Request.parse(toBytes(sreq, true)).isBinaryCapable());
+        assertTrue(Request.parse(toBytes(sreq, false)).isBinaryCapable());
+
+        // Neither what a peer gets in json again nor a json request of a binary capable agent.
+        assertFalse(Request.parse(Request.toJsonBytes(toBytes(sreq, true))).isBinaryCapable());
+        byte[] json = toBytes(sreq, false);
+        byte[] forwarded = Request.toJsonBytes(json);
+        assertFalse(Request.parse(forwarded).isBinaryCapable());
+        assertEquals(Request.getSequence(json), Request.getSequence(forwarded));
+        assertTrue(Request.parse(json).isBinaryCapable());
+    }
+
+    public void testAnonymousAndLocalClassesAreRejected() {
+        assertNotEncoded(new Command() {
+            @Override
+            public boolean executeInSequence() {
+                return false;
+            }
+        });
+
+        class LocalCommand extends Command {
+            @Override
+            public boolean executeInSequence() {
+                return false;
+            }
+        }
+        assertNotEncoded(new LocalCommand());
+    }
+
+    public void testContainersThatLoseTheirTypeAreRejected() throws Exception {
+        ContainerCommand cmd = new ContainerCommand();
+        cmd.states = EnumSet.noneOf(PowerState.class);
+        assertNotEncoded(cmd);
+
+        cmd.states = null;
+        cmd.names = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+        assertNotEncoded(cmd);
+
+        // Would come back as a LinkedHashMap.
+        cmd.names = new TreeMap<String, String>();
+        assertNotEncoded(cmd);
+
+        Request sreq = new Request(2, 3, cmd, true);
+        byte[] bytes = toBytes(sreq, true);
+        assertEquals(Request.Version.v1, Request.getVersion(bytes));
+    }
+
+    public void testContainersRoundTrip() {
+        ContainerCommand cmd = new ContainerCommand();
+        cmd.states = new ArrayList<PowerState>();
+        cmd.states.add(PowerState.PowerOn);
+        cmd.names = new HashMap<String, String>();
+        cmd.names.put("i-2-3-VM", "vm");
+
+        byte[] bytes = BinaryCodec.encode(new Object[] {cmd});
+        ContainerCommand decoded = (ContainerCommand)BinaryCodec.decode(bytes, 0, bytes.length)[0];
+        assertEquals(cmd.states, decoded.states);
+        assertEquals(cmd.names, decoded.names);
+    }
+
+    public void testMalformedSizesAreRejected() {
+        for (byte tag : new byte[] {BinaryCodec.LIST, BinaryCodec.SET, BinaryCodec.MAP}) {
+            BinaryCodec.Output out = startArray();
+            out.write(tag);
+            out.writeVarLong(Integer.MAX_VALUE);
+            assertNotDecoded(out);
+
+            out = startArray();
+            out.write(tag);
+            out.writeVarLong(-1);
+            assertNotDecoded(out);
+        }
+
+        BinaryCodec.Output out = new BinaryCodec.Output();
+        out.write(BinaryCodec.FORMAT);
+        out.write(BinaryCodec.ARRAY);
+        out.writeVarLong(0);
+        out.writeString(Object.class.getName());
+        out.writeVarLong(Integer.MAX_VALUE);
+        assertNotDecoded(out);
+
+        out = startArray();
+        out.write(BinaryCodec.OBJECT);
+        out.writeVarLong(1);
+        out.writeString(GetHostStatsCommand.class.getName());
+        out.writeVarLong(-1);
+        assertNotDecoded(out);
+
+        out = startArray();
+        out.write(BinaryCodec.OBJECT);
+        out.writeVarLong(-1);
+        assertNotDecoded(out);
+    }
+
+    public void testClassesOutsideOfCloudStackAreRejected() {
+        for (String name : new String[] {"java.lang.ProcessBuilder", "org.example.Value", "[Ljava.lang.Thread;", "com.cloudy.Value"}) {
+            BinaryCodec.Output out = startArray();
+            out.write(BinaryCodec.OBJECT);
+            out.writeVarLong(1);
+            out.writeString(name);
+            out.writeVarLong(0);
+            assertNotDecoded(out);
+        }
+
+        BinaryCodec.Output out = startArray();
+        out.write(BinaryCodec.ARRAY);
+        out.writeVarLong(1);
+        out.writeString("java.io.File");
+        out.writeVarLong(0);
+        assertNotDecoded(out);
+
+        assertTrue(BinaryCodec.isNamedClass(String.class.getName()));
+        assertTrue(BinaryCodec.isNamedClass(int[][].class.getName()));
+        assertTrue(BinaryCodec.isNamedClass(Command[].class.getName()));
+        assertFalse(BinaryCodec.isNamedClass(Thread.State.class.getName()));
+        assertNotEncoded(Thread.State.NEW);
+    }
+
+    public void testObjectsOfTheWrongTypeAreNotCreated() {
+        // A TypedCommand whose Command field holds an object that isn't a Command.
+        BinaryCodec.Output out = new BinaryCodec.Output();
+        out.write(BinaryCodec.FORMAT);
+        out.write(BinaryCodec.ARRAY);
+        out.writeVarLong(0);
+        out.writeString(Command.class.getName());
+        out.writeVarLong(1);
+        out.write(BinaryCodec.OBJECT);
+        out.writeVarLong(1);
+        out.writeString(TypedCommand.class.getName());
+        out.writeVarLong(1);
+        out.writeString("next");
+        out.write(BinaryCodec.OBJECT);
+        out.writeVarLong(2);
+        out.writeString(NotACommand.class.getName());
+        out.writeVarLong(0);
+
+        byte[] bytes = out.toByteArray();
+        TypedCommand cmd = (TypedCommand)BinaryCodec.decode(bytes, 0, bytes.length)[0];
+        assertNull(cmd.next);
+        assertTrue("Decoding initialized or created a " + NotACommand.class.getName(), s_events.isEmpty());
+
+        // A Command in the same field is still decoded.
+        TypedCommand outer = new TypedCommand();
+        outer.next = new TypedCommand();
+        bytes = BinaryCodec.encode(new Object[] {outer});
+        assertTrue(((TypedCommand)BinaryCodec.decode(bytes, 0, bytes.length)[0]).next instanceof TypedCommand);
+    }
+
+    public void testDeepNestingIsRejected() {
+        BinaryCodec.Output out = startArray();
+        for (int i = 0; i < 100000; i++) {
+            out.write(BinaryCodec.LIST);
+            out.writeVarLong(1);
+        }
+        out.write(BinaryCodec.NULL);
+        assertNotDecoded(out);
+    }
+
+    public void testCyclesAreRejected() {
+        LinkedCommand cmd = new LinkedCommand();
+        cmd.next = cmd;
+        assertNotEncoded(cmd);
+
+        List<Object> list = new ArrayList<Object>();
+        list.add(list);
+        cmd.next = list;
+        assertNotEncoded(cmd);
+
+        // The same value twice is not a cycle.
+        List<Object> shared = new ArrayList<Object>();
+        shared.add("value");
+        cmd.next = new Object[] {shared, shared};
+        byte[] bytes = BinaryCodec.encode(new Object[] {cmd});
+        Object[] next = (Object[])((LinkedCommand)BinaryCodec.decode(bytes, 0, bytes.length)[0]).next;
+        assertEquals(shared, next[0]);
+        assertEquals(shared, next[1]);
+    }
+
+    public void testSerializableEncoding() {
+        SerializableValue value = new SerializableValue();
+        value.value = new ArrayList<String>();
+        byte[] bytes = BinaryCodec.encode(new Object[] {value}, true);
+        assertEquals(value.value, ((SerializableValue)BinaryCodec.decode(bytes, 0, bytes.length)[0]).value);
+
+        // Java serialization decodes a single list here.
+        value.value = new Object[] {value.value, value.value};
+        assertNotEncodedAsSerializable(value);
+
+        // A null name would be decoded as "default".
+        DefaultedValue defaulted = new DefaultedValue();
+        defaulted.name = null;
+        assertNotEncodedAsSerializable(defaulted);
+
+        assertNotEncodedAsSerializable(new ResolvedValue());
+        assertNotEncodedAsSerializable(new VersionedValue());
+        assertNotEncodedAsSerializable(new LinkedCommand());
+    }
+}
@@ -0,0 +1,114 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.storage.template;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.apache.cloudstack.storage.command.DownloadCommand.ResourceType;
+
+public class HttpTemplateDownloaderTest {
+    // more than a few chunks, and not a multiple of the chunk size
+    private static final byte[] BODY = new byte[3 * 1024 * 1024 + 123];
+    private static final String BODY_MD5 = "946edc6cb15349e11955113166ec97e2";
+    static {
+        for (int i = 0; i < BODY.length; i++) {
+            BODY[i] = (byte)(i % 251);
+        }
+    }
+
+    private HttpServer _server;
+    private File _dir;
+
+    private class TestDownloader extends HttpTemplateDownloader {
+        TestDownloader() {
+            super(null, "http://127.0.0.1:" + _server.getAddress().getPort() + "/template.qcow2", _dir.getAbsolutePath(), null,
+                TemplateDownloader.DEFAULT_MAX_TEMPLATE_SIZE_IN_BYTES, null, null, null, ResourceType.TEMPLATE);
+            // the url check rejects the loopback address and the port of the test server
+            setStatus(Status.NOT_STARTED);
+        }
+
+        @Override
+        protected String checkTemplateFormat(String path, String uripath) {
+            return "";
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        _dir = Files.createTempDirectory("template").toFile();
+        _server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        _server.createContext("/template.qcow2", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String range = exchange.getRequestHeaders().getFirst("Range");
+                int from = range == null ? 0 : Integer.parseInt(range.substring("bytes=".length(), range.indexOf('-')));
+                exchange.sendResponseHeaders(range == null ? HttpURLConnection.HTTP_OK : HttpURLConnection.HTTP_PARTIAL, BODY.length - from);
+                OutputStream os = exchange.getResponseBody();
+                os.write(BODY, from, BODY.length - from);
+                os.close();
+            }
+        });
+        _server.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        _server.stop(0);
+        FileUtils.deleteDirectory(_dir);
+    }
+
+    @Test
+    public void checksumOfDownload() {
+        TestDownloader downloader = new TestDownloader();
+        Assert.assertEquals(BODY.length, downloader.download(false, null));
+        Assert.assertEquals(TemplateDownloader.Status.DOWNLOAD_FINISHED, downloader.getStatus());
+        Assert.assertEquals(BODY_MD5, downloader.getDownloadChecksum());
+        Assert.assertEquals(BODY.length, new File(downloader.getToFile()).length());
+    }
+
+    @Test
+    public void checksumOfResumedDownload() throws IOException {
+        TestDownloader downloader = new TestDownloader();
+        int downloaded = 1000000;
+        FileOutputStream fos = new FileOutputStream(downloader.getToFile());
+        fos.write(BODY, 0, downloaded);
+        fos.close();
+
+        Assert.assertEquals(BODY.length - downloaded, downloader.download(true, null));
+        Assert.assertEquals(TemplateDownloader.Status.DOWNLOAD_FINISHED, downloader.getStatus());
+        Assert.assertEquals(BODY_MD5, downloader.getDownloadChecksum());
+    }
+}
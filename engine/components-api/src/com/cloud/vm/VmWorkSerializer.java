@@ -16,6 +16,7 @@
 // under the License.
 package com.cloud.vm;
 
+import java.io.Serializable;
 import java.lang.reflect.Type;
 import java.util.HashMap;
 import java.util.Map;
@@ -31,7 +32,37 @@ import com.google.gson.JsonParseException;
 
 import org.apache.cloudstack.framework.jobs.impl.JobSerializerHelper;
 
+import com.cloud.agent.transport.BinaryCodec;
+
 public class VmWorkSerializer {
+    /**
+     * Encodes VmWork with the binary codec of the agent transport, which only
+     * carries the class and field names once instead of the full class descriptors
+     * of Java serialization.  VmWork that holds values BinaryCodec can't encode,
+     * or that wouldn't decode as Java serialization decodes it, e.g. because of
+     * readResolve(), @Since fields, constructor defaults or shared references,
+     * falls back to Java serialization.
+     */
+    static class VmWorkCodec implements JobSerializerHelper.ObjectCodec {
+        static final String ID = "vmwork1";
+
+        @Override
+        public String getId() {
+            return ID;
+        }
+
+        @Override
+        public byte[] encode(Serializable object) {
+            return BinaryCodec.encode(new Object[] {object}, true);
+        }
+
+        @Override
+        public Object decode(byte[] content) {
+            return BinaryCodec.decode(content, 0, content.length)[0];
+        }
+    }
+
+
     static class StringMapTypeAdapter implements JsonDeserializer<Map> {
 
         @Override
@@ -54,11 +85,13 @@ public class VmWorkSerializer {
         gBuilder.setVersion(1.3);
         gBuilder.registerTypeAdapter(Map.class, new StringMapTypeAdapter());
         s_gson = gBuilder.create();
+
+        JobSerializerHelper.registerCodec(VmWork.class, new VmWorkCodec());
     }
 
     public static String serialize(VmWork work) {
         // TODO: there are way many generics, too tedious to get serialization work under GSON
-        // use java binary serialization instead
+        // use the registered VmWorkCodec, or java binary serialization instead
         //
         return JobSerializerHelper.toObjectSerializedString(work);
         // return s_gson.toJson(work);
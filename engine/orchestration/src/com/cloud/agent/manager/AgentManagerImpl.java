@@ -190,6 +190,8 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
             "Default size for DirectAgentPool", false);
     protected final ConfigKey<Float> DirectAgentThreadCap = new ConfigKey<Float>("Advanced", Float.class, "direct.agent.thread.cap", "1",
             "Percentage (as a value between 0 and 1) of direct.agent.pool.size to be used as upper thread cap for a single direct agent to process requests", false);
+    protected final ConfigKey<Boolean> PingVmStateReportDelta = new ConfigKey<Boolean>("Advanced", Boolean.class, "ping.vm.state.report.delta", "true",
+            "Whether agents may send only the VM states that changed in their pings", true);
     protected final ConfigKey<Boolean> CheckTxnBeforeSending = new ConfigKey<Boolean>(
             "Developer",
             Boolean.class,
@@ -1133,13 +1135,22 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
         Response response = null;
         response = new Response(request, answers[0], _nodeId, -1);
         try {
-            link.send(response.toBytes());
+            link.send(response.toBytes(link.isBinaryCapable()));
         } catch (ClosedChannelException e) {
             s_logger.debug("Failed to send startupanswer: " + e.toString());
         }
         _connectExecutor.execute(new HandleAgentConnectTask(link, cmds, request));
     }
 
+    /**
+     * @return true if the link is to an agent connected to this management
+     * server, links of peers forwarding requests have no such attache.
+     */
+    protected static boolean isConnectedAgentLink(final Link link) {
+        final Object attachment = link.attachment();
+        return attachment instanceof ConnectedAgentAttache && !((ConnectedAgentAttache)attachment).forForward();
+    }
+
     public class AgentHandler extends Task {
         public AgentHandler(Task.Type type, Link link, byte[] data) {
             super(type, link, data);
@@ -1240,7 +1251,12 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
                                             "; can't find the host in the DB");
                                 }
                             }
-                            answer = new PingAnswer((PingCommand)cmd);
+                            PingAnswer pingAnswer = new PingAnswer((PingCommand)cmd);
+                            pingAnswer.setVmStateReportDeltaSupported(PingVmStateReportDelta.value());
+                            if (cmd instanceof PingRoutingCommand) {
+                                pingAnswer.setFullVmStateReportNeeded(((PingRoutingCommand)cmd).isFullVmStateReportNeeded());
+                            }
+                            answer = pingAnswer;
                         } else if (cmd instanceof ReadyAnswer) {
                             HostVO host = _hostDao.findById(attache.getId());
                             if (host == null) {
@@ -1269,7 +1285,7 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
                 }
             }
             try {
-                link.send(response.toBytes());
+                link.send(response.toBytes(link.isBinaryCapable()));
             } catch (final ClosedChannelException e) {
                 s_logger.warn("Unable to send response because connection is closed: " + response);
             }
@@ -1284,6 +1300,18 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
             }
         }
 
+        /**
+         * Only the link to an agent connected to this management server is
+         * switched to binary, from the first request after its attache is
+         * created.  Requests forwarded by a peer may still carry the agent's
+         * flag and the peer may not read binary.
+         */
+        protected void markBinaryCapable(final Link link, final Request request) {
+            if (request.isBinaryCapable() && isConnectedAgentLink(link)) {
+                link.setBinaryCapable(true);
+            }
+        }
+
         @Override
         protected void doTask(final Task task) throws Exception {
             TransactionLegacy txn = TransactionLegacy.open(TransactionLegacy.CLOUD_DB);
@@ -1293,6 +1321,7 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
                     final byte[] data = task.getData();
                     try {
                         final Request event = Request.parse(data);
+                        markBinaryCapable(task.getLink(), event);
                         if (event instanceof Response) {
                             processResponse(task.getLink(), (Response)event);
                         } else {
@@ -1625,7 +1654,8 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
 
     @Override
     public ConfigKey<?>[] getConfigKeys() {
-        return new ConfigKey<?>[] {CheckTxnBeforeSending, Workers, Port, PingInterval, PingTimeout, Wait, AlertWait, DirectAgentLoadSize, DirectAgentPoolSize, DirectAgentThreadCap};
+        return new ConfigKey<?>[] {CheckTxnBeforeSending, Workers, Port, PingInterval, PingTimeout, Wait, AlertWait, DirectAgentLoadSize, DirectAgentPoolSize, DirectAgentThreadCap,
+                PingVmStateReportDelta};
     }
 
 }
@@ -407,6 +407,14 @@ public class ClusteredAgentManagerImpl extends AgentManagerImpl implements Clust
     }
 
     public boolean routeToPeer(String peer, byte[] bytes) {
+        // Peers may be older management servers that can't read binary encoded requests,
+        // and the agent's binary capability says nothing about the link to the peer.
+        try {
+            bytes = Request.toJsonBytes(bytes);
+        } catch (ClassNotFoundException | UnsupportedVersionException e) {
+            logD(bytes, "Unable to route to peer as the request can't be encoded in json: " + e.getMessage());
+            return false;
+        }
         int i = 0;
         SocketChannel ch = null;
         SSLEngine sslEngine = null;
@@ -618,7 +626,7 @@ public class ClusteredAgentManagerImpl extends AgentManagerImpl implements Clust
 
                 final byte[] data = task.getData();
                 Version ver = Request.getVersion(data);
-                if (ver.ordinal() != Version.v1.ordinal() && ver.ordinal() != Version.v3.ordinal()) {
+                if (ver.ordinal() != Version.v1.ordinal() && ver.ordinal() != Version.v3.ordinal() && ver.ordinal() != Version.v4.ordinal()) {
                     s_logger.warn("Wrong version for clustered agent request");
                     super.doTask(task);
                     return;
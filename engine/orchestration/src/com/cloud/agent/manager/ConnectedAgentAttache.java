@@ -41,7 +41,7 @@ public class ConnectedAgentAttache extends AgentAttache {
     @Override
     public synchronized void send(final Request req) throws AgentUnavailableException {
         try {
-            _link.send(req.toBytes());
+            _link.send(req.toBytes(_link.isBinaryCapable()));
         } catch (ClosedChannelException e) {
             throw new AgentUnavailableException("Channel is closed", _id);
         }
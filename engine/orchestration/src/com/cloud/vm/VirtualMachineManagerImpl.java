@@ -2678,7 +2678,7 @@ public class VirtualMachineManagerImpl extends ManagerBase implements VirtualMac
             if (cmd instanceof PingRoutingCommand) {
                 PingRoutingCommand ping = (PingRoutingCommand)cmd;
                 if (ping.getHostVmStateReport() != null) {
-                    _syncMgr.processHostVmStatePingReport(agentId, ping.getHostVmStateReport());
+                    _syncMgr.processHostVmStatePingReport(agentId, ping);
                 }
 
                 // take the chance to scan VMs that are stuck in transitional states
@@ -2697,6 +2697,9 @@ public class VirtualMachineManagerImpl extends ManagerBase implements VirtualMac
 
     @Override
     public boolean processDisconnect(long agentId, Status state) {
+        if (state == Status.Removed) {
+            _syncMgr.resetHostSyncState(agentId);
+        }
         return true;
     }
 
@@ -3631,7 +3634,7 @@ public class VirtualMachineManagerImpl extends ManagerBase implements VirtualMac
 
             // reset VM power state tracking so that we won't lost signal when VM has
             // been translated to
-            _vmDao.resetVmPowerStateTracking(vmId);
+            _syncMgr.resetVmSyncState(vmId);
         }
     }
 
@@ -19,15 +19,21 @@ package com.cloud.vm;
 import java.util.Map;
 
 import com.cloud.agent.api.HostVmStateReportEntry;
+import com.cloud.agent.api.PingRoutingCommand;
 
 public interface VirtualMachinePowerStateSync {
 
     void resetHostSyncState(long hostId);
 
+    void resetVmSyncState(long vmId);
+
     void processHostVmStateReport(long hostId, Map<String, HostVmStateReportEntry> report);
 
     // to adapt legacy ping report
     void processHostVmStatePingReport(long hostId, Map<String, HostVmStateReportEntry> report);
 
+    // takes full and delta reports, asks for a full report through the ping if the delta doesn't add up
+    void processHostVmStatePingReport(long hostId, PingRoutingCommand ping);
+
     Map<Long, VirtualMachine.PowerState> convertVmStateReport(Map<String, HostVmStateReportEntry> states);
 }
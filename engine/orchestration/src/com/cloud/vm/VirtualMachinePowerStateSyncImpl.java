@@ -16,10 +16,16 @@
 // under the License.
 package com.cloud.vm;
 
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.inject.Inject;
 
@@ -30,6 +36,7 @@ import org.apache.cloudstack.framework.messagebus.MessageBus;
 import org.apache.cloudstack.framework.messagebus.PublishScope;
 
 import com.cloud.agent.api.HostVmStateReportEntry;
+import com.cloud.agent.api.PingRoutingCommand;
 import com.cloud.utils.DateUtil;
 import com.cloud.vm.dao.VMInstanceDao;
 
@@ -43,22 +50,137 @@ public class VirtualMachinePowerStateSyncImpl implements VirtualMachinePowerStat
     protected final ConfigKey<Integer> PingInterval = new ConfigKey<Integer>(Integer.class, "ping.interval", "Advanced", "60",
             "Interval to send application level pings to make sure the connection is still working", false);
 
+    // Names that didn't match any VM are looked up again after this long.
+    protected static final long UNKNOWN_VM_RECHECK_INTERVAL = 5 * 60 * 1000L;
+
+    // What each host reported last, so that pings only cost DB work for VMs whose power state changed.
+    protected final Map<Long, HostPowerStateDigest> _digests = new ConcurrentHashMap<Long, HostPowerStateDigest>();
+    // Host each VM was last reported on.
+    protected final ConcurrentMap<Long, Long> _vmHosts = new ConcurrentHashMap<Long, Long>();
+
     public VirtualMachinePowerStateSyncImpl() {
     }
 
     @Override
     public void resetHostSyncState(long hostId) {
         s_logger.info("Reset VM power state sync for host: " + hostId);
+        _digests.remove(hostId);
+        // The VMs may never be reported by the host again, e.g. if it is removed.
+        Iterator<Long> it = _vmHosts.values().iterator();
+        while (it.hasNext()) {
+            if (it.next() == hostId) {
+                it.remove();
+            }
+        }
         _instanceDao.resetHostPowerStateTracking(hostId);
     }
 
+    @Override
+    public void resetVmSyncState(long vmId) {
+        Long hostId = _vmHosts.get(vmId);
+        HostPowerStateDigest digest = hostId != null ? _digests.get(hostId) : null;
+        if (digest != null) {
+            synchronized (digest) {
+                digest.resetVm(vmId);
+            }
+        }
+        _instanceDao.resetVmPowerStateTracking(vmId);
+    }
+
+    @Override
+    public void processHostVmStatePingReport(long hostId, PingRoutingCommand ping) {
+        Map<String, HostVmStateReportEntry> report = ping.getHostVmStateReport();
+        if (s_logger.isDebugEnabled())
+            s_logger.debug("Process host VM state report from ping process. host: " + hostId + ", delta: " + ping.isHostVmStateReportDelta() + ", records: " + report.size());
+
+        HostPowerStateDigest digest = _digests.get(hostId);
+        if (digest == null) {
+            digest = new HostPowerStateDigest();
+            _digests.put(hostId, digest);
+        }
+
+        Map<Long, VirtualMachine.PowerState> translatedInfo = new HashMap<Long, VirtualMachine.PowerState>();
+        Set<Long> reportedVms;
+        boolean complete;
+        synchronized (digest) {
+            List<String> removedVms = ping.getRemovedVms();
+            if (!ping.isHostVmStateReportDelta()) {
+                removedVms = new ArrayList<String>(digest._vms.keySet());
+                removedVms.removeAll(report.keySet());
+                digest._complete = true;
+            }
+            if (removedVms != null) {
+                for (String vmName : removedVms) {
+                    VmPowerState vm = digest._vms.remove(vmName);
+                    if (vm != null && vm._vmId != null) {
+                        _vmHosts.remove(vm._vmId, hostId);
+                    }
+                }
+            }
+
+            long now = System.currentTimeMillis();
+            for (Map.Entry<String, HostVmStateReportEntry> entry : report.entrySet()) {
+                VmPowerState vm = digest._vms.get(entry.getKey());
+                if (vm == null) {
+                    vm = new VmPowerState();
+                    digest._vms.put(entry.getKey(), vm);
+                    lookUp(hostId, entry.getKey(), vm, now);
+                }
+                if (vm._state != entry.getValue().getState()) {
+                    vm._state = entry.getValue().getState();
+                    vm._reports = 0;
+                }
+            }
+            // The VM may have been created since, so don't remember a name as unknown for good.
+            for (Map.Entry<String, VmPowerState> entry : digest._vms.entrySet()) {
+                VmPowerState vm = entry.getValue();
+                if (vm._vmId == null && now - vm._lookedUpAt > UNKNOWN_VM_RECHECK_INTERVAL) {
+                    lookUp(hostId, entry.getKey(), vm, now);
+                }
+            }
+
+            if (ping.isHostVmStateReportDelta() && (!digest._complete || digest.checksum() != ping.getHostVmStateChecksum())) {
+                s_logger.info("VM state report of host " + hostId + " doesn't match what it reported before, asking for a full report");
+                digest._complete = false;
+                ping.setFullVmStateReportNeeded(true);
+            }
+
+            // Like VMInstanceDao.updatePowerState, only report the same state a few times in a row.
+            // What was written since, for another host or by a reset, is written again.
+            reportedVms = new HashSet<Long>();
+            List<Long> settled = new ArrayList<Long>();
+            for (VmPowerState vm : digest._vms.values()) {
+                if (vm._vmId != null && vm._reports >= VMInstanceDao.MAX_CONSECUTIVE_SAME_STATE_UPDATE_COUNT) {
+                    settled.add(vm._vmId);
+                }
+            }
+            Set<Long> outdated = settled.isEmpty() ? new HashSet<Long>() : new HashSet<Long>(_instanceDao.listPowerStateUpdatesNeeded(settled, hostId));
+            for (VmPowerState vm : digest._vms.values()) {
+                if (vm._vmId == null) {
+                    continue;
+                }
+                reportedVms.add(vm._vmId);
+                if (outdated.contains(vm._vmId)) {
+                    vm._reports = 0;
+                }
+                if (vm._reports < VMInstanceDao.MAX_CONSECUTIVE_SAME_STATE_UPDATE_COUNT) {
+                    vm._reports++;
+                    translatedInfo.put(vm._vmId, vm._state);
+                }
+            }
+            complete = digest._complete;
+        }
+
+        processReport(hostId, translatedInfo, complete ? reportedVms : null);
+    }
+
     @Override
     public void processHostVmStateReport(long hostId, Map<String, HostVmStateReportEntry> report) {
         if (s_logger.isDebugEnabled())
             s_logger.debug("Process host VM state report from ping process. host: " + hostId);
 
         Map<Long, VirtualMachine.PowerState> translatedInfo = convertVmStateReport(report);
-        processReport(hostId, translatedInfo);
+        processReport(hostId, translatedInfo, translatedInfo.keySet());
     }
 
     @Override
@@ -67,28 +189,24 @@ public class VirtualMachinePowerStateSyncImpl implements VirtualMachinePowerStat
             s_logger.debug("Process host VM state report from ping process. host: " + hostId);
 
         Map<Long, VirtualMachine.PowerState> translatedInfo = convertVmStateReport(report);
-        processReport(hostId, translatedInfo);
+        processReport(hostId, translatedInfo, translatedInfo.keySet());
     }
 
-    private void processReport(long hostId, Map<Long, VirtualMachine.PowerState> translatedInfo) {
+    /**
+     * @param translatedInfo power states to update.
+     * @param reportedVms all VMs on the host, null if that isn't known and VMs missing from the report can't be told.
+     */
+    private void processReport(long hostId, Map<Long, VirtualMachine.PowerState> translatedInfo, Set<Long> reportedVms) {
 
         if (s_logger.isDebugEnabled())
             s_logger.debug("Process VM state report. host: " + hostId + ", number of records in report: " + translatedInfo.size());
 
-        for (Map.Entry<Long, VirtualMachine.PowerState> entry : translatedInfo.entrySet()) {
+        updatePowerStates(hostId, translatedInfo);
 
+        if (reportedVms == null) {
             if (s_logger.isDebugEnabled())
-                s_logger.debug("VM state report. host: " + hostId + ", vm id: " + entry.getKey() + ", power state: " + entry.getValue());
-
-            if (_instanceDao.updatePowerState(entry.getKey(), hostId, entry.getValue())) {
-                if (s_logger.isDebugEnabled())
-                    s_logger.debug("VM state report is updated. host: " + hostId + ", vm id: " + entry.getKey() + ", power state: " + entry.getValue());
-
-                _messageBus.publish(null, VirtualMachineManager.Topics.VM_POWER_STATE, PublishScope.GLOBAL, entry.getKey());
-            } else {
-                if (s_logger.isDebugEnabled())
-                    s_logger.debug("VM power state does not change, skip DB writing. vm id: " + entry.getKey());
-            }
+                s_logger.debug("Skip missing VM report until the next full report. host: " + hostId);
+            return;
         }
 
         // for all running/stopping VMs, we provide monitoring of missing report
@@ -97,7 +215,7 @@ public class VirtualMachinePowerStateSyncImpl implements VirtualMachinePowerStat
         java.util.Iterator<VMInstanceVO> it = vmsThatAreMissingReport.iterator();
         while (it.hasNext()) {
             VMInstanceVO instance = it.next();
-            if (translatedInfo.get(instance.getId()) != null)
+            if (reportedVms.contains(instance.getId()))
                 it.remove();
         }
 
@@ -108,6 +226,7 @@ public class VirtualMachinePowerStateSyncImpl implements VirtualMachinePowerStat
 
             // 2 times of sync-update interval for graceful period
             long milliSecondsGracefullPeriod = PingInterval.value() * 2000L;
+            Map<Long, VirtualMachine.PowerState> missingInfo = new HashMap<Long, VirtualMachine.PowerState>();
 
             for (VMInstanceVO instance : vmsThatAreMissingReport) {
 
@@ -126,25 +245,37 @@ public class VirtualMachinePowerStateSyncImpl implements VirtualMachinePowerStat
                 if (milliSecondsSinceLastStateUpdate > milliSecondsGracefullPeriod) {
                     s_logger.debug("vm id: " + instance.getId() + " - time since last state update(" + milliSecondsSinceLastStateUpdate + "ms) has passed graceful period");
 
-                    if (_instanceDao.updatePowerState(instance.getId(), hostId, VirtualMachine.PowerState.PowerReportMissing)) {
-                        if (s_logger.isDebugEnabled())
-                            s_logger.debug("VM state report is updated. host: " + hostId + ", vm id: " + instance.getId() + ", power state: PowerReportMissing ");
-
-                        _messageBus.publish(null, VirtualMachineManager.Topics.VM_POWER_STATE, PublishScope.GLOBAL, instance.getId());
-                    } else {
-                        if (s_logger.isDebugEnabled())
-                            s_logger.debug("VM power state does not change, skip DB writing. vm id: " + instance.getId());
-                    }
+                    missingInfo.put(instance.getId(), VirtualMachine.PowerState.PowerReportMissing);
                 } else {
                     s_logger.debug("vm id: " + instance.getId() + " - time since last state update(" + milliSecondsSinceLastStateUpdate + "ms) has not passed graceful period yet");
                 }
             }
+
+            updatePowerStates(hostId, missingInfo);
         }
 
         if (s_logger.isDebugEnabled())
             s_logger.debug("Done with process of VM state report. host: " + hostId);
     }
 
+    private void updatePowerStates(long hostId, Map<Long, VirtualMachine.PowerState> powerStates) {
+        if (powerStates.isEmpty())
+            return;
+
+        Set<Long> updated = _instanceDao.updatePowerState(powerStates, hostId);
+        for (Map.Entry<Long, VirtualMachine.PowerState> entry : powerStates.entrySet()) {
+            if (updated.contains(entry.getKey())) {
+                if (s_logger.isDebugEnabled())
+                    s_logger.debug("VM state report is updated. host: " + hostId + ", vm id: " + entry.getKey() + ", power state: " + entry.getValue());
+
+                _messageBus.publish(null, VirtualMachineManager.Topics.VM_POWER_STATE, PublishScope.GLOBAL, entry.getKey());
+            } else {
+                if (s_logger.isDebugEnabled())
+                    s_logger.debug("VM power state does not change, skip DB writing. vm id: " + entry.getKey());
+            }
+        }
+    }
+
     @Override
     public Map<Long, VirtualMachine.PowerState> convertVmStateReport(Map<String, HostVmStateReportEntry> states) {
         final HashMap<Long, VirtualMachine.PowerState> map = new HashMap<Long, VirtualMachine.PowerState>();
@@ -167,4 +298,50 @@ public class VirtualMachinePowerStateSyncImpl implements VirtualMachinePowerStat
     private VMInstanceVO findVM(String vmName) {
         return _instanceDao.findVMByInstanceName(vmName);
     }
+
+    private void lookUp(long hostId, String vmName, VmPowerState vm, long now) {
+        VMInstanceVO instance = findVM(vmName);
+        vm._lookedUpAt = now;
+        if (instance == null) {
+            s_logger.info("Unable to find matched VM in CloudStack DB. name: " + vmName);
+            return;
+        }
+        vm._vmId = instance.getId();
+        vm._reports = 0;
+        _vmHosts.put(vm._vmId, hostId);
+    }
+
+    protected static class VmPowerState {
+        Long _vmId;
+        // When the VM was looked up by name, to retry the names that weren't found.
+        long _lookedUpAt;
+        VirtualMachine.PowerState _state;
+        // Times in a row the state was reported and handed to VMInstanceDao.updatePowerState.
+        int _reports;
+    }
+
+    /**
+     * The VM power states a host reported last, by VM name.
+     */
+    protected static class HostPowerStateDigest {
+        final Map<String, VmPowerState> _vms = new HashMap<String, VmPowerState>();
+        // False if the digest may have missed a change, until the next full report.
+        boolean _complete;
+
+        void resetVm(long vmId) {
+            for (VmPowerState vm : _vms.values()) {
+                if (vm._vmId != null && vm._vmId == vmId) {
+                    vm._reports = 0;
+                }
+            }
+        }
+
+        long checksum() {
+            long checksum = 0;
+            for (Map.Entry<String, VmPowerState> entry : _vms.entrySet()) {
+                checksum += PingRoutingCommand.vmStateChecksum(entry.getKey(), entry.getValue()._state);
+            }
+            return checksum;
+        }
+    }
 }
@@ -19,6 +19,7 @@ package com.cloud.agent.manager;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 import org.junit.Test;
 
@@ -79,4 +80,18 @@ public class ConnectedAgentAttacheTest {
 
         assertFalse(agentAttache1.equals("abc"));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testOnlyConnectedAgentLinks() throws Exception {
+
+        Link agentLink = mock(Link.class);
+        when(agentLink.attachment()).thenReturn(new ClusteredAgentAttache(null, 1, null, agentLink, false));
+        assertTrue(AgentManagerImpl.isConnectedAgentLink(agentLink));
+
+        // Peers forwarding requests of their agents.
+        Link peerLink = mock(Link.class);
+        assertFalse(AgentManagerImpl.isConnectedAgentLink(peerLink));
+        when(peerLink.attachment()).thenReturn(new ClusteredAgentAttache(null, 1, null));
+        assertFalse(AgentManagerImpl.isConnectedAgentLink(peerLink));
+    }
+}
@@ -0,0 +1,216 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package com.cloud.vm;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import org.apache.cloudstack.framework.messagebus.MessageBus;
+import org.apache.cloudstack.framework.messagebus.PublishScope;
+
+import com.cloud.agent.api.HostVmStateReportEntry;
+import com.cloud.agent.api.PingRoutingCommand;
+import com.cloud.host.Host;
+import com.cloud.vm.VirtualMachine.PowerState;
+import com.cloud.vm.VirtualMachine.State;
+import com.cloud.vm.dao.VMInstanceDao;
+
+public class VirtualMachinePowerStateSyncImplTest {
+    @Mock
+    VMInstanceDao _instanceDao;
+    @Mock
+    MessageBus _messageBus;
+    @Mock
+    VMInstanceVO _vm;
+
+    VirtualMachinePowerStateSyncImpl _sync;
+
+    @Before
+    public void setup() {
+        MockitoAnnotations.initMocks(this);
+        _sync = new VirtualMachinePowerStateSyncImpl();
+        _sync._instanceDao = _instanceDao;
+        _sync._messageBus = _messageBus;
+        when(_vm.getId()).thenReturn(10L);
+        when(_instanceDao.findVMByInstanceName("i-2-10-VM")).thenReturn(_vm);
+        when(_instanceDao.updatePowerState(anyMapOf(Long.class, PowerState.class), anyLong())).thenAnswer(new Answer<Set<Long>>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Set<Long> answer(InvocationOnMock invocation) {
+                return new HashSet<Long>(((Map<Long, PowerState>)invocation.getArguments()[0]).keySet());
+            }
+        });
+        when(_instanceDao.findByHostInStates(anyLong(), any(State.class), any(State.class), any(State.class))).thenReturn(new ArrayList<VMInstanceVO>());
+    }
+
+    private static Map<String, HostVmStateReportEntry> report(PowerState state) {
+        Map<String, HostVmStateReportEntry> report = new HashMap<String, HostVmStateReportEntry>();
+        report.put("i-2-10-VM", new HostVmStateReportEntry(state, "host"));
+        return report;
+    }
+
+    private static PingRoutingCommand delta(Map<String, HostVmStateReportEntry> changed, long checksum) {
+        PingRoutingCommand ping = new PingRoutingCommand(Host.Type.Routing, 1, null);
+        ping.setHostVmStateReportDelta(changed, Collections.<String> emptyList());
+        ping.setHostVmStateChecksum(checksum);
+        return ping;
+    }
+
+    @Test
+    public void unchangedStatesAreNotWrittenAgain() {
+        Map<String, HostVmStateReportEntry> report = report(PowerState.PowerOn);
+        long checksum = PingRoutingCommand.vmStateChecksum(report);
+        _sync.processHostVmStatePingReport(1, new PingRoutingCommand(Host.Type.Routing, 1, report));
+        for (int i = 0; i < 5; i++) {
+            PingRoutingCommand ping = delta(new HashMap<String, HostVmStateReportEntry>(), checksum);
+            _sync.processHostVmStatePingReport(1, ping);
+            Assert.assertFalse(ping.isFullVmStateReportNeeded());
+        }
+        verify(_instanceDao, times(1)).findVMByInstanceName(anyString());
+        verify(_instanceDao, times(3)).updatePowerState(Collections.singletonMap(10L, PowerState.PowerOn), 1L);
+        verify(_instanceDao, times(6)).findByHostInStates(anyLong(), any(State.class), any(State.class), any(State.class));
+
+        Map<String, HostVmStateReportEntry> changed = report(PowerState.PowerOff);
+        _sync.processHostVmStatePingReport(1, delta(changed, PingRoutingCommand.vmStateChecksum(changed)));
+        verify(_instanceDao, times(1)).updatePowerState(Collections.singletonMap(10L, PowerState.PowerOff), 1L);
+
+        _sync.resetVmSyncState(10L);
+        _sync.processHostVmStatePingReport(1, delta(new HashMap<String, HostVmStateReportEntry>(), PingRoutingCommand.vmStateChecksum(changed)));
+        verify(_instanceDao, times(2)).updatePowerState(Collections.singletonMap(10L, PowerState.PowerOff), 1L);
+    }
+
+    @Test
+    public void resetHostForgetsItsVms() {
+        _sync.processHostVmStatePingReport(1, new PingRoutingCommand(Host.Type.Routing, 1, report(PowerState.PowerOn)));
+        Assert.assertEquals(Long.valueOf(1L), _sync._vmHosts.get(10L));
+
+        _sync.resetHostSyncState(1);
+        Assert.assertTrue(_sync._vmHosts.isEmpty());
+        Assert.assertTrue(_sync._digests.isEmpty());
+    }
+
+    @Test
+    public void checksumMismatchAsksForFullReport() {
+        _sync.processHostVmStatePingReport(1, new PingRoutingCommand(Host.Type.Routing, 1, report(PowerState.PowerOn)));
+        PingRoutingCommand ping = delta(new HashMap<String, HostVmStateReportEntry>(), 42);
+        _sync.processHostVmStatePingReport(1, ping);
+        Assert.assertTrue(ping.isFullVmStateReportNeeded());
+        verify(_instanceDao, times(1)).findByHostInStates(anyLong(), any(State.class), any(State.class), any(State.class));
+
+        // Until a full report comes in, deltas can't be trusted either.
+        ping = delta(new HashMap<String, HostVmStateReportEntry>(), PingRoutingCommand.vmStateChecksum(report(PowerState.PowerOn)));
+        _sync.processHostVmStatePingReport(1, ping);
+        Assert.assertTrue(ping.isFullVmStateReportNeeded());
+
+        ping = new PingRoutingCommand(Host.Type.Routing, 1, report(PowerState.PowerOn));
+        _sync.processHostVmStatePingReport(1, ping);
+        Assert.assertFalse(ping.isFullVmStateReportNeeded());
+        verify(_instanceDao, times(2)).findByHostInStates(anyLong(), any(State.class), any(State.class), any(State.class));
+    }
+
+    @Test
+    public void missingVmsAreUpdatedTogether() {
+        VMInstanceVO missing1 = Mockito.mock(VMInstanceVO.class);
+        VMInstanceVO missing2 = Mockito.mock(VMInstanceVO.class);
+        when(missing1.getId()).thenReturn(11L);
+        when(missing2.getId()).thenReturn(12L);
+        when(missing1.getUpdateTime()).thenReturn(new Date(0));
+        when(missing2.getUpdateTime()).thenReturn(new Date(0));
+        when(_instanceDao.findByHostInStates(anyLong(), any(State.class), any(State.class), any(State.class))).thenReturn(
+                new ArrayList<VMInstanceVO>(Arrays.asList(_vm, missing1, missing2)));
+
+        _sync.processHostVmStatePingReport(1, new PingRoutingCommand(Host.Type.Routing, 1, report(PowerState.PowerOn)));
+
+        Map<Long, PowerState> missing = new HashMap<Long, PowerState>();
+        missing.put(11L, PowerState.PowerReportMissing);
+        missing.put(12L, PowerState.PowerReportMissing);
+        verify(_instanceDao, times(1)).updatePowerState(missing, 1L);
+        verify(_messageBus, times(3)).publish(anyString(), anyString(), any(PublishScope.class), any());
+    }
+
+    @Test
+    public void deltaWithoutDigestAsksForFullReport() {
+        PingRoutingCommand ping = delta(report(PowerState.PowerOn), PingRoutingCommand.vmStateChecksum(report(PowerState.PowerOn)));
+        _sync.processHostVmStatePingReport(1, ping);
+        Assert.assertTrue(ping.isFullVmStateReportNeeded());
+        verify(_instanceDao, times(1)).updatePowerState(Collections.singletonMap(10L, PowerState.PowerOn), 1L);
+        verify(_instanceDao, never()).findByHostInStates(anyLong(), any(State.class), any(State.class), any(State.class));
+    }
+
+    @Test
+    public void statesWrittenSinceAreWrittenAgain() {
+        Map<String, HostVmStateReportEntry> report = report(PowerState.PowerOn);
+        long checksum = PingRoutingCommand.vmStateChecksum(report);
+        _sync.processHostVmStatePingReport(1, new PingRoutingCommand(Host.Type.Routing, 1, report));
+        for (int i = 0; i < 3; i++) {
+            _sync.processHostVmStatePingReport(1, delta(new HashMap<String, HostVmStateReportEntry>(), checksum));
+        }
+        verify(_instanceDao, times(3)).updatePowerState(Collections.singletonMap(10L, PowerState.PowerOn), 1L);
+
+        // Another host reported the VM in the meantime.
+        when(_instanceDao.listPowerStateUpdatesNeeded(Arrays.asList(10L), 1L)).thenReturn(Arrays.asList(10L));
+        _sync.processHostVmStatePingReport(1, delta(new HashMap<String, HostVmStateReportEntry>(), checksum));
+        verify(_instanceDao, times(4)).updatePowerState(Collections.singletonMap(10L, PowerState.PowerOn), 1L);
+    }
+
+    @Test
+    public void unknownVmsAreLookedUpAgain() {
+        Map<String, HostVmStateReportEntry> report = report(PowerState.PowerOn);
+        report.put("i-2-11-VM", new HostVmStateReportEntry(PowerState.PowerOn, "host"));
+        long checksum = PingRoutingCommand.vmStateChecksum(report);
+        _sync.processHostVmStatePingReport(1, new PingRoutingCommand(Host.Type.Routing, 1, report));
+        _sync.processHostVmStatePingReport(1, delta(new HashMap<String, HostVmStateReportEntry>(), checksum));
+        verify(_instanceDao, times(1)).findVMByInstanceName("i-2-11-VM");
+
+        VMInstanceVO created = Mockito.mock(VMInstanceVO.class);
+        when(created.getId()).thenReturn(11L);
+        when(_instanceDao.findVMByInstanceName("i-2-11-VM")).thenReturn(created);
+        _sync._digests.get(1L)._vms.get("i-2-11-VM")._lookedUpAt -= VirtualMachinePowerStateSyncImpl.UNKNOWN_VM_RECHECK_INTERVAL + 1;
+        _sync.processHostVmStatePingReport(1, delta(new HashMap<String, HostVmStateReportEntry>(), checksum));
+
+        verify(_instanceDao, times(2)).findVMByInstanceName("i-2-11-VM");
+        Map<Long, PowerState> states = new HashMap<Long, PowerState>();
+        states.put(10L, PowerState.PowerOn);
+        states.put(11L, PowerState.PowerOn);
+        verify(_instanceDao, times(1)).updatePowerState(states, 1L);
+    }
+}
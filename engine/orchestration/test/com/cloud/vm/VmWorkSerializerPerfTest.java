@@ -0,0 +1,75 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.vm;
+
+import java.io.IOException;
+
+import org.apache.log4j.Logger;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import org.apache.cloudstack.framework.jobs.impl.JobSerializerHelper;
+
+/**
+ * Compares the stored size and the encode+decode time of VmWorkStart with
+ * Java serialization.  It is excluded from the regular build, run it with
+ * -Dtest=VmWorkSerializerPerfTest.
+ */
+public class VmWorkSerializerPerfTest {
+    private static final Logger s_logger = Logger.getLogger(VmWorkSerializerPerfTest.class);
+
+    @BeforeClass
+    public static void enableCodecs() {
+        JobSerializerHelper.setCodecsEnabled(true);
+    }
+
+    @AfterClass
+    public static void disableCodecs() {
+        JobSerializerHelper.setCodecsEnabled(false);
+    }
+
+    @Test
+    public void testAgainstJavaSerialization() throws IOException {
+        VmWorkStart work = VmWorkSerializerTest.createStartWork();
+        String binary = VmWorkSerializer.serialize(work);
+        String java = VmWorkSerializerTest.javaSerialize(work);
+        Assert.assertEquals(JobSerializerHelper.CODEC_MARKER, binary.charAt(0));
+
+        int rounds = 20000;
+        for (int i = 0; i < rounds; i++) {
+            VmWorkSerializer.deserialize(VmWorkStart.class, VmWorkSerializer.serialize(work));
+            JobSerializerHelper.fromObjectSerializedString(VmWorkSerializerTest.javaSerialize(work));
+        }
+
+        long startTick = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            VmWorkSerializer.deserialize(VmWorkStart.class, VmWorkSerializer.serialize(work));
+        }
+        long binaryNanos = System.nanoTime() - startTick;
+
+        startTick = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            JobSerializerHelper.fromObjectSerializedString(VmWorkSerializerTest.javaSerialize(work));
+        }
+        long javaNanos = System.nanoTime() - startTick;
+
+        s_logger.info("VmWorkStart stored size: codec " + binary.length() + " chars, java serialization " + java.length() + " chars");
+        s_logger.info("VmWorkStart encode+decode: codec " + binaryNanos / rounds + "ns, java serialization " + javaNanos / rounds + "ns");
+    }
+}
@@ -0,0 +1,260 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.vm;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.codec.binary.Base64;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import org.apache.cloudstack.framework.jobs.impl.JobSerializerHelper;
+
+import com.cloud.deploy.DataCenterDeployment;
+import com.cloud.deploy.DeployDestination;
+import com.cloud.deploy.DeploymentPlanner.ExcludeList;
+
+public class VmWorkSerializerTest {
+    private static final String HANDLER = VirtualMachineManagerImpl.VM_WORK_JOB_HANDLER;
+
+    static class ValueWork extends VmWork {
+        private static final long serialVersionUID = 1L;
+        Object value;
+
+        ValueWork(Object value) {
+            super(2, 3, 42, HANDLER);
+            this.value = value;
+        }
+    }
+
+    static class DefaultedValue implements Serializable {
+        private static final long serialVersionUID = 1L;
+        String name = "default";
+    }
+
+    static class SingletonValue implements Serializable {
+        private static final long serialVersionUID = 1L;
+        static final SingletonValue INSTANCE = new SingletonValue();
+
+        private Object readResolve() {
+            return INSTANCE;
+        }
+    }
+
+    @BeforeClass
+    public static void enableCodecs() {
+        JobSerializerHelper.setCodecsEnabled(true);
+    }
+
+    @AfterClass
+    public static void disableCodecs() {
+        JobSerializerHelper.setCodecsEnabled(false);
+    }
+
+    static VmWorkStart createStartWork() {
+        VmWorkStart work = new VmWorkStart(2, 3, 42, VirtualMachineManagerImpl.VM_WORK_JOB_HANDLER);
+        DataCenterDeployment plan = new DataCenterDeployment(1, 4L, 5L, null, null, null);
+        ExcludeList avoids = new ExcludeList();
+        avoids.addHost(7);
+        avoids.addHost(8);
+        plan.setAvoids(avoids);
+        work.setPlan(plan);
+        work.setDeploymentPlanner("FirstFitPlanner");
+
+        Map<VirtualMachineProfile.Param, Object> params = new HashMap<VirtualMachineProfile.Param, Object>();
+        params.put(VirtualMachineProfile.Param.VmPassword, "secret");
+        params.put(VirtualMachineProfile.Param.ReProgramGuestNetworks, Boolean.TRUE);
+        work.setParams(params);
+        return work;
+    }
+
+    static String javaSerialize(VmWork work) throws IOException {
+        ByteArrayOutputStream bs = new ByteArrayOutputStream();
+        ObjectOutputStream os = new ObjectOutputStream(bs);
+        os.writeObject(work);
+        os.close();
+        return Base64.encodeBase64URLSafeString(bs.toByteArray());
+    }
+
+    private static Object javaRoundTrip(VmWork work) throws IOException {
+        return JobSerializerHelper.fromObjectSerializedString(javaSerialize(work));
+    }
+
+    /**
+     * Asserts that both values hold the same content, field by field.
+     */
+    private static void assertSameContent(String path, Object expected, Object actual) throws IllegalAccessException {
+        if (expected == null || actual == null) {
+            Assert.assertEquals(path, expected, actual);
+            return;
+        }
+        Class<?> clazz = expected.getClass();
+        if (clazz.isArray()) {
+            Assert.assertEquals(path, clazz, actual.getClass());
+            Assert.assertEquals(path, Array.getLength(expected), Array.getLength(actual));
+            for (int i = 0; i < Array.getLength(expected); i++) {
+                assertSameContent(path + "[" + i + "]", Array.get(expected, i), Array.get(actual, i));
+            }
+        } else if (clazz.getName().startsWith("java.") || clazz.isEnum()) {
+            Assert.assertEquals(path, expected, actual);
+        } else {
+            Assert.assertEquals(path, clazz, actual.getClass());
+            for (Class<?> c = clazz; c != Object.class; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    if (!Modifier.isStatic(field.getModifiers())) {
+                        field.setAccessible(true);
+                        assertSameContent(path + "." + field.getName(), field.get(expected), field.get(actual));
+                    }
+                }
+            }
+        }
+    }
+
+    private static void assertDecodedAsJavaSerialization(VmWork work) throws Exception {
+        Object decoded = VmWorkSerializer.deserialize(work.getClass(), VmWorkSerializer.serialize(work));
+        assertSameContent(work.getClass().getSimpleName(), javaRoundTrip(work), decoded);
+    }
+
+    private static List<VmWork> createEveryWork() {
+        List<VmWork> works = new ArrayList<VmWork>();
+        works.add(new VmWorkAttachVolume(2, 3, 42, HANDLER, 5L, null));
+        works.add(new VmWorkDetachVolume(2, 3, 42, HANDLER, 5L));
+        works.add(new VmWorkExtractVolume(2, 3, 42, HANDLER, 5, 1));
+        works.add(new VmWorkMigrateVolume(2, 3, 42, HANDLER, 5, 6, true));
+        works.add(new VmWorkResizeVolume(2, 3, 42, HANDLER, 5, 10, 20, null, 100L, null, false));
+        works.add(new VmWorkTakeVolumeSnapshot(2, 3, 42, HANDLER, 5L, null, 7L, true));
+        works.add(new VmWorkAddVmToNetwork(2, 3, 42, HANDLER, 9L, new NicProfile("10.1.1.5", null)));
+        works.add(new VmWorkMigrate(2, 3, 42, HANDLER, 7, new DeployDestination()));
+        works.add(new VmWorkMigrateAway(2, 3, 42, HANDLER, 7));
+        Map<Long, Long> volumeToPool = new HashMap<Long, Long>();
+        volumeToPool.put(5L, 6L);
+        works.add(new VmWorkMigrateWithStorage(2, 3, 42, HANDLER, 7, 8, volumeToPool));
+        works.add(new VmWorkMigrateForScale(2, 3, 42, HANDLER, 7, new DeployDestination(), 9L));
+        works.add(new VmWorkRemoveNicFromVm(2, 3, 42, HANDLER, 11L));
+        works.add(new VmWorkRemoveVmFromNetwork(2, 3, 42, HANDLER, null, URI.create("vlan://100")));
+        Map<VirtualMachineProfile.Param, Object> params = new HashMap<VirtualMachineProfile.Param, Object>();
+        params.put(VirtualMachineProfile.Param.ReProgramGuestNetworks, Boolean.TRUE);
+        works.add(new VmWorkReboot(2, 3, 42, HANDLER, params));
+        works.add(new VmWorkReconfigure(2, 3, 42, HANDLER, 9L, true));
+        works.add(new VmWorkStart(2, 3, 42, HANDLER));
+        works.add(new VmWorkStop(2, 3, 42, HANDLER, true));
+        works.add(new VmWorkStorageMigration(2, 3, 42, HANDLER, 12L));
+        return works;
+    }
+
+    private static void assertStartWork(VmWorkStart work) {
+        Assert.assertEquals(2, work.getUserId());
+        Assert.assertEquals(3, work.getAccountId());
+        Assert.assertEquals(42, work.getVmId());
+        Assert.assertEquals(VirtualMachineManagerImpl.VM_WORK_JOB_HANDLER, work.getHandlerName());
+        Assert.assertEquals("FirstFitPlanner", work.getDeploymentPlanner());
+        Assert.assertEquals(Long.valueOf(4), work.podId);
+        Assert.assertEquals(Long.valueOf(5), work.clusterId);
+        Assert.assertNull(work.hostId);
+        Assert.assertEquals(2, work.avoids.getHostsToAvoid().size());
+        Assert.assertTrue(work.avoids.getHostsToAvoid().contains(8L));
+
+        Map<VirtualMachineProfile.Param, Object> params = work.getParams();
+        Assert.assertEquals("secret", params.get(VirtualMachineProfile.Param.VmPassword));
+        Assert.assertEquals(Boolean.TRUE, params.get(VirtualMachineProfile.Param.ReProgramGuestNetworks));
+    }
+
+    @Test
+    public void startWorkRoundTrip() {
+        String serialized = VmWorkSerializer.serialize(createStartWork());
+        Assert.assertEquals(JobSerializerHelper.CODEC_MARKER, serialized.charAt(0));
+
+        VmWorkStart work = VmWorkSerializer.deserialize(VmWorkStart.class, serialized);
+        assertStartWork(work);
+    }
+
+    @Test
+    public void stopAndReconfigureWorkRoundTrip() {
+        VmWorkStop stop = VmWorkSerializer.deserialize(VmWorkStop.class,
+            VmWorkSerializer.serialize(new VmWorkStop(2, 3, 42, VirtualMachineManagerImpl.VM_WORK_JOB_HANDLER, true)));
+        Assert.assertTrue(stop.isCleanup());
+        Assert.assertEquals(42, stop.getVmId());
+
+        VmWorkReconfigure reconfigure = VmWorkSerializer.deserialize(VmWorkReconfigure.class,
+            VmWorkSerializer.serialize(new VmWorkReconfigure(2, 3, 42, VirtualMachineManagerImpl.VM_WORK_JOB_HANDLER, 9L, true)));
+        Assert.assertEquals(Long.valueOf(9), reconfigure.getNewServiceOfferingId());
+        Assert.assertTrue(reconfigure.isSameHost());
+    }
+
+    @Test
+    public void everyWorkDecodesAsJavaSerialization() throws Exception {
+        List<VmWork> works = createEveryWork();
+        works.add(createStartWork());
+        for (VmWork work : works) {
+            assertDecodedAsJavaSerialization(work);
+        }
+    }
+
+    @Test
+    public void workThatWouldDecodeDifferentlyIsJavaSerialized() throws Exception {
+        List<String> shared = new ArrayList<String>();
+        DefaultedValue defaulted = new DefaultedValue();
+        defaulted.name = null;
+        for (Object value : new Object[] {new Object[] {shared, shared}, defaulted, SingletonValue.INSTANCE}) {
+            ValueWork work = new ValueWork(value);
+            String serialized = VmWorkSerializer.serialize(work);
+            Assert.assertTrue(serialized.charAt(0) != JobSerializerHelper.CODEC_MARKER);
+            assertDecodedAsJavaSerialization(work);
+        }
+
+        ValueWork decoded = VmWorkSerializer.deserialize(ValueWork.class, VmWorkSerializer.serialize(new ValueWork(new Object[] {shared, shared})));
+        Object[] value = (Object[])decoded.value;
+        Assert.assertSame(value[0], value[1]);
+    }
+
+    @Test
+    public void javaSerializedWorkStillDecodes() throws IOException {
+        VmWorkStart work = VmWorkSerializer.deserialize(VmWorkStart.class, javaSerialize(createStartWork()));
+        assertStartWork(work);
+    }
+
+    @Test
+    public void encodingIsSmaller() throws IOException {
+        VmWorkStart work = createStartWork();
+        Assert.assertTrue(VmWorkSerializer.serialize(work).length() < javaSerialize(work).length() / 2);
+    }
+
+    @Test
+    public void javaSerializationWithoutCodecs() {
+        JobSerializerHelper.setCodecsEnabled(false);
+        try {
+            String serialized = VmWorkSerializer.serialize(createStartWork());
+            Assert.assertTrue(serialized.charAt(0) != JobSerializerHelper.CODEC_MARKER);
+            assertStartWork((VmWorkStart)VmWorkSerializer.deserialize(VmWorkStart.class, serialized));
+        } finally {
+            JobSerializerHelper.setCodecsEnabled(true);
+        }
+    }
+}
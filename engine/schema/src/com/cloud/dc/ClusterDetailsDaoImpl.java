@@ -129,6 +129,33 @@ public class ClusterDetailsDaoImpl extends GenericDaoBase<ClusterDetailsVO, Long
         txn.commit();
     }
 
+    @Override
+    protected void afterPersist(ClusterDetailsVO detail) {
+        // Some keys are stored under another name, see findDetail().
+        ConfigKey.invalidate(null);
+    }
+
+    @Override
+    public boolean update(Long id, ClusterDetailsVO detail) {
+        boolean updated = super.update(id, detail);
+        ConfigKey.invalidate(null);
+        return updated;
+    }
+
+    @Override
+    public boolean remove(Long id) {
+        boolean removed = super.remove(id);
+        ConfigKey.invalidate(null);
+        return removed;
+    }
+
+    @Override
+    public int expunge(SearchCriteria<ClusterDetailsVO> sc) {
+        int expunged = super.expunge(sc);
+        ConfigKey.invalidate(null);
+        return expunged;
+    }
+
     @Override
     public Scope getScope() {
         return ConfigKey.Scope.Cluster;
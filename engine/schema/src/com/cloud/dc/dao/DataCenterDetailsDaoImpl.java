@@ -18,28 +18,20 @@ package com.cloud.dc.dao;
 
 import javax.ejb.Local;
 
-import org.apache.cloudstack.api.ResourceDetail;
 import org.apache.cloudstack.framework.config.ConfigKey;
 import org.apache.cloudstack.framework.config.ConfigKey.Scope;
-import org.apache.cloudstack.framework.config.ScopedConfigStorage;
-import org.apache.cloudstack.resourcedetail.ResourceDetailsDaoBase;
+import org.apache.cloudstack.resourcedetail.ScopedConfigDetailsDaoBase;
 
 import com.cloud.dc.DataCenterDetailVO;
 
 @Local(value = DataCenterDetailsDao.class)
-public class DataCenterDetailsDaoImpl extends ResourceDetailsDaoBase<DataCenterDetailVO> implements DataCenterDetailsDao, ScopedConfigStorage {
+public class DataCenterDetailsDaoImpl extends ScopedConfigDetailsDaoBase<DataCenterDetailVO> implements DataCenterDetailsDao {
 
     @Override
     public Scope getScope() {
         return ConfigKey.Scope.Zone;
     }
 
-    @Override
-    public String getConfigValue(long id, ConfigKey<?> key) {
-        ResourceDetail vo = findDetail(id, key.key());
-        return vo == null ? null : vo.getValue();
-    }
-
     @Override
     public void addDetail(long resourceId, String key, String value, boolean display) {
         super.addDetail(new DataCenterDetailVO(resourceId, key, value, display));
@@ -18,6 +18,7 @@ package com.cloud.dc.dao;
 
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
@@ -27,7 +28,9 @@ import org.apache.log4j.Logger;
 import org.springframework.stereotype.Component;
 
 import com.cloud.dc.DataCenterIpAddressVO;
+import com.cloud.utils.db.AllocationReservoir;
 import com.cloud.utils.db.DB;
+import com.cloud.utils.db.Filter;
 import com.cloud.utils.db.GenericDaoBase;
 import com.cloud.utils.db.GenericSearchBuilder;
 import com.cloud.utils.db.SearchBuilder;
@@ -47,9 +50,61 @@ public class DataCenterIpAddressDaoImpl extends GenericDaoBase<DataCenterIpAddre
     private final GenericSearchBuilder<DataCenterIpAddressVO, Integer> AllIpCount;
     private final GenericSearchBuilder<DataCenterIpAddressVO, Integer> AllAllocatedIpCount;
 
+    private final AllocationReservoir<Long> _podReservoir = new AllocationReservoir<Long>("op_dc_ip_address_alloc.pod", new AllocationReservoir.Source<Long>() {
+        @Override
+        public List<Long> listFree(Long podId, int max) {
+            return listFreeIds("pod", podId, max);
+        }
+    });
+
+    private final AllocationReservoir<Long> _dcReservoir = new AllocationReservoir<Long>("op_dc_ip_address_alloc.dc", new AllocationReservoir.Source<Long>() {
+        @Override
+        public List<Long> listFree(Long dcId, int max) {
+            return listFreeIds("dc", dcId, max);
+        }
+    });
+
+    protected List<Long> listFreeIds(String pool, long poolId, int max) {
+        SearchCriteria<DataCenterIpAddressVO> sc = AllFieldsSearch.create();
+        sc.setParameters(pool, poolId);
+        sc.setParameters("taken", (Date)null);
+        List<Long> ids = new ArrayList<Long>();
+        for (DataCenterIpAddressVO vo : listBy(sc, new Filter(max))) {
+            ids.add(vo.getId());
+        }
+        return ids;
+    }
+
+    protected DataCenterIpAddressVO take(AllocationReservoir<Long> reservoir, long poolId, final Long instanceId, final String reservationId) {
+        final Date now = new Date();
+        Long id = reservoir.allocate(poolId, new AllocationReservoir.Claim() {
+            @Override
+            public boolean claim(long id) {
+                SearchCriteria<DataCenterIpAddressVO> sc = AllFieldsSearch.create();
+                sc.setParameters("id", id);
+                sc.setParameters("taken", (Date)null);
+
+                DataCenterIpAddressVO vo = createForUpdate();
+                vo.setTakenAt(now);
+                if (instanceId != null) {
+                    vo.setInstanceId(instanceId);
+                }
+                vo.setReservationId(reservationId);
+                return update(vo, sc) == 1;
+            }
+        });
+        return id != null ? findById(id) : null;
+    }
+
     @Override
     @DB
     public DataCenterIpAddressVO takeIpAddress(long dcId, long podId, long instanceId, String reservationId) {
+        DataCenterIpAddressVO taken = take(_podReservoir, podId, instanceId, reservationId);
+        if (taken != null) {
+            return taken;
+        }
+
+        // The reservoir reads without locking, make sure the pod is really out of addresses.
         SearchCriteria<DataCenterIpAddressVO> sc = AllFieldsSearch.create();
         sc.setParameters("pod", podId);
         sc.setParameters("taken", (Date)null);
@@ -72,6 +127,11 @@ public class DataCenterIpAddressDaoImpl extends GenericDaoBase<DataCenterIpAddre
     @Override
     @DB
     public DataCenterIpAddressVO takeDataCenterIpAddress(long dcId, String reservationId) {
+        DataCenterIpAddressVO taken = take(_dcReservoir, dcId, null, reservationId);
+        if (taken != null) {
+            return taken;
+        }
+
         SearchCriteria<DataCenterIpAddressVO> sc = AllFieldsSearch.create();
         sc.setParameters("dc", dcId);
         sc.setParameters("taken", (Date)null);
@@ -226,6 +286,7 @@ public class DataCenterIpAddressDaoImpl extends GenericDaoBase<DataCenterIpAddre
         super();
 
         AllFieldsSearch = createSearchBuilder();
+        AllFieldsSearch.and("id", AllFieldsSearch.entity().getId(), SearchCriteria.Op.EQ);
         AllFieldsSearch.and("ip", AllFieldsSearch.entity().getIpAddress(), SearchCriteria.Op.EQ);
         AllFieldsSearch.and("dc", AllFieldsSearch.entity().getDataCenterId(), SearchCriteria.Op.EQ);
         AllFieldsSearch.and("pod", AllFieldsSearch.entity().getPodId(), SearchCriteria.Op.EQ);
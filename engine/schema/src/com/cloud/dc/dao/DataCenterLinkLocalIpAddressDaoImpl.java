@@ -18,6 +18,7 @@ package com.cloud.dc.dao;
 
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
@@ -29,7 +30,9 @@ import org.apache.log4j.Logger;
 import org.springframework.stereotype.Component;
 
 import com.cloud.dc.DataCenterLinkLocalIpAddressVO;
+import com.cloud.utils.db.AllocationReservoir;
 import com.cloud.utils.db.DB;
+import com.cloud.utils.db.Filter;
 import com.cloud.utils.db.GenericDaoBase;
 import com.cloud.utils.db.GenericSearchBuilder;
 import com.cloud.utils.db.SearchBuilder;
@@ -49,9 +52,44 @@ public class DataCenterLinkLocalIpAddressDaoImpl extends GenericDaoBase<DataCent
     private final GenericSearchBuilder<DataCenterLinkLocalIpAddressVO, Integer> AllIpCount;
     private final GenericSearchBuilder<DataCenterLinkLocalIpAddressVO, Integer> AllAllocatedIpCount;
 
+    private final AllocationReservoir<Long> _podReservoir = new AllocationReservoir<Long>("op_dc_link_local_ip_address_alloc.pod",
+        new AllocationReservoir.Source<Long>() {
+            @Override
+            public List<Long> listFree(Long podId, int max) {
+                SearchCriteria<DataCenterLinkLocalIpAddressVO> sc = AllFieldsSearch.create();
+                sc.setParameters("pod", podId);
+                sc.setParameters("taken", (Date)null);
+                List<Long> ids = new ArrayList<Long>();
+                for (DataCenterLinkLocalIpAddressVO vo : listBy(sc, new Filter(max))) {
+                    ids.add(vo.getId());
+                }
+                return ids;
+            }
+        });
+
     @Override
     @DB
-    public DataCenterLinkLocalIpAddressVO takeIpAddress(long dcId, long podId, long instanceId, String reservationId) {
+    public DataCenterLinkLocalIpAddressVO takeIpAddress(long dcId, long podId, final long instanceId, final String reservationId) {
+        final Date now = new Date();
+        Long id = _podReservoir.allocate(podId, new AllocationReservoir.Claim() {
+            @Override
+            public boolean claim(long id) {
+                SearchCriteria<DataCenterLinkLocalIpAddressVO> sc = AllFieldsSearch.create();
+                sc.setParameters("id", id);
+                sc.setParameters("taken", (Date)null);
+
+                DataCenterLinkLocalIpAddressVO vo = createForUpdate();
+                vo.setTakenAt(now);
+                vo.setInstanceId(instanceId);
+                vo.setReservationId(reservationId);
+                return update(vo, sc) == 1;
+            }
+        });
+        if (id != null) {
+            return findById(id);
+        }
+
+        // The reservoir reads without locking, make sure the pod is really out of addresses.
         SearchCriteria<DataCenterLinkLocalIpAddressVO> sc = AllFieldsSearch.create();
         sc.setParameters("pod", podId);
         sc.setParameters("taken", (Date)null);
@@ -161,6 +199,7 @@ public class DataCenterLinkLocalIpAddressDaoImpl extends GenericDaoBase<DataCent
     public DataCenterLinkLocalIpAddressDaoImpl() {
         super();
         AllFieldsSearch = createSearchBuilder();
+        AllFieldsSearch.and("id", AllFieldsSearch.entity().getId(), SearchCriteria.Op.EQ);
         AllFieldsSearch.and("ip", AllFieldsSearch.entity().getIpAddress(), SearchCriteria.Op.EQ);
         AllFieldsSearch.and("dc", AllFieldsSearch.entity().getDataCenterId(), SearchCriteria.Op.EQ);
         AllFieldsSearch.and("pod", AllFieldsSearch.entity().getPodId(), SearchCriteria.Op.EQ);
@@ -18,6 +18,7 @@ package com.cloud.dc.dao;
 
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
@@ -30,7 +31,10 @@ import org.springframework.stereotype.Component;
 import com.cloud.dc.DataCenterVnetVO;
 import com.cloud.network.dao.AccountGuestVlanMapDao;
 import com.cloud.network.dao.AccountGuestVlanMapVO;
+import com.cloud.utils.Pair;
+import com.cloud.utils.db.AllocationReservoir;
 import com.cloud.utils.db.DB;
+import com.cloud.utils.db.Filter;
 import com.cloud.utils.db.GenericDaoBase;
 import com.cloud.utils.db.GenericSearchBuilder;
 import com.cloud.utils.db.JoinBuilder;
@@ -67,6 +71,19 @@ public class DataCenterVnetDaoImpl extends GenericDaoBase<DataCenterVnetVO, Long
     @Inject
     protected AccountGuestVlanMapDao _accountGuestVlanMapDao;
 
+    // Pools are keyed by physical network and the dedicated guest vlan ranges, if any.
+    private final AllocationReservoir<Pair<Long, List<Long>>> _reservoir = new AllocationReservoir<Pair<Long, List<Long>>>("op_dc_vnet_alloc",
+        new AllocationReservoir.Source<Pair<Long, List<Long>>>() {
+            @Override
+            public List<Long> listFree(Pair<Long, List<Long>> pool, int max) {
+                List<Long> ids = new ArrayList<Long>();
+                for (DataCenterVnetVO vo : listBy(createFreeVnetCriteria(pool.first(), pool.second()), new Filter(max))) {
+                    ids.add(vo.getId());
+                }
+                return ids;
+            }
+        });
+
     @Override
     public List<DataCenterVnetVO> listAllocatedVnets(long physicalNetworkId) {
         SearchCriteria<DataCenterVnetVO> sc = DcSearchAllocated.create();
@@ -176,16 +193,27 @@ public class DataCenterVnetDaoImpl extends GenericDaoBase<DataCenterVnetVO, Long
 
     @Override
     @DB
-    public DataCenterVnetVO take(long physicalNetworkId, long accountId, String reservationId, List<Long> vlanDbIds) {
-        SearchCriteria<DataCenterVnetVO> sc;
-        if (vlanDbIds != null) {
-            sc = FreeDedicatedVnetSearch.create();
-            sc.setParameters("accountGuestVlanMapId", vlanDbIds.toArray());
-        } else {
-            sc = FreeVnetSearch.create();
+    public DataCenterVnetVO take(final long physicalNetworkId, final long accountId, final String reservationId, final List<Long> vlanDbIds) {
+        final Date now = new Date();
+        Long id = _reservoir.allocate(new Pair<Long, List<Long>>(physicalNetworkId, vlanDbIds), new AllocationReservoir.Claim() {
+            @Override
+            public boolean claim(long id) {
+                SearchCriteria<DataCenterVnetVO> sc = createFreeVnetCriteria(physicalNetworkId, vlanDbIds);
+                sc.setParameters("id", id);
+
+                DataCenterVnetVO vo = createForUpdate();
+                vo.setTakenAt(now);
+                vo.setAccountId(accountId);
+                vo.setReservationId(reservationId);
+                return update(vo, sc) == 1;
+            }
+        });
+        if (id != null) {
+            return findById(id);
         }
-        sc.setParameters("physicalNetworkId", physicalNetworkId);
-        Date now = new Date();
+
+        // The reservoir reads without locking, make sure the physical network is really out of vnets.
+        SearchCriteria<DataCenterVnetVO> sc = createFreeVnetCriteria(physicalNetworkId, vlanDbIds);
         TransactionLegacy txn = TransactionLegacy.currentTxn();
         txn.start();
         DataCenterVnetVO vo = lockOneRandomRow(sc, true);
@@ -201,6 +229,18 @@ public class DataCenterVnetDaoImpl extends GenericDaoBase<DataCenterVnetVO, Long
         return vo;
     }
 
+    protected SearchCriteria<DataCenterVnetVO> createFreeVnetCriteria(long physicalNetworkId, List<Long> vlanDbIds) {
+        SearchCriteria<DataCenterVnetVO> sc;
+        if (vlanDbIds != null) {
+            sc = FreeDedicatedVnetSearch.create();
+            sc.setParameters("accountGuestVlanMapId", vlanDbIds.toArray());
+        } else {
+            sc = FreeVnetSearch.create();
+        }
+        sc.setParameters("physicalNetworkId", physicalNetworkId);
+        return sc;
+    }
+
     @Override
     public void release(String vnet, long physicalNetworkId, long accountId, String reservationId) {
         SearchCriteria<DataCenterVnetVO> sc = VnetDcSearchAllocated.create();
@@ -294,6 +334,7 @@ public class DataCenterVnetDaoImpl extends GenericDaoBase<DataCenterVnetVO, Long
         SearchRange.and("vnetRange", SearchRange.entity().getVnet(), Op.BETWEEN);
 
         FreeVnetSearch = createSearchBuilder();
+        FreeVnetSearch.and("id", FreeVnetSearch.entity().getId(), SearchCriteria.Op.EQ);
         FreeVnetSearch.and("dc", FreeVnetSearch.entity().getDataCenterId(), SearchCriteria.Op.EQ);
         FreeVnetSearch.and("physicalNetworkId", FreeVnetSearch.entity().getPhysicalNetworkId(), SearchCriteria.Op.EQ);
         FreeVnetSearch.and("taken", FreeVnetSearch.entity().getTakenAt(), SearchCriteria.Op.NULL);
@@ -301,6 +342,7 @@ public class DataCenterVnetDaoImpl extends GenericDaoBase<DataCenterVnetVO, Long
         FreeVnetSearch.done();
 
         FreeDedicatedVnetSearch = createSearchBuilder();
+        FreeDedicatedVnetSearch.and("id", FreeDedicatedVnetSearch.entity().getId(), SearchCriteria.Op.EQ);
         FreeDedicatedVnetSearch.and("dc", FreeDedicatedVnetSearch.entity().getDataCenterId(), SearchCriteria.Op.EQ);
         FreeDedicatedVnetSearch.and("physicalNetworkId", FreeDedicatedVnetSearch.entity().getPhysicalNetworkId(), SearchCriteria.Op.EQ);
         FreeDedicatedVnetSearch.and("taken", FreeDedicatedVnetSearch.entity().getTakenAt(), SearchCriteria.Op.NULL);
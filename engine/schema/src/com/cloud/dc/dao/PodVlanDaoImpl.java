@@ -18,12 +18,15 @@ package com.cloud.dc.dao;
 
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
 import org.springframework.stereotype.Component;
 
 import com.cloud.dc.PodVlanVO;
+import com.cloud.utils.db.AllocationReservoir;
+import com.cloud.utils.db.Filter;
 import com.cloud.utils.db.GenericDaoBase;
 import com.cloud.utils.db.SearchBuilder;
 import com.cloud.utils.db.SearchCriteria;
@@ -39,6 +42,19 @@ public class PodVlanDaoImpl extends GenericDaoBase<PodVlanVO, Long> implements P
     private final SearchBuilder<PodVlanVO> VlanPodSearch;
     private final SearchBuilder<PodVlanVO> PodSearchAllocated;
 
+    private final AllocationReservoir<Long> _reservoir = new AllocationReservoir<Long>("op_pod_vlan_alloc", new AllocationReservoir.Source<Long>() {
+        @Override
+        public List<Long> listFree(Long podId, int max) {
+            SearchCriteria<PodVlanVO> sc = FreeVlanSearch.create();
+            sc.setParameters("podId", podId);
+            List<Long> ids = new ArrayList<Long>();
+            for (PodVlanVO vo : listBy(sc, new Filter(max))) {
+                ids.add(vo.getId());
+            }
+            return ids;
+        }
+    });
+
     @Override
     public List<PodVlanVO> listAllocatedVnets(long podId) {
         SearchCriteria<PodVlanVO> sc = PodSearchAllocated.create();
@@ -81,10 +97,28 @@ public class PodVlanDaoImpl extends GenericDaoBase<PodVlanVO, Long> implements P
     }
 
     @Override
-    public PodVlanVO take(long podId, long accountId) {
+    public PodVlanVO take(final long podId, final long accountId) {
+        final Date now = new Date();
+        Long id = _reservoir.allocate(podId, new AllocationReservoir.Claim() {
+            @Override
+            public boolean claim(long id) {
+                SearchCriteria<PodVlanVO> sc = FreeVlanSearch.create();
+                sc.setParameters("id", id);
+                sc.setParameters("podId", podId);
+
+                PodVlanVO vo = createForUpdate();
+                vo.setTakenAt(now);
+                vo.setAccountId(accountId);
+                return update(vo, sc) == 1;
+            }
+        });
+        if (id != null) {
+            return findById(id);
+        }
+
+        // The reservoir reads without locking, make sure the pod is really out of vlans.
         SearchCriteria<PodVlanVO> sc = FreeVlanSearch.create();
         sc.setParameters("podId", podId);
-        Date now = new Date();
         TransactionLegacy txn = TransactionLegacy.currentTxn();
         try {
             txn.start();
@@ -129,6 +163,7 @@ public class PodVlanDaoImpl extends GenericDaoBase<PodVlanVO, Long> implements P
         PodSearchAllocated.done();
 
         FreeVlanSearch = createSearchBuilder();
+        FreeVlanSearch.and("id", FreeVlanSearch.entity().getId(), SearchCriteria.Op.EQ);
         FreeVlanSearch.and("podId", FreeVlanSearch.entity().getPodId(), SearchCriteria.Op.EQ);
         FreeVlanSearch.and("taken", FreeVlanSearch.entity().getTakenAt(), SearchCriteria.Op.NULL);
         FreeVlanSearch.done();
@@ -16,6 +16,7 @@
 // under the License.
 package com.cloud.dc.dao;
 
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
@@ -24,7 +25,9 @@ import javax.ejb.Local;
 import org.springframework.stereotype.Component;
 
 import com.cloud.dc.StorageNetworkIpAddressVO;
+import com.cloud.utils.db.AllocationReservoir;
 import com.cloud.utils.db.DB;
+import com.cloud.utils.db.Filter;
 import com.cloud.utils.db.GenericDaoBase;
 import com.cloud.utils.db.GenericSearchBuilder;
 import com.cloud.utils.db.SearchBuilder;
@@ -42,6 +45,19 @@ public class StorageNetworkIpAddressDaoImpl extends GenericDaoBase<StorageNetwor
     protected final SearchBuilder<StorageNetworkIpAddressVO> untakenIp;
     protected final SearchBuilder<StorageNetworkIpAddressVO> ipSearch;
 
+    private final AllocationReservoir<Long> _reservoir = new AllocationReservoir<Long>("op_dc_storage_network_ip_address", new AllocationReservoir.Source<Long>() {
+        @Override
+        public List<Long> listFree(Long rangeId, int max) {
+            SearchCriteria<StorageNetworkIpAddressVO> sc = untakenIp.create();
+            sc.setParameters("rangeId", rangeId);
+            List<Long> ids = new ArrayList<Long>();
+            for (StorageNetworkIpAddressVO vo : listBy(sc, new Filter(max))) {
+                ids.add(vo.getId());
+            }
+            return ids;
+        }
+    });
+
     protected StorageNetworkIpAddressDaoImpl() {
         countInUserIp = createSearchBuilder(Long.class);
         countInUserIp.select(null, Func.COUNT, null);
@@ -56,6 +72,7 @@ public class StorageNetworkIpAddressDaoImpl extends GenericDaoBase<StorageNetwor
         listInUseIp.done();
 
         untakenIp = createSearchBuilder();
+        untakenIp.and("id", untakenIp.entity().getId(), Op.EQ);
         untakenIp.and("rangeId", untakenIp.entity().getRangeId(), Op.EQ);
         untakenIp.and("taken", untakenIp.entity().getTakenAt(), Op.NULL);
         untakenIp.done();
@@ -82,6 +99,23 @@ public class StorageNetworkIpAddressDaoImpl extends GenericDaoBase<StorageNetwor
     @Override
     @DB
     public StorageNetworkIpAddressVO takeIpAddress(long rangeId) {
+        final Date now = new Date();
+        Long id = _reservoir.allocate(rangeId, new AllocationReservoir.Claim() {
+            @Override
+            public boolean claim(long id) {
+                SearchCriteria<StorageNetworkIpAddressVO> sc = untakenIp.create();
+                sc.setParameters("id", id);
+
+                StorageNetworkIpAddressVO vo = createForUpdate();
+                vo.setTakenAt(now);
+                return update(vo, sc) == 1;
+            }
+        });
+        if (id != null) {
+            return findById(id);
+        }
+
+        // The reservoir reads without locking, make sure the range is really out of addresses.
         SearchCriteria<StorageNetworkIpAddressVO> sc = untakenIp.create();
         sc.setParameters("rangeId", rangeId);
         TransactionLegacy txn = TransactionLegacy.currentTxn();
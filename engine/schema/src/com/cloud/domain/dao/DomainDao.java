@@ -23,6 +23,10 @@ import com.cloud.domain.DomainVO;
 import com.cloud.utils.db.GenericDao;
 
 public interface DomainDao extends GenericDao<DomainVO, Long> {
+    public interface PathChangeListener {
+        void onPathChange(long domainId);
+    }
+
     public DomainVO create(DomainVO domain);
 
     public DomainVO findDomainByPath(String domainPath);
@@ -40,4 +44,14 @@ public interface DomainDao extends GenericDao<DomainVO, Long> {
     Set<Long> getDomainParentIds(long domainId);
 
     List<Long> getDomainChildrenIds(String path);
+
+    /**
+     * Drops the cached path of a domain changed by another management server.
+     */
+    void invalidatePath(long domainId);
+
+    /**
+     * @param listener told once a domain path change made on this management server is committed
+     */
+    void setPathChangeListener(PathChangeListener listener);
 }
@@ -22,6 +22,9 @@ import java.sql.SQLException;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.ejb.Local;
 
@@ -50,6 +53,25 @@ public class DomainDaoImpl extends GenericDaoBase<DomainVO, Long> implements Dom
     protected GenericSearchBuilder<DomainVO, Long> FindIdsOfAllChildrenSearch;
     protected SearchBuilder<DomainVO> AllFieldsSearch;
 
+    // a change notification from another management server can be lost, the cached paths are reloaded after this time
+    static final long PATH_CACHE_TTL = TimeUnit.SECONDS.toMillis(60);
+
+    // paths of live domains by id for isChildDomain, a path only changes when the domain is renamed or removed
+    private final ConcurrentHashMap<Long, CachedPath> _paths = new ConcurrentHashMap<Long, CachedPath>();
+    // bumped on every path change, a path loaded while it changed is not kept
+    private final AtomicLong _pathVersion = new AtomicLong();
+    private volatile PathChangeListener _pathChangeListener;
+
+    private static class CachedPath {
+        final String path;
+        final long expires;
+
+        CachedPath(String path, long expires) {
+            this.path = path;
+            this.expires = expires;
+        }
+    }
+
     public DomainDaoImpl() {
         DomainNameLikeSearch = createSearchBuilder();
         DomainNameLikeSearch.and("name", DomainNameLikeSearch.entity().getName(), SearchCriteria.Op.LIKE);
@@ -190,6 +212,9 @@ public class DomainDaoImpl extends GenericDaoBase<DomainVO, Long> implements Dom
             parentDomain.setChildCount(parentDomain.getChildCount() - 1);
             update(parentDomain.getId(), parentDomain);
             success = super.remove(id);
+            if (success) {
+                pathChanged(id);
+            }
             txn.commit();
         } catch (SQLException ex) {
             success = false;
@@ -199,6 +224,46 @@ public class DomainDaoImpl extends GenericDaoBase<DomainVO, Long> implements Dom
         return success;
     }
 
+    @Override
+    public boolean update(Long id, DomainVO domain) {
+        boolean updated = super.update(id, domain);
+        if (updated) {
+            pathChanged(id);
+        }
+        return updated;
+    }
+
+    // the path is dropped right away so the changing transaction doesn't use it, and again once the change is committed
+    private void pathChanged(final long domainId) {
+        invalidatePath(domainId);
+        TransactionLegacy.runAfterCommit(new Runnable() {
+            @Override
+            public void run() {
+                invalidatePath(domainId);
+                PathChangeListener listener = _pathChangeListener;
+                if (listener != null) {
+                    listener.onPathChange(domainId);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void invalidatePath(long domainId) {
+        _pathVersion.incrementAndGet();
+        _paths.remove(domainId);
+    }
+
+    private String getCachedPath(long domainId, long now) {
+        CachedPath cached = _paths.get(domainId);
+        return cached != null && cached.expires > now ? cached.path : null;
+    }
+
+    @Override
+    public void setPathChangeListener(PathChangeListener listener) {
+        _pathChangeListener = listener;
+    }
+
     @Override
     public DomainVO findDomainByPath(String domainPath) {
         SearchCriteria<DomainVO> sc = createSearchCriteria();
@@ -245,23 +310,35 @@ public class DomainDaoImpl extends GenericDaoBase<DomainVO, Long> implements Dom
             return true;
         }
 
-        boolean result = false;
-        SearchCriteria<DomainVO> sc = DomainPairSearch.create();
-        sc.setParameters("id", parentId, childId);
-
-        List<DomainVO> domainPair = listBy(sc);
-
-        if ((domainPair != null) && (domainPair.size() == 2)) {
-            DomainVO d1 = domainPair.get(0);
-            DomainVO d2 = domainPair.get(1);
-
-            if (d1.getId() == parentId) {
-                result = d2.getPath().startsWith(d1.getPath());
-            } else {
-                result = d1.getPath().startsWith(d2.getPath());
+        long now = System.currentTimeMillis();
+        String parentPath = getCachedPath(parentId, now);
+        String childPath = getCachedPath(childId, now);
+        if (parentPath == null || childPath == null) {
+            // a transaction may see paths that are not committed yet or were changed since it started
+            TransactionLegacy txn = TransactionLegacy.currentTxn();
+            boolean cacheable = txn == null || !txn.dbTxnStarted();
+            long version = _pathVersion.get();
+
+            SearchCriteria<DomainVO> sc = DomainPairSearch.create();
+            sc.setParameters("id", parentId, childId);
+
+            for (DomainVO domain : listBy(sc)) {
+                if (cacheable) {
+                    CachedPath cached = new CachedPath(domain.getPath(), now + PATH_CACHE_TTL);
+                    _paths.put(domain.getId(), cached);
+                    if (_pathVersion.get() != version) {
+                        _paths.remove(domain.getId(), cached);
+                        cacheable = false;
+                    }
+                }
+                if (domain.getId() == parentId) {
+                    parentPath = domain.getPath();
+                } else {
+                    childPath = domain.getPath();
+                }
             }
         }
-        return result;
+        return parentPath != null && childPath != null && childPath.startsWith(parentPath);
     }
 
     @Override
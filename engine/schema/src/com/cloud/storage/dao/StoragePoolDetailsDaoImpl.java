@@ -20,13 +20,12 @@ import javax.ejb.Local;
 
 import org.apache.cloudstack.framework.config.ConfigKey;
 import org.apache.cloudstack.framework.config.ConfigKey.Scope;
-import org.apache.cloudstack.framework.config.ScopedConfigStorage;
-import org.apache.cloudstack.resourcedetail.ResourceDetailsDaoBase;
+import org.apache.cloudstack.resourcedetail.ScopedConfigDetailsDaoBase;
 import org.apache.cloudstack.storage.datastore.db.StoragePoolDetailVO;
 import org.apache.cloudstack.storage.datastore.db.StoragePoolDetailsDao;
 
 @Local(value = StoragePoolDetailsDao.class)
-public class StoragePoolDetailsDaoImpl extends ResourceDetailsDaoBase<StoragePoolDetailVO> implements StoragePoolDetailsDao, ScopedConfigStorage {
+public class StoragePoolDetailsDaoImpl extends ScopedConfigDetailsDaoBase<StoragePoolDetailVO> implements StoragePoolDetailsDao {
 
     public StoragePoolDetailsDaoImpl() {
     }
@@ -36,12 +35,6 @@ public class StoragePoolDetailsDaoImpl extends ResourceDetailsDaoBase<StoragePoo
         return ConfigKey.Scope.StoragePool;
     }
 
-    @Override
-    public String getConfigValue(long id, ConfigKey<?> key) {
-        StoragePoolDetailVO vo = findDetail(id, key.key());
-        return vo == null ? null : vo.getValue();
-    }
-
     @Override
     public void addDetail(long resourceId, String key, String value, boolean display) {
         super.addDetail(new StoragePoolDetailVO(resourceId, key, value, display));
@@ -16,6 +16,7 @@
 // under the License.
 package com.cloud.usage.dao;
 
+import java.util.Date;
 import java.util.List;
 
 import com.cloud.usage.UsageVO;
@@ -53,4 +54,11 @@ public interface UsageDao extends GenericDao<UsageVO, Long> {
     void saveVmDiskStats(List<VmDiskStatisticsVO> vmDiskStats);
 
     void saveUsageRecords(List<UsageVO> usageRecords);
+
+    /**
+     * Removes the usage records that end after the date, in the current transaction.
+     *
+     * @return the number of records removed
+     */
+    int removeRecordsEndingAfter(Date date);
 }
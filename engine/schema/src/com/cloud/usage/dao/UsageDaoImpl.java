@@ -47,6 +47,7 @@ public class UsageDaoImpl extends GenericDaoBase<UsageVO, Long> implements Usage
     public static final Logger s_logger = Logger.getLogger(UsageDaoImpl.class.getName());
     private static final String DELETE_ALL = "DELETE FROM cloud_usage";
     private static final String DELETE_ALL_BY_ACCOUNTID = "DELETE FROM cloud_usage WHERE account_id = ?";
+    private static final String DELETE_ENDING_AFTER = "DELETE FROM cloud_usage.cloud_usage WHERE end_date > ?";
     private static final String INSERT_ACCOUNT = "INSERT INTO cloud_usage.account (id, account_name, type, domain_id, removed, cleanup_needed) VALUES (?,?,?,?,?,?)";
     private static final String INSERT_USER_STATS =
             "INSERT INTO cloud_usage.user_statistics (id, data_center_id, account_id, public_ip_address, device_id, device_type, network_id, net_bytes_received,"
@@ -71,7 +72,9 @@ public class UsageDaoImpl extends GenericDaoBase<UsageVO, Long> implements Usage
     private static final String INSERT_USAGE_RECORDS = "INSERT INTO cloud_usage.cloud_usage (zone_id, account_id, domain_id, description, usage_display, "
             +
             "usage_type, raw_usage, vm_instance_id, vm_name, offering_id, template_id, "
-            + "usage_id, type, size, network_id, start_date, end_date, virtual_size) VALUES (?,?,?,?,?,?,?,?,?, ?, ?, ?,?,?,?,?,?,?)";
+            + "usage_id, type, size, network_id, start_date, end_date, virtual_size, cpu_cores, cpu_speed, memory) VALUES (?,?,?,?,?,?,?,?,?, ?, ?, ?,?,?,?,?,?,?,?,?,?)";
+    // rows sent to the database per batch when saving usage records
+    private static final int USAGE_RECORDS_BATCH_SIZE = 1000;
 
     protected final static TimeZone s_gmtTimeZone = TimeZone.getTimeZone("GMT");
 
@@ -394,6 +397,7 @@ public class UsageDaoImpl extends GenericDaoBase<UsageVO, Long> implements Usage
             String sql = INSERT_USAGE_RECORDS;
             PreparedStatement pstmt = null;
             pstmt = txn.prepareAutoCloseStatement(sql); // in reality I just want CLOUD_USAGE dataSource connection
+            int batched = 0;
             for (UsageVO usageRecord : usageRecords) {
                 pstmt.setLong(1, usageRecord.getZoneId());
                 pstmt.setLong(2, usageRecord.getAccountId());
@@ -441,9 +445,30 @@ public class UsageDaoImpl extends GenericDaoBase<UsageVO, Long> implements Usage
                 } else {
                     pstmt.setNull(18, Types.BIGINT);
                 }
+                if (usageRecord.getCpuCores() != null) {
+                    pstmt.setLong(19, usageRecord.getCpuCores());
+                } else {
+                    pstmt.setNull(19, Types.BIGINT);
+                }
+                if (usageRecord.getCpuSpeed() != null) {
+                    pstmt.setLong(20, usageRecord.getCpuSpeed());
+                } else {
+                    pstmt.setNull(20, Types.BIGINT);
+                }
+                if (usageRecord.getMemory() != null) {
+                    pstmt.setLong(21, usageRecord.getMemory());
+                } else {
+                    pstmt.setNull(21, Types.BIGINT);
+                }
                 pstmt.addBatch();
+                if (++batched == USAGE_RECORDS_BATCH_SIZE) {
+                    pstmt.executeBatch();
+                    batched = 0;
+                }
+            }
+            if (batched > 0) {
+                pstmt.executeBatch();
             }
-            pstmt.executeBatch();
             txn.commit();
         } catch (Exception ex) {
             txn.rollback();
@@ -451,4 +476,17 @@ public class UsageDaoImpl extends GenericDaoBase<UsageVO, Long> implements Usage
             throw new CloudRuntimeException(ex.getMessage());
         }
     }
+
+    @Override
+    public int removeRecordsEndingAfter(Date date) {
+        TransactionLegacy txn = TransactionLegacy.currentTxn();
+        try {
+            PreparedStatement pstmt = txn.prepareAutoCloseStatement(DELETE_ENDING_AFTER);
+            pstmt.setString(1, DateUtil.getDateDisplayString(s_gmtTimeZone, date));
+            return pstmt.executeUpdate();
+        } catch (Exception ex) {
+            s_logger.error("error removing usage records ending after " + date, ex);
+            throw new CloudRuntimeException(ex.getMessage());
+        }
+    }
 }
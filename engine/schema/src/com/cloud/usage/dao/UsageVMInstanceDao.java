@@ -23,9 +23,22 @@ import com.cloud.usage.UsageVMInstanceVO;
 import com.cloud.utils.db.GenericDao;
 
 public interface UsageVMInstanceDao extends GenericDao<UsageVMInstanceVO, Long> {
+    public interface UsageRecordHandler {
+        /**
+         * Called for every row while the result set is open, the handler must not query the usage db.
+         */
+        void handle(UsageVMInstanceVO usageInstance);
+    }
+
     public void update(UsageVMInstanceVO instance);
 
     public void delete(UsageVMInstanceVO instance);
 
     public List<UsageVMInstanceVO> getUsageRecords(long userId, Date startDate, Date endDate);
+
+    /**
+     * Streams the records returned by getUsageRecords to the handler through a forward only
+     * cursor instead of loading them in a list.
+     */
+    public void scanUsageRecords(long accountId, Date startDate, Date endDate, UsageRecordHandler handler);
 }
@@ -18,6 +18,7 @@ package com.cloud.usage.dao;
 
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
@@ -93,20 +94,34 @@ public class UsageVMInstanceDaoImpl extends GenericDaoBase<UsageVMInstanceVO, Lo
 
     @Override
     public List<UsageVMInstanceVO> getUsageRecords(long accountId, Date startDate, Date endDate) {
+        final List<UsageVMInstanceVO> usageInstances = new ArrayList<UsageVMInstanceVO>();
+        scanUsageRecords(accountId, startDate, endDate, new UsageRecordHandler() {
+            @Override
+            public void handle(UsageVMInstanceVO usageInstance) {
+                usageInstances.add(usageInstance);
+            }
+        });
+        return usageInstances;
+    }
+
+    @Override
+    public void scanUsageRecords(long accountId, Date startDate, Date endDate, UsageRecordHandler handler) {
         TransactionLegacy txn = TransactionLegacy.open(TransactionLegacy.USAGE_DB);
         PreparedStatement pstmt = null;
-        List<UsageVMInstanceVO> usageInstances = new ArrayList<UsageVMInstanceVO>();
+        ResultSet rs = null;
         try {
             String sql = GET_USAGE_RECORDS_BY_ACCOUNT;
-            pstmt = txn.prepareAutoCloseStatement(sql);
+            pstmt = txn.prepareAutoCloseStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY, ResultSet.CLOSE_CURSORS_AT_COMMIT);
+            // makes the MySQL driver stream the rows rather than reading the whole result set in memory
+            pstmt.setFetchSize(Integer.MIN_VALUE);
             pstmt.setLong(1, accountId);
-            pstmt.setString(2, DateUtil.getDateDisplayString(TimeZone.getTimeZone("GMT"), startDate));
-            pstmt.setString(3, DateUtil.getDateDisplayString(TimeZone.getTimeZone("GMT"), endDate));
-            pstmt.setString(4, DateUtil.getDateDisplayString(TimeZone.getTimeZone("GMT"), startDate));
-            pstmt.setString(5, DateUtil.getDateDisplayString(TimeZone.getTimeZone("GMT"), endDate));
-            pstmt.setString(6, DateUtil.getDateDisplayString(TimeZone.getTimeZone("GMT"), startDate));
-            pstmt.setString(7, DateUtil.getDateDisplayString(TimeZone.getTimeZone("GMT"), endDate));
-            ResultSet rs = pstmt.executeQuery();
+            pstmt.setString(2, DateUtil.getDateDisplayString(s_gmtTimeZone, startDate));
+            pstmt.setString(3, DateUtil.getDateDisplayString(s_gmtTimeZone, endDate));
+            pstmt.setString(4, DateUtil.getDateDisplayString(s_gmtTimeZone, startDate));
+            pstmt.setString(5, DateUtil.getDateDisplayString(s_gmtTimeZone, endDate));
+            pstmt.setString(6, DateUtil.getDateDisplayString(s_gmtTimeZone, startDate));
+            pstmt.setString(7, DateUtil.getDateDisplayString(s_gmtTimeZone, endDate));
+            rs = pstmt.executeQuery();
             while (rs.next()) {
                 int r_usageType = rs.getInt(1);
                 long r_zoneId = rs.getLong(2);
@@ -140,13 +155,20 @@ public class UsageVMInstanceDaoImpl extends GenericDaoBase<UsageVMInstanceVO, Lo
                 }
                 UsageVMInstanceVO usageInstance =
                     new UsageVMInstanceVO(r_usageType, r_zoneId, r_accountId, r_vmId, r_vmName, r_soId, r_tId, r_cpuSpeed, r_cpuCores, r_memory, hypervisorType, instanceStartDate, instanceEndDate);
-                usageInstances.add(usageInstance);
+                handler.handle(usageInstance);
             }
         } catch (Exception ex) {
             s_logger.error("error retrieving usage vm instances for account id: " + accountId, ex);
         } finally {
+            // the connection can not be used by other statements until a streaming result set is closed
+            if (rs != null) {
+                try {
+                    rs.close();
+                } catch (SQLException e) {
+                    s_logger.debug("Unable to close the usage vm instances result set", e);
+                }
+            }
             txn.close();
         }
-        return usageInstances;
     }
 }
@@ -94,6 +94,32 @@ public class AccountDetailsDaoImpl extends GenericDaoBase<AccountDetailVO, Long>
         persist(accountId, oldDetails);
     }
 
+    @Override
+    protected void afterPersist(AccountDetailVO detail) {
+        ConfigKey.invalidate(detail.getName());
+    }
+
+    @Override
+    public boolean update(Long id, AccountDetailVO detail) {
+        boolean updated = super.update(id, detail);
+        ConfigKey.invalidate(null);
+        return updated;
+    }
+
+    @Override
+    public boolean remove(Long id) {
+        boolean removed = super.remove(id);
+        ConfigKey.invalidate(null);
+        return removed;
+    }
+
+    @Override
+    public int expunge(SearchCriteria<AccountDetailVO> sc) {
+        int expunged = super.expunge(sc);
+        ConfigKey.invalidate(null);
+        return expunged;
+    }
+
     @Override
     public Scope getScope() {
         return ConfigKey.Scope.Account;
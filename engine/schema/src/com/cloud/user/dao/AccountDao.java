@@ -31,11 +31,15 @@ public interface AccountDao extends GenericDao<AccountVO, Long> {
 
     List<AccountVO> findAccountsLike(String accountName);
 
-    List<AccountVO> findActiveAccounts(Long maxAccountId, Filter filter);
+    /*
+     * The find*Accounts methods page by id, they return the accounts with an id
+     * above afterAccountId so the next page starts after the last account returned
+     */
+    List<AccountVO> findActiveAccounts(Long maxAccountId, long afterAccountId, Filter filter);
 
-    List<AccountVO> findRecentlyDeletedAccounts(Long maxAccountId, Date earliestRemovedDate, Filter filter);
+    List<AccountVO> findRecentlyDeletedAccounts(Long maxAccountId, long afterAccountId, Date earliestRemovedDate, Filter filter);
 
-    List<AccountVO> findNewAccounts(Long minAccountId, Filter filter);
+    List<AccountVO> findNewAccounts(Long minAccountId, long afterAccountId, Filter filter);
 
     List<AccountVO> findCleanupsForRemovedAccounts(Long domainId);
 
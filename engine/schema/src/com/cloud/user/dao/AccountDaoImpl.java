@@ -215,19 +215,20 @@ public class AccountDaoImpl extends GenericDaoBase<AccountVO, Long> implements A
     }
 
     @Override
-    public List<AccountVO> findActiveAccounts(Long maxAccountId, Filter filter) {
+    public List<AccountVO> findActiveAccounts(Long maxAccountId, long afterAccountId, Filter filter) {
         if (maxAccountId == null) {
             return null;
         }
 
         SearchCriteria<AccountVO> sc = createSearchCriteria();
         sc.addAnd("id", SearchCriteria.Op.LTEQ, maxAccountId);
+        sc.addAnd("id", SearchCriteria.Op.GT, afterAccountId);
 
         return listBy(sc, filter);
     }
 
     @Override
-    public List<AccountVO> findRecentlyDeletedAccounts(Long maxAccountId, Date earliestRemovedDate, Filter filter) {
+    public List<AccountVO> findRecentlyDeletedAccounts(Long maxAccountId, long afterAccountId, Date earliestRemovedDate, Filter filter) {
         if (earliestRemovedDate == null) {
             return null;
         }
@@ -235,6 +236,7 @@ public class AccountDaoImpl extends GenericDaoBase<AccountVO, Long> implements A
         if (maxAccountId != null) {
             sc.addAnd("id", SearchCriteria.Op.LTEQ, maxAccountId);
         }
+        sc.addAnd("id", SearchCriteria.Op.GT, afterAccountId);
         sc.addAnd("removed", SearchCriteria.Op.NNULL);
         sc.addAnd("removed", SearchCriteria.Op.GTEQ, earliestRemovedDate);
 
@@ -242,13 +244,13 @@ public class AccountDaoImpl extends GenericDaoBase<AccountVO, Long> implements A
     }
 
     @Override
-    public List<AccountVO> findNewAccounts(Long minAccountId, Filter filter) {
+    public List<AccountVO> findNewAccounts(Long minAccountId, long afterAccountId, Filter filter) {
         if (minAccountId == null) {
             return null;
         }
 
         SearchCriteria<AccountVO> sc = createSearchCriteria();
-        sc.addAnd("id", SearchCriteria.Op.GT, minAccountId);
+        sc.addAnd("id", SearchCriteria.Op.GT, Math.max(minAccountId, afterAccountId));
 
         return listIncludingRemovedBy(sc, filter);
     }
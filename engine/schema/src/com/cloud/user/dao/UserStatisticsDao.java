@@ -29,7 +29,7 @@ public interface UserStatisticsDao extends GenericDao<UserStatisticsVO, Long> {
 
     List<UserStatisticsVO> listBy(long accountId);
 
-    List<UserStatisticsVO> listActiveAndRecentlyDeleted(Date minRemovedDate, int startIndex, int limit);
+    List<UserStatisticsVO> listActiveAndRecentlyDeleted(Date minRemovedDate, long afterId, int limit);
 
     List<UserStatisticsVO> listUpdatedStats();
 }
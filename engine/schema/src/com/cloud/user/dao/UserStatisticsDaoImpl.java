@@ -41,7 +41,7 @@ public class UserStatisticsDaoImpl extends GenericDaoBase<UserStatisticsVO, Long
     private static final Logger s_logger = Logger.getLogger(UserStatisticsDaoImpl.class);
     private static final String ACTIVE_AND_RECENTLY_DELETED_SEARCH =
         "SELECT us.id, us.data_center_id, us.account_id, us.public_ip_address, us.device_id, us.device_type, us.network_id, us.agg_bytes_received, us.agg_bytes_sent "
-            + "FROM user_statistics us, account a " + "WHERE us.account_id = a.id AND (a.removed IS NULL OR a.removed >= ?) " + "ORDER BY us.id";
+            + "FROM user_statistics us, account a " + "WHERE us.account_id = a.id AND (a.removed IS NULL OR a.removed >= ?) AND us.id > ? " + "ORDER BY us.id LIMIT ?";
     private static final String UPDATED_STATS_SEARCH =
         "SELECT id, current_bytes_received, current_bytes_sent, net_bytes_received, net_bytes_sent, agg_bytes_received, agg_bytes_sent from  user_statistics "
             + "where (agg_bytes_received < net_bytes_received + current_bytes_received) OR (agg_bytes_sent < net_bytes_sent + current_bytes_sent)";
@@ -95,17 +95,18 @@ public class UserStatisticsDaoImpl extends GenericDaoBase<UserStatisticsVO, Long
     }
 
     @Override
-    public List<UserStatisticsVO> listActiveAndRecentlyDeleted(Date minRemovedDate, int startIndex, int limit) {
+    public List<UserStatisticsVO> listActiveAndRecentlyDeleted(Date minRemovedDate, long afterId, int limit) {
         List<UserStatisticsVO> userStats = new ArrayList<UserStatisticsVO>();
         if (minRemovedDate == null)
             return userStats;
 
         TransactionLegacy txn = TransactionLegacy.currentTxn();
         try {
-            String sql = ACTIVE_AND_RECENTLY_DELETED_SEARCH + " LIMIT " + startIndex + "," + limit;
             PreparedStatement pstmt = null;
-            pstmt = txn.prepareAutoCloseStatement(sql);
+            pstmt = txn.prepareAutoCloseStatement(ACTIVE_AND_RECENTLY_DELETED_SEARCH);
             pstmt.setString(1, DateUtil.getDateDisplayString(TimeZone.getTimeZone("GMT"), minRemovedDate));
+            pstmt.setLong(2, afterId);
+            pstmt.setInt(3, limit);
             ResultSet rs = pstmt.executeQuery();
             while (rs.next()) {
                 userStats.add(toEntityBean(rs, false));
@@ -29,7 +29,7 @@ public interface VmDiskStatisticsDao extends GenericDao<VmDiskStatisticsVO, Long
 
     List<VmDiskStatisticsVO> listBy(long accountId);
 
-    List<VmDiskStatisticsVO> listActiveAndRecentlyDeleted(Date minRemovedDate, int startIndex, int limit);
+    List<VmDiskStatisticsVO> listActiveAndRecentlyDeleted(Date minRemovedDate, long afterId, int limit);
 
     List<VmDiskStatisticsVO> listUpdatedStats();
 }
@@ -16,10 +16,12 @@
 // under the License.
 package com.cloud.vm.dao;
 
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import com.cloud.utils.Pair;
 import com.cloud.utils.db.GenericDao;
@@ -129,8 +131,25 @@ public interface VMInstanceDao extends GenericDao<VMInstanceVO, Long>, StateDao<
 
     List<VMInstanceVO> listStartingWithNoHostId();
 
+    // The same power state is written this many times in a row, after that it isn't written again.
+    int MAX_CONSECUTIVE_SAME_STATE_UPDATE_COUNT = 3;
+
     boolean updatePowerState(long instanceId, long powerHostId, VirtualMachine.PowerState powerState);
 
+    /**
+     * updatePowerState for all the VMs a host reported, in a few statements.
+     *
+     * @return the VMs updatePowerState would have returned true for.
+     */
+    Set<Long> updatePowerState(Map<Long, VirtualMachine.PowerState> powerStates, long powerHostId);
+
+    /**
+     * @return the VMs among the given ones that updatePowerState would write
+     *         again even if their power state didn't change, because it was last
+     *         written for another host or its tracking was reset.
+     */
+    List<Long> listPowerStateUpdatesNeeded(Collection<Long> instanceIds, long powerHostId);
+
     void resetVmPowerStateTracking(long instanceId);
 
     void resetHostPowerStateTracking(long hostId);
@@ -20,10 +20,13 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.annotation.PostConstruct;
 import javax.ejb.Local;
@@ -67,7 +70,6 @@ import com.cloud.vm.VirtualMachine.Type;
 public class VMInstanceDaoImpl extends GenericDaoBase<VMInstanceVO, Long> implements VMInstanceDao {
 
     public static final Logger s_logger = Logger.getLogger(VMInstanceDaoImpl.class);
-    private static final int MAX_CONSECUTIVE_SAME_STATE_UPDATE_COUNT = 3;
 
     protected SearchBuilder<VMInstanceVO> VMClusterSearch;
     protected SearchBuilder<VMInstanceVO> LHVMClusterSearch;
@@ -93,6 +95,8 @@ public class VMInstanceDaoImpl extends GenericDaoBase<VMInstanceVO, Long> implem
     protected GenericSearchBuilder<VMInstanceVO, String> DistinctHostNameSearch;
     protected SearchBuilder<VMInstanceVO> HostAndStateSearch;
     protected SearchBuilder<VMInstanceVO> StartingWithNoHostSearch;
+    protected SearchBuilder<VMInstanceVO> PowerStateSearch;
+    protected GenericSearchBuilder<VMInstanceVO, Long> PowerStateUpdateNeededSearch;
 
     @Inject
     ResourceTagDao _tagsDao;
@@ -100,6 +104,7 @@ public class VMInstanceDaoImpl extends GenericDaoBase<VMInstanceVO, Long> implem
     NicDao _nicDao;
 
     protected Attribute _updateTimeAttr;
+    protected Attribute _powerStateUpdateCountAttr;
 
     private static final String ORDER_CLUSTERS_NUMBER_OF_VMS_FOR_ACCOUNT_PART1 = "SELECT host.cluster_id, SUM(IF(vm.state='Running' AND vm.account_id = ?, 1, 0)) " +
         "FROM `cloud`.`host` host LEFT JOIN `cloud`.`vm_instance` vm ON host.id = vm.host_id WHERE ";
@@ -253,9 +258,26 @@ public class VMInstanceDaoImpl extends GenericDaoBase<VMInstanceVO, Long> implem
         StartingWithNoHostSearch.and("host", StartingWithNoHostSearch.entity().getHostId(), Op.NULL);
         StartingWithNoHostSearch.done();
 
+        PowerStateSearch = createSearchBuilder();
+        PowerStateSearch.and("ids", PowerStateSearch.entity().getId(), Op.IN);
+        PowerStateSearch.and("count", PowerStateSearch.entity().getPowerStateUpdateCount(), Op.LT);
+        PowerStateSearch.done();
+
+        PowerStateUpdateNeededSearch = createSearchBuilder(Long.class);
+        PowerStateUpdateNeededSearch.selectFields(PowerStateUpdateNeededSearch.entity().getId());
+        PowerStateUpdateNeededSearch.and("ids", PowerStateUpdateNeededSearch.entity().getId(), Op.IN);
+        PowerStateUpdateNeededSearch.and().op("nullHost", PowerStateUpdateNeededSearch.entity().getPowerHostId(), Op.NULL);
+        PowerStateUpdateNeededSearch.or("host", PowerStateUpdateNeededSearch.entity().getPowerHostId(), Op.NEQ);
+        PowerStateUpdateNeededSearch.or("count", PowerStateUpdateNeededSearch.entity().getPowerStateUpdateCount(), Op.LT);
+        PowerStateUpdateNeededSearch.cp();
+        PowerStateUpdateNeededSearch.done();
+
         _updateTimeAttr = _allAttributes.get("updateTime");
         assert _updateTimeAttr != null : "Couldn't get this updateTime attribute";
 
+        _powerStateUpdateCountAttr = _allAttributes.get("powerStateUpdateCount");
+        assert _powerStateUpdateCountAttr != null : "Couldn't get this powerStateUpdateCount attribute";
+
         SearchBuilder<NicVO> nicSearch = _nicDao.createSearchBuilder();
         nicSearch.and("networkId", nicSearch.entity().getNetworkId(), SearchCriteria.Op.EQ);
 
@@ -803,6 +825,88 @@ public class VMInstanceDaoImpl extends GenericDaoBase<VMInstanceVO, Long> implem
         });
     }
 
+    @Override
+    public Set<Long> updatePowerState(final Map<Long, VirtualMachine.PowerState> powerStates, final long powerHostId) {
+        if (powerStates.isEmpty()) {
+            return new HashSet<Long>();
+        }
+        return Transaction.execute(new TransactionCallback<Set<Long>>() {
+            @Override
+            public Set<Long> doInTransaction(TransactionStatus status) {
+                // Same decisions as updatePowerState for a single VM, but one
+                // UPDATE per power state instead of one per VM.  The rows are
+                // locked so every UPDATE matches all the rows it was decided for.
+                Map<VirtualMachine.PowerState, List<Long>> changed = new HashMap<VirtualMachine.PowerState, List<Long>>();
+                List<Long> unchanged = new ArrayList<Long>();
+
+                SearchCriteria<VMInstanceVO> sc = PowerStateSearch.create();
+                sc.setParameters("ids", powerStates.keySet().toArray());
+                for (VMInstanceVO instance : lockRows(sc, null, true)) {
+                    VirtualMachine.PowerState powerState = powerStates.get(instance.getId());
+                    Long savedPowerHostId = instance.getPowerHostId();
+                    if (instance.getPowerState() != powerState || savedPowerHostId == null || savedPowerHostId.longValue() != powerHostId) {
+                        List<Long> ids = changed.get(powerState);
+                        if (ids == null) {
+                            ids = new ArrayList<Long>();
+                            changed.put(powerState, ids);
+                        }
+                        ids.add(instance.getId());
+                    } else if (instance.getPowerStateUpdateCount() < MAX_CONSECUTIVE_SAME_STATE_UPDATE_COUNT) {
+                        unchanged.add(instance.getId());
+                    }
+                }
+
+                Set<Long> updated = new HashSet<Long>();
+                Date now = DateUtil.currentGMTTime();
+                for (Map.Entry<VirtualMachine.PowerState, List<Long>> entry : changed.entrySet()) {
+                    VMInstanceVO instance = createForUpdate();
+                    instance.setPowerState(entry.getKey());
+                    instance.setPowerHostId(powerHostId);
+                    instance.setPowerStateUpdateCount(1);
+                    instance.setPowerStateUpdateTime(now);
+
+                    sc = PowerStateSearch.create();
+                    sc.setParameters("ids", entry.getValue().toArray());
+                    addUpdated(updated, entry.getValue(), update(instance, sc));
+                }
+
+                if (!unchanged.isEmpty()) {
+                    VMInstanceVO instance = createForUpdate();
+                    instance.setPowerStateUpdateTime(now);
+                    UpdateBuilder ub = getUpdateBuilder(instance);
+                    ub.incr(_powerStateUpdateCountAttr, 1);
+
+                    sc = PowerStateSearch.create();
+                    sc.setParameters("ids", unchanged.toArray());
+                    sc.setParameters("count", MAX_CONSECUTIVE_SAME_STATE_UPDATE_COUNT);
+                    addUpdated(updated, unchanged, update(ub, sc, null));
+                }
+                return updated;
+            }
+        });
+    }
+
+    // which of the VMs matched can't be told apart if some didn't, so none of them is reported as updated
+    private static void addUpdated(Set<Long> updated, List<Long> ids, int rows) {
+        if (rows == ids.size()) {
+            updated.addAll(ids);
+        } else {
+            s_logger.warn("Power state update of VMs " + ids + " matched " + rows + " rows");
+        }
+    }
+
+    @Override
+    public List<Long> listPowerStateUpdatesNeeded(Collection<Long> instanceIds, long powerHostId) {
+        if (instanceIds.isEmpty()) {
+            return new ArrayList<Long>();
+        }
+        SearchCriteria<Long> sc = PowerStateUpdateNeededSearch.create();
+        sc.setParameters("ids", instanceIds.toArray());
+        sc.setParameters("host", powerHostId);
+        sc.setParameters("count", MAX_CONSECUTIVE_SAME_STATE_UPDATE_COUNT);
+        return customSearch(sc, null);
+    }
+
     @Override
     public void resetVmPowerStateTracking(final long instanceId) {
         Transaction.execute(new TransactionCallbackNoReturn() {
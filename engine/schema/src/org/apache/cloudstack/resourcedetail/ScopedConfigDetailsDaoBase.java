@@ -0,0 +1,84 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.resourcedetail;
+
+import org.apache.cloudstack.api.ResourceDetail;
+import org.apache.cloudstack.framework.config.ConfigKey;
+import org.apache.cloudstack.framework.config.ScopedConfigStorage;
+
+import com.cloud.utils.db.SearchCriteria;
+import com.cloud.utils.db.UpdateBuilder;
+
+/**
+ * Details table that also stores the scoped values of config keys.  The
+ * values ConfigDepot caches are dropped whenever a detail is written.
+ */
+public abstract class ScopedConfigDetailsDaoBase<R extends ResourceDetail> extends ResourceDetailsDaoBase<R> implements ScopedConfigStorage {
+
+    @Override
+    public String getConfigValue(long id, ConfigKey<?> key) {
+        ResourceDetail vo = findDetail(id, key.key());
+        return vo == null ? null : vo.getValue();
+    }
+
+    @Override
+    protected void afterPersist(R detail) {
+        ConfigKey.invalidate(detail.getName());
+    }
+
+    @Override
+    public boolean update(Long id, R detail) {
+        boolean updated = super.update(id, detail);
+        ConfigKey.invalidate(null);
+        return updated;
+    }
+
+    @Override
+    public int update(UpdateBuilder ub, SearchCriteria<?> sc, Integer rows) {
+        int updated = super.update(ub, sc, rows);
+        ConfigKey.invalidate(null);
+        return updated;
+    }
+
+    @Override
+    public boolean remove(Long id) {
+        boolean removed = super.remove(id);
+        ConfigKey.invalidate(null);
+        return removed;
+    }
+
+    @Override
+    public int remove(SearchCriteria<R> sc) {
+        int removed = super.remove(sc);
+        ConfigKey.invalidate(null);
+        return removed;
+    }
+
+    @Override
+    public boolean expunge(Long id) {
+        boolean expunged = super.expunge(id);
+        ConfigKey.invalidate(null);
+        return expunged;
+    }
+
+    @Override
+    public int expunge(SearchCriteria<R> sc) {
+        int expunged = super.expunge(sc);
+        ConfigKey.invalidate(null);
+        return expunged;
+    }
+}
@@ -0,0 +1,137 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.domain.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.cloud.domain.DomainVO;
+import com.cloud.utils.db.SearchCriteria;
+import com.cloud.utils.db.TransactionLegacy;
+import com.cloud.utils.db.UpdateBuilder;
+
+public class DomainDaoImplTest {
+
+    private TestDomainDao _dao;
+    private DomainDao.PathChangeListener _listener;
+    private TransactionLegacy _txn;
+
+    // serves the domain table from memory
+    static class TestDomainDao extends DomainDaoImpl {
+        final List<DomainVO> domains = new ArrayList<DomainVO>();
+        int loads;
+
+        @Override
+        protected List<DomainVO> listBy(SearchCriteria<DomainVO> sc) {
+            loads++;
+            return new ArrayList<DomainVO>(domains);
+        }
+
+        @Override
+        protected int update(Long id, UpdateBuilder ub, DomainVO entity) {
+            return 1;
+        }
+    }
+
+    private static DomainVO domain(long id, String path) {
+        DomainVO domain = mock(DomainVO.class);
+        when(domain.getId()).thenReturn(id);
+        when(domain.getPath()).thenReturn(path);
+        return domain;
+    }
+
+    @Before
+    public void setUp() {
+        _dao = new TestDomainDao();
+        _dao.domains.add(domain(2L, "/a/"));
+        _dao.domains.add(domain(3L, "/a/b/"));
+        _listener = mock(DomainDao.PathChangeListener.class);
+        _dao.setPathChangeListener(_listener);
+
+        _txn = TransactionLegacy.open("DomainDaoImplTest");
+        _txn.transitToUserManagedConnection(mock(Connection.class));
+    }
+
+    @After
+    public void tearDown() {
+        _txn.transitToAutoManagedConnection(TransactionLegacy.CLOUD_DB);
+        _txn.close();
+    }
+
+    // domain 3 is moved out of domain 2
+    private void moveChild() {
+        _dao.domains.set(1, domain(3L, "/c/b/"));
+        _dao.update(3L, _dao.createForUpdate());
+    }
+
+    @Test
+    public void pathsAreCached() {
+        assertTrue(_dao.isChildDomain(2L, 3L));
+        assertTrue(_dao.isChildDomain(2L, 3L));
+        assertFalse(_dao.isChildDomain(3L, 2L));
+        assertEquals(1, _dao.loads);
+    }
+
+    @Test
+    public void changedPathIsDroppedOnCommit() {
+        assertTrue(_dao.isChildDomain(2L, 3L));
+
+        _txn.start();
+        moveChild();
+        assertFalse("The changing transaction should see its own change", _dao.isChildDomain(2L, 3L));
+        verify(_listener, never()).onPathChange(3L);
+        _txn.commit();
+
+        verify(_listener).onPathChange(3L);
+        assertFalse(_dao.isChildDomain(2L, 3L));
+        assertEquals("Paths loaded by a transaction should not be cached", 3, _dao.loads);
+    }
+
+    @Test
+    public void changedPathIsDroppedOnRollback() {
+        _txn.start();
+        moveChild();
+        assertFalse(_dao.isChildDomain(2L, 3L));
+        _txn.rollback();
+
+        _dao.domains.set(1, domain(3L, "/a/b/"));
+        assertTrue("The rolled back path should not be cached", _dao.isChildDomain(2L, 3L));
+        verify(_listener, never()).onPathChange(3L);
+    }
+
+    @Test
+    public void peerChangeDropsThePath() {
+        assertTrue(_dao.isChildDomain(2L, 3L));
+        _dao.domains.set(1, domain(3L, "/c/b/"));
+        _dao.invalidatePath(3L);
+        assertFalse(_dao.isChildDomain(2L, 3L));
+        assertEquals(2, _dao.loads);
+    }
+}
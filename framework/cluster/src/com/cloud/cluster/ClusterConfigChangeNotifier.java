@@ -0,0 +1,73 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.cluster;
+
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.naming.ConfigurationException;
+
+import org.apache.log4j.Logger;
+import org.springframework.stereotype.Component;
+
+import org.apache.cloudstack.framework.config.impl.ConfigDepotImpl;
+
+import com.cloud.utils.component.ManagerBase;
+
+/**
+ * Carries the config changes made on this management server to the other
+ * management servers so they drop their cached config values.
+ */
+@Component
+public class ClusterConfigChangeNotifier extends ManagerBase implements ConfigDepotImpl.ChangeListener, ClusterManager.NotificationHandler {
+    private static final Logger s_logger = Logger.getLogger(ClusterConfigChangeNotifier.class);
+
+    public static final String SUBJECT = "config.change";
+    private static final String ALL_KEYS = "*";
+
+    @Inject
+    ClusterManager _clusterMgr;
+    @Inject
+    ConfigDepotImpl _configDepot;
+
+    @Override
+    public boolean configure(String name, Map<String, Object> params) throws ConfigurationException {
+        _clusterMgr.registerNotificationHandler(SUBJECT, this);
+        _configDepot.setChangeListener(this);
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        _configDepot.setChangeListener(null);
+        _clusterMgr.unregisterNotificationHandler(SUBJECT, this);
+        return true;
+    }
+
+    @Override
+    public void onChange(String key) {
+        _clusterMgr.broadcastNotification(SUBJECT, key == null ? ALL_KEYS : key);
+    }
+
+    @Override
+    public void onNotification(String sourcePeer, String subject, String message) {
+        if (s_logger.isDebugEnabled()) {
+            s_logger.debug("Config " + message + " changed on " + sourcePeer);
+        }
+        _configDepot.invalidateLocal(ALL_KEYS.equals(message) ? null : message);
+    }
+}
@@ -0,0 +1,147 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.cluster;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.inject.Inject;
+import javax.naming.ConfigurationException;
+
+import org.apache.log4j.Logger;
+import org.springframework.stereotype.Component;
+
+import com.cloud.utils.component.ManagerBase;
+import com.cloud.utils.concurrency.NamedThreadFactory;
+import com.cloud.utils.db.EntityCache;
+
+/**
+ * Carries the invalidations of the DAO entity caches to the other management
+ * servers and applies the invalidations received from them.  Invalidations
+ * made while a notification is being sent are coalesced and sent together,
+ * so a burst of updates does not queue a notification per row.
+ */
+@Component
+public class ClusterEntityCacheInvalidator extends ManagerBase implements EntityCache.InvalidationListener, ClusterManager.NotificationHandler {
+    private static final Logger s_logger = Logger.getLogger(ClusterEntityCacheInvalidator.class);
+
+    public static final String SUBJECT = "entity.cache.invalidate";
+    private static final String ALL_ROWS = "*";
+    private static final String SEPARATOR = ",";
+    static final int MAX_BATCH_SIZE = 500;
+
+    @Inject
+    ClusterManager _clusterMgr;
+
+    private final Set<String> _pending = new LinkedHashSet<String>();
+    private boolean _flushScheduled;
+    ExecutorService _executor;
+
+    @Override
+    public boolean configure(String name, Map<String, Object> params) throws ConfigurationException {
+        _executor = Executors.newSingleThreadExecutor(new NamedThreadFactory("EntityCacheInvalidator"));
+        _clusterMgr.registerNotificationHandler(SUBJECT, this);
+        EntityCache.setInvalidationListener(this);
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        EntityCache.setInvalidationListener(null);
+        _clusterMgr.unregisterNotificationHandler(SUBJECT, this);
+        _executor.shutdown();
+        return true;
+    }
+
+    @Override
+    public void onInvalidate(String table, String id) {
+        synchronized (_pending) {
+            _pending.add(table + ":" + (id == null ? ALL_ROWS : id));
+            if (_flushScheduled) {
+                return;
+            }
+            _flushScheduled = true;
+        }
+        _executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        });
+    }
+
+    void flush() {
+        List<String> invalidations;
+        synchronized (_pending) {
+            invalidations = new ArrayList<String>(_pending);
+            _pending.clear();
+            _flushScheduled = false;
+        }
+
+        // invalidating a whole table covers the rows of the table
+        Set<String> allRowTables = new HashSet<String>();
+        for (String invalidation : invalidations) {
+            if (invalidation.endsWith(":" + ALL_ROWS)) {
+                allRowTables.add(invalidation.substring(0, invalidation.lastIndexOf(':')));
+            }
+        }
+
+        StringBuilder message = new StringBuilder();
+        int count = 0;
+        for (String invalidation : invalidations) {
+            String table = invalidation.substring(0, invalidation.lastIndexOf(':'));
+            if (allRowTables.contains(table) && !invalidation.endsWith(":" + ALL_ROWS)) {
+                continue;
+            }
+            if (count > 0) {
+                message.append(SEPARATOR);
+            }
+            message.append(invalidation);
+            if (++count == MAX_BATCH_SIZE) {
+                _clusterMgr.broadcastNotification(SUBJECT, message.toString());
+                message.setLength(0);
+                count = 0;
+            }
+        }
+        if (count > 0) {
+            _clusterMgr.broadcastNotification(SUBJECT, message.toString());
+        }
+    }
+
+    @Override
+    public void onNotification(String sourcePeer, String subject, String message) {
+        for (String invalidation : message.split(SEPARATOR)) {
+            int index = invalidation.lastIndexOf(':');
+            if (index <= 0) {
+                s_logger.warn("Ignoring malformed cache invalidation from " + sourcePeer + ": " + invalidation);
+                continue;
+            }
+            String table = invalidation.substring(0, index);
+            String id = invalidation.substring(index + 1);
+            if (s_logger.isTraceEnabled()) {
+                s_logger.trace("Invalidating " + table + " " + id + " on behalf of " + sourcePeer);
+            }
+            EntityCache.invalidateLocal(table, ALL_ROWS.equals(id) ? null : id);
+        }
+    }
+}
@@ -16,6 +16,8 @@
 // under the License.
 package com.cloud.cluster;
 
+import java.util.List;
+
 import org.apache.cloudstack.framework.config.ConfigKey;
 
 import com.cloud.utils.component.Manager;
@@ -46,6 +48,33 @@ public interface ClusterManager extends Manager {
      */
     void broadcast(long agentId, String cmds);
 
+    /**
+     * Sends a one-way notification to all of the other active management server
+     * nodes.  Notifications are delivered to the handlers registered for the subject
+     * on each node; nothing is returned to the sender.
+     * @param subject subject the handlers are registered under
+     * @param message notification content
+     */
+    void broadcastNotification(String subject, String message);
+
+    /**
+     * Sends a one-way notification to a single management server node.  It is
+     * dropped if the node isn't an active peer of this one.
+     * @param peerName name of the node to notify, see getSelfPeerName()
+     * @param subject subject the handlers are registered under
+     * @param message notification content
+     */
+    void sendNotification(String peerName, String subject, String message);
+
+    void registerNotificationHandler(String subject, NotificationHandler handler);
+
+    void unregisterNotificationHandler(String subject, NotificationHandler handler);
+
+    /**
+     * @return ids of the management server nodes currently seen alive, including this one
+     */
+    List<Long> getActiveManagementNodeIds();
+
     void registerListener(ClusterManagerListener listener);
 
     void unregisterListener(ClusterManagerListener listener);
@@ -67,4 +96,8 @@ public interface ClusterManager extends Manager {
 
         String dispatch(ClusterServicePdu pdu);
     }
+
+    public interface NotificationHandler {
+        void onNotification(String sourcePeer, String subject, String message);
+    }
 }
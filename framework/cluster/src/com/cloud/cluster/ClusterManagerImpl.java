@@ -32,6 +32,8 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
@@ -102,6 +104,8 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
     private ManagementServerHostPeerDao _mshostPeerDao;
 
     protected Dispatcher _dispatcher;
+    private final Map<String, List<NotificationHandler>> _notificationHandlers = new ConcurrentHashMap<String, List<NotificationHandler>>();
+    private volatile List<String> _activePeerNames = new ArrayList<String>();
 
     //
     // pay attention to _mshostId and _msid
@@ -183,9 +187,11 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
 
     private ClusterServicePdu popOutgoingClusterPdu(long timeoutMs) {
         synchronized (_clusterPduOutgoingQueue) {
-            try {
-                _clusterPduOutgoingQueue.wait(timeoutMs);
-            } catch (InterruptedException e) {
+            if (_clusterPduOutgoingQueue.isEmpty()) {
+                try {
+                    _clusterPduOutgoingQueue.wait(timeoutMs);
+                } catch (InterruptedException e) {
+                }
             }
 
             if (_clusterPduOutgoingQueue.size() > 0) {
@@ -206,9 +212,11 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
 
     private ClusterServicePdu popIncomingClusterPdu(long timeoutMs) {
         synchronized (_clusterPduIncomingQueue) {
-            try {
-                _clusterPduIncomingQueue.wait(timeoutMs);
-            } catch (InterruptedException e) {
+            if (_clusterPduIncomingQueue.isEmpty()) {
+                try {
+                    _clusterPduIncomingQueue.wait(timeoutMs);
+                } catch (InterruptedException e) {
+                }
             }
 
             if (_clusterPduIncomingQueue.size() > 0) {
@@ -306,6 +314,8 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
                             } else {
                                 s_logger.warn("Original request has already been cancelled. pdu: " + pdu.getJsonPackage());
                             }
+                        } else if (pdu.getPduType() == ClusterServicePdu.PDU_TYPE_NOTIFICATION) {
+                            dispatchNotification(pdu);
                         } else {
                             String result = _dispatcher.dispatch(pdu);
                             if (result == null)
@@ -368,6 +378,83 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
         }
     }
 
+    @Override
+    public void broadcastNotification(String subject, String message) {
+        for (String peerName : _activePeerNames) {
+            addOutgoingNotification(peerName, subject, message);
+        }
+    }
+
+    @Override
+    public void sendNotification(String peerName, String subject, String message) {
+        if (!_activePeerNames.contains(peerName)) {
+            if (s_logger.isDebugEnabled()) {
+                s_logger.debug("Dropping notification " + subject + " to " + peerName + " as it is not an active peer");
+            }
+            return;
+        }
+        addOutgoingNotification(peerName, subject, message);
+    }
+
+    private void addOutgoingNotification(String peerName, String subject, String message) {
+        ClusterServicePdu pdu = new ClusterServicePdu();
+        pdu.setPduType(ClusterServicePdu.PDU_TYPE_NOTIFICATION);
+        pdu.setSourcePeer(getSelfPeerName());
+        pdu.setDestPeer(peerName);
+        pdu.setSubject(subject);
+        pdu.setJsonPackage(message);
+        addOutgoingClusterPdu(pdu);
+    }
+
+    @Override
+    public List<Long> getActiveManagementNodeIds() {
+        List<String> peerNames = _activePeerNames;
+        List<Long> nodeIds = new ArrayList<Long>(peerNames.size() + 1);
+        nodeIds.add(_msId);
+        for (String peerName : peerNames) {
+            nodeIds.add(Long.parseLong(peerName));
+        }
+        return nodeIds;
+    }
+
+    @Override
+    public void registerNotificationHandler(String subject, NotificationHandler handler) {
+        synchronized (_notificationHandlers) {
+            List<NotificationHandler> handlers = _notificationHandlers.get(subject);
+            if (handlers == null) {
+                handlers = new CopyOnWriteArrayList<NotificationHandler>();
+                _notificationHandlers.put(subject, handlers);
+            }
+            handlers.add(handler);
+        }
+    }
+
+    @Override
+    public void unregisterNotificationHandler(String subject, NotificationHandler handler) {
+        List<NotificationHandler> handlers = _notificationHandlers.get(subject);
+        if (handlers != null) {
+            handlers.remove(handler);
+        }
+    }
+
+    private void dispatchNotification(ClusterServicePdu pdu) {
+        List<NotificationHandler> handlers = pdu.getSubject() != null ? _notificationHandlers.get(pdu.getSubject()) : null;
+        if (handlers == null || handlers.isEmpty()) {
+            if (s_logger.isDebugEnabled()) {
+                s_logger.debug("No handler for cluster notification " + pdu.getSubject() + " from " + pdu.getSourcePeer());
+            }
+            return;
+        }
+
+        for (NotificationHandler handler : handlers) {
+            try {
+                handler.onNotification(pdu.getSourcePeer(), pdu.getSubject(), pdu.getJsonPackage());
+            } catch (Throwable e) {
+                s_logger.warn("Unexpected exception while handling cluster notification " + pdu.getSubject(), e);
+            }
+        }
+    }
+
     public void executeAsync(String strPeer, long agentId, String cmds, boolean stopOnError) {
         ClusterServicePdu pdu = new ClusterServicePdu();
         pdu.setSourcePeer(getSelfPeerName());
@@ -912,6 +999,14 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
             queueNotification(new ClusterManagerMessage(ClusterManagerMessage.MessageType.nodeAdded, newNodeList));
         }
 
+        List<String> peerNames = new ArrayList<String>(_activePeers.size());
+        for (ManagementServerHostVO peer : _activePeers.values()) {
+            if (peer.getMsid() != _msId) {
+                peerNames.add(Long.toString(peer.getMsid()));
+            }
+        }
+        _activePeerNames = peerNames;
+
         profiler.stop();
 
         if (profiler.getDuration() >= HeartbeatInterval.value()) {
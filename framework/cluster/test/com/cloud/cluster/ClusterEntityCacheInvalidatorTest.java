@@ -0,0 +1,97 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.cluster;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.cloud.utils.db.EntityCache;
+
+public class ClusterEntityCacheInvalidatorTest {
+    ClusterEntityCacheInvalidator _invalidator;
+    ClusterManager _clusterMgr;
+
+    @Before
+    public void setUp() {
+        _clusterMgr = Mockito.mock(ClusterManager.class);
+        _invalidator = new ClusterEntityCacheInvalidator();
+        _invalidator._clusterMgr = _clusterMgr;
+        // flushes are run by the tests
+        _invalidator._executor = Mockito.mock(ExecutorService.class);
+    }
+
+    @After
+    public void tearDown() {
+        EntityCache.setInvalidationListener(null);
+    }
+
+    @Test
+    public void invalidationsAreSentTogether() {
+        _invalidator.onInvalidate("vm_instance", "1");
+        _invalidator.onInvalidate("vm_instance", "2");
+        _invalidator.onInvalidate("vm_instance", "1");
+        _invalidator.onInvalidate("host", null);
+
+        Mockito.verify(_invalidator._executor, Mockito.times(1)).execute(Mockito.any(Runnable.class));
+        _invalidator.flush();
+        Mockito.verify(_clusterMgr).broadcastNotification(ClusterEntityCacheInvalidator.SUBJECT, "vm_instance:1,vm_instance:2,host:*");
+
+        _invalidator.onInvalidate("host", "3");
+        Mockito.verify(_invalidator._executor, Mockito.times(2)).execute(Mockito.any(Runnable.class));
+    }
+
+    @Test
+    public void tableInvalidationCoversRows() {
+        _invalidator.onInvalidate("host", "1");
+        _invalidator.onInvalidate("host", null);
+        _invalidator.onInvalidate("host", "2");
+        _invalidator.flush();
+
+        Mockito.verify(_clusterMgr).broadcastNotification(ClusterEntityCacheInvalidator.SUBJECT, "host:*");
+    }
+
+    @Test
+    public void largeBatchesAreSplit() {
+        for (int i = 0; i < ClusterEntityCacheInvalidator.MAX_BATCH_SIZE + 1; i++) {
+            _invalidator.onInvalidate("host", Integer.toString(i));
+        }
+        _invalidator.flush();
+
+        Mockito.verify(_clusterMgr, Mockito.times(2)).broadcastNotification(Mockito.eq(ClusterEntityCacheInvalidator.SUBJECT), Mockito.anyString());
+    }
+
+    @Test
+    public void receivedBatchIsApplied() {
+        EntityCache hosts = new EntityCache("ClusterEntityCacheInvalidatorTest.hosts", Arrays.asList("test_host"), Long.class, 10, 60, 60);
+        EntityCache vms = new EntityCache("ClusterEntityCacheInvalidatorTest.vms", Arrays.asList("test_vm"), Long.class, 10, 60, 60);
+        hosts.put(1l, "host 1");
+        hosts.put(2l, "host 2");
+        vms.put(1l, "vm 1");
+
+        _invalidator.onNotification("peer", ClusterEntityCacheInvalidator.SUBJECT, "test_host:1,bad,test_vm:*");
+
+        Assert.assertNull(hosts.get(1l));
+        Assert.assertEquals("host 2", hosts.get(2l));
+        Assert.assertNull(vms.get(1l));
+    }
+}
@@ -31,4 +31,12 @@ public interface ConfigDepot {
     <T> void set(ConfigKey<T> key, T value);
 
     <T> void createOrUpdateConfigObject(String componentName, ConfigKey<T> key, String value);
+
+    /**
+     * Drops the cached values of a config key, global and scoped, on this and
+     * the other management servers.  Call it after changing the value without
+     * going through ConfigDepot.
+     * @param key name of the config key or null to drop all cached values.
+     */
+    void invalidate(String key);
 }
@@ -19,8 +19,8 @@ package org.apache.cloudstack.framework.config;
 import java.sql.Date;
 
 import org.apache.cloudstack.framework.config.impl.ConfigDepotImpl;
-import org.apache.cloudstack.framework.config.impl.ConfigurationVO;
 
+import com.cloud.utils.Pair;
 import com.cloud.utils.exception.CloudRuntimeException;
 
 /**
@@ -76,7 +76,8 @@ public class ConfigKey<T> {
     private final Scope _scope; // Parameter can be at different levels (Zone/cluster/pool/account), by default every parameter is at global
     private final boolean _isDynamic;
     private final T _multiplier;
-    T _value = null;
+    // Value along with the version of the config depot snapshot it was read from.
+    volatile Pair<Long, T> _value = null;
 
     static ConfigDepotImpl s_depot = null;
 
@@ -84,6 +85,18 @@ public class ConfigKey<T> {
         s_depot = depot;
     }
 
+    /**
+     * Drops the cached values of a key once the current transaction commits.
+     * ScopedConfigStorage implementations call it when they change a value.
+     * @param key name of the key or null if it isn't known which keys changed.
+     */
+    static public void invalidate(String key) {
+        ConfigDepotImpl depot = s_depot;
+        if (depot != null) {
+            depot.invalidateAfterCommit(key);
+        }
+    }
+
     public ConfigKey(String category, Class<T> type, String name, String defaultValue, String description, boolean isDynamic, Scope scope) {
         this(type, name, category, defaultValue, description, isDynamic, scope, null);
     }
@@ -131,12 +144,17 @@ public class ConfigKey<T> {
     }
 
     public T value() {
-        if (_value == null || isDynamic()) {
-            ConfigurationVO vo = s_depot != null ? s_depot.global().findById(key()) : null;
-            _value = valueOf((vo != null && vo.getValue() != null) ? vo.getValue() : defaultValue());
+        Pair<Long, T> value = _value;
+        if (value == null || isDynamic()) {
+            long version = s_depot != null ? s_depot.version() : 0;
+            if (value == null || value.first() != version) {
+                String stored = s_depot != null ? s_depot.getGlobalValue(this) : null;
+                value = new Pair<Long, T>(version, valueOf(stored != null ? stored : defaultValue()));
+                _value = value;
+            }
         }
 
-        return _value;
+        return value.second();
     }
 
     public T valueIn(Long id) {
@@ -144,7 +162,7 @@ public class ConfigKey<T> {
             return value();
         }
 
-        String value = s_depot != null ? s_depot.scoped(this).getConfigValue(id, this) : null;
+        String value = s_depot != null ? s_depot.getScopedValue(this, id) : null;
         if (value == null) {
             return value();
         } else {
@@ -23,6 +23,8 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.PostConstruct;
 import javax.inject.Inject;
@@ -37,12 +39,19 @@ import org.apache.commons.lang.ObjectUtils;
 import org.apache.log4j.Logger;
 
 import com.cloud.utils.Pair;
+import com.cloud.utils.db.TransactionLegacy;
 import com.cloud.utils.exception.CloudRuntimeException;
 
 /**
  * ConfigDepotImpl implements the ConfigDepot and ConfigDepotAdmin interface.
  * Its functionalities include:
- *   - Control how dynamic config values are cached and refreshed.
+ *   - Control how dynamic config values are cached and refreshed.  Values
+ *     are read once and kept in a snapshot stamped with a version.  The
+ *     version is bumped, and the snapshot dropped, whenever a value is
+ *     changed through this class, on a peer management server (through the
+ *     ChangeListener) or when the snapshot gets older than
+ *     SNAPSHOT_MAX_AGE, which bounds how long a change made directly in the
+ *     database takes to be seen.
  *   - Control how scoped config values are stored.
  *   - Gather all of the Configurable interfaces and insert their config
  *     variables into the config table.
@@ -68,6 +77,21 @@ import com.cloud.utils.exception.CloudRuntimeException;
  */
 public class ConfigDepotImpl implements ConfigDepot, ConfigDepotAdmin {
     private final static Logger s_logger = Logger.getLogger(ConfigDepotImpl.class);
+
+    /**
+     * Receives the config keys invalidated on this management server.
+     */
+    public interface ChangeListener {
+        /**
+         * @param key name of the config key or null if all keys were invalidated.
+         */
+        void onChange(String key);
+    }
+
+    protected static final long SNAPSHOT_MAX_AGE = 60000;
+    // Marks values known to be absent so they are not looked up again.
+    private static final String NO_VALUE = new String();
+
     @Inject
     ConfigurationDao _configDao;
     List<Configurable> _configurables;
@@ -78,6 +102,12 @@ public class ConfigDepotImpl implements ConfigDepot, ConfigDepotAdmin {
 
     HashMap<ConfigKey.Scope, Set<ConfigKey<?>>> _scopeLevelConfigsMap = new HashMap<ConfigKey.Scope, Set<ConfigKey<?>>>();
 
+    final ConcurrentHashMap<String, String> _globalValues = new ConcurrentHashMap<String, String>();
+    final ConcurrentHashMap<String, ConcurrentHashMap<String, String>> _scopedValues = new ConcurrentHashMap<String, ConcurrentHashMap<String, String>>();
+    final AtomicLong _version = new AtomicLong();
+    volatile long _snapshotTime = System.currentTimeMillis();
+    volatile ChangeListener _changeListener;
+
     public ConfigDepotImpl() {
         ConfigKey.init(this);
         _scopeLevelConfigsMap.put(ConfigKey.Scope.Zone, new HashSet<ConfigKey<?>>());
@@ -135,6 +165,7 @@ public class ConfigDepotImpl implements ConfigDepot, ConfigDepotAdmin {
                 vo.setValue(value);
             }
             _configDao.persist(vo);
+            invalidate(key.key());
         } else {
             if (vo.isDynamic() != key.isDynamic() || !ObjectUtils.equals(vo.getDescription(), key.description()) || !ObjectUtils.equals(vo.getDefaultValue(), key.defaultValue()) ||
                 !ObjectUtils.equals(vo.getScope(), key.scope().toString()) ||
@@ -146,6 +177,7 @@ public class ConfigDepotImpl implements ConfigDepot, ConfigDepotAdmin {
                 vo.setComponent(componentName);
                 vo.setUpdated(date);
                 _configDao.persist(vo);
+                invalidate(key.key());
             }
         }
     }
@@ -200,6 +232,7 @@ public class ConfigDepotImpl implements ConfigDepot, ConfigDepotAdmin {
     @Override
     public <T> void set(ConfigKey<T> key, T value) {
         _configDao.update(key.key(), value.toString());
+        invalidate(key.key());
     }
 
     @Override
@@ -207,4 +240,114 @@ public class ConfigDepotImpl implements ConfigDepot, ConfigDepotAdmin {
         createOrupdateConfigObject(new Date(), componentName, key, value);
 
     }
+
+    /**
+     * @return the version of the snapshot; it changes whenever a cached value may have changed.
+     */
+    public long version() {
+        if (System.currentTimeMillis() - _snapshotTime > SNAPSHOT_MAX_AGE) {
+            invalidateLocal(null);
+        }
+        return _version.get();
+    }
+
+    /**
+     * @return the global value of the key or null if it doesn't have one.
+     */
+    public String getGlobalValue(ConfigKey<?> key) {
+        String value = _globalValues.get(key.key());
+        if (value == null) {
+            long version = _version.get();
+            ConfigurationVO vo = _configDao.findById(key.key());
+            value = (vo != null && vo.getValue() != null) ? vo.getValue() : NO_VALUE;
+            // Don't keep what was read if it was invalidated in the meantime.
+            if (version == _version.get()) {
+                _globalValues.put(key.key(), value);
+            }
+        }
+        return value == NO_VALUE ? null : value;
+    }
+
+    /**
+     * @return the value of the key at the scope of the given id or null if it isn't overridden there.
+     */
+    public String getScopedValue(ConfigKey<?> key, long id) {
+        ConcurrentHashMap<String, String> values = _scopedValues.get(key.key());
+        if (values == null) {
+            values = new ConcurrentHashMap<String, String>();
+            ConcurrentHashMap<String, String> existing = _scopedValues.putIfAbsent(key.key(), values);
+            if (existing != null) {
+                values = existing;
+            }
+        }
+
+        String cacheKey = key.scope() + ":" + id;
+        String value = values.get(cacheKey);
+        if (value == null) {
+            long version = _version.get();
+            value = scoped(key).getConfigValue(id, key);
+            if (value == null) {
+                value = NO_VALUE;
+            }
+            if (version == _version.get()) {
+                values.put(cacheKey, value);
+            }
+        }
+        return value == NO_VALUE ? null : value;
+    }
+
+    @Override
+    public void invalidate(String key) {
+        invalidateLocal(key);
+        ChangeListener listener = _changeListener;
+        if (listener != null) {
+            try {
+                listener.onChange(key);
+            } catch (Exception e) {
+                s_logger.warn("Unable to propagate the change of config " + key, e);
+            }
+        }
+    }
+
+    /**
+     * Drops the cached values of a config key now and again, on this and the
+     * other management servers, once the current transaction commits.  This
+     * keeps lookups made before the commit from caching the old value.
+     * @param key name of the config key or null to drop all cached values.
+     */
+    public void invalidateAfterCommit(final String key) {
+        invalidateLocal(key);
+        TransactionLegacy.runAfterCommit(new Runnable() {
+            @Override
+            public void run() {
+                invalidate(key);
+            }
+        });
+    }
+
+    /**
+     * Drops the cached values of a config key without telling anyone about it.
+     * This is what the changes made on other management servers are applied with.
+     * @param key name of the config key or null to drop all cached values.
+     */
+    public void invalidateLocal(String key) {
+        // Bump the version first so lookups running concurrently don't cache what they read.
+        _version.incrementAndGet();
+        if (key == null) {
+            _snapshotTime = System.currentTimeMillis();
+            _globalValues.clear();
+            _scopedValues.clear();
+        } else {
+            _globalValues.remove(key);
+            _scopedValues.remove(key);
+        }
+    }
+
+    public ChangeListener getChangeListener() {
+        return _changeListener;
+    }
+
+    public void setChangeListener(ChangeListener listener) {
+        _changeListener = listener;
+    }
 }
@@ -17,6 +17,7 @@
 package org.apache.cloudstack.framework.config.impl;
 
 import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -40,6 +41,7 @@ import com.cloud.utils.db.EntityManager;
 
 public class ConfigDepotAdminTest extends TestCase {
     private final static ConfigKey<Integer> DynamicIntCK = new ConfigKey<Integer>(Integer.class, "dynIntKey", "Advance", "10", "Test Key", true);
+    private final static ConfigKey<Integer> ZoneIntCK = new ConfigKey<Integer>("Advance", Integer.class, "zoneIntKey", "10", "Test Key", true, ConfigKey.Scope.Zone);
     private final static ConfigKey<Integer> StaticIntCK = new ConfigKey<Integer>(Integer.class, "statIntKey", "Advance", "10", "Test Key", false);
 
     @Mock
@@ -98,4 +100,37 @@ public class ConfigDepotAdminTest extends TestCase {
         // This is two because DynamicIntCK also returns null.
         verify(_configDao, times(2)).persist(any(ConfigurationVO.class));
     }
+
+    @Test
+    public void testDynamicValueCached() {
+        ConfigurationVO dynamicIntCV = new ConfigurationVO("UnitTestComponent", DynamicIntCK);
+        dynamicIntCV.setValue("100");
+        when(_configDao.findById(DynamicIntCK.key())).thenReturn(dynamicIntCV);
+
+        assertEquals(100, DynamicIntCK.value().intValue());
+        assertEquals(100, DynamicIntCK.value().intValue());
+        verify(_configDao, times(1)).findById(DynamicIntCK.key());
+
+        dynamicIntCV.setValue("200");
+        _depotAdmin.invalidate(DynamicIntCK.key());
+        assertEquals(200, DynamicIntCK.value().intValue());
+        verify(_configDao, times(2)).findById(DynamicIntCK.key());
+    }
+
+    @Test
+    public void testScopedValueInvalidatedByStorage() {
+        ConfigDepotImpl.ChangeListener listener = mock(ConfigDepotImpl.ChangeListener.class);
+        _depotAdmin.setChangeListener(listener);
+        when(_scopedStorage.getScope()).thenReturn(ConfigKey.Scope.Zone);
+        when(_scopedStorage.getConfigValue(1, ZoneIntCK)).thenReturn("100");
+
+        assertEquals(100, ZoneIntCK.valueIn(1L).intValue());
+        assertEquals(100, ZoneIntCK.valueIn(1L).intValue());
+        verify(_scopedStorage, times(1)).getConfigValue(1, ZoneIntCK);
+
+        when(_scopedStorage.getConfigValue(1, ZoneIntCK)).thenReturn("200");
+        ConfigKey.invalidate(ZoneIntCK.key());
+        assertEquals(200, ZoneIntCK.valueIn(1L).intValue());
+        verify(listener).onChange(ZoneIntCK.key());
+    }
 }
@@ -0,0 +1,177 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.db;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * AllocationReservoir hands out rows of allocation tables (ip addresses,
+ * vnets, vlans) without locking rows with SELECT ... FOR UPDATE.
+ *
+ * For each pool it keeps the ids of a batch of rows that were free when they
+ * were read, in random order so that management servers reading the same
+ * batch don't go after the same rows.  A row is taken with a conditional
+ * update that only succeeds if the row is still free, so the database stays
+ * the only judge of who owns a row and nothing has to be given back: a row
+ * taken by someone else is simply skipped.
+ *
+ * allocate() returns null when the reservoir can't find a free row.  Since
+ * the rows are read without locking, inside a transaction they may come from
+ * an older snapshot, so callers should then fall back to a locking read
+ * before deciding the pool is exhausted.
+ */
+public class AllocationReservoir<K> {
+    private static final Logger s_logger = Logger.getLogger(AllocationReservoir.class);
+
+    public interface Source<K> {
+        /**
+         * @return ids of at most max rows of the pool that are free.
+         */
+        List<Long> listFree(K pool, int max);
+    }
+
+    public interface Claim {
+        /**
+         * Takes the row if it is still free.
+         * @return true if the row was taken.
+         */
+        boolean claim(long id);
+    }
+
+    protected static final int DEFAULT_BATCH_SIZE = 64;
+
+    private final String _name;
+    private final Source<K> _source;
+    private final int _batchSize;
+    private final ConcurrentHashMap<K, ConcurrentLinkedQueue<Long>> _pools = new ConcurrentHashMap<K, ConcurrentLinkedQueue<Long>>();
+
+    private final AtomicLong _allocations = new AtomicLong();
+    private final AtomicLong _collisions = new AtomicLong();
+    private final AtomicLong _refills = new AtomicLong();
+
+    public AllocationReservoir(String name, Source<K> source) {
+        this(name, source, DEFAULT_BATCH_SIZE);
+    }
+
+    public AllocationReservoir(String name, Source<K> source, int batchSize) {
+        _name = name;
+        _source = source;
+        _batchSize = batchSize;
+    }
+
+    /**
+     * @return id of the row taken or null if no free row was found.
+     */
+    public Long allocate(K pool, Claim claim) {
+        ConcurrentLinkedQueue<Long> ids = getPool(pool);
+        Set<Long> failed = null;
+        while (true) {
+            Long id = ids.poll();
+            if (id == null) {
+                if (!refill(pool, ids, failed)) {
+                    return null;
+                }
+                continue;
+            }
+
+            if (claim.claim(id)) {
+                _allocations.incrementAndGet();
+                return id;
+            }
+
+            _collisions.incrementAndGet();
+            if (failed == null) {
+                failed = new HashSet<Long>();
+            }
+            failed.add(id);
+        }
+    }
+
+    /**
+     * Drops what is known about the free rows of a pool, e.g. after rows were
+     * added to or removed from it.
+     */
+    public void invalidate(K pool) {
+        _pools.remove(pool);
+    }
+
+    protected ConcurrentLinkedQueue<Long> getPool(K pool) {
+        ConcurrentLinkedQueue<Long> ids = _pools.get(pool);
+        if (ids == null) {
+            ids = new ConcurrentLinkedQueue<Long>();
+            ConcurrentLinkedQueue<Long> existing = _pools.putIfAbsent(pool, ids);
+            if (existing != null) {
+                ids = existing;
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * @return false if there was nothing left to try.
+     */
+    protected boolean refill(K pool, ConcurrentLinkedQueue<Long> ids, Set<Long> failed) {
+        synchronized (ids) {
+            if (!ids.isEmpty()) {
+                return true;
+            }
+
+            List<Long> free = new ArrayList<Long>(_source.listFree(pool, _batchSize));
+            _refills.incrementAndGet();
+            if (failed != null) {
+                // Rows this caller couldn't take are still listed as free when reading from an older snapshot.
+                free.removeAll(failed);
+            }
+            if (free.isEmpty()) {
+                if (s_logger.isDebugEnabled()) {
+                    s_logger.debug("No free rows found in " + _name + " for " + pool);
+                }
+                return false;
+            }
+
+            Collections.shuffle(free);
+            ids.addAll(free);
+            return true;
+        }
+    }
+
+    public long getAllocations() {
+        return _allocations.get();
+    }
+
+    public long getCollisions() {
+        return _collisions.get();
+    }
+
+    public long getRefills() {
+        return _refills.get();
+    }
+
+    @Override
+    public String toString() {
+        return _name + "[allocations=" + _allocations.get() + ", collisions=" + _collisions.get() + ", refills=" + _refills.get() + "]";
+    }
+}
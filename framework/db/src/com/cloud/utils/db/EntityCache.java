@@ -0,0 +1,276 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.db;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.StandardMBean;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Element;
+
+import org.apache.log4j.Logger;
+
+import com.cloud.utils.mgmt.JmxUtil;
+
+/**
+ * EntityCache is the second level cache used by GenericDaoBase for read-mostly
+ * entities.  Each cache is bounded and entries expire after the configured
+ * time to live.  Caches are grouped by the tables their entity is stored in so
+ * that a change through one DAO invalidates every cache holding rows from the
+ * same table, and invalidations are handed to an InvalidationListener so they
+ * can be carried to the other management servers.
+ */
+public class EntityCache extends StandardMBean implements EntityCacheMBean {
+    private static final Logger s_logger = Logger.getLogger(EntityCache.class);
+
+    /**
+     * Receives the invalidations done on this management server.
+     */
+    public interface InvalidationListener {
+        /**
+         * @param table table the row belongs to.
+         * @param id id of the row or null if every row of the table was invalidated.
+         */
+        void onInvalidate(String table, String id);
+    }
+
+    private static final Map<String, List<EntityCache>> s_cachesByTable = new ConcurrentHashMap<String, List<EntityCache>>();
+    private static volatile InvalidationListener s_listener;
+
+    private final String _name;
+    private final String[] _tables;
+    private final Class<?> _idType;
+    private final Cache _cache;
+    private final AtomicLong _hits = new AtomicLong();
+    private final AtomicLong _misses = new AtomicLong();
+    private final AtomicLong _invalidations = new AtomicLong();
+
+    public EntityCache(String name, Collection<String> tables, Class<?> idType, int maxElements, int live, int idle) {
+        super(EntityCacheMBean.class, false);
+        _name = name;
+        _tables = tables.toArray(new String[tables.size()]);
+        _idType = idType;
+        _cache = new Cache(name, maxElements, false, live == -1, live == -1 ? Integer.MAX_VALUE : live, idle);
+        CacheManager.create().addCache(_cache);
+
+        for (String table : _tables) {
+            List<EntityCache> caches = s_cachesByTable.get(table);
+            if (caches == null) {
+                synchronized (s_cachesByTable) {
+                    caches = s_cachesByTable.get(table);
+                    if (caches == null) {
+                        caches = new CopyOnWriteArrayList<EntityCache>();
+                        s_cachesByTable.put(table, caches);
+                    }
+                }
+            }
+            caches.add(this);
+        }
+
+        try {
+            JmxUtil.registerMBean("EntityCache", name, this);
+        } catch (Exception e) {
+            s_logger.warn("Unable to register entity cache " + name + " for JMX", e);
+        }
+    }
+
+    public static void setInvalidationListener(InvalidationListener listener) {
+        s_listener = listener;
+    }
+
+    /**
+     * Invalidates the cached rows of a table without telling anyone about it.
+     * This is what the invalidations received from other management servers
+     * are applied with.
+     * @param id id of the row or null to invalidate all rows.
+     */
+    public static void invalidateLocal(String table, String id) {
+        List<EntityCache> caches = s_cachesByTable.get(table);
+        if (caches == null) {
+            return;
+        }
+        for (EntityCache cache : caches) {
+            if (id == null) {
+                cache.clear();
+            } else {
+                cache.remove(id);
+            }
+        }
+    }
+
+    public static List<EntityCache> getCaches() {
+        List<EntityCache> caches = new ArrayList<EntityCache>();
+        for (List<EntityCache> list : s_cachesByTable.values()) {
+            for (EntityCache cache : list) {
+                if (!caches.contains(cache)) {
+                    caches.add(cache);
+                }
+            }
+        }
+        return caches;
+    }
+
+    public Object get(Object id) {
+        Element element = _cache.get(id);
+        if (element == null) {
+            _misses.incrementAndGet();
+            return null;
+        }
+        _hits.incrementAndGet();
+        return element.getObjectValue();
+    }
+
+    public void put(Object id, Object entity) {
+        _cache.put(new Element(id, entity));
+    }
+
+    /**
+     * Drops the entry from this cache only.
+     */
+    public void evict(Object id) {
+        _cache.remove(id);
+    }
+
+    /**
+     * Invalidates the row in every cache of this management server and the
+     * other management servers.  The row is dropped right away and again
+     * once the transaction commits, since a concurrent reader may cache the
+     * old row in between.  The other management servers are only told after
+     * the commit.
+     */
+    public void invalidate(Object id) {
+        invalidateAfterCommit(id.toString());
+    }
+
+    /**
+     * Invalidates all rows of the tables in every cache of this management
+     * server and the other management servers, see invalidate().
+     */
+    public void invalidateAll() {
+        invalidateAfterCommit(null);
+    }
+
+    protected void invalidateAfterCommit(final String id) {
+        for (String table : _tables) {
+            invalidateLocal(table, id);
+        }
+        TransactionLegacy.runAfterCommit(new Runnable() {
+            @Override
+            public void run() {
+                for (String table : _tables) {
+                    invalidateLocal(table, id);
+                }
+                notifyListener(id);
+            }
+        });
+    }
+
+    protected void notifyListener(String id) {
+        InvalidationListener listener = s_listener;
+        if (listener == null) {
+            return;
+        }
+        for (String table : _tables) {
+            try {
+                listener.onInvalidate(table, id);
+            } catch (Exception e) {
+                s_logger.warn("Unable to propagate invalidation of " + table + " " + id, e);
+            }
+        }
+    }
+
+    protected void remove(String id) {
+        Object key = toKey(id);
+        if (key != null && _cache.remove(key)) {
+            _invalidations.incrementAndGet();
+        }
+    }
+
+    protected Object toKey(String id) {
+        try {
+            if (_idType == Long.class || _idType == long.class) {
+                return Long.valueOf(id);
+            } else if (_idType == Integer.class || _idType == int.class) {
+                return Integer.valueOf(id);
+            } else if (_idType == String.class) {
+                return id;
+            }
+        } catch (NumberFormatException e) {
+            s_logger.warn("Invalid id " + id + " for entity cache " + _name);
+            return null;
+        }
+        // Can't rebuild the key, so play it safe.
+        clear();
+        return null;
+    }
+
+    @Override
+    public String getName() {
+        return _name;
+    }
+
+    @Override
+    public int getSize() {
+        return _cache.getSize();
+    }
+
+    @Override
+    public int getMaxSize() {
+        return _cache.getCacheConfiguration().getMaxElementsInMemory();
+    }
+
+    @Override
+    public long getHits() {
+        return _hits.get();
+    }
+
+    @Override
+    public long getMisses() {
+        return _misses.get();
+    }
+
+    @Override
+    public double getHitRatio() {
+        long hits = _hits.get();
+        long total = hits + _misses.get();
+        return total == 0 ? 0 : (double)hits / total;
+    }
+
+    @Override
+    public long getInvalidations() {
+        return _invalidations.get();
+    }
+
+    @Override
+    public void clear() {
+        _invalidations.addAndGet(_cache.getSize());
+        _cache.removeAll();
+    }
+
+    @Override
+    public String toString() {
+        return _cache.toString();
+    }
+}
@@ -14,19 +14,22 @@
 // KIND, either express or implied.  See the License for the
 // specific language governing permissions and limitations
 // under the License.
-package org.apache.cloudstack.ratelimit;
+package com.cloud.utils.db;
 
-/**
- * Interface for each entry in LimitStore.
- *
- */
-public interface StoreEntry {
+public interface EntityCacheMBean {
+    String getName();
 
-    int getCounter();
+    int getSize();
 
-    int incrementAndGet();
+    int getMaxSize();
 
-    boolean isExpired();
+    long getHits();
 
-    long getExpireDuration(); /* seconds to reset counter */
+    long getMisses();
+
+    double getHitRatio();
+
+    long getInvalidations();
+
+    void clear();
 }
@@ -0,0 +1,499 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.db;
+
+import java.io.UnsupportedEncodingException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Field;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.Table;
+
+import com.cloud.utils.DateUtil;
+import com.cloud.utils.Pair;
+import com.cloud.utils.crypt.DBEncryptionUtil;
+import com.cloud.utils.exception.CloudRuntimeException;
+import com.cloud.utils.net.Ip;
+import com.cloud.utils.net.NetUtils;
+
+/**
+ * EntityRowMapper copies a row of a ResultSet into an entity bean.  The
+ * conversion for every field is worked out once per DAO (type switch, enum
+ * lookup tables, encryption, a method handle setting the field) and the
+ * column to field binding is worked out once per ResultSet, so mapping a row
+ * is just a walk over an array of binders indexed by column position.
+ */
+public class EntityRowMapper {
+    private final static TimeZone s_gmtTimeZone = TimeZone.getTimeZone("GMT");
+
+    private final Map<Pair<String, String>, Attribute> _columns;
+    private final Map<Field, ColumnBinder> _binders = new ConcurrentHashMap<Field, ColumnBinder>();
+    private final ThreadLocal<Binding> _lastBinding = new ThreadLocal<Binding>();
+
+    public EntityRowMapper(Map<Pair<String, String>, Attribute> columns) {
+        _columns = columns;
+        for (Attribute attr : columns.values()) {
+            if (attr.field != null) {
+                _binders.put(attr.field, createBinder(attr.field));
+            }
+        }
+    }
+
+    /**
+     * Copies the current row of the result set into the entity.
+     */
+    public void map(ResultSet rs, Object entity) throws SQLException {
+        ColumnBinder[] binders = getBinders(rs, entity.getClass());
+        try {
+            for (int i = 0; i < binders.length; i++) {
+                binders[i].bind(entity, rs, i + 1);
+            }
+        } catch (IllegalAccessException e) {
+            throw new CloudRuntimeException("Yikes! ", e);
+        }
+    }
+
+    /**
+     * Copies a single column into the field.
+     */
+    public void setField(Object entity, Field field, ResultSet rs, int index) throws SQLException {
+        try {
+            getBinder(field).bind(entity, rs, index);
+        } catch (IllegalAccessException e) {
+            throw new CloudRuntimeException("Yikes! ", e);
+        }
+    }
+
+    public ColumnBinder getBinder(Field field) {
+        ColumnBinder binder = _binders.get(field);
+        if (binder == null) {
+            binder = createBinder(field);
+            _binders.put(field, binder);
+        }
+        return binder;
+    }
+
+    /**
+     * DAOs map a ResultSet one row at a time, so the binding for the last
+     * ResultSet seen by this thread is kept around and reused until a
+     * different ResultSet shows up.
+     */
+    protected ColumnBinder[] getBinders(ResultSet rs, Class<?> entityClass) throws SQLException {
+        Binding binding = _lastBinding.get();
+        if (binding != null && binding.rs.get() == rs) {
+            return binding.binders;
+        }
+
+        ResultSetMetaData meta = rs.getMetaData();
+        int count = meta.getColumnCount();
+        ColumnBinder[] binders = new ColumnBinder[count];
+        for (int index = 1; index <= count; index++) {
+            Attribute attr = _columns.get(new Pair<String, String>(meta.getTableName(index), meta.getColumnName(index)));
+            if (attr == null) {
+                // work around for mysql bug to return original table name instead of view name in db view case
+                Table tbl = entityClass.getSuperclass().getAnnotation(Table.class);
+                if (tbl != null) {
+                    attr = _columns.get(new Pair<String, String>(tbl.name(), meta.getColumnLabel(index)));
+                }
+            }
+            assert (attr != null) : "How come I can't find " + meta.getCatalogName(index) + "." + meta.getColumnName(index);
+            binders[index - 1] = getBinder(attr.field);
+        }
+
+        _lastBinding.set(new Binding(rs, binders));
+        return binders;
+    }
+
+    private static class Binding {
+        final WeakReference<ResultSet> rs;
+        final ColumnBinder[] binders;
+
+        Binding(ResultSet rs, ColumnBinder[] binders) {
+            this.rs = new WeakReference<ResultSet>(rs);
+            this.binders = binders;
+        }
+    }
+
+    /**
+     * Reads one column and stores it into one field.
+     */
+    public static abstract class ColumnBinder {
+        private static final MethodHandle s_fieldSet;
+        static {
+            try {
+                s_fieldSet = MethodHandles.lookup().findVirtual(Field.class, "set", MethodType.methodType(void.class, Object.class, Object.class));
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        protected final Field _field;
+        // both take the entity as an Object, the first the value as the field type if it is a primitive, the second as an Object
+        private final MethodHandle _setter;
+        private final MethodHandle _objectSetter;
+
+        protected ColumnBinder(Field field) {
+            _field = field;
+            _setter = createSetter(field);
+            _objectSetter = _setter.asType(MethodType.methodType(void.class, Object.class, Object.class));
+        }
+
+        private static MethodHandle createSetter(Field field) {
+            field.setAccessible(true);
+            MethodHandle setter;
+            try {
+                setter = MethodHandles.lookup().unreflectSetter(field);
+            } catch (IllegalAccessException e) {
+                // final fields have no setter handle, they can only be set through the field
+                setter = s_fieldSet.bindTo(field);
+            }
+            Class<?> type = field.getType();
+            return setter.asType(MethodType.methodType(void.class, Object.class, type.isPrimitive() ? type : Object.class));
+        }
+
+        private static CloudRuntimeException setFailed(Field field, Throwable t) {
+            if (t instanceof RuntimeException) {
+                throw (RuntimeException)t;
+            }
+            if (t instanceof Error) {
+                throw (Error)t;
+            }
+            return new CloudRuntimeException("Unable to set " + field, t);
+        }
+
+        protected void set(Object entity, Object value) {
+            try {
+                _objectSetter.invokeExact(entity, value);
+            } catch (Throwable t) {
+                throw setFailed(_field, t);
+            }
+        }
+
+        protected void setLong(Object entity, long value) {
+            try {
+                _setter.invokeExact(entity, value);
+            } catch (Throwable t) {
+                throw setFailed(_field, t);
+            }
+        }
+
+        protected void setInt(Object entity, int value) {
+            try {
+                _setter.invokeExact(entity, value);
+            } catch (Throwable t) {
+                throw setFailed(_field, t);
+            }
+        }
+
+        protected void setShort(Object entity, short value) {
+            try {
+                _setter.invokeExact(entity, value);
+            } catch (Throwable t) {
+                throw setFailed(_field, t);
+            }
+        }
+
+        protected void setByte(Object entity, byte value) {
+            try {
+                _setter.invokeExact(entity, value);
+            } catch (Throwable t) {
+                throw setFailed(_field, t);
+            }
+        }
+
+        protected void setBoolean(Object entity, boolean value) {
+            try {
+                _setter.invokeExact(entity, value);
+            } catch (Throwable t) {
+                throw setFailed(_field, t);
+            }
+        }
+
+        protected void setFloat(Object entity, float value) {
+            try {
+                _setter.invokeExact(entity, value);
+            } catch (Throwable t) {
+                throw setFailed(_field, t);
+            }
+        }
+
+        protected void setDouble(Object entity, double value) {
+            try {
+                _setter.invokeExact(entity, value);
+            } catch (Throwable t) {
+                throw setFailed(_field, t);
+            }
+        }
+
+        public abstract void bind(Object entity, ResultSet rs, int index) throws SQLException, IllegalAccessException;
+    }
+
+    protected static ColumnBinder createBinder(final Field field) {
+        final Class<?> type = field.getType();
+        if (type == String.class) {
+            Encrypt encrypt = field.getAnnotation(Encrypt.class);
+            final boolean encrypted = encrypt != null && encrypt.encrypt();
+            return new ColumnBinder(field) {
+                @Override
+                public void bind(Object entity, ResultSet rs, int index) throws SQLException, IllegalAccessException {
+                    byte[] bytes = rs.getBytes(index);
+                    if (bytes == null) {
+                        set(entity, null);
+                        return;
+                    }
+                    try {
+                        String str = new String(bytes, "UTF-8");
+                        set(entity, encrypted ? DBEncryptionUtil.decrypt(str) : str);
+                    } catch (UnsupportedEncodingException e) {
+                        assert (false);
+                        throw new CloudRuntimeException("UnsupportedEncodingException when converting UTF-8 data");
+                    }
+                }
+            };
+        } else if (type == long.class) {
+            return new ColumnBinder(field) {
+                @Override
+                public void bind(Object entity, ResultSet rs, int index) throws SQLException, IllegalAccessException {
+                    setLong(entity, rs.getLong(index));
+                }
+            };
+        } else if (type == Long.class) {
+            return new ColumnBinder(field) {
+                @Override
+                public void bind(Object entity, ResultSet rs, int index) throws SQLException, IllegalAccessException {
+                    long value = rs.getLong(index);
+                    set(entity, rs.wasNull() ? null : value);
+                }
+            };
+        } else if (type.isEnum()) {
+            final Enumerated enumerated = field.getAnnotation(Enumerated.class);
+            final EnumType enumType = (enumerated == null) ? EnumType.STRING : enumerated.value();
+            final Enum<?>[] enums = (Enum<?>[])type.getEnumConstants();
+            if (enumType == EnumType.ORDINAL) {
+                return new ColumnBinder(field) {
+                    @Override
+                    public void bind(Object entity, ResultSet rs, int index) throws SQLException, IllegalAccessException {
+                        int ordinal = rs.getInt(index);
+                        if (ordinal >= 0 && ordinal < enums.length) {
+                            set(entity, enums[ordinal]);
+                        }
+                    }
+                };
+            }
+            final Map<String, Enum<?>> byName = new HashMap<String, Enum<?>>(enums.length * 2);
+            for (Enum<?> e : enums) {
+                byName.put(e.name().toLowerCase(Locale.ROOT), e);
+            }
+            return new ColumnBinder(field) {
+                @Override
+                public void bind(Object entity, ResultSet rs, int index) throws SQLException, IllegalAccessException {
+                    String name = rs.getString(index);
+                    Enum<?> e = name == null ? null : byName.get(name.toLowerCase(Locale.ROOT));
+                    if (e != null) {
+                        set(entity, e);
+                    }
+                }
+            };
+        } else if (type == int.class) {
+            return new ColumnBinder(field) {
+                @Override
+                public void bind(Object entity, ResultSet rs, int index) throws SQLException, IllegalAccessException {
+                    setInt(entity, rs.getInt(index));
+                }
+            };
+        } else if (type == Integer.class) {
+            return new ColumnBinder(field) {
+                @Override
+                public void bind(Object entity, ResultSet rs, int index) throws SQLException, IllegalAccessException {
+                    int value = rs.getInt(index);
+                    set(entity, rs.wasNull() ? null : value);
+                }
+            };
+        } else if (type == Date.class) {
+            return new ColumnBinder(field) {
+                @Override
+                public void bind(Object entity, ResultSet rs, int index) throws SQLException, IllegalAccessException {
+                    if (rs.getDate(index) == null) {
+                        set(entity, null);
+                        return;
+                    }
+                    set(entity, DateUtil.parseDateString(s_gmtTimeZone, rs.getString(index)));
+                }
+            };
+        } else if (type == Calendar.class) {
+            return new ColumnBinder(field) {
+                @Override
+                public void bind(Object entity, ResultSet rs, int index) throws SQLException, IllegalAccessException {
+                    if (rs.getDate(index) == null) {
+                        set(entity, null);
+                        return;
+                    }
+                    final Calendar cal = Calendar.getInstance();
+                    cal.setTime(DateUtil.parseDateString(s_gmtTimeZone, rs.getString(index)));
+                    set(entity, cal);
+                }
+            };
+        } else if (type == boolean.class) {
+            return new ColumnBinder(field) {
+                @Override
+                public void bind(Object entity, ResultSet rs, int index) throws SQLException, IllegalAccessException {
+                    setBoolean(entity, rs.getBoolean(index));
+                }
+            };
+        } else if (type == Boolean.class) {
+            return new ColumnBinder(field) {
+                @Override
+                public void bind(Object entity, ResultSet rs, int index) throws SQLException, IllegalAccessException {
+                    boolean value = rs.getBoolean(index);
+                    set(entity, rs.wasNull() ? null : value);
+                }
+            };
+        } else if (type == URI.class) {
+            return new ColumnBinder(field) {
+                @Override
+                public void bind(Object entity, ResultSet rs, int index) throws SQLException, IllegalAccessException {
+                    String str = rs.getString(index);
+                    try {
+                        set(entity, str == null ? null : new URI(str));
+                    } catch (URISyntaxException e) {
+                        throw new CloudRuntimeException("Invalid URI: " + str, e);
+                    }
+                }
+            };
+        } else if (type == URL.class) {
+            return new ColumnBinder(field) {
+                @Override
+                public void bind(Object entity, ResultSet rs, int index) throws SQLException, IllegalAccessException {
+                    String str = rs.getString(index);
+                    try {
+                        set(entity, str != null ? new URL(str) : null);
+                    } catch (MalformedURLException e) {
+                        throw new CloudRuntimeException("Invalid URL: " + str, e);
+                    }
+                }
+            };
+        } else if (type == Ip.class) {
+            final Enumerated enumerated = field.getAnnotation(Enumerated.class);
+            final EnumType enumType = (enumerated == null) ? EnumType.STRING : enumerated.value();
+            return new ColumnBinder(field) {
+                @Override
+                public void bind(Object entity, ResultSet rs, int index) throws SQLException, IllegalAccessException {
+                    Ip ip = null;
+                    if (enumType == EnumType.STRING) {
+                        String s = rs.getString(index);
+                        ip = s == null ? null : new Ip(NetUtils.ip2Long(s));
+                    } else {
+                        ip = new Ip(rs.getLong(index));
+                    }
+                    set(entity, ip);
+                }
+            };
+        } else if (type == short.class) {
+            return new ColumnBinder(field) {
+                @Override
+                public void bind(Object entity, ResultSet rs, int index) throws SQLException, IllegalAccessException {
+                    setShort(entity, rs.getShort(index));
+                }
+            };
+        } else if (type == Short.class) {
+            return new ColumnBinder(field) {
+                @Override
+                public void bind(Object entity, ResultSet rs, int index) throws SQLException, IllegalAccessException {
+                    short value = rs.getShort(index);
+                    set(entity, rs.wasNull() ? null : value);
+                }
+            };
+        } else if (type == float.class) {
+            return new ColumnBinder(field) {
+                @Override
+                public void bind(Object entity, ResultSet rs, int index) throws SQLException, IllegalAccessException {
+                    setFloat(entity, rs.getFloat(index));
+                }
+            };
+        } else if (type == Float.class) {
+            return new ColumnBinder(field) {
+                @Override
+                public void bind(Object entity, ResultSet rs, int index) throws SQLException, IllegalAccessException {
+                    float value = rs.getFloat(index);
+                    set(entity, rs.wasNull() ? null : value);
+                }
+            };
+        } else if (type == double.class) {
+            return new ColumnBinder(field) {
+                @Override
+                public void bind(Object entity, ResultSet rs, int index) throws SQLException, IllegalAccessException {
+                    setDouble(entity, rs.getDouble(index));
+                }
+            };
+        } else if (type == Double.class) {
+            return new ColumnBinder(field) {
+                @Override
+                public void bind(Object entity, ResultSet rs, int index) throws SQLException, IllegalAccessException {
+                    double value = rs.getDouble(index);
+                    set(entity, rs.wasNull() ? null : value);
+                }
+            };
+        } else if (type == byte.class) {
+            return new ColumnBinder(field) {
+                @Override
+                public void bind(Object entity, ResultSet rs, int index) throws SQLException, IllegalAccessException {
+                    setByte(entity, rs.getByte(index));
+                }
+            };
+        } else if (type == Byte.class) {
+            return new ColumnBinder(field) {
+                @Override
+                public void bind(Object entity, ResultSet rs, int index) throws SQLException, IllegalAccessException {
+                    byte value = rs.getByte(index);
+                    set(entity, rs.wasNull() ? null : value);
+                }
+            };
+        } else if (type == byte[].class) {
+            return new ColumnBinder(field) {
+                @Override
+                public void bind(Object entity, ResultSet rs, int index) throws SQLException, IllegalAccessException {
+                    set(entity, rs.getBytes(index));
+                }
+            };
+        } else {
+            return new ColumnBinder(field) {
+                @Override
+                public void bind(Object entity, ResultSet rs, int index) throws SQLException, IllegalAccessException {
+                    set(entity, rs.getObject(index));
+                }
+            };
+        }
+    }
+}
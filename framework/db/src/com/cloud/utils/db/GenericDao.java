@@ -199,6 +199,17 @@ public interface GenericDao<T, ID extends Serializable> {
      **/
     T persist(T entity);
 
+    /**
+     * Persist a list of new entity beans using batched inserts.  The id field
+     * of each entity is updated with the generated id.  Unlike persist(), the
+     * rows are not read back; the returned beans are built from the values
+     * that were inserted.  If the dao overrides persist(), the entities are
+     * persisted one by one through it instead.
+     * @param entities the beans to persist.
+     * @return The persisted versions of the objects, in the same order.
+     **/
+    List<T> persistAll(List<T> entities);
+
     /**
      * remove the entity bean.  This will call delete automatically if
      * the entity bean does not have a removed field.
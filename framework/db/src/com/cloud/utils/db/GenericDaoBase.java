@@ -20,11 +20,10 @@ import java.io.Serializable;
 import java.io.UnsupportedEncodingException;
 import java.lang.reflect.Array;
 import java.lang.reflect.Field;
+import java.lang.reflect.Method;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
-import java.net.MalformedURLException;
 import java.net.URI;
-import java.net.URISyntaxException;
 import java.net.URL;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -61,9 +60,6 @@ import net.sf.cglib.proxy.Enhancer;
 import net.sf.cglib.proxy.Factory;
 import net.sf.cglib.proxy.MethodInterceptor;
 import net.sf.cglib.proxy.NoOp;
-import net.sf.ehcache.Cache;
-import net.sf.ehcache.CacheManager;
-import net.sf.ehcache.Element;
 
 import org.apache.log4j.Logger;
 
@@ -147,16 +143,20 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
     protected Map<String, Attribute> _allAttributes;
     protected List<Attribute> _ecAttributes;
     protected Map<Pair<String, String>, Attribute> _allColumns;
+    protected EntityRowMapper _rowMapper;
     protected Enhancer _enhancer;
     protected Factory _factory;
     protected Enhancer _searchEnhancer;
     protected int _timeoutSeconds;
+    protected boolean _reloadAfterPersist = true;
+    private volatile Boolean _persistOverridden;
 
     protected final static CallbackFilter s_callbackFilter = new UpdateFilter();
 
     protected static final String FOR_UPDATE_CLAUSE = " FOR UPDATE ";
     protected static final String SHARE_MODE_CLAUSE = " LOCK IN SHARE MODE";
     protected static final String SELECT_LAST_INSERT_ID_SQL = "SELECT LAST_INSERT_ID()";
+    protected static final int PERSIST_BATCH_SIZE = 500;
 
     protected static final SequenceFetcher s_seqFetcher = SequenceFetcher.getInstance();
 
@@ -226,6 +226,7 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
 
         _allAttributes = generator.getAllAttributes();
         _allColumns = generator.getAllColumns();
+        _rowMapper = new EntityRowMapper(_allColumns);
 
         _selectByIdSql = buildSelectByIdSql(createPartialSelectSql(null, true));
         _removeSql = generator.buildRemoveSql();
@@ -517,146 +518,7 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
 
     @DB()
     protected void setField(Object entity, Field field, ResultSet rs, int index) throws SQLException {
-        try {
-            final Class<?> type = field.getType();
-            if (type == String.class) {
-                byte[] bytes = rs.getBytes(index);
-                if (bytes != null) {
-                    try {
-                        Encrypt encrypt = field.getAnnotation(Encrypt.class);
-                        if (encrypt != null && encrypt.encrypt()) {
-                            field.set(entity, DBEncryptionUtil.decrypt(new String(bytes, "UTF-8")));
-                        } else {
-                            field.set(entity, new String(bytes, "UTF-8"));
-                        }
-                    } catch (IllegalArgumentException e) {
-                        assert (false);
-                        throw new CloudRuntimeException("IllegalArgumentException when converting UTF-8 data");
-                    } catch (UnsupportedEncodingException e) {
-                        assert (false);
-                        throw new CloudRuntimeException("UnsupportedEncodingException when converting UTF-8 data");
-                    }
-                } else {
-                    field.set(entity, null);
-                }
-            } else if (type == long.class) {
-                field.setLong(entity, rs.getLong(index));
-            } else if (type == Long.class) {
-                if (rs.getObject(index) == null) {
-                    field.set(entity, null);
-                } else {
-                    field.set(entity, rs.getLong(index));
-                }
-            } else if (type.isEnum()) {
-                final Enumerated enumerated = field.getAnnotation(Enumerated.class);
-                final EnumType enumType = (enumerated == null) ? EnumType.STRING : enumerated.value();
-
-                final Enum<?>[] enums = (Enum<?>[])field.getType().getEnumConstants();
-                for (final Enum<?> e : enums) {
-                    if ((enumType == EnumType.STRING && e.name().equalsIgnoreCase(rs.getString(index))) ||
-                            (enumType == EnumType.ORDINAL && e.ordinal() == rs.getInt(index))) {
-                        field.set(entity, e);
-                        return;
-                    }
-                }
-            } else if (type == int.class) {
-                field.set(entity, rs.getInt(index));
-            } else if (type == Integer.class) {
-                if (rs.getObject(index) == null) {
-                    field.set(entity, null);
-                } else {
-                    field.set(entity, rs.getInt(index));
-                }
-            } else if (type == Date.class) {
-                final Object data = rs.getDate(index);
-                if (data == null) {
-                    field.set(entity, null);
-                    return;
-                }
-                field.set(entity, DateUtil.parseDateString(s_gmtTimeZone, rs.getString(index)));
-            } else if (type == Calendar.class) {
-                final Object data = rs.getDate(index);
-                if (data == null) {
-                    field.set(entity, null);
-                    return;
-                }
-                final Calendar cal = Calendar.getInstance();
-                cal.setTime(DateUtil.parseDateString(s_gmtTimeZone, rs.getString(index)));
-                field.set(entity, cal);
-            } else if (type == boolean.class) {
-                field.setBoolean(entity, rs.getBoolean(index));
-            } else if (type == Boolean.class) {
-                if (rs.getObject(index) == null) {
-                    field.set(entity, null);
-                } else {
-                    field.set(entity, rs.getBoolean(index));
-                }
-            } else if (type == URI.class) {
-                try {
-                    String str = rs.getString(index);
-                    field.set(entity, str == null ? null : new URI(str));
-                } catch (URISyntaxException e) {
-                    throw new CloudRuntimeException("Invalid URI: " + rs.getString(index), e);
-                }
-            } else if (type == URL.class) {
-                try {
-                    String str = rs.getString(index);
-                    field.set(entity, str != null ? new URL(str) : null);
-                } catch (MalformedURLException e) {
-                    throw new CloudRuntimeException("Invalid URL: " + rs.getString(index), e);
-                }
-            } else if (type == Ip.class) {
-                final Enumerated enumerated = field.getAnnotation(Enumerated.class);
-                final EnumType enumType = (enumerated == null) ? EnumType.STRING : enumerated.value();
-
-                Ip ip = null;
-                if (enumType == EnumType.STRING) {
-                    String s = rs.getString(index);
-                    ip = s == null ? null : new Ip(NetUtils.ip2Long(s));
-                } else {
-                    ip = new Ip(rs.getLong(index));
-                }
-                field.set(entity, ip);
-            } else if (type == short.class) {
-                field.setShort(entity, rs.getShort(index));
-            } else if (type == Short.class) {
-                if (rs.getObject(index) == null) {
-                    field.set(entity, null);
-                } else {
-                    field.set(entity, rs.getShort(index));
-                }
-            } else if (type == float.class) {
-                field.setFloat(entity, rs.getFloat(index));
-            } else if (type == Float.class) {
-                if (rs.getObject(index) == null) {
-                    field.set(entity, null);
-                } else {
-                    field.set(entity, rs.getFloat(index));
-                }
-            } else if (type == double.class) {
-                field.setDouble(entity, rs.getDouble(index));
-            } else if (type == Double.class) {
-                if (rs.getObject(index) == null) {
-                    field.set(entity, null);
-                } else {
-                    field.set(entity, rs.getDouble(index));
-                }
-            } else if (type == byte.class) {
-                field.setByte(entity, rs.getByte(index));
-            } else if (type == Byte.class) {
-                if (rs.getObject(index) == null) {
-                    field.set(entity, null);
-                } else {
-                    field.set(entity, rs.getByte(index));
-                }
-            } else if (type == byte[].class) {
-                field.set(entity, rs.getBytes(index));
-            } else {
-                field.set(entity, rs.getObject(index));
-            }
-        } catch (final IllegalAccessException e) {
-            throw new CloudRuntimeException("Yikes! ", e);
-        }
+        _rowMapper.setField(entity, field, rs, index);
     }
 
     /**
@@ -786,7 +648,7 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
 
     protected int update(ID id, UpdateBuilder ub, T entity) {
         if (_cache != null) {
-            _cache.remove(id);
+            _cache.evict(id);
         }
         SearchCriteria<T> sc = createSearchCriteria();
         sc.addAnd(_idAttributes.get(_table)[0], SearchCriteria.Op.EQ, id);
@@ -801,14 +663,26 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
             throw new CloudRuntimeException("Unable to persist element collection", e);
         }
 
-        int rowsUpdated = update(ub, sc, null);
+        int rowsUpdated = executeUpdate(ub, sc, null);
 
         txn.commit();
 
+        if (_cache != null) {
+            _cache.invalidate(id);
+        }
+
         return rowsUpdated;
     }
 
     public int update(UpdateBuilder ub, final SearchCriteria<?> sc, Integer rows) {
+        int result = executeUpdate(ub, sc, rows);
+        if (result > 0 && _cache != null) {
+            _cache.invalidateAll();
+        }
+        return result;
+    }
+
+    protected int executeUpdate(UpdateBuilder ub, final SearchCriteria<?> sc, Integer rows) {
         StringBuilder sql = null;
         PreparedStatement pstmt = null;
         final TransactionLegacy txn = TransactionLegacy.currentTxn();
@@ -941,8 +815,8 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
     @SuppressWarnings("unchecked")
     public T findById(final ID id) {
         if (_cache != null) {
-            final Element element = _cache.get(id);
-            return element == null ? lockRow(id, null) : (T)element.getObjectValue();
+            final T cached = (T)_cache.get(id);
+            return cached == null ? lockRow(id, null) : cloneEntity(cached);
         } else {
             return lockRow(id, null);
         }
@@ -978,7 +852,7 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
         }
 
         if (_cache != null) {
-            _cache.remove(id);
+            _cache.evict(id);
         }
         return lockRow(id, null);
     }
@@ -1171,7 +1045,7 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
 
             txn.commit();
             if (_cache != null) {
-                _cache.remove(id);
+                _cache.invalidate(id);
             }
             return true;
         } catch (final SQLException e) {
@@ -1204,7 +1078,11 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
             for (final Pair<Attribute, Object> value : sc.getValues()) {
                 prepareAttribute(++i, pstmt, value.first(), value.second());
             }
-            return pstmt.executeUpdate();
+            final int result = pstmt.executeUpdate();
+            if (result > 0 && _cache != null) {
+                _cache.invalidateAll();
+            }
+            return result;
         } catch (final SQLException e) {
             throw new CloudRuntimeException("DB Exception on: " + pstmt, e);
         } catch (final Throwable e) {
@@ -1345,6 +1223,10 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
             assert false : "Can't call persit if you don't have primary key";
         }
 
+        if (!_reloadAfterPersist) {
+            fillDaoGeneratedValues(entity);
+        }
+
         ID id = null;
         final TransactionLegacy txn = TransactionLegacy.currentTxn();
         PreparedStatement pstmt = null;
@@ -1381,17 +1263,7 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
                 }
             }
 
-            if (_ecAttributes != null && _ecAttributes.size() > 0) {
-                HashMap<Attribute, Object> ecAttributes = new HashMap<Attribute, Object>();
-                for (Attribute attr : _ecAttributes) {
-                    Object ec = attr.field.get(entity);
-                    if (ec != null) {
-                        ecAttributes.put(attr, ec);
-                    }
-                }
-
-                insertElementCollection(entity, _idAttributes.get(_table)[0], id, ecAttributes);
-            }
+            insertElementCollections(entity, id);
             txn.commit();
         } catch (final SQLException e) {
             if (e.getSQLState().equals("23000") && e.getErrorCode() == 1062) {
@@ -1405,7 +1277,235 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
             throw new CloudRuntimeException("Problem with getting the ec attribute ", e);
         }
 
-        return _idField != null ? findByIdIncludingRemoved(id) : null;
+        afterPersist(entity);
+        if (_idField == null) {
+            return null;
+        }
+        if (_reloadAfterPersist) {
+            return findByIdIncludingRemoved(id);
+        }
+        final T persisted = cloneEntity(entity);
+        cacheEntity(persisted);
+        return persisted;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<T> persistAll(final List<T> entities) {
+        final List<T> persisted = new ArrayList<T>(entities.size());
+        if (isPersistOverridden()) {
+            final TransactionLegacy txn = TransactionLegacy.currentTxn();
+            txn.start();
+            for (final T entity : entities) {
+                persisted.add(persist(entity));
+            }
+            txn.commit();
+            return persisted;
+        }
+
+        final List<T> inserts = new ArrayList<T>(entities.size());
+        for (final T entity : entities) {
+            if (Enhancer.isEnhanced(entity.getClass())) {
+                persisted.add(persist(entity));
+            } else {
+                fillDaoGeneratedValues(entity);
+                inserts.add(entity);
+            }
+        }
+        if (inserts.isEmpty()) {
+            return persisted;
+        }
+
+        final TransactionLegacy txn = TransactionLegacy.currentTxn();
+        PreparedStatement pstmt = null;
+        try {
+            // The driver returns the generated keys of a batch in row order without saying
+            // which row they belong to, so rows that bring their own id go in batches of
+            // their own and don't take a key meant for another row.
+            final List<T> generated = new ArrayList<T>(inserts.size());
+            final List<T> assigned = new ArrayList<T>();
+            for (final T entity : inserts) {
+                if (isIdGenerated(entity)) {
+                    generated.add(entity);
+                } else {
+                    assigned.add(entity);
+                }
+            }
+
+            txn.start();
+            for (final List<T> group : new List[] {generated, assigned}) {
+                for (int from = 0; from < group.size(); from += PERSIST_BATCH_SIZE) {
+                    final List<T> batch = group.subList(from, Math.min(from + PERSIST_BATCH_SIZE, group.size()));
+                    boolean first = true;
+                    for (final Pair<String, Attribute[]> pair : _insertSqls) {
+                        final Attribute[] attrs = pair.second();
+                        pstmt = txn.prepareAutoCloseStatement(pair.first(), Statement.RETURN_GENERATED_KEYS);
+                        for (final T entity : batch) {
+                            prepareAttributes(pstmt, entity, attrs, 1);
+                            pstmt.addBatch();
+                        }
+                        pstmt.executeBatch();
+
+                        // Only the first table generates the key, secondary tables are
+                        // joined on it and pick it up from the entity.
+                        if (first && group == generated) {
+                            final ResultSet rs = pstmt.getGeneratedKeys();
+                            for (final T entity : batch) {
+                                if (rs != null && rs.next()) {
+                                    _idField.set(entity, rs.getObject(1));
+                                }
+                            }
+                        }
+                        first = false;
+                    }
+
+                    for (final T entity : batch) {
+                        insertElementCollections(entity, _idField != null ? (ID)_idField.get(entity) : null);
+                    }
+                }
+            }
+            txn.commit();
+        } catch (final SQLException e) {
+            if (e.getSQLState() != null && e.getSQLState().equals("23000") && e.getErrorCode() == 1062) {
+                throw new EntityExistsException("Entity already exists: ", e);
+            } else {
+                throw new CloudRuntimeException("DB Exception on: " + pstmt, e);
+            }
+        } catch (IllegalArgumentException e) {
+            throw new CloudRuntimeException("Problem with setting the generated id ", e);
+        } catch (IllegalAccessException e) {
+            throw new CloudRuntimeException("Problem with setting the generated id ", e);
+        }
+
+        for (final T entity : inserts) {
+            afterPersist(entity);
+        }
+        if (_idField == null) {
+            return persisted;
+        }
+        for (final T entity : inserts) {
+            final T bean = cloneEntity(entity);
+            cacheEntity(bean);
+            persisted.add(bean);
+        }
+        return persisted;
+    }
+
+    /**
+     * @return true if the database generates the id of the entity when it is
+     *         inserted, that is the id column is an identity column or the
+     *         entity has no id set.
+     */
+    private boolean isIdGenerated(final T entity) throws IllegalAccessException {
+        if (_idField == null) {
+            return false;
+        }
+        if (_idAttributes.get(_table)[0].is(Attribute.Flag.DbGenerated)) {
+            return true;
+        }
+        final Object id = _idField.get(entity);
+        return id == null || (id instanceof Number && ((Number)id).longValue() == 0);
+    }
+
+    /**
+     * Called for every entity inserted by persist() or persistAll().  Subclasses
+     * that only need to act on inserts override this instead of persist(), which
+     * keeps persistAll() batching their inserts.
+     */
+    protected void afterPersist(final T entity) {
+    }
+
+    /**
+     * @return true if a subclass overrides persist(), in which case persistAll()
+     *         persists the entities one by one through the override instead of
+     *         batching the inserts.
+     */
+    protected boolean isPersistOverridden() {
+        if (_persistOverridden == null) {
+            boolean overridden = false;
+            for (Class<?> clazz = getClass(); clazz != null && clazz != GenericDaoBase.class; clazz = clazz.getSuperclass()) {
+                // skip the subclasses generated for the transaction and other interceptors
+                if (clazz.getName().contains("$$")) {
+                    continue;
+                }
+                for (final Method method : clazz.getDeclaredMethods()) {
+                    if (method.getName().equals("persist") && !method.isBridge() && method.getParameterTypes().length == 1 &&
+                        method.getParameterTypes()[0].isAssignableFrom(_entityBeanType)) {
+                        overridden = true;
+                    }
+                }
+            }
+            _persistOverridden = overridden;
+        }
+        return _persistOverridden;
+    }
+
+    protected void insertElementCollections(final T entity, final ID id) throws SQLException, IllegalAccessException {
+        if (_ecAttributes == null || _ecAttributes.size() == 0) {
+            return;
+        }
+        HashMap<Attribute, Object> ecAttributes = new HashMap<Attribute, Object>();
+        for (Attribute attr : _ecAttributes) {
+            Object ec = attr.field.get(entity);
+            if (ec != null) {
+                ecAttributes.put(attr, ec);
+            }
+        }
+
+        insertElementCollection(entity, _idAttributes.get(_table)[0], id, ecAttributes);
+    }
+
+    /**
+     * Sets the values the dao would otherwise generate while binding the
+     * insert (created date, uuid) on the entity itself, so that the entity
+     * holds exactly what is written to the database.
+     */
+    protected void fillDaoGeneratedValues(final T entity) {
+        for (final Pair<String, Attribute[]> pair : _insertSqls) {
+            for (final Attribute attr : pair.second()) {
+                if (attr.field == null || !(attr.is(Attribute.Flag.Created) || attr.is(Attribute.Flag.AutoGV))) {
+                    continue;
+                }
+                try {
+                    if (attr.field.get(entity) != null) {
+                        continue;
+                    }
+                    Object value = generateValue(attr);
+                    if (value instanceof Date) {
+                        // the database only keeps seconds
+                        value = new Date(((Date)value).getTime() / 1000 * 1000);
+                    }
+                    attr.field.set(entity, value);
+                } catch (final IllegalAccessException e) {
+                    throw new CloudRuntimeException("Yikes! ", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Copies the persistent fields of the entity into a new entity bean
+     * generated by this dao.  This is used to build the entity returned by
+     * persist() from the values that were bound to the insert instead of
+     * reading the row back (column defaults applied by the database itself are
+     * not reflected), and to hand out private copies of cached entities.
+     */
+    @SuppressWarnings("unchecked")
+    protected T cloneEntity(final T entity) {
+        final T persisted = (T)_factory.newInstance(new Callback[] {NoOp.INSTANCE, new UpdateBuilder(this)});
+        try {
+            for (final Attribute attr : _allAttributes.values()) {
+                if (!attr.is(Attribute.Flag.Embedded)) {
+                    attr.field.set(persisted, attr.field.get(entity));
+                }
+            }
+            for (final Field field : _embeddedFields) {
+                field.set(persisted, field.get(entity));
+            }
+        } catch (final IllegalAccessException e) {
+            throw new CloudRuntimeException("Yikes! ", e);
+        }
+        return persisted;
     }
 
     protected void insertElementCollection(T entity, Attribute idAttribute, ID id, Map<Attribute, Object> ecAttributes) throws SQLException {
@@ -1594,11 +1694,7 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
         toEntityBean(result, entity);
 
         if (cache && _cache != null) {
-            try {
-                _cache.put(new Element(_idField.get(entity), entity));
-            } catch (final Exception e) {
-                s_logger.debug("Can't put it in the cache", e);
-            }
+            cacheEntity(entity);
         }
 
         return entity;
@@ -1616,11 +1712,7 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
         }
         toEntityBean(result, entity);
         if (cache && _cache != null) {
-            try {
-                _cache.put(new Element(_idField.get(entity), entity));
-            } catch (final Exception e) {
-                s_logger.debug("Can't put it in the cache", e);
-            }
+            cacheEntity(entity);
         }
 
         return entity;
@@ -1628,10 +1720,7 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
 
     @DB()
     protected void toEntityBean(final ResultSet result, final T entity) throws SQLException {
-        ResultSetMetaData meta = result.getMetaData();
-        for (int index = 1, max = meta.getColumnCount(); index <= max; index++) {
-            setField(entity, result, meta, index);
-        }
+        _rowMapper.map(result, entity);
         for (Attribute attr : _ecAttributes) {
             loadCollection(entity, attr);
         }
@@ -1764,7 +1853,7 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
             final int result = pstmt.executeUpdate();
             txn.commit();
             if (_cache != null) {
-                _cache.remove(id);
+                _cache.invalidate(id);
             }
             return result > 0;
         } catch (final SQLException e) {
@@ -1785,25 +1874,47 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
         return update(ub, sc, null);
     }
 
-    protected Cache _cache;
+    protected EntityCache _cache;
 
     @DB()
     protected void createCache(final Map<String, ? extends Object> params) {
         final String value = (String)params.get("cache.size");
 
-        if (value != null) {
-            final CacheManager cm = CacheManager.create();
+        if (value != null && _idField != null) {
             final int maxElements = NumbersUtil.parseInt(value, 0);
             final int live = NumbersUtil.parseInt((String)params.get("cache.time.to.live"), 300);
             final int idle = NumbersUtil.parseInt((String)params.get("cache.time.to.idle"), 300);
-            _cache = new Cache(getName(), maxElements, false, live == -1, live == -1 ? Integer.MAX_VALUE : live, idle);
-            cm.addCache(_cache);
+            _cache = new EntityCache(getName(), _idAttributes.keySet(), _idField.getType(), maxElements, live, idle);
             s_logger.info("Cache created: " + _cache.toString());
         } else {
             _cache = null;
         }
     }
 
+    /**
+     * Puts a private copy of the entity into the cache.  Removed entities are
+     * not cached since findById() doesn't return them.  Neither are entities
+     * read or written inside a transaction, which may not be committed yet and
+     * are not invalidated if the transaction rolls back.
+     */
+    protected void cacheEntity(final T entity) {
+        if (_cache == null) {
+            return;
+        }
+        final TransactionLegacy txn = TransactionLegacy.currentTxn(false);
+        if (txn != null && txn.dbTxnStarted()) {
+            return;
+        }
+        try {
+            if (_removed != null && _removed.second().field != null && _removed.second().field.get(entity) != null) {
+                return;
+            }
+            _cache.put(_idField.get(entity), cloneEntity(entity));
+        } catch (final Exception e) {
+            s_logger.debug("Can't put it in the cache", e);
+        }
+    }
+
     @Override
     @DB()
     public boolean configure(final String name, final Map<String, Object> params) throws ConfigurationException {
@@ -1812,6 +1923,11 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
         final String value = (String)params.get("lock.timeout");
         _timeoutSeconds = NumbersUtil.parseInt(value, 300);
 
+        final String reload = (String)params.get("persist.reload");
+        if (reload != null) {
+            _reloadAfterPersist = Boolean.parseBoolean(reload);
+        }
+
         createCache(params);
         final boolean load = Boolean.parseBoolean((String)params.get("cache.preload"));
         if (load) {
@@ -20,12 +20,16 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.management.StandardMBean;
 
@@ -36,9 +40,36 @@ import com.cloud.utils.exception.CloudRuntimeException;
 import com.cloud.utils.mgmt.JmxUtil;
 import com.cloud.utils.time.InaccurateClock;
 
+/**
+ * Merovingian2 hands out the cluster wide locks used by GlobalLock.  The
+ * op_lock row records who owns a lock.  Threads that find a lock taken wait
+ * on a local per key monitor instead of polling the table: a release on this
+ * management server wakes them up right away, and releases on other
+ * management servers reach them through the LockNotifier.  The table is
+ * still polled every MAX_WAIT_INTERVAL in case a notification gets lost.
+ */
 public class Merovingian2 extends StandardMBean implements MerovingianMBean {
     private static final Logger s_logger = Logger.getLogger(Merovingian2.class);
 
+    /**
+     * Carries lock contention and releases to the other management servers.
+     */
+    public interface LockNotifier {
+        /**
+         * A thread of this management server is waiting for a lock owned by another management server.
+         */
+        void waiting(long ownerMsId, String key);
+
+        /**
+         * A lock that threads of other management servers were waiting for has been released.
+         */
+        void released(String key);
+    }
+
+    protected static final long MAX_WAIT_INTERVAL = 5000;
+    // Wait statistics are kept for this many keys at most.
+    protected static final int MAX_WAIT_STATS = 1024;
+
     private static final String ACQUIRE_SQL =
             "INSERT INTO op_lock (op_lock.key, op_lock.mac, op_lock.ip, op_lock.thread, op_lock.acquired_on, waiters) VALUES (?, ?, ?, ?, ?, 1)";
     private static final String INCREMENT_SQL = "UPDATE op_lock SET waiters=waiters+1 where op_lock.key=? AND op_lock.mac=? AND op_lock.ip=? AND op_lock.thread=?";
@@ -60,15 +91,30 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
     private ConnectionConcierge _concierge = null;
     private static ThreadLocal<Count> s_tls = new ThreadLocal<Count>();
 
+    private final Map<String, Waiters> _waiters = new HashMap<String, Waiters>();
+    // Locks owned by this management server.
+    private final Set<String> _ownedKeys = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    // Locks owned by this management server that other management servers are waiting for.
+    private final Set<String> _remoteWaitedKeys = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final ConcurrentHashMap<String, WaitStats> _waitStats = new ConcurrentHashMap<String, WaitStats>();
+    private volatile LockNotifier _notifier;
+
     private Merovingian2(long msId) {
+        this(msId, openConnection());
+    }
+
+    protected Merovingian2(long msId, Connection conn) {
         super(MerovingianMBean.class, false);
         _msId = msId;
-        Connection conn = null;
+        _concierge = new ConnectionConcierge("LockMaster", conn, true);
+    }
+
+    private static Connection openConnection() {
         try {
-            conn = TransactionLegacy.getStandaloneConnectionWithException();
+            Connection conn = TransactionLegacy.getStandaloneConnectionWithException();
             conn.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
             conn.setAutoCommit(true);
-            _concierge = new ConnectionConcierge("LockMaster", conn, true);
+            return conn;
         } catch (SQLException e) {
             s_logger.error("Unable to get a new db connection", e);
             throw new CloudRuntimeException("Unable to initialize a connection to the database for locking purposes: ", e);
@@ -110,6 +156,16 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
         count.count--;
     }
 
+    public void setNotifier(LockNotifier notifier) {
+        _notifier = notifier;
+    }
+
+    /**
+     * Acquires the lock, waiting for it to be released if it is owned by someone else.
+     * @param key name of the lock
+     * @param timeInSeconds how long to wait for it; with 0 the lock is tried once without waiting.
+     * @return true if the lock was acquired
+     */
     public boolean acquire(String key, int timeInSeconds) {
         Thread th = Thread.currentThread();
         String threadName = th.getName();
@@ -118,32 +174,165 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
         if (s_logger.isTraceEnabled()) {
             s_logger.trace("Acquiring lck-" + key + " with wait time of " + timeInSeconds);
         }
-        long startTime = InaccurateClock.getTime();
+        long startTime = System.currentTimeMillis();
+        long deadline = startTime + timeInSeconds * 1000l;
+        boolean contended = false;
+        // The owner is told about us once for every time it holds the lock while we wait.
+        String notifiedOwner = null;
 
-        while ((InaccurateClock.getTime() - startTime) < (timeInSeconds * 1000l)) {
-            int count = owns(key);
+        Waiters waiters = enterWait(key);
+        try {
+            while (true) {
+                long generation = waiters.generation();
+                Map<String, String> owner = isLocked(key);
+
+                if (owner == null) {
+                    if (doAcquire(key, threadName, threadId)) {
+                        recordWait(key, startTime, contended, false);
+                        return true;
+                    }
+                } else if (owner.get("mgmt").equals(Long.toString(_msId))) {
+                    if (owner.get("tid").equals(Integer.toString(threadId))) {
+                        return increment(key, threadName, threadId);
+                    }
+                } else {
+                    String holder = owner.get("mgmt") + ":" + owner.get("tid") + ":" + owner.get("date");
+                    if (!holder.equals(notifiedOwner)) {
+                        notifiedOwner = holder;
+                        notifyWaiting(Long.parseLong(owner.get("mgmt")), key);
+                    }
+                }
+                contended = true;
 
-            if (count >= 1) {
-                return increment(key, threadName, threadId);
-            } else if (count == 0) {
-                if (doAcquire(key, threadName, threadId)) {
-                    return true;
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    break;
                 }
-            }
-            try {
                 if (s_logger.isTraceEnabled()) {
-                    s_logger.trace("Sleeping more time while waiting for lck-" + key);
+                    s_logger.trace("Waiting for lck-" + key);
                 }
-                Thread.sleep(5000);
-            } catch (InterruptedException e) {
+                waiters.await(generation, Math.min(remaining, MAX_WAIT_INTERVAL));
             }
+        } finally {
+            leaveWait(key, waiters);
         }
-        String msg = "Timed out on acquiring lock " + key + " .  Waited for " + ((InaccurateClock.getTime() - startTime)/1000) +  "seconds";
+
+        recordWait(key, startTime, contended, true);
+        String msg = "Timed out on acquiring lock " + key + " .  Waited for " + ((System.currentTimeMillis() - startTime)/1000) +  "seconds";
         Exception e = new CloudRuntimeException(msg);
         s_logger.warn(msg, e);
         return false;
     }
 
+    /**
+     * Called when a thread of another management server waits for a lock.
+     * If the lock is owned by this management server, the other management
+     * server is told when it is released.
+     */
+    public void onRemoteWaiting(long ownerMsId, String key) {
+        if (ownerMsId != _msId) {
+            return;
+        }
+        _remoteWaitedKeys.add(key);
+        // It may have been released before we heard about the waiter.
+        if (!_ownedKeys.contains(key)) {
+            notifyReleased(key);
+        }
+    }
+
+    /**
+     * Called when another management server released a lock some of our threads were waiting for.
+     */
+    public void onRemoteReleased(String key) {
+        wakeUp(key);
+    }
+
+    protected Waiters enterWait(String key) {
+        synchronized (_waiters) {
+            Waiters waiters = _waiters.get(key);
+            if (waiters == null) {
+                waiters = new Waiters();
+                _waiters.put(key, waiters);
+            }
+            waiters.count++;
+            return waiters;
+        }
+    }
+
+    protected void leaveWait(String key, Waiters waiters) {
+        synchronized (_waiters) {
+            if (--waiters.count == 0) {
+                _waiters.remove(key);
+            }
+        }
+    }
+
+    protected void wakeUp(String key) {
+        Waiters waiters;
+        synchronized (_waiters) {
+            waiters = _waiters.get(key);
+        }
+        if (waiters != null) {
+            waiters.wakeUp();
+        }
+    }
+
+    protected void wakeUpAll() {
+        List<Waiters> all;
+        synchronized (_waiters) {
+            all = new ArrayList<Waiters>(_waiters.values());
+        }
+        for (Waiters waiters : all) {
+            waiters.wakeUp();
+        }
+    }
+
+    protected void released(String key) {
+        _ownedKeys.remove(key);
+        wakeUp(key);
+        notifyReleased(key);
+    }
+
+    protected void notifyWaiting(long ownerMsId, String key) {
+        LockNotifier notifier = _notifier;
+        if (notifier != null) {
+            try {
+                notifier.waiting(ownerMsId, key);
+            } catch (Exception e) {
+                s_logger.warn("Unable to notify " + ownerMsId + " of waiting for lck-" + key, e);
+            }
+        }
+    }
+
+    protected void notifyReleased(String key) {
+        LockNotifier notifier = _notifier;
+        if (notifier != null && _remoteWaitedKeys.remove(key)) {
+            try {
+                notifier.released(key);
+            } catch (Exception e) {
+                s_logger.warn("Unable to notify the release of lck-" + key, e);
+            }
+        }
+    }
+
+    protected void recordWait(String key, long startTime, boolean contended, boolean timedOut) {
+        if (!contended) {
+            return;
+        }
+        WaitStats stats = _waitStats.get(key);
+        if (stats == null) {
+            if (_waitStats.size() >= MAX_WAIT_STATS) {
+                return;
+            }
+            stats = new WaitStats();
+            WaitStats existing = _waitStats.putIfAbsent(key, stats);
+            if (existing != null) {
+                stats = existing;
+            }
+        }
+        stats.record(System.currentTimeMillis() - startTime, timedOut);
+    }
+
     protected boolean increment(String key, String threadName, int threadId) {
       try (PreparedStatement pstmt = _concierge.conn().prepareStatement(INCREMENT_SQL);){
             pstmt.setString(1, key);
@@ -180,6 +369,7 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
                     if (s_logger.isTraceEnabled()) {
                         s_logger.trace("Acquired for lck-" + key);
                     }
+                    _ownedKeys.add(key);
                     incrCount();
                     return true;
                 }
@@ -229,6 +419,10 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
                     pstmt.setLong(1, msId);
                     int rows = pstmt.executeUpdate();
                     s_logger.info("Released " + rows + " locks for " + msId);
+                    if (msId == _msId) {
+                        _ownedKeys.clear();
+                    }
+                    wakeUpAll();
                 }catch (Exception e) {
                     s_logger.error("cleanupForServer:Exception:"+e.getMessage());
                     throw new CloudRuntimeException("cleanupForServer:Exception:"+e.getMessage(), e);
@@ -261,8 +455,11 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
                     rel_sql_pstmt.setString(1, key);
                     rel_sql_pstmt.setLong(2, _msId);
                     int result = rel_sql_pstmt.executeUpdate();
-                    if (result == 1 && s_logger.isTraceEnabled()) {
-                        s_logger.trace("lck-" + key + " removed");
+                    if (result == 1) {
+                        if (s_logger.isTraceEnabled()) {
+                            s_logger.trace("lck-" + key + " removed");
+                        }
+                        released(key);
                     }
                     decrCount();
                 }catch (Exception e) {
@@ -330,6 +527,22 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
         return getLocks(SELECT_MGMT_LOCKS_SQL, _msId);
     }
 
+    @Override
+    public List<Map<String, String>> getLockWaitStatistics() {
+        List<Map<String, String>> results = new ArrayList<Map<String, String>>();
+        for (Map.Entry<String, WaitStats> entry : _waitStats.entrySet()) {
+            Map<String, String> map = entry.getValue().toMap();
+            map.put("key", entry.getKey());
+            results.add(map);
+        }
+        return results;
+    }
+
+    @Override
+    public void resetLockWaitStatistics() {
+        _waitStats.clear();
+    }
+
     public int owns(String key) {
         Thread th = Thread.currentThread();
         int threadId = System.identityHashCode(th);
@@ -377,7 +590,13 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
             pstmt.setLong(1, _msId);
             pstmt.setString(2, threadName);
             pstmt.setInt(3, threadId);
+            List<Map<String, String>> locks = getLocksAcquiredBy(_msId, threadName);
             int rows = pstmt.executeUpdate();
+            for (Map<String, String> lock : locks) {
+                if (lock.get("tid").equals(Integer.toString(threadId))) {
+                    released(lock.get("key"));
+                }
+            }
             assert (false) : "Abandon hope, all ye who enter here....There were still " + rows + ":" + c +
             " locks not released when the transaction ended, check for lock not released or @DB is not added to the code that using the locks!";
         } catch (Exception e) {
@@ -393,6 +612,9 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
         {
             pstmt.setString(1, key);
             int rows = pstmt.executeUpdate();
+            if (rows > 0) {
+                released(key);
+            }
             return rows > 0;
         } catch (Exception e) {
             s_logger.error("releaseLockAsLastResortAndIReallyKnowWhatIAmDoing : Exception: " +  e.getMessage());
@@ -403,4 +625,60 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
     protected static class Count {
         public int count = 0;
     }
+
+    /**
+     * Threads of this management server waiting for the same lock.  The
+     * generation changes whenever they are woken up so that a wake up that
+     * happens between checking the lock and waiting isn't lost.
+     */
+    protected static class Waiters {
+        int count = 0;
+        private long _generation = 0;
+
+        synchronized long generation() {
+            return _generation;
+        }
+
+        synchronized void await(long generation, long timeout) {
+            if (generation != _generation) {
+                return;
+            }
+            try {
+                wait(timeout);
+            } catch (InterruptedException e) {
+                s_logger.debug("Interrupted while waiting for a lock");
+            }
+        }
+
+        synchronized void wakeUp() {
+            _generation++;
+            notifyAll();
+        }
+    }
+
+    protected static class WaitStats {
+        private long _waits = 0;
+        private long _timeouts = 0;
+        private long _totalWait = 0;
+        private long _maxWait = 0;
+
+        synchronized void record(long wait, boolean timedOut) {
+            _waits++;
+            if (timedOut) {
+                _timeouts++;
+            }
+            _totalWait += wait;
+            _maxWait = Math.max(_maxWait, wait);
+        }
+
+        synchronized Map<String, String> toMap() {
+            Map<String, String> map = new HashMap<String, String>();
+            map.put("waits", Long.toString(_waits));
+            map.put("timeouts", Long.toString(_timeouts));
+            map.put("totalWaitMs", Long.toString(_totalWait));
+            map.put("avgWaitMs", Long.toString(_waits == 0 ? 0 : _totalWait / _waits));
+            map.put("maxWaitMs", Long.toString(_maxWait));
+            return map;
+        }
+    }
 }
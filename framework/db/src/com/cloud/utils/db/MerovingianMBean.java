@@ -28,4 +28,11 @@ public interface MerovingianMBean {
     boolean releaseLockAsLastResortAndIReallyKnowWhatIAmDoing(String key);
 
     void cleanupForServer(long msId);
+
+    /**
+     * @return how long threads waited for the locks that were contended.
+     */
+    List<Map<String, String>> getLockWaitStatistics();
+
+    void resetLockWaitStatistics();
 }
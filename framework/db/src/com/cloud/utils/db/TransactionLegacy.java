@@ -25,6 +25,7 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Savepoint;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
@@ -96,6 +97,7 @@ public class TransactionLegacy implements Closeable {
     private long _id;
 
     private final LinkedList<Pair<String, Long>> _lockTimes = new LinkedList<Pair<String, Long>>();
+    private final List<Runnable> _afterCommitTasks = new ArrayList<Runnable>();
 
     private String _name;
     private Connection _conn;
@@ -109,6 +111,29 @@ public class TransactionLegacy implements Closeable {
         return currentTxn(true);
     }
 
+    /**
+     * Runs the task once the outermost transaction of this thread has
+     * committed, or right away if no transaction is open.  The task is
+     * dropped if the transaction rolls back.
+     */
+    public static void runAfterCommit(Runnable task) {
+        TransactionLegacy txn = currentTxn(false);
+        if (txn == null || !txn._txn) {
+            task.run();
+        } else {
+            txn._afterCommitTasks.add(task);
+        }
+    }
+
+    /**
+     * @return true if a transaction has been started on this thread, what it
+     * reads may not be committed yet or may have changed since it started.
+     */
+    public static boolean isTxnStarted() {
+        TransactionLegacy txn = currentTxn(false);
+        return txn != null && txn._txn;
+    }
+
     protected static TransactionLegacy currentTxn(boolean check) {
         TransactionLegacy txn = tls.get();
         if (check) {
@@ -654,6 +679,7 @@ public class TransactionLegacy implements Closeable {
         }
         _txn = false;
         _name = null;
+        _afterCommitTasks.clear();
 
         closeConnection();
 
@@ -747,11 +773,27 @@ public class TransactionLegacy implements Closeable {
                 clearLockTimes();
                 closeConnection();
             }
-            return true;
         } catch (final SQLException e) {
             rollbackTransaction();
             throw new CloudRuntimeException("Unable to commit or close the connection. ", e);
         }
+        runAfterCommitTasks();
+        return true;
+    }
+
+    protected void runAfterCommitTasks() {
+        if (_afterCommitTasks.isEmpty()) {
+            return;
+        }
+        List<Runnable> tasks = new ArrayList<Runnable>(_afterCommitTasks);
+        _afterCommitTasks.clear();
+        for (Runnable task : tasks) {
+            try {
+                task.run();
+            } catch (Exception e) {
+                s_logger.warn("Unable to run task after commit", e);
+            }
+        }
     }
 
     protected void closeConnection() {
@@ -856,6 +898,7 @@ public class TransactionLegacy implements Closeable {
         }
         assert (!hasTxnInStack()) : "Who's rolling back transaction when there's still txn in stack?";
         _txn = false;
+        _afterCommitTasks.clear();
         try {
             if (_conn != null) {
                 if (s_logger.isDebugEnabled()) {
@@ -881,6 +924,7 @@ public class TransactionLegacy implements Closeable {
 
         if (!hasTxnInStack()) {
             _txn = false;
+            _afterCommitTasks.clear();
             closeConnection();
         }
     }
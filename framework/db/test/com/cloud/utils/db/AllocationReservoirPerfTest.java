@@ -0,0 +1,77 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.db;
+
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.cloud.utils.db.AllocationReservoirTest.Table;
+
+/**
+ * Compares the allocation rate of the reservoir with taking a row while
+ * holding a lock over the select and the update, which is what
+ * SELECT ... FOR UPDATE on the same rows amounts to.  It is excluded from
+ * the regular build, run it with -Dtest=AllocationReservoirPerfTest.
+ */
+public class AllocationReservoirPerfTest {
+    private static final Logger s_logger = Logger.getLogger(AllocationReservoirPerfTest.class);
+
+    @Test
+    public void testConcurrentAllocation() throws Exception {
+        final int rows = 500;
+        final int threads = 16;
+
+        final Table locked = new Table(rows, 1);
+        final Object lock = new Object();
+        long start = System.currentTimeMillis();
+        AllocationReservoirTest.runConcurrently(threads, new Runnable() {
+            @Override
+            public void run() {
+                while (true) {
+                    synchronized (lock) {
+                        List<Long> free = locked.listFree(null, 1);
+                        if (free.isEmpty()) {
+                            return;
+                        }
+                        locked.claim(free.get(0), 1);
+                    }
+                }
+            }
+        });
+        long lockedTime = Math.max(1, System.currentTimeMillis() - start);
+
+        final Table table = new Table(rows, 1);
+        final AllocationReservoir<Long> reservoir = new AllocationReservoir<Long>("benchmark", table);
+        start = System.currentTimeMillis();
+        AllocationReservoirTest.runConcurrently(threads, new Runnable() {
+            @Override
+            public void run() {
+                while (AllocationReservoirTest.allocate(reservoir, table, 1) != null) {
+                }
+            }
+        });
+        long reservoirTime = Math.max(1, System.currentTimeMillis() - start);
+
+        Assert.assertEquals(rows, locked._taken.size());
+        Assert.assertEquals(rows, table._taken.size());
+        s_logger.info("Allocations/sec with " + threads + " threads: locking=" + (rows * 1000l / lockedTime) + " reservoir=" + (rows * 1000l / reservoirTime) + " " +
+            reservoir);
+    }
+}
@@ -0,0 +1,151 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.db;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AllocationReservoirTest {
+    /**
+     * In memory stand in for an allocation table.  Every statement costs
+     * latency milliseconds like a round trip to the database would.
+     */
+    static class Table implements AllocationReservoir.Source<Long> {
+        final ConcurrentHashMap<Long, Long> _taken = new ConcurrentHashMap<Long, Long>();
+        final int _rows;
+        final long _latency;
+
+        Table(int rows) {
+            this(rows, 0);
+        }
+
+        Table(int rows, long latency) {
+            _rows = rows;
+            _latency = latency;
+        }
+
+        void roundTrip() {
+            if (_latency > 0) {
+                try {
+                    Thread.sleep(_latency);
+                } catch (InterruptedException e) {
+                }
+            }
+        }
+
+        @Override
+        public List<Long> listFree(Long pool, int max) {
+            roundTrip();
+            List<Long> ids = new ArrayList<Long>();
+            for (long id = 1; id <= _rows && ids.size() < max; id++) {
+                if (!_taken.containsKey(id)) {
+                    ids.add(id);
+                }
+            }
+            return ids;
+        }
+
+        boolean claim(long id, long owner) {
+            roundTrip();
+            return _taken.putIfAbsent(id, owner) == null;
+        }
+    }
+
+    @Test
+    public void allocateUntilExhausted() {
+        Table table = new Table(10);
+        AllocationReservoir<Long> reservoir = new AllocationReservoir<Long>("test", table, 4);
+        List<Long> allocated = new ArrayList<Long>();
+        Long id;
+        while ((id = allocate(reservoir, table, 1)) != null) {
+            allocated.add(id);
+        }
+        Assert.assertEquals(10, allocated.size());
+        Assert.assertEquals(10, table._taken.size());
+    }
+
+    @Test
+    public void staleSnapshotTerminates() {
+        final Table table = new Table(3);
+        // Always lists the same rows, like a read from an old snapshot would.
+        AllocationReservoir<Long> reservoir = new AllocationReservoir<Long>("test", new AllocationReservoir.Source<Long>() {
+            @Override
+            public List<Long> listFree(Long pool, int max) {
+                return new ArrayList<Long>(Arrays.asList(1l, 2l, 3l));
+            }
+        });
+        for (int i = 0; i < 3; i++) {
+            Assert.assertNotNull(allocate(reservoir, table, 1));
+        }
+        Assert.assertNull(allocate(reservoir, table, 1));
+    }
+
+    @Test
+    public void concurrentAllocationsAreUnique() throws Exception {
+        final Table table = new Table(200);
+        final AllocationReservoir<Long> first = new AllocationReservoir<Long>("first", table);
+        final AllocationReservoir<Long> second = new AllocationReservoir<Long>("second", table);
+        final AtomicInteger allocated = new AtomicInteger();
+
+        runConcurrently(8, new Runnable() {
+            @Override
+            public void run() {
+                // Half of the threads behave like another management server.
+                AllocationReservoir<Long> reservoir = Thread.currentThread().getName().hashCode() % 2 == 0 ? first : second;
+                while (allocate(reservoir, table, Thread.currentThread().getId()) != null) {
+                    allocated.incrementAndGet();
+                }
+            }
+        });
+
+        Assert.assertEquals(200, allocated.get());
+        Assert.assertEquals(200, table._taken.size());
+    }
+
+    static Long allocate(AllocationReservoir<Long> reservoir, final Table table, final long owner) {
+        return reservoir.allocate(0l, new AllocationReservoir.Claim() {
+            @Override
+            public boolean claim(long id) {
+                return table.claim(id, owner);
+            }
+        });
+    }
+
+    static void runConcurrently(int threads, final Runnable task) throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int i = 0; i < threads; i++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        task.run();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }, "allocator-" + i).start();
+        }
+        done.await();
+    }
+}
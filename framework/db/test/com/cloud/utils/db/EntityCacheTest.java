@@ -0,0 +1,122 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.db;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class EntityCacheTest {
+
+    @After
+    public void tearDown() {
+        EntityCache.setInvalidationListener(null);
+    }
+
+    @Test
+    public void hitsAndMisses() {
+        EntityCache cache = new EntityCache("EntityCacheTest.hits", Arrays.asList("hits_table"), Long.class, 10, 60, 60);
+        Assert.assertNull(cache.get(1l));
+        cache.put(1l, "one");
+        Assert.assertEquals("one", cache.get(1l));
+        Assert.assertEquals(1, cache.getHits());
+        Assert.assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void invalidateSharedTable() {
+        EntityCache first = new EntityCache("EntityCacheTest.first", Arrays.asList("shared_table"), Long.class, 10, 60, 60);
+        EntityCache second = new EntityCache("EntityCacheTest.second", Arrays.asList("shared_table", "other_table"), Long.class, 10, 60, 60);
+        first.put(1l, "first");
+        second.put(1l, "second");
+        second.put(2l, "second");
+
+        final List<String> invalidated = new ArrayList<String>();
+        EntityCache.setInvalidationListener(new EntityCache.InvalidationListener() {
+            @Override
+            public void onInvalidate(String table, String id) {
+                invalidated.add(table + ":" + id);
+            }
+        });
+
+        first.invalidate(1l);
+        Assert.assertNull(first.get(1l));
+        Assert.assertNull(second.get(1l));
+        Assert.assertEquals("second", second.get(2l));
+        Assert.assertEquals(Arrays.asList("shared_table:1"), invalidated);
+
+        EntityCache.invalidateLocal("other_table", null);
+        Assert.assertNull(second.get(2l));
+        Assert.assertEquals(1, invalidated.size());
+    }
+
+    @Test
+    public void invalidationIsRepeatedAndPropagatedAfterCommit() {
+        EntityCache cache = new EntityCache("EntityCacheTest.commit", Arrays.asList("commit_table"), Long.class, 10, 60, 60);
+        final List<String> invalidated = new ArrayList<String>();
+        EntityCache.setInvalidationListener(new EntityCache.InvalidationListener() {
+            @Override
+            public void onInvalidate(String table, String id) {
+                invalidated.add(table + ":" + id);
+            }
+        });
+
+        TransactionLegacy txn = TransactionLegacy.open("EntityCacheTest");
+        try {
+            txn.start();
+            cache.put(1l, "new");
+            cache.invalidate(1l);
+            Assert.assertNull(cache.get(1l));
+
+            // a reader outside of the transaction caches the old row again
+            cache.put(1l, "old");
+            Assert.assertTrue(invalidated.isEmpty());
+
+            txn.commit();
+            Assert.assertNull(cache.get(1l));
+            Assert.assertEquals(Arrays.asList("commit_table:1"), invalidated);
+        } finally {
+            txn.close();
+        }
+    }
+
+    @Test
+    public void invalidationIsNotPropagatedOnRollback() {
+        EntityCache cache = new EntityCache("EntityCacheTest.rollback", Arrays.asList("rollback_table"), Long.class, 10, 60, 60);
+        final List<String> invalidated = new ArrayList<String>();
+        EntityCache.setInvalidationListener(new EntityCache.InvalidationListener() {
+            @Override
+            public void onInvalidate(String table, String id) {
+                invalidated.add(table + ":" + id);
+            }
+        });
+
+        TransactionLegacy txn = TransactionLegacy.open("EntityCacheTest");
+        try {
+            txn.start();
+            cache.invalidateAll();
+            txn.rollback();
+        } finally {
+            txn.close();
+        }
+        Assert.assertTrue(invalidated.isEmpty());
+    }
+}
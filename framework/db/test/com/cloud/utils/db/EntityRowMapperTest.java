@@ -0,0 +1,104 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.db;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.runners.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class EntityRowMapperTest {
+    @Mock
+    ResultSet resultSet;
+    @Mock
+    ResultSetMetaData metaData;
+
+    EntityRowMapper mapper;
+
+    @Before
+    public void setUp() throws SQLException {
+        mapper = new EntityRowMapper(new SqlGenerator(DbTestVO.class).getAllColumns());
+
+        Mockito.when(resultSet.getMetaData()).thenReturn(metaData);
+        Mockito.when(metaData.getColumnCount()).thenReturn(3);
+        Mockito.when(metaData.getTableName(Mockito.anyInt())).thenReturn("test");
+        Mockito.when(metaData.getColumnName(1)).thenReturn("fld_int");
+        Mockito.when(metaData.getColumnName(2)).thenReturn("fld_long");
+        Mockito.when(metaData.getColumnName(3)).thenReturn("fld_string");
+    }
+
+    @Test
+    public void mapRow() throws SQLException {
+        Mockito.when(resultSet.getInt(1)).thenReturn(5);
+        Mockito.when(resultSet.getLong(2)).thenReturn(7l);
+        Mockito.when(resultSet.getBytes(3)).thenReturn("value".getBytes());
+
+        DbTestVO vo = new DbTestVO();
+        mapper.map(resultSet, vo);
+
+        Assert.assertEquals(5, vo.getFieldInt());
+        Assert.assertEquals(7l, vo.getFieldLong());
+        Assert.assertEquals("value", vo.getFieldString());
+    }
+
+    @Test
+    public void mapNullWrapper() throws SQLException {
+        Mockito.when(resultSet.getLong(2)).thenReturn(0l);
+        Mockito.when(resultSet.wasNull()).thenReturn(true);
+
+        DbTestVO vo = new DbTestVO();
+        mapper.map(resultSet, vo);
+
+        Assert.assertNull(vo.fieldLong);
+        Assert.assertNull(vo.getFieldString());
+    }
+
+    @Test
+    public void metaDataResolvedOncePerResultSet() throws SQLException {
+        for (int i = 0; i < 10; i++) {
+            mapper.map(resultSet, new DbTestVO());
+        }
+        Mockito.verify(resultSet, Mockito.times(1)).getMetaData();
+        Mockito.verify(metaData, Mockito.times(1)).getColumnCount();
+    }
+
+    static class Fields {
+        short primitive;
+        final Integer constant = null;
+    }
+
+    @Test
+    public void bindPrimitiveAndFinalFields() throws Exception {
+        Mockito.when(resultSet.getShort(1)).thenReturn((short)3);
+        Mockito.when(resultSet.getInt(2)).thenReturn(4);
+
+        Fields fields = new Fields();
+        mapper.getBinder(Fields.class.getDeclaredField("primitive")).bind(fields, resultSet, 1);
+        mapper.getBinder(Fields.class.getDeclaredField("constant")).bind(fields, resultSet, 2);
+
+        Assert.assertEquals(3, fields.primitive);
+        Assert.assertEquals(Integer.valueOf(4), Fields.class.getDeclaredField("constant").get(fields));
+    }
+}
@@ -16,8 +16,20 @@
 // under the License.
 package com.cloud.utils.db;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -30,6 +42,198 @@ import org.mockito.runners.MockitoJUnitRunner;
 public class GenericDaoBaseTest {
     @Mock
     ResultSet resultSet;
+    @Mock
+    Connection connection;
+    @Mock
+    PreparedStatement insert;
+    @Mock
+    ResultSet generatedKeys;
+
+    static class PersistCountingDao extends DbTestDao {
+        int persisted;
+
+        @Override
+        public DbTestVO persist(DbTestVO entity) {
+            persisted++;
+            return super.persist(entity);
+        }
+    }
+
+    static class AfterPersistDao extends DbTestDao {
+        final List<DbTestVO> inserted = new ArrayList<DbTestVO>();
+
+        @Override
+        protected void afterPersist(DbTestVO entity) {
+            inserted.add(entity);
+        }
+    }
+
+    // its id column is not generated by the dao, rows without an id get one from the database
+    @Entity
+    @Table(name = "test_assigned")
+    public static class AssignedIdVO {
+        @Id
+        @Column(name = "id")
+        Long id;
+
+        @Column(name = "name")
+        String name;
+
+        public AssignedIdVO() {
+        }
+
+        AssignedIdVO(Long id, String name) {
+            this.id = id;
+            this.name = name;
+        }
+    }
+
+    public static class AssignedIdDao extends GenericDaoBase<AssignedIdVO, Long> {
+    }
+
+    private TransactionLegacy openTxn() throws SQLException {
+        Mockito.when(connection.prepareStatement(Mockito.anyString(), Mockito.eq(Statement.RETURN_GENERATED_KEYS))).thenReturn(insert);
+        Mockito.when(insert.getGeneratedKeys()).thenReturn(generatedKeys);
+        TransactionLegacy txn = TransactionLegacy.open("GenericDaoBaseTest");
+        txn.transitToUserManagedConnection(connection);
+        return txn;
+    }
+
+    private static List<DbTestVO> createEntities(int count) {
+        List<DbTestVO> entities = new ArrayList<DbTestVO>();
+        for (int i = 0; i < count; i++) {
+            DbTestVO entity = new DbTestVO();
+            entity.fieldInt = i;
+            entity.fieldString = "entity " + i;
+            entities.add(entity);
+        }
+        return entities;
+    }
+
+    @Test
+    public void persistAllInsertsInOneBatch() throws SQLException {
+        Mockito.when(generatedKeys.next()).thenReturn(true, true, true, false);
+        Mockito.when(generatedKeys.getObject(1)).thenReturn(11l, 12l, 13l);
+        TransactionLegacy txn = openTxn();
+        try {
+            List<DbTestVO> persisted = new DbTestDao().persistAll(createEntities(3));
+
+            Mockito.verify(insert, Mockito.times(3)).addBatch();
+            Mockito.verify(insert, Mockito.times(1)).executeBatch();
+            Mockito.verify(insert, Mockito.never()).executeQuery();
+            Assert.assertEquals(3, persisted.size());
+            for (int i = 0; i < 3; i++) {
+                Assert.assertEquals(11l + i, persisted.get(i).id);
+                Assert.assertEquals("entity " + i, persisted.get(i).getFieldString());
+            }
+        } finally {
+            txn.transitToAutoManagedConnection(TransactionLegacy.CLOUD_DB);
+            txn.close();
+        }
+    }
+
+    @Test
+    public void persistAllKeepsAssignedIds() throws SQLException {
+        Mockito.when(generatedKeys.next()).thenReturn(true, true, false);
+        Mockito.when(generatedKeys.getObject(1)).thenReturn(51l, 52l);
+        TransactionLegacy txn = openTxn();
+        try {
+            List<AssignedIdVO> persisted = new AssignedIdDao().persistAll(Arrays.asList(new AssignedIdVO(null, "first"), new AssignedIdVO(5l, "assigned"),
+                new AssignedIdVO(null, "last")));
+
+            // one batch for the rows that take a generated key and one for the row that has its own id
+            Mockito.verify(insert, Mockito.times(2)).executeBatch();
+            Mockito.verify(insert, Mockito.times(1)).getGeneratedKeys();
+            Assert.assertEquals(3, persisted.size());
+            Assert.assertEquals(Arrays.asList(51l, 5l, 52l), Arrays.asList(persisted.get(0).id, persisted.get(1).id, persisted.get(2).id));
+            Assert.assertEquals("assigned", persisted.get(1).name);
+        } finally {
+            txn.transitToAutoManagedConnection(TransactionLegacy.CLOUD_DB);
+            txn.close();
+        }
+    }
+
+    @Test
+    public void persistAllGoesThroughOverriddenPersist() throws SQLException {
+        PersistCountingDao dao = new PersistCountingDao();
+        dao._reloadAfterPersist = false;
+        Mockito.when(generatedKeys.next()).thenReturn(true);
+        Mockito.when(generatedKeys.getObject(1)).thenReturn(21l, 22l);
+        TransactionLegacy txn = openTxn();
+        try {
+            List<DbTestVO> persisted = dao.persistAll(createEntities(2));
+
+            Assert.assertEquals(2, dao.persisted);
+            Mockito.verify(insert, Mockito.never()).addBatch();
+            Assert.assertEquals(Arrays.asList(21l, 22l), Arrays.asList(persisted.get(0).id, persisted.get(1).id));
+        } finally {
+            txn.transitToAutoManagedConnection(TransactionLegacy.CLOUD_DB);
+            txn.close();
+        }
+    }
+
+    @Test
+    public void persistAllBatchesWithAfterPersistHook() throws SQLException {
+        AfterPersistDao dao = new AfterPersistDao();
+        Mockito.when(generatedKeys.next()).thenReturn(true, true, false);
+        Mockito.when(generatedKeys.getObject(1)).thenReturn(31l, 32l);
+        TransactionLegacy txn = openTxn();
+        try {
+            dao.persistAll(createEntities(2));
+
+            Mockito.verify(insert, Mockito.times(2)).addBatch();
+            Mockito.verify(insert, Mockito.times(1)).executeBatch();
+            Assert.assertEquals(2, dao.inserted.size());
+            Assert.assertEquals(31l, dao.inserted.get(0).id);
+        } finally {
+            txn.transitToAutoManagedConnection(TransactionLegacy.CLOUD_DB);
+            txn.close();
+        }
+    }
+
+    @Test
+    public void rolledBackRowIsNotCached() throws SQLException {
+        DbTestDao dao = new DbTestDao();
+        dao._reloadAfterPersist = false;
+        dao.createCache(Collections.singletonMap("cache.size", "10"));
+        Mockito.when(generatedKeys.next()).thenReturn(true);
+        Mockito.when(generatedKeys.getObject(1)).thenReturn(41l, 42l);
+        TransactionLegacy txn = openTxn();
+        try {
+            txn.start();
+            dao.persist(createEntities(1).get(0));
+            txn.rollback();
+            Assert.assertNull("A row written by a transaction should not be cached before it commits", dao._cache.get(41l));
+
+            dao.persist(createEntities(1).get(0));
+            Assert.assertNotNull(dao._cache.get(42l));
+        } finally {
+            txn.transitToAutoManagedConnection(TransactionLegacy.CLOUD_DB);
+            txn.close();
+        }
+    }
+
+    @Test
+    public void persistWithoutReloadDoesNotSelect() throws SQLException {
+        DbTestDao dao = new DbTestDao();
+        dao._reloadAfterPersist = false;
+        Mockito.when(generatedKeys.next()).thenReturn(true);
+        Mockito.when(generatedKeys.getObject(1)).thenReturn(7l);
+        TransactionLegacy txn = openTxn();
+        try {
+            DbTestVO entity = createEntities(1).get(0);
+            DbTestVO persisted = dao.persist(entity);
+
+            Mockito.verify(insert, Mockito.times(1)).executeUpdate();
+            Mockito.verify(connection, Mockito.never()).prepareStatement(Mockito.anyString());
+            Assert.assertNotSame(entity, persisted);
+            Assert.assertEquals(7l, persisted.id);
+            Assert.assertEquals("entity 0", persisted.getFieldString());
+        } finally {
+            txn.transitToAutoManagedConnection(TransactionLegacy.CLOUD_DB);
+            txn.close();
+        }
+    }
 
     @Test
     public void getObjectBoolean() throws SQLException {
@@ -0,0 +1,136 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.db;
+
+import java.sql.Connection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class Merovingian2WaitTest {
+    private static final String KEY = "vm_instance1";
+
+    LockMaster _lockMaster;
+    Merovingian2.LockNotifier _notifier;
+
+    static class LockMaster extends Merovingian2 {
+        volatile Map<String, String> owner;
+        final AtomicInteger inquiries = new AtomicInteger();
+
+        LockMaster() {
+            super(1, Mockito.mock(Connection.class));
+        }
+
+        @Override
+        protected Map<String, String> isLocked(String key) {
+            inquiries.incrementAndGet();
+            return owner;
+        }
+
+        @Override
+        protected boolean doAcquire(String key, String threadName, int threadId) {
+            return owner == null;
+        }
+    }
+
+    static Map<String, String> owner(long msId, String date) {
+        Map<String, String> owner = new HashMap<String, String>();
+        owner.put("key", KEY);
+        owner.put("mgmt", Long.toString(msId));
+        owner.put("tid", "7");
+        owner.put("date", date);
+        return owner;
+    }
+
+    @Before
+    public void setUp() {
+        _lockMaster = new LockMaster();
+        _notifier = Mockito.mock(Merovingian2.LockNotifier.class);
+        _lockMaster.setNotifier(_notifier);
+    }
+
+    private Thread acquireInBackground(final AtomicBoolean acquired) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acquired.set(_lockMaster.acquire(KEY, 60));
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    @Test
+    public void remoteReleaseWakesUpWaiter() throws InterruptedException {
+        _lockMaster.owner = owner(2, "1");
+        AtomicBoolean acquired = new AtomicBoolean();
+        Thread thread = acquireInBackground(acquired);
+
+        Mockito.verify(_notifier, Mockito.timeout(5000)).waiting(2, KEY);
+        long start = System.currentTimeMillis();
+        _lockMaster.owner = null;
+        _lockMaster.onRemoteReleased(KEY);
+        thread.join(5000);
+
+        Assert.assertFalse(thread.isAlive());
+        Assert.assertTrue(acquired.get());
+        Assert.assertTrue(System.currentTimeMillis() - start < Merovingian2.MAX_WAIT_INTERVAL);
+    }
+
+    @Test
+    public void ownerIsToldOncePerHolding() throws InterruptedException {
+        _lockMaster.owner = owner(2, "1");
+        AtomicBoolean acquired = new AtomicBoolean();
+        Thread thread = acquireInBackground(acquired);
+
+        Mockito.verify(_notifier, Mockito.timeout(5000)).waiting(2, KEY);
+        // Wake-ups that find the lock still held by the same owner don't notify again.
+        int inquiries = _lockMaster.inquiries.get();
+        _lockMaster.onRemoteReleased(KEY);
+        while (_lockMaster.inquiries.get() == inquiries) {
+            Thread.sleep(10);
+        }
+        Mockito.verify(_notifier, Mockito.times(1)).waiting(2, KEY);
+
+        // The lock was taken again in the meantime so the new owner is told.
+        _lockMaster.owner = owner(3, "2");
+        _lockMaster.onRemoteReleased(KEY);
+        Mockito.verify(_notifier, Mockito.timeout(5000)).waiting(3, KEY);
+
+        _lockMaster.owner = null;
+        _lockMaster.onRemoteReleased(KEY);
+        thread.join(5000);
+        Assert.assertTrue(acquired.get());
+        Mockito.verify(_notifier, Mockito.times(1)).waiting(2, KEY);
+    }
+
+    @Test
+    public void zeroTimeoutTriesOnce() {
+        _lockMaster.owner = owner(2, "1");
+        Assert.assertFalse(_lockMaster.acquire(KEY, 0));
+        Assert.assertEquals(1, _lockMaster.inquiries.get());
+
+        _lockMaster.owner = null;
+        Assert.assertTrue(_lockMaster.acquire(KEY, 0));
+    }
+}
@@ -29,6 +29,7 @@ public interface AsyncJob extends JobInfo {
 
     public static interface Topics {
         public static final String JOB_HEARTBEAT = "job.heartbeat";
+        // published when a job completes, args: Pair<Long, JobInfo.Status> of the job id and its terminal status
         public static final String JOB_STATE = "job.state";
         public static final String JOB_EVENT_PUBLISH = "job.eventpublish";
     }
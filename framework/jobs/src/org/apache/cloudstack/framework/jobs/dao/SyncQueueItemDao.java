@@ -28,6 +28,8 @@ public interface SyncQueueItemDao extends GenericDao<SyncQueueItemVO, Long> {
 
     public List<SyncQueueItemVO> getNextQueueItems(int maxItems);
 
+    public int getPendingQueueItemCount(String syncObjType);
+
     public List<SyncQueueItemVO> getActiveQueueItems(Long msid, boolean exclusive);
 
     public List<SyncQueueItemVO> getBlockedQueueItems(long thresholdMs, boolean exclusive);
@@ -123,6 +123,26 @@ public class SyncQueueItemDaoImpl extends GenericDaoBase<SyncQueueItemVO, Long>
         return l;
     }
 
+    @Override
+    public int getPendingQueueItemCount(String syncObjType) {
+        String sql = "SELECT COUNT(*) FROM sync_queue AS q JOIN sync_queue_item AS i ON q.id = i.queue_id " +
+                " WHERE q.sync_objtype = ? AND i.queue_proc_number IS NULL";
+
+        TransactionLegacy txn = TransactionLegacy.currentTxn();
+        PreparedStatement pstmt = null;
+        try {
+            pstmt = txn.prepareAutoCloseStatement(sql);
+            pstmt.setString(1, syncObjType);
+            ResultSet rs = pstmt.executeQuery();
+            if (rs.next()) {
+                return rs.getInt(1);
+            }
+        } catch (SQLException e) {
+            s_logger.error("Unexpected sql exception, ", e);
+        }
+        return 0;
+    }
+
     @Override
     public List<SyncQueueItemVO> getActiveQueueItems(Long msid, boolean exclusive) {
         SearchBuilder<SyncQueueItemVO> sb = createSearchBuilder();
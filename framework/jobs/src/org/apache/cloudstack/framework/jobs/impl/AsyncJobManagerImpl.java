@@ -21,9 +21,13 @@ import java.io.Serializable;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.RejectedExecutionException;
@@ -49,13 +53,14 @@ import org.apache.cloudstack.framework.jobs.dao.AsyncJobJoinMapDao;
 import org.apache.cloudstack.framework.jobs.dao.AsyncJobJournalDao;
 import org.apache.cloudstack.framework.jobs.dao.SyncQueueItemDao;
 import org.apache.cloudstack.framework.messagebus.MessageBus;
-import org.apache.cloudstack.framework.messagebus.MessageDetector;
+import org.apache.cloudstack.framework.messagebus.MessageSubscriber;
 import org.apache.cloudstack.framework.messagebus.PublishScope;
 import org.apache.cloudstack.jobs.JobInfo;
 import org.apache.cloudstack.jobs.JobInfo.Status;
 import org.apache.cloudstack.managed.context.ManagedContextRunnable;
 import org.apache.cloudstack.utils.identity.ManagementServerNode;
 
+import com.cloud.cluster.ClusterManager;
 import com.cloud.cluster.ClusterManagerListener;
 import com.cloud.cluster.ManagementServerHost;
 import com.cloud.utils.DateUtil;
@@ -77,13 +82,14 @@ import com.cloud.utils.db.SearchCriteria.Op;
 import com.cloud.utils.db.Transaction;
 import com.cloud.utils.db.TransactionCallback;
 import com.cloud.utils.db.TransactionCallbackNoReturn;
+import com.cloud.utils.db.TransactionLegacy;
 import com.cloud.utils.db.TransactionStatus;
 import com.cloud.utils.exception.CloudRuntimeException;
 import com.cloud.utils.exception.ExceptionUtil;
 import com.cloud.utils.mgmt.JmxUtil;
 import com.cloud.vm.dao.VMInstanceDao;
 
-public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager, ClusterManagerListener, Configurable {
+public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager, ClusterManagerListener, ClusterManager.NotificationHandler, Configurable {
     // Advanced
     private static final ConfigKey<Long> JobExpireMinutes = new ConfigKey<Long>("Advanced", Long.class, "job.expire.minutes", "1440",
         "Time (in minutes) for async-jobs to be kept in system", true, ConfigKey.Scope.Global);
@@ -92,6 +98,9 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
     private static final ConfigKey<Integer> VmJobLockTimeout = new ConfigKey<Integer>("Advanced",
             Integer.class, "vm.job.lock.timeout", "1800",
             "Time in seconds to wait in acquiring lock to submit a vm worker job", false);
+    private static final ConfigKey<Long> JobWaitPollInterval = new ConfigKey<Long>("Advanced", Long.class, "job.wait.poll.interval", "30000",
+        "Time (in milliseconds) between the database checks of a job that is being waited on, completions are normally signalled without polling", true,
+        ConfigKey.Scope.Global);
 
     private static final Logger s_logger = Logger.getLogger(AsyncJobManagerImpl.class);
 
@@ -100,6 +109,10 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
     private static final int MAX_ONETIME_SCHEDULE_SIZE = 50;
     private static final int HEARTBEAT_INTERVAL = 2000;
     private static final int GC_INTERVAL = 10000;                // 10 seconds
+    private static final int COMPLETED_JOB_RETENTION = 60000;    // 1 minute
+
+    private static final String JOB_COMPLETION_SUBJECT = "job.completion";
+    private static final String SYNC_QUEUE_SUBJECT = "job.syncqueue";
 
     @Inject
     private SyncQueueItemDao _queueItemDao;
@@ -119,6 +132,8 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
     private AsyncJobMonitor _jobMonitor;
     @Inject
     private VMInstanceDao _vmInstanceDao;
+    @Inject
+    private ClusterManager _clusterMgr;
 
     private volatile long _executionRunNumber = 1;
 
@@ -126,6 +141,13 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
     private ExecutorService _apiJobExecutor;
     private ExecutorService _workerJobExecutor;
 
+    // dequeues the sync queues owned by this node as soon as they may have work
+    private final ExecutorService _queueScheduler = Executors.newSingleThreadExecutor(new NamedThreadFactory("AsyncJobMgr-Scheduler"));
+    private final Set<Long> _pendingQueueChecks = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+
+    // jobs recently completed on or reported to this node, job id -> completion tick
+    private final ConcurrentHashMap<Long, Long> _completedJobs = new ConcurrentHashMap<Long, Long>();
+
     @Override
     public String getConfigComponentName() {
         return AsyncJobManager.class.getSimpleName();
@@ -133,7 +155,7 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
 
     @Override
     public ConfigKey<?>[] getConfigKeys() {
-        return new ConfigKey<?>[] {JobExpireMinutes, JobCancelThresholdMinutes, VmJobLockTimeout};
+        return new ConfigKey<?>[] {JobExpireMinutes, JobCancelThresholdMinutes, VmJobLockTimeout, JobWaitPollInterval};
     }
 
     @Override
@@ -201,16 +223,17 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
 
             try {
                 // lock is acquired
-                return Transaction.execute(new TransactionCallback<Long>() {
+                SyncQueueVO queue = Transaction.execute(new TransactionCallback<SyncQueueVO>() {
                     @Override
-                    public Long doInTransaction(TransactionStatus status) {
+                    public SyncQueueVO doInTransaction(TransactionStatus status) {
                         job.setInitMsid(getMsid());
                         dao.persist(job);
 
-                        syncAsyncJobExecution(job, syncObjType, syncObjId, 1);
-                        return job.getId();
+                        return queueJob(job, syncObjType, syncObjId, 1);
                     }
                 });
+                scheduleQueue(queue.getId());
+                return job.getId();
             } finally {
                 _vmInstanceDao.unlockFromLockTable(String.valueOf(syncObjId));
             }
@@ -304,7 +327,44 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
                         scheduleExecution(jobToWakeup, false);
                 }
         */
-        _messageBus.publish(null, AsyncJob.Topics.JOB_STATE, PublishScope.GLOBAL, jobId);
+        onJobCompleted(jobId, jobStatus);
+
+        // the waiter of a job sits on the node that submitted it
+        if (job.getInitMsid() != null && job.getInitMsid().longValue() != getMsid()) {
+            _clusterMgr.sendNotification(job.getInitMsid().toString(), JOB_COMPLETION_SUBJECT, jobId + ":" + jobStatus.name());
+        }
+    }
+
+    private void onJobCompleted(long jobId, Status jobStatus) {
+        _completedJobs.put(jobId, System.currentTimeMillis());
+        _messageBus.publish(null, AsyncJob.Topics.JOB_STATE, PublishScope.GLOBAL, new Pair<Long, Status>(jobId, jobStatus));
+    }
+
+    @Override
+    public void onNotification(String sourcePeer, String subject, String message) {
+        int pos = message.indexOf(':');
+        if (SYNC_QUEUE_SUBJECT.equals(subject)) {
+            try {
+                // the sender has picked this node as the owner, a stale pick is left to the heartbeat scan
+                if (Long.parseLong(message.substring(0, pos)) == getMsid()) {
+                    checkQueueLater(Long.parseLong(message.substring(pos + 1)));
+                }
+            } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+                s_logger.warn("Ignore malformed sync queue notification from " + sourcePeer + ": " + message);
+            }
+            return;
+        }
+
+        try {
+            long jobId = Long.parseLong(message.substring(0, pos));
+            Status jobStatus = Status.valueOf(message.substring(pos + 1));
+            if (s_logger.isDebugEnabled()) {
+                s_logger.debug("job-" + jobId + " completed on " + sourcePeer + " with " + jobStatus);
+            }
+            onJobCompleted(jobId, jobStatus);
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            s_logger.warn("Ignore malformed job completion notification from " + sourcePeer + ": " + message);
+        }
     }
 
     @Override
@@ -408,10 +468,51 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
             s_logger.debug("Sync job-" + job.getId() + " execution on object " + syncObjType + "." + syncObjId);
         }
 
-        SyncQueueVO queue = null;
-        queue = _queueMgr.queue(syncObjType, syncObjId, SyncQueueItem.AsyncJobContentType, job.getId(), queueSizeLimit);
+        SyncQueueVO queue = queueJob(job, syncObjType, syncObjId, queueSizeLimit);
+        scheduleQueue(queue.getId());
+    }
+
+    private SyncQueueVO queueJob(AsyncJob job, String syncObjType, long syncObjId, long queueSizeLimit) {
+        SyncQueueVO queue = _queueMgr.queue(syncObjType, syncObjId, SyncQueueItem.AsyncJobContentType, job.getId(), queueSizeLimit);
         if (queue == null)
             throw new CloudRuntimeException("Unable to insert queue item into database, DB is full?");
+        return queue;
+    }
+
+    /**
+     * Has the owner of the queue dequeue it, locally or through a notification
+     * to the owning peer, once the current transaction has committed what made
+     * the queue ready, i.e. an enqueue or a purge.
+     */
+    private void scheduleQueue(final long queueId) {
+        final Long owner = _queueMgr.getQueueOwner(queueId);
+        TransactionLegacy.runAfterCommit(new Runnable() {
+            @Override
+            public void run() {
+                if (owner == null || owner.longValue() == getMsid()) {
+                    checkQueueLater(queueId);
+                } else {
+                    _clusterMgr.sendNotification(owner.toString(), SYNC_QUEUE_SUBJECT, owner + ":" + queueId);
+                }
+            }
+        });
+    }
+
+    private void checkQueueLater(final long queueId) {
+        if (_pendingQueueChecks.add(queueId)) {
+            try {
+                _queueScheduler.submit(new ManagedContextRunnable() {
+                    @Override
+                    protected void runInContext() {
+                        _pendingQueueChecks.remove(queueId);
+                        checkQueue(queueId);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // shutting down, the queue is picked up by the heartbeat scan of the next owner
+                _pendingQueueChecks.remove(queueId);
+            }
+        }
     }
 
     @Override
@@ -551,6 +652,7 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
                         if (job.getSyncSource() != null) {
                             // here check queue item one more time to double make sure that queue item is removed in case of any uncaught exception
                             _queueMgr.purgeItem(job.getSyncSource().getId());
+                            scheduleQueue(job.getSyncSource().getQueueId());
                         }
 
                         try {
@@ -653,36 +755,60 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
             }
 
             _queueMgr.purgeItem(executionContext.getSyncSource().getId());
-            checkQueue(executionContext.getSyncSource().getQueueId());
+            scheduleQueue(executionContext.getSyncSource().getQueueId());
         }
     }
 
     @Override
     public boolean waitAndCheck(AsyncJob job, String[] wakeupTopicsOnMessageBus, long checkIntervalInMilliSeconds, long timeoutInMiliseconds, Predicate predicate) {
+        long jobId = job.getId();
+        Set<String> topics = new LinkedHashSet<String>(Arrays.asList(wakeupTopicsOnMessageBus));
+        topics.add(AsyncJob.Topics.JOB_STATE);
 
-        MessageDetector msgDetector = new MessageDetector();
-        String[] topics = Arrays.copyOf(wakeupTopicsOnMessageBus, wakeupTopicsOnMessageBus.length + 1);
-        topics[topics.length - 1] = AsyncJob.Topics.JOB_STATE;
+        // completion of the job is signalled on the message bus, the database is only
+        // polled as a safety net for completions that are not (e.g. jobs cancelled by
+        // a peer taking over the ones of a dead node)
+        long pollInterval = Math.max(checkIntervalInMilliSeconds, JobWaitPollInterval.value());
 
-        msgDetector.open(_messageBus, topics);
+        JobWaitDetector detector = new JobWaitDetector(jobId);
+        detector.open(_messageBus, topics.toArray(new String[topics.size()]));
         try {
             long startTick = System.currentTimeMillis();
-            while (timeoutInMiliseconds < 0 || System.currentTimeMillis() - startTick < timeoutInMiliseconds) {
-                msgDetector.waitAny(checkIntervalInMilliSeconds);
-                job = _jobDao.findById(job.getId());
-                if (job != null && job.getStatus().done()) {
+            // the job may have completed before we subscribed, poll once right away
+            long nextPollTick = startTick;
+            while (true) {
+                if (detector.isJobDone() || _completedJobs.containsKey(jobId)) {
                     return true;
                 }
 
-                if (predicate.checkCondition()) {
+                long now = System.currentTimeMillis();
+                if (now >= nextPollTick) {
+                    AsyncJobVO jobVo = _jobDao.findById(jobId);
+                    if (jobVo != null && jobVo.getStatus().done()) {
+                        return true;
+                    }
+                    if (predicate.checkCondition()) {
+                        return true;
+                    }
+                    nextPollTick = now + pollInterval;
+                }
+
+                long waitTime = nextPollTick - now;
+                if (timeoutInMiliseconds >= 0) {
+                    long remaining = startTick + timeoutInMiliseconds - now;
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    waitTime = Math.min(waitTime, remaining);
+                }
+
+                if (detector.await(waitTime) && predicate.checkCondition()) {
                     return true;
                 }
             }
         } finally {
-            msgDetector.close();
+            detector.close();
         }
-
-        return false;
     }
 
     @Override
@@ -720,11 +846,41 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
         }
     }
 
+    private Runnable getCompletedJobCleanupTask() {
+        return new ManagedContextRunnable() {
+            @Override
+            protected void runInContext() {
+                long cutTick = System.currentTimeMillis() - COMPLETED_JOB_RETENTION;
+                for (Iterator<Long> it = _completedJobs.values().iterator(); it.hasNext();) {
+                    if (it.next() < cutTick) {
+                        it.remove();
+                    }
+                }
+            }
+        };
+    }
+
     private Runnable getHeartbeatTask() {
         return new ManagedContextRunnable() {
 
             @Override
             protected void runInContext() {
+                // every node scans the queues it owns, this is a safety net for the
+                // queues scheduleQueue() has missed (e.g. lost notifications, owner changes)
+                try {
+                    List<SyncQueueItemVO> l = _queueMgr.dequeueFromAny(getMsid(), MAX_ONETIME_SCHEDULE_SIZE);
+                    if (l != null && l.size() > 0) {
+                        for (SyncQueueItemVO item : l) {
+                            if (s_logger.isDebugEnabled()) {
+                                s_logger.debug("Execute sync-queue item: " + item.toString());
+                            }
+                            executeQueueItem(item, false);
+                        }
+                    }
+                } catch (Throwable e) {
+                    s_logger.error("Unexpected exception when trying to execute queue item, ", e);
+                }
+
                 GlobalLock scanLock = GlobalLock.getInternLock("AsyncJobManagerHeartbeat");
                 try {
                     if (scanLock.lock(ACQUIRE_GLOBAL_LOCK_TIMEOUT_FOR_COOPERATION)) {
@@ -741,16 +897,6 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
 
             protected void reallyRun() {
                 try {
-                    List<SyncQueueItemVO> l = _queueMgr.dequeueFromAny(getMsid(), MAX_ONETIME_SCHEDULE_SIZE);
-                    if (l != null && l.size() > 0) {
-                        for (SyncQueueItemVO item : l) {
-                            if (s_logger.isDebugEnabled()) {
-                                s_logger.debug("Execute sync-queue item: " + item.toString());
-                            }
-                            executeQueueItem(item, false);
-                        }
-                    }
-
                     List<Long> standaloneWakeupJobs = wakeupScan();
                     for (Long jobId : standaloneWakeupJobs) {
                         // TODO, we assume that all jobs in this category is API job only
@@ -759,7 +905,7 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
                             scheduleExecution(job, false);
                     }
                 } catch (Throwable e) {
-                    s_logger.error("Unexpected exception when trying to execute queue item, ", e);
+                    s_logger.error("Unexpected exception when trying to wake up jobs, ", e);
                 }
             }
         };
@@ -802,6 +948,7 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
 
                                 // purge the item and resume queue processing
                                 _queueMgr.purgeItem(item.getId());
+                                scheduleQueue(item.getQueueId());
                             } catch (Throwable e) {
                                 s_logger.error("Unexpected exception when trying to remove job from sync queue, ", e);
                             }
@@ -967,6 +1114,9 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
         AsyncJobExecutionContext.init(this, _joinMapDao);
         OutcomeImpl.init(this);
 
+        _clusterMgr.registerNotificationHandler(JOB_COMPLETION_SUBJECT, this);
+        _clusterMgr.registerNotificationHandler(SYNC_QUEUE_SUBJECT, this);
+
         return true;
     }
 
@@ -1020,13 +1170,17 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
 
         _heartbeatScheduler.scheduleAtFixedRate(getHeartbeatTask(), HEARTBEAT_INTERVAL, HEARTBEAT_INTERVAL, TimeUnit.MILLISECONDS);
         _heartbeatScheduler.scheduleAtFixedRate(getGCTask(), GC_INTERVAL, GC_INTERVAL, TimeUnit.MILLISECONDS);
+        _heartbeatScheduler.scheduleAtFixedRate(getCompletedJobCleanupTask(), GC_INTERVAL, GC_INTERVAL, TimeUnit.MILLISECONDS);
 
         return true;
     }
 
     @Override
     public boolean stop() {
+        _clusterMgr.unregisterNotificationHandler(JOB_COMPLETION_SUBJECT, this);
+        _clusterMgr.unregisterNotificationHandler(SYNC_QUEUE_SUBJECT, this);
         _heartbeatScheduler.shutdown();
+        _queueScheduler.shutdown();
         _apiJobExecutor.shutdown();
         _workerJobExecutor.shutdown();
         return true;
@@ -1045,6 +1199,78 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
         setRunLevel(ComponentLifecycle.RUN_LEVEL_FRAMEWORK);
     }
 
+    /**
+     * Wakes up a job waiter on messages of its topics. A job state message only
+     * counts when it is about the job being waited on.
+     */
+    private static class JobWaitDetector implements MessageSubscriber {
+        private final long _jobId;
+        private MessageBus _messageBus;
+        private String[] _subjects;
+
+        private boolean _jobDone;
+        private boolean _wokenUp;
+
+        public JobWaitDetector(long jobId) {
+            _jobId = jobId;
+        }
+
+        public void open(MessageBus messageBus, String[] subjects) {
+            _messageBus = messageBus;
+            _subjects = subjects;
+            for (String subject : subjects) {
+                messageBus.subscribe(subject, this);
+            }
+        }
+
+        public void close() {
+            for (String subject : _subjects) {
+                _messageBus.unsubscribe(subject, this);
+            }
+        }
+
+        public synchronized boolean isJobDone() {
+            return _jobDone;
+        }
+
+        /**
+         * @return true if woken up by a message on one of the wakeup topics
+         */
+        public synchronized boolean await(long timeoutInMiliseconds) {
+            if (!_jobDone && !_wokenUp) {
+                try {
+                    wait(timeoutInMiliseconds);
+                } catch (InterruptedException e) {
+                }
+            }
+            boolean wokenUp = _wokenUp;
+            _wokenUp = false;
+            return wokenUp;
+        }
+
+        @Override
+        public void onPublishMessage(String senderAddress, String subject, Object args) {
+            if (AsyncJob.Topics.JOB_STATE.equals(subject)) {
+                if (!(args instanceof Pair)) {
+                    return;
+                }
+                Pair<?, ?> jobState = (Pair<?, ?>)args;
+                if (!Long.valueOf(_jobId).equals(jobState.first()) || !(jobState.second() instanceof Status) || !((Status)jobState.second()).done()) {
+                    return;
+                }
+                synchronized (this) {
+                    _jobDone = true;
+                    notifyAll();
+                }
+            } else {
+                synchronized (this) {
+                    _wokenUp = true;
+                    notifyAll();
+                }
+            }
+        }
+    }
+
     private void publishOnEventBus(AsyncJob job, String jobEvent) {
         _messageBus.publish(null, AsyncJob.Topics.JOB_EVENT_PUBLISH, PublishScope.LOCAL,
             new Pair<AsyncJob, String>(job, jobEvent));
@@ -25,6 +25,9 @@ import java.io.Serializable;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Type;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.codec.binary.Base64;
 import org.apache.log4j.Logger;
@@ -43,11 +46,118 @@ import com.google.gson.JsonSerializer;
 
 /**
  * Note: toPairList and appendPairList only support simple POJO objects currently
+ *
+ * toObjectSerializedString() uses Java serialization unless codecs are enabled, with
+ * the system property cloud.job.serializer.codecs=true, and a codec is registered
+ * for the class of the object (or one of its super classes).  Only enable codecs
+ * once every management server of the cluster can decode them.  Codec encoded
+ * strings are written as CODEC_MARKER + codec id + ':' + Base64 content, the marker
+ * can't appear in the Base64 of Java serialization so strings written before codecs
+ * were enabled still decode.  Codec encoded strings decode whether codecs are
+ * enabled or not.
  */
 public class JobSerializerHelper {
     private static final Logger s_logger = Logger.getLogger(JobSerializerHelper.class);
     public static final String token = "/";
 
+    public static final char CODEC_MARKER = '~';
+    private static volatile boolean s_codecsEnabled = Boolean.getBoolean("cloud.job.serializer.codecs");
+
+    private static final Map<Class<?>, ObjectCodec> s_codecsByClass = new ConcurrentHashMap<Class<?>, ObjectCodec>();
+    private static final Map<String, ObjectCodec> s_codecsById = new ConcurrentHashMap<String, ObjectCodec>();
+
+    /**
+     * Encodes objects in a more compact form than Java serialization.
+     */
+    public interface ObjectCodec {
+        /**
+         * @return the id stored with the encoded objects.  Change it when the encoding
+         *     changes, old ids need to stay registered to decode existing jobs.
+         */
+        String getId();
+
+        /**
+         * @throws IllegalArgumentException if the object can't be encoded, Java
+         *     serialization is used instead.
+         */
+        byte[] encode(Serializable object);
+
+        Object decode(byte[] content);
+    }
+
+    public static boolean isCodecsEnabled() {
+        return s_codecsEnabled;
+    }
+
+    public static void setCodecsEnabled(boolean enabled) {
+        s_codecsEnabled = enabled;
+    }
+
+    /**
+     * Registers the codec for the class and its sub classes.
+     */
+    public static void registerCodec(Class<?> clazz, ObjectCodec codec) {
+        s_codecsByClass.put(clazz, codec);
+        s_codecsById.put(codec.getId(), codec);
+    }
+
+    /**
+     * Encodes strings, booleans, integers and longs, e.g. VM profile parameters,
+     * as a type character followed by their text.
+     */
+    protected static class ValueCodec implements ObjectCodec {
+        private static final Charset UTF8 = Charset.forName("UTF-8");
+
+        @Override
+        public String getId() {
+            return "v1";
+        }
+
+        @Override
+        public byte[] encode(Serializable object) {
+            char type;
+            if (object instanceof String) {
+                type = 'S';
+            } else if (object instanceof Boolean) {
+                type = 'Z';
+            } else if (object instanceof Integer) {
+                type = 'I';
+            } else if (object instanceof Long) {
+                type = 'J';
+            } else {
+                throw new IllegalArgumentException("Unsupported value " + object.getClass().getName());
+            }
+            return (type + object.toString()).getBytes(UTF8);
+        }
+
+        @Override
+        public Object decode(byte[] content) {
+            String text = new String(content, 1, content.length - 1, UTF8);
+            switch (content[0]) {
+                case 'S':
+                    return text;
+                case 'Z':
+                    return Boolean.valueOf(text);
+                case 'I':
+                    return Integer.valueOf(text);
+                case 'J':
+                    return Long.valueOf(text);
+                default:
+                    throw new CloudRuntimeException("Unsupported value type " + (char)content[0]);
+            }
+        }
+    }
+
+    protected static ObjectCodec findCodec(Class<?> clazz) {
+        for (Class<?> c = clazz; c != null; c = c.getSuperclass()) {
+            ObjectCodec codec = s_codecsByClass.get(c);
+            if (codec != null) {
+                return codec;
+            }
+        }
+        return null;
+    }
+
     private static Gson s_gson;
     static {
         GsonBuilder gsonBuilder = new GsonBuilder();
@@ -56,6 +166,12 @@ public class JobSerializerHelper {
         gsonBuilder.registerTypeAdapter(Class.class, new ClassTypeAdapter());
         gsonBuilder.registerTypeAdapter(Throwable.class, new ThrowableTypeAdapter());
         s_gson = gsonBuilder.create();
+
+        ValueCodec valueCodec = new ValueCodec();
+        registerCodec(String.class, valueCodec);
+        registerCodec(Boolean.class, valueCodec);
+        registerCodec(Integer.class, valueCodec);
+        registerCodec(Long.class, valueCodec);
     }
 
     public static String toSerializedString(Object result) {
@@ -105,6 +221,17 @@ public class JobSerializerHelper {
     public static String toObjectSerializedString(Serializable object) {
         assert (object != null);
 
+        ObjectCodec codec = s_codecsEnabled ? findCodec(object.getClass()) : null;
+        if (codec != null) {
+            try {
+                return CODEC_MARKER + codec.getId() + ":" + Base64.encodeBase64URLSafeString(codec.encode(object));
+            } catch (IllegalArgumentException e) {
+                if (s_logger.isDebugEnabled()) {
+                    s_logger.debug("Unable to encode " + object.getClass().getName() + " with codec " + codec.getId() + ", use Java serialization: " + e.getMessage());
+                }
+            }
+        }
+
         ByteArrayOutputStream bs = new ByteArrayOutputStream();
         try {
             ObjectOutputStream os = new ObjectOutputStream(bs);
@@ -122,6 +249,20 @@ public class JobSerializerHelper {
         if (base64EncodedString == null)
             return null;
 
+        if (!base64EncodedString.isEmpty() && base64EncodedString.charAt(0) == CODEC_MARKER) {
+            int pos = base64EncodedString.indexOf(':');
+            String codecId = pos > 0 ? base64EncodedString.substring(1, pos) : null;
+            ObjectCodec codec = codecId != null ? s_codecsById.get(codecId) : null;
+            if (codec == null) {
+                throw new CloudRuntimeException("Unable to find codec " + codecId + " to deserialize: " + base64EncodedString);
+            }
+            try {
+                return codec.decode(Base64.decodeBase64(base64EncodedString.substring(pos + 1)));
+            } catch (RuntimeException e) {
+                throw new CloudRuntimeException("Unable to deserialize: " + base64EncodedString, e);
+            }
+        }
+
         byte[] content = Base64.decodeBase64(base64EncodedString);
         ByteArrayInputStream bs = new ByteArrayInputStream(content);
         try {
@@ -0,0 +1,88 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.framework.jobs.impl;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.StandardMBean;
+
+import org.apache.cloudstack.framework.jobs.SyncQueueMBean;
+import org.apache.cloudstack.framework.jobs.dao.SyncQueueItemDao;
+
+/**
+ * Scheduling metrics of the sync queues of one type. Wait times are measured
+ * from enqueue to dequeue of the items dequeued on this node, the depth is
+ * read from the database and covers the whole cluster.
+ */
+public class SyncQueueMBeanImpl extends StandardMBean implements SyncQueueMBean {
+    private final String _syncObjType;
+    private final SyncQueueItemDao _syncQueueItemDao;
+
+    private final AtomicLong _dequeuedItems = new AtomicLong();
+    private final AtomicLong _totalWaitTime = new AtomicLong();
+    private final AtomicLong _maxWaitTime = new AtomicLong();
+    private volatile long _lastWaitTime;
+
+    public SyncQueueMBeanImpl(String syncObjType, SyncQueueItemDao syncQueueItemDao) {
+        super(SyncQueueMBean.class, false);
+
+        _syncObjType = syncObjType;
+        _syncQueueItemDao = syncQueueItemDao;
+    }
+
+    public void recordDequeue(long waitTimeMs) {
+        _dequeuedItems.incrementAndGet();
+        _totalWaitTime.addAndGet(waitTimeMs);
+        _lastWaitTime = waitTimeMs;
+
+        long max = _maxWaitTime.get();
+        while (waitTimeMs > max && !_maxWaitTime.compareAndSet(max, waitTimeMs)) {
+            max = _maxWaitTime.get();
+        }
+    }
+
+    @Override
+    public String getSyncObjType() {
+        return _syncObjType;
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return _syncQueueItemDao.getPendingQueueItemCount(_syncObjType);
+    }
+
+    @Override
+    public long getDequeuedItems() {
+        return _dequeuedItems.get();
+    }
+
+    @Override
+    public long getAverageWaitTimeMs() {
+        long count = _dequeuedItems.get();
+        return count == 0 ? 0 : _totalWaitTime.get() / count;
+    }
+
+    @Override
+    public long getMaxWaitTimeMs() {
+        return _maxWaitTime.get();
+    }
+
+    @Override
+    public long getLastWaitTimeMs() {
+        return _lastWaitTime;
+    }
+}
@@ -25,8 +25,16 @@ public interface SyncQueueManager extends Manager {
 
     public SyncQueueItemVO dequeueFromOne(long queueId, Long msid);
 
+    /**
+     * Dequeues the next items of the queues owned by the node, see {@link #getQueueOwner(long)}.
+     */
     public List<SyncQueueItemVO> dequeueFromAny(Long msid, int maxItems);
 
+    /**
+     * @return id of the management server node that schedules the queue
+     */
+    public Long getQueueOwner(long queueId);
+
     public void purgeItem(long queueItemId);
 
     public void returnItem(long queueItemId);
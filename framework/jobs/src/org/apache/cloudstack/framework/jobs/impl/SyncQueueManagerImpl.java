@@ -19,6 +19,7 @@ package org.apache.cloudstack.framework.jobs.impl;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.inject.Inject;
 
@@ -26,6 +27,8 @@ import org.apache.log4j.Logger;
 
 import org.apache.cloudstack.framework.jobs.dao.SyncQueueDao;
 import org.apache.cloudstack.framework.jobs.dao.SyncQueueItemDao;
+
+import com.cloud.cluster.ClusterManager;
 import com.cloud.utils.DateUtil;
 import com.cloud.utils.component.ManagerBase;
 import com.cloud.utils.db.DB;
@@ -34,6 +37,8 @@ import com.cloud.utils.db.TransactionCallback;
 import com.cloud.utils.db.TransactionCallbackNoReturn;
 import com.cloud.utils.db.TransactionStatus;
 import com.cloud.utils.exception.CloudRuntimeException;
+import com.cloud.utils.exception.ExceptionUtil;
+import com.cloud.utils.mgmt.JmxUtil;
 
 public class SyncQueueManagerImpl extends ManagerBase implements SyncQueueManager {
     public static final Logger s_logger = Logger.getLogger(SyncQueueManagerImpl.class.getName());
@@ -42,6 +47,11 @@ public class SyncQueueManagerImpl extends ManagerBase implements SyncQueueManage
     private SyncQueueDao _syncQueueDao;
     @Inject
     private SyncQueueItemDao _syncQueueItemDao;
+    @Inject
+    private ClusterManager _clusterMgr;
+
+    private final SyncQueuePartitioner _partitioner = new SyncQueuePartitioner();
+    private final ConcurrentHashMap<String, SyncQueueMBeanImpl> _queueStats = new ConcurrentHashMap<String, SyncQueueMBeanImpl>();
 
     @Override
     @DB
@@ -82,7 +92,8 @@ public class SyncQueueManagerImpl extends ManagerBase implements SyncQueueManage
             return Transaction.execute(new TransactionCallback<SyncQueueItemVO>() {
                 @Override
                 public SyncQueueItemVO doInTransaction(TransactionStatus status) {
-                    SyncQueueVO queueVO = _syncQueueDao.findById(queueId);
+                    // the row lock serializes nodes that both think they own the queue while the cluster changes
+                    SyncQueueVO queueVO = _syncQueueDao.lockRow(queueId, true);
                     if(queueVO == null) {
                         s_logger.error("Sync queue(id: " + queueId + ") does not exist");
                         return null;
@@ -107,6 +118,7 @@ public class SyncQueueManagerImpl extends ManagerBase implements SyncQueueManage
                             itemVO.setLastProcessTime(dt);
                             _syncQueueItemDao.update(itemVO.getId(), itemVO);
 
+                            getQueueStats(queueVO.getSyncObjType()).recordDequeue(dt.getTime() - itemVO.getCreated().getTime());
                             return itemVO;
                         } else {
                             if (s_logger.isDebugEnabled())
@@ -128,51 +140,55 @@ public class SyncQueueManagerImpl extends ManagerBase implements SyncQueueManage
     }
 
     @Override
-    @DB
     public List<SyncQueueItemVO> dequeueFromAny(final Long msid, final int maxItems) {
+        refreshPartitions();
 
-        final List<SyncQueueItemVO> resultList = new ArrayList<SyncQueueItemVO>();
-
-        try {
-            Transaction.execute(new TransactionCallbackNoReturn() {
-                @Override
-                public void doInTransactionWithoutResult(TransactionStatus status) {
-                    List<SyncQueueItemVO> l = _syncQueueItemDao.getNextQueueItems(maxItems);
-                    if(l != null && l.size() > 0) {
-                        for(SyncQueueItemVO item : l) {
-                            SyncQueueVO queueVO = _syncQueueDao.findById(item.getQueueId());
-                            SyncQueueItemVO itemVO = _syncQueueItemDao.findById(item.getId());
-                            if(queueReadyToProcess(queueVO) && itemVO != null && itemVO.getLastProcessNumber() == null) {
-                                Long processNumber = queueVO.getLastProcessNumber();
-                                if (processNumber == null)
-                                    processNumber = new Long(1);
-                                else
-                                    processNumber = processNumber + 1;
-
-                                Date dt = DateUtil.currentGMTTime();
-                                queueVO.setLastProcessNumber(processNumber);
-                                queueVO.setLastUpdated(dt);
-                                queueVO.setQueueSize(queueVO.getQueueSize() + 1);
-                                _syncQueueDao.update(queueVO.getId(), queueVO);
-
-                                itemVO.setLastProcessMsid(msid);
-                                itemVO.setLastProcessNumber(processNumber);
-                                itemVO.setLastProcessTime(dt);
-                                _syncQueueItemDao.update(item.getId(), itemVO);
-
-                                resultList.add(itemVO);
-                            }
-                        }
-                    }
-                }
-            });
+        // the candidates are the next items of the queues of the whole cluster,
+        // keep the ones of the queues this node owns
+        List<SyncQueueItemVO> resultList = new ArrayList<SyncQueueItemVO>();
+        List<SyncQueueItemVO> l = _syncQueueItemDao.getNextQueueItems(maxItems * Math.max(1, _partitioner.getNodes().size()));
+        for (SyncQueueItemVO item : l) {
+            if (resultList.size() >= maxItems) {
+                break;
+            }
+            if (!_partitioner.isOwner(item.getQueueId(), msid)) {
+                continue;
+            }
 
-            return resultList;
-        } catch (Exception e) {
-            s_logger.error("Unexpected exception: ", e);
+            SyncQueueItemVO itemVO = dequeueFromOne(item.getQueueId(), msid);
+            if (itemVO != null) {
+                resultList.add(itemVO);
+            }
         }
+        return resultList;
+    }
 
-        return null;
+    @Override
+    public Long getQueueOwner(long queueId) {
+        refreshPartitions();
+        return _partitioner.getOwner(queueId);
+    }
+
+    private void refreshPartitions() {
+        _partitioner.setNodes(_clusterMgr.getActiveManagementNodeIds());
+    }
+
+    private SyncQueueMBeanImpl getQueueStats(String syncObjType) {
+        SyncQueueMBeanImpl stats = _queueStats.get(syncObjType);
+        if (stats == null) {
+            stats = new SyncQueueMBeanImpl(syncObjType, _syncQueueItemDao);
+            SyncQueueMBeanImpl existing = _queueStats.putIfAbsent(syncObjType, stats);
+            if (existing != null) {
+                return existing;
+            }
+
+            try {
+                JmxUtil.registerMBean("SyncQueueManager", "Queue " + syncObjType, stats);
+            } catch (Exception e) {
+                s_logger.warn("Unable to register sync queue " + syncObjType + " to JMX monitoring due to exception " + ExceptionUtil.toString(e));
+            }
+        }
+        return stats;
     }
 
     @Override
@@ -0,0 +1,89 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.framework.jobs.impl;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Assigns sync queues to management server nodes through a consistent hash
+ * ring, so every node schedules its own share of the queues and only the
+ * queues of a joining or leaving node move when the cluster changes.
+ */
+public class SyncQueuePartitioner {
+    private static final int VIRTUAL_NODES = 64;
+
+    private volatile Set<Long> _nodes = new TreeSet<Long>();
+    private volatile TreeMap<Long, Long> _ring = new TreeMap<Long, Long>();
+
+    /**
+     * Rebuilds the ring if the set of nodes has changed.
+     */
+    public synchronized void setNodes(Collection<Long> nodes) {
+        Set<Long> nodeSet = new TreeSet<Long>(nodes);
+        if (nodeSet.equals(_nodes)) {
+            return;
+        }
+
+        TreeMap<Long, Long> ring = new TreeMap<Long, Long>();
+        for (Long node : nodeSet) {
+            for (int i = 0; i < VIRTUAL_NODES; i++) {
+                ring.put(hash(node * VIRTUAL_NODES + i), node);
+            }
+        }
+        _ring = ring;
+        _nodes = nodeSet;
+    }
+
+    public Set<Long> getNodes() {
+        return _nodes;
+    }
+
+    /**
+     * @return the node owning the queue, null if there are no nodes
+     */
+    public Long getOwner(long queueId) {
+        TreeMap<Long, Long> ring = _ring;
+        if (ring.isEmpty()) {
+            return null;
+        }
+        Map.Entry<Long, Long> entry = ring.ceilingEntry(hash(queueId));
+        if (entry == null) {
+            entry = ring.firstEntry();
+        }
+        return entry.getValue();
+    }
+
+    public boolean isOwner(long queueId, long node) {
+        Long owner = getOwner(queueId);
+        return owner != null && owner.longValue() == node;
+    }
+
+    // MurmurHash3 finalizer, spreads sequential ids over the ring
+    static long hash(long value) {
+        long h = value;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb3fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,240 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.framework.jobs.impl;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+
+import org.apache.cloudstack.framework.jobs.dao.AsyncJobDao;
+import org.apache.cloudstack.framework.jobs.dao.AsyncJobJoinMapDao;
+import org.apache.cloudstack.framework.messagebus.MessageBus;
+import org.apache.cloudstack.framework.messagebus.MessageBusBase;
+import org.apache.cloudstack.framework.messagebus.PublishScope;
+import org.apache.cloudstack.jobs.JobInfo;
+import org.apache.cloudstack.utils.identity.ManagementServerNode;
+
+import com.cloud.cluster.ClusterManager;
+import com.cloud.utils.Predicate;
+import com.cloud.utils.db.TransactionLegacy;
+
+public class AsyncJobManagerImplTest {
+    private static final String WAKEUP_TOPIC = "test.wakeup";
+
+    @Mock
+    AsyncJobDao _jobDao;
+    @Mock
+    AsyncJobJoinMapDao _joinMapDao;
+    @Mock
+    SyncQueueManager _queueMgr;
+    @Mock
+    ClusterManager _clusterMgr;
+    @Spy
+    MessageBus _messageBus = new MessageBusBase();
+
+    @InjectMocks
+    AsyncJobManagerImpl _jobMgr;
+
+    AsyncJobVO _job;
+    AtomicInteger _predicateChecks = new AtomicInteger();
+    Predicate _predicate = new Predicate() {
+        @Override
+        public boolean checkCondition() {
+            _predicateChecks.incrementAndGet();
+            return false;
+        }
+    };
+
+    ExecutorService _executor = Executors.newSingleThreadExecutor();
+    TransactionLegacy _txn;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        // the message bus looks up the current transaction on publish
+        _txn = TransactionLegacy.open("AsyncJobManagerImplTest");
+
+        _job = Mockito.spy(new AsyncJobVO());
+        Mockito.when(_job.getId()).thenReturn(5L);
+        Mockito.when(_jobDao.findById(5L)).thenReturn(_job);
+    }
+
+    @After
+    public void tearDown() {
+        _executor.shutdownNow();
+        _txn.close();
+    }
+
+    private Future<Boolean> waitInBackground(final long timeout) {
+        return _executor.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return _jobMgr.waitAndCheck(_job, new String[] {WAKEUP_TOPIC}, 100, timeout, _predicate);
+            }
+        });
+    }
+
+    private void waitForInitialCheck() throws InterruptedException {
+        long startTick = System.currentTimeMillis();
+        while (_predicateChecks.get() == 0 && System.currentTimeMillis() - startTick < 5000) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(1, _predicateChecks.get());
+    }
+
+    @Test
+    public void completionWakesWaiterWithoutPolling() throws Exception {
+        Future<Boolean> result = waitInBackground(-1);
+        waitForInitialCheck();
+
+        _jobMgr.onNotification("peer", "job.completion", "5:SUCCEEDED");
+
+        Assert.assertTrue(result.get(5, TimeUnit.SECONDS));
+        Mockito.verify(_jobDao, Mockito.times(1)).findById(5L);
+        Assert.assertEquals(1, _predicateChecks.get());
+    }
+
+    @Test
+    public void completionOfOtherJobIsIgnored() throws Exception {
+        Future<Boolean> result = waitInBackground(500);
+        waitForInitialCheck();
+
+        _jobMgr.onNotification("peer", "job.completion", "6:SUCCEEDED");
+
+        Assert.assertFalse(result.get(5, TimeUnit.SECONDS));
+        Mockito.verify(_jobDao, Mockito.times(1)).findById(5L);
+        Assert.assertEquals(1, _predicateChecks.get());
+    }
+
+    @Test
+    public void completionBeforeWaitingIsRemembered() {
+        _jobMgr.onNotification("peer", "job.completion", "5:FAILED");
+
+        Assert.assertTrue(_jobMgr.waitAndCheck(_job, new String[0], 100, -1, _predicate));
+        Mockito.verify(_jobDao, Mockito.never()).findById(Mockito.anyLong());
+    }
+
+    @Test
+    public void wakeupTopicChecksPredicateOnly() throws Exception {
+        Future<Boolean> result = waitInBackground(500);
+        waitForInitialCheck();
+
+        _messageBus.publish(null, WAKEUP_TOPIC, PublishScope.LOCAL, null);
+
+        Assert.assertFalse(result.get(5, TimeUnit.SECONDS));
+        Mockito.verify(_jobDao, Mockito.times(1)).findById(5L);
+        Assert.assertEquals(2, _predicateChecks.get());
+    }
+
+    @Test
+    public void doneJobInDatabaseEndsWait() {
+        _job.setStatus(JobInfo.Status.CANCELLED);
+
+        Assert.assertTrue(_jobMgr.waitAndCheck(_job, new String[0], 100, -1, _predicate));
+        Assert.assertEquals(0, _predicateChecks.get());
+    }
+
+    private void complete(long initMsid) {
+        _job.setStatus(JobInfo.Status.IN_PROGRESS);
+        _job.setInitMsid(initMsid);
+        AsyncJobManagerImpl jobMgr = Mockito.spy(_jobMgr);
+        Mockito.doReturn(new ArrayList<Long>()).when(jobMgr).wakeupByJoinedJobCompletion(5L);
+        jobMgr.completeAsyncJob(5L, JobInfo.Status.SUCCEEDED, 0, null);
+    }
+
+    @Test
+    public void completionIsSentToSubmitterOnly() {
+        long peer = ManagementServerNode.getManagementServerId() + 1;
+        complete(peer);
+
+        Mockito.verify(_clusterMgr).sendNotification(Long.toString(peer), "job.completion", "5:SUCCEEDED");
+        Mockito.verify(_clusterMgr, Mockito.never()).broadcastNotification(Mockito.anyString(), Mockito.anyString());
+    }
+
+    @Test
+    public void completionOfLocalJobIsNotSent() {
+        complete(ManagementServerNode.getManagementServerId());
+
+        Mockito.verifyZeroInteractions(_clusterMgr);
+        Assert.assertTrue(_jobMgr.waitAndCheck(_job, new String[0], 100, -1, _predicate));
+    }
+
+    private void syncOnQueueOwnedBy(long owner) {
+        SyncQueueVO queue = Mockito.mock(SyncQueueVO.class);
+        Mockito.when(queue.getId()).thenReturn(7L);
+        Mockito.when(_queueMgr.queue("VmWorkJobQueue", 3L, SyncQueueItem.AsyncJobContentType, 5L, 1L)).thenReturn(queue);
+        Mockito.when(_queueMgr.getQueueOwner(7L)).thenReturn(owner);
+        _jobMgr.syncAsyncJobExecution(_job, "VmWorkJobQueue", 3L, 1L);
+    }
+
+    @Test
+    public void queueOwnerIsNotifiedAfterCommit() {
+        long peer = ManagementServerNode.getManagementServerId() + 1;
+        _txn.start();
+        syncOnQueueOwnedBy(peer);
+        Mockito.verifyZeroInteractions(_clusterMgr);
+
+        _txn.commit();
+        Mockito.verify(_clusterMgr).sendNotification(Long.toString(peer), "job.syncqueue", peer + ":7");
+        Mockito.verify(_clusterMgr, Mockito.never()).broadcastNotification(Mockito.anyString(), Mockito.anyString());
+    }
+
+    @Test
+    public void queueOwnerIsNotNotifiedOnRollback() {
+        _txn.start();
+        syncOnQueueOwnedBy(ManagementServerNode.getManagementServerId() + 1);
+        _txn.rollback();
+
+        Mockito.verifyZeroInteractions(_clusterMgr);
+    }
+
+    @Test
+    public void localQueueIsCheckedAfterCommit() {
+        long msid = ManagementServerNode.getManagementServerId();
+        _txn.start();
+        syncOnQueueOwnedBy(msid);
+        _txn.commit();
+
+        Mockito.verify(_queueMgr, Mockito.timeout(5000)).dequeueFromOne(7L, msid);
+        Mockito.verifyZeroInteractions(_clusterMgr);
+    }
+
+    @Test
+    public void queueNotificationForThisNodeChecksQueue() {
+        long msid = ManagementServerNode.getManagementServerId();
+        _jobMgr.onNotification("peer", "job.syncqueue", msid + ":7");
+        _jobMgr.onNotification("peer", "job.syncqueue", (msid + 1) + ":8");
+
+        Mockito.verify(_queueMgr, Mockito.timeout(5000)).dequeueFromOne(7L, msid);
+        Mockito.verify(_queueMgr, Mockito.never()).dequeueFromOne(Mockito.eq(8L), Mockito.anyLong());
+        Mockito.verifyZeroInteractions(_clusterMgr);
+    }
+}
@@ -0,0 +1,158 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.framework.jobs.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.charset.Charset;
+import java.util.Date;
+
+import org.apache.commons.codec.binary.Base64;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.cloud.utils.exception.CloudRuntimeException;
+
+public class JobSerializerHelperTest {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    static class Work implements Serializable {
+        private static final long serialVersionUID = 1L;
+        String name;
+
+        Work(String name) {
+            this.name = name;
+        }
+    }
+
+    static class SubWork extends Work {
+        private static final long serialVersionUID = 1L;
+
+        SubWork(String name) {
+            super(name);
+        }
+    }
+
+    static class WorkCodec implements JobSerializerHelper.ObjectCodec {
+        @Override
+        public String getId() {
+            return "test1";
+        }
+
+        @Override
+        public byte[] encode(Serializable object) {
+            String name = ((Work)object).name;
+            if (name == null) {
+                throw new IllegalArgumentException("no name");
+            }
+            return ((object instanceof SubWork ? "S" : "W") + name).getBytes(UTF8);
+        }
+
+        @Override
+        public Object decode(byte[] content) {
+            String text = new String(content, UTF8);
+            return text.charAt(0) == 'S' ? new SubWork(text.substring(1)) : new Work(text.substring(1));
+        }
+    }
+
+    @BeforeClass
+    public static void registerCodec() {
+        JobSerializerHelper.registerCodec(Work.class, new WorkCodec());
+        JobSerializerHelper.setCodecsEnabled(true);
+    }
+
+    @AfterClass
+    public static void disableCodecs() {
+        JobSerializerHelper.setCodecsEnabled(false);
+    }
+
+    @Test
+    public void registeredCodecIsUsed() {
+        String serialized = JobSerializerHelper.toObjectSerializedString(new Work("start"));
+        Assert.assertEquals("~test1:" + Base64.encodeBase64URLSafeString("Wstart".getBytes(UTF8)), serialized);
+
+        Object obj = JobSerializerHelper.fromObjectSerializedString(serialized);
+        Assert.assertEquals(Work.class, obj.getClass());
+        Assert.assertEquals("start", ((Work)obj).name);
+    }
+
+    @Test
+    public void codecAppliesToSubClasses() {
+        Object obj = JobSerializerHelper.fromObjectSerializedString(JobSerializerHelper.toObjectSerializedString(new SubWork("stop")));
+        Assert.assertEquals(SubWork.class, obj.getClass());
+        Assert.assertEquals("stop", ((Work)obj).name);
+    }
+
+    @Test
+    public void unencodableObjectFallsBackToJavaSerialization() {
+        String serialized = JobSerializerHelper.toObjectSerializedString(new Work(null));
+        Assert.assertTrue(serialized.charAt(0) != JobSerializerHelper.CODEC_MARKER);
+
+        Object obj = JobSerializerHelper.fromObjectSerializedString(serialized);
+        Assert.assertEquals(Work.class, obj.getClass());
+        Assert.assertNull(((Work)obj).name);
+    }
+
+    @Test
+    public void unregisteredClassUsesJavaSerialization() {
+        String serialized = JobSerializerHelper.toObjectSerializedString(new Date(42));
+        Assert.assertTrue(serialized.charAt(0) != JobSerializerHelper.CODEC_MARKER);
+        Assert.assertEquals(new Date(42), JobSerializerHelper.fromObjectSerializedString(serialized));
+    }
+
+    @Test
+    public void valuesRoundTrip() {
+        for (Serializable value : new Serializable[] {"", "secret", Boolean.TRUE, Integer.valueOf(-7), Long.valueOf(Long.MAX_VALUE)}) {
+            String serialized = JobSerializerHelper.toObjectSerializedString(value);
+            Assert.assertTrue(serialized.startsWith("~v1:"));
+            Assert.assertEquals(value, JobSerializerHelper.fromObjectSerializedString(serialized));
+        }
+    }
+
+    @Test
+    public void javaSerializedValueStillDecodes() throws Exception {
+        ByteArrayOutputStream bs = new ByteArrayOutputStream();
+        ObjectOutputStream os = new ObjectOutputStream(bs);
+        os.writeObject(Boolean.TRUE);
+        os.close();
+        Assert.assertEquals(Boolean.TRUE, JobSerializerHelper.fromObjectSerializedString(Base64.encodeBase64URLSafeString(bs.toByteArray())));
+    }
+
+    @Test
+    public void codecsAreOptIn() {
+        String encoded = JobSerializerHelper.toObjectSerializedString(new Work("start"));
+        JobSerializerHelper.setCodecsEnabled(false);
+        try {
+            String serialized = JobSerializerHelper.toObjectSerializedString(new Work("start"));
+            Assert.assertTrue(serialized.charAt(0) != JobSerializerHelper.CODEC_MARKER);
+            Assert.assertEquals("start", ((Work)JobSerializerHelper.fromObjectSerializedString(serialized)).name);
+
+            // What other management servers wrote with codecs enabled still decodes.
+            Assert.assertEquals("start", ((Work)JobSerializerHelper.fromObjectSerializedString(encoded)).name);
+        } finally {
+            JobSerializerHelper.setCodecsEnabled(true);
+        }
+    }
+
+    @Test(expected = CloudRuntimeException.class)
+    public void unknownCodecFails() {
+        JobSerializerHelper.fromObjectSerializedString("~unknown9:AAAA");
+    }
+}
@@ -0,0 +1,93 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.framework.jobs.impl;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SyncQueuePartitionerTest {
+    private static final int QUEUES = 10000;
+
+    @Test
+    public void noNodesNoOwner() {
+        SyncQueuePartitioner partitioner = new SyncQueuePartitioner();
+        Assert.assertNull(partitioner.getOwner(1));
+        Assert.assertFalse(partitioner.isOwner(1, 1));
+    }
+
+    @Test
+    public void singleNodeOwnsAll() {
+        SyncQueuePartitioner partitioner = new SyncQueuePartitioner();
+        partitioner.setNodes(Collections.singletonList(7L));
+        for (long queueId = 1; queueId <= 100; queueId++) {
+            Assert.assertTrue(partitioner.isOwner(queueId, 7));
+        }
+    }
+
+    @Test
+    public void queuesAreSpreadOverNodes() {
+        SyncQueuePartitioner partitioner = new SyncQueuePartitioner();
+        partitioner.setNodes(Arrays.asList(11L, 22L, 33L));
+
+        Map<Long, Integer> counts = new HashMap<Long, Integer>();
+        for (long queueId = 1; queueId <= QUEUES; queueId++) {
+            Long owner = partitioner.getOwner(queueId);
+            Integer count = counts.get(owner);
+            counts.put(owner, count == null ? 1 : count + 1);
+        }
+
+        Assert.assertEquals(3, counts.size());
+        for (Integer count : counts.values()) {
+            Assert.assertTrue("unbalanced partitions " + counts, count > QUEUES / 6);
+        }
+    }
+
+    @Test
+    public void onlyQueuesOfJoiningNodeMove() {
+        SyncQueuePartitioner before = new SyncQueuePartitioner();
+        before.setNodes(Arrays.asList(11L, 22L, 33L));
+        SyncQueuePartitioner after = new SyncQueuePartitioner();
+        after.setNodes(Arrays.asList(33L, 44L, 22L, 11L));
+
+        int moved = 0;
+        for (long queueId = 1; queueId <= QUEUES; queueId++) {
+            Long owner = after.getOwner(queueId);
+            if (!owner.equals(before.getOwner(queueId))) {
+                Assert.assertEquals(44L, owner.longValue());
+                moved++;
+            }
+        }
+        Assert.assertTrue(moved > 0 && moved < QUEUES / 2);
+    }
+
+    @Test
+    public void ownerIsIndependentOfNodeOrder() {
+        SyncQueuePartitioner first = new SyncQueuePartitioner();
+        first.setNodes(Arrays.asList(1L, 2L, 3L));
+        SyncQueuePartitioner second = new SyncQueuePartitioner();
+        second.setNodes(Arrays.asList(3L, 1L, 2L));
+
+        for (long queueId = 1; queueId <= 1000; queueId++) {
+            Assert.assertEquals(first.getOwner(queueId), second.getOwner(queueId));
+        }
+    }
+}
@@ -21,6 +21,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.ejb.Local;
 import javax.inject.Inject;
@@ -49,6 +50,12 @@ public class StaticRoleBasedAPIAccessChecker extends AdapterBase implements APIC
     Map<RoleType, Set<String>> commandsPropertiesRoleBasedApisMap = new HashMap<RoleType, Set<String>>();
     Map<RoleType, Set<String>> annotationRoleBasedApisMap = new HashMap<RoleType, Set<String>>();
 
+    // role type bits allowed to call each api, compiled from the two maps above on start
+    private volatile Map<String, Short> apiRoleMasks = new HashMap<String, Short>();
+    // the role follows from the account type, which never changes
+    private final Map<Long, RoleType> accountRoles = new ConcurrentHashMap<Long, RoleType>();
+    private static final int MAX_CACHED_ACCOUNT_ROLES = 100000;
+
     List<PluggableService> _services;
     @Inject
     AccountService _accountService;
@@ -63,15 +70,22 @@ public class StaticRoleBasedAPIAccessChecker extends AdapterBase implements APIC
 
     @Override
     public boolean checkAccess(User user, String commandName) throws PermissionDeniedException {
-        Account account = _accountService.getAccount(user.getAccountId());
-        if (account == null) {
-            throw new PermissionDeniedException("The account id=" + user.getAccountId() + "for user id=" + user.getId() + "is null");
+        RoleType roleType = accountRoles.get(user.getAccountId());
+        if (roleType == null) {
+            Account account = _accountService.getAccount(user.getAccountId());
+            if (account == null) {
+                throw new PermissionDeniedException("The account id=" + user.getAccountId() + "for user id=" + user.getId() + "is null");
+            }
+
+            roleType = _accountService.getRoleType(account);
+            if (accountRoles.size() >= MAX_CACHED_ACCOUNT_ROLES) {
+                accountRoles.clear();
+            }
+            accountRoles.put(account.getId(), roleType);
         }
 
-        RoleType roleType = _accountService.getRoleType(account);
-        boolean isAllowed =
-            commandsPropertiesOverrides.contains(commandName) ? commandsPropertiesRoleBasedApisMap.get(roleType).contains(commandName) : annotationRoleBasedApisMap.get(
-                roleType).contains(commandName);
+        Short roleMask = apiRoleMasks.get(commandName);
+        boolean isAllowed = roleMask != null && (roleMask & roleBit(roleType)) != 0;
 
         if (!isAllowed) {
             throw new PermissionDeniedException("The API does not exist or is blacklisted. Role type=" + roleType.toString() + " is not allowed to request the api: " +
@@ -100,10 +114,36 @@ public class StaticRoleBasedAPIAccessChecker extends AdapterBase implements APIC
                 }
             }
         }
+        compileRoleMasks();
         return super.start();
     }
 
-    private void processMapping(Map<String, String> configMap) {
+    // the role type values can't be used, Unknown has none
+    private static short roleBit(RoleType roleType) {
+        return (short)(1 << roleType.ordinal());
+    }
+
+    void compileRoleMasks() {
+        Set<String> apiNames = new HashSet<String>(commandsPropertiesOverrides);
+        for (Set<String> commands : annotationRoleBasedApisMap.values()) {
+            apiNames.addAll(commands);
+        }
+
+        Map<String, Short> masks = new HashMap<String, Short>();
+        for (String apiName : apiNames) {
+            Map<RoleType, Set<String>> roleBasedApisMap = commandsPropertiesOverrides.contains(apiName) ? commandsPropertiesRoleBasedApisMap : annotationRoleBasedApisMap;
+            short mask = 0;
+            for (RoleType roleType : RoleType.values()) {
+                if (roleBasedApisMap.get(roleType).contains(apiName)) {
+                    mask |= roleBit(roleType);
+                }
+            }
+            masks.put(apiName, mask);
+        }
+        apiRoleMasks = masks;
+    }
+
+    void processMapping(Map<String, String> configMap) {
         for (Map.Entry<String, String> entry : configMap.entrySet()) {
             String apiName = entry.getKey();
             String roleMask = entry.getValue();
@@ -0,0 +1,138 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.acl;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import org.apache.cloudstack.api.APICommand;
+import org.apache.cloudstack.api.response.SuccessResponse;
+
+import com.cloud.exception.PermissionDeniedException;
+import com.cloud.user.Account;
+import com.cloud.user.AccountService;
+import com.cloud.user.User;
+import com.cloud.utils.component.PluggableService;
+
+public class StaticRoleBasedAPIAccessCheckerTest {
+
+    private StaticRoleBasedAPIAccessChecker _checker;
+    private AccountService _accountService;
+
+    @APICommand(name = "userApi", responseObject = SuccessResponse.class, authorized = {RoleType.Admin, RoleType.DomainAdmin, RoleType.User})
+    static class UserApiCmd {
+    }
+
+    @APICommand(name = "adminApi", responseObject = SuccessResponse.class, authorized = {RoleType.Admin})
+    static class AdminApiCmd {
+    }
+
+    @APICommand(name = "unknownApi", responseObject = SuccessResponse.class, authorized = {RoleType.Unknown})
+    static class UnknownApiCmd {
+    }
+
+    @Before
+    public void setUp() {
+        _checker = new StaticRoleBasedAPIAccessChecker();
+        _accountService = mock(AccountService.class);
+        _checker._accountService = _accountService;
+
+        final List<Class<?>> commands = new ArrayList<Class<?>>();
+        commands.add(UserApiCmd.class);
+        commands.add(AdminApiCmd.class);
+        commands.add(UnknownApiCmd.class);
+        PluggableService service = mock(PluggableService.class);
+        when(service.getCommands()).thenReturn(commands);
+        _checker.setServices(Collections.singletonList(service));
+    }
+
+    private User user(long accountId, RoleType roleType) {
+        Account account = mock(Account.class);
+        when(account.getId()).thenReturn(accountId);
+        when(_accountService.getAccount(accountId)).thenReturn(account);
+        when(_accountService.getRoleType(account)).thenReturn(roleType);
+        User user = mock(User.class);
+        when(user.getAccountId()).thenReturn(accountId);
+        return user;
+    }
+
+    private boolean isAllowed(User user, String commandName) {
+        try {
+            return _checker.checkAccess(user, commandName);
+        } catch (PermissionDeniedException e) {
+            return false;
+        }
+    }
+
+    @Test
+    public void annotationsGrantTheirRoles() {
+        _checker.start();
+
+        User admin = user(1L, RoleType.Admin);
+        User user = user(2L, RoleType.User);
+        User resourceAdmin = user(3L, RoleType.ResourceAdmin);
+        assertTrue(isAllowed(admin, "userApi"));
+        assertTrue(isAllowed(admin, "adminApi"));
+        assertTrue(isAllowed(user, "userApi"));
+        assertFalse(isAllowed(user, "adminApi"));
+        assertFalse(isAllowed(resourceAdmin, "userApi"));
+        assertFalse("Unknown apis should be denied", isAllowed(admin, "noSuchApi"));
+    }
+
+    @Test
+    public void commandsPropertiesOverrideAnnotations() {
+        Map<String, String> properties = new HashMap<String, String>();
+        // admin and resource admin only
+        properties.put("userApi", "3");
+        properties.put("propertiesOnlyApi", "8");
+        properties.put("malformedApi", "all");
+        _checker.processMapping(properties);
+        _checker.start();
+
+        User admin = user(1L, RoleType.Admin);
+        User user = user(2L, RoleType.User);
+        User resourceAdmin = user(3L, RoleType.ResourceAdmin);
+        assertTrue(isAllowed(admin, "userApi"));
+        assertTrue(isAllowed(resourceAdmin, "userApi"));
+        assertFalse("commands.properties should take precedence over the annotation", isAllowed(user, "userApi"));
+        assertTrue(isAllowed(user, "propertiesOnlyApi"));
+        assertFalse(isAllowed(admin, "propertiesOnlyApi"));
+        assertFalse("A malformed entry should deny the api to every role", isAllowed(admin, "malformedApi"));
+        assertTrue("Apis missing from commands.properties should keep their annotation", isAllowed(admin, "adminApi"));
+    }
+
+    @Test
+    public void unknownRoleIsOnlyGrantedItsOwnApis() {
+        _checker.start();
+
+        User unknown = user(4L, RoleType.Unknown);
+        assertTrue(isAllowed(unknown, "unknownApi"));
+        assertFalse(isAllowed(unknown, "userApi"));
+        assertFalse(isAllowed(user(1L, RoleType.Admin), "unknownApi"));
+    }
+}
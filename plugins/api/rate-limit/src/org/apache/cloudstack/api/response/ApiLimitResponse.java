@@ -33,7 +33,7 @@ public class ApiLimitResponse extends BaseResponse {
     private String accountName;
 
     @SerializedName("apiIssued")
-    @Param(description = "number of api already issued")
+    @Param(description = "number of api issued that have not been refilled yet")
     private int apiIssued;
 
     @SerializedName("apiAllowed")
@@ -41,7 +41,7 @@ public class ApiLimitResponse extends BaseResponse {
     private int apiAllowed;
 
     @SerializedName("expireAfter")
-    @Param(description = "seconds left to reset counters")
+    @Param(description = "milliseconds until the allowed number of apis is fully refilled")
     private long expireAfter;
 
     public void setAccountId(String accountId) {
@@ -36,4 +36,10 @@ public interface ApiRateLimitService extends PluggableService {
     public void setMaxAllowed(int max);
 
     public void setEnabled(boolean enabled);
+
+    public void setBurst(int burst);
+
+    public void setCommandMaxAllowed(String commandLimits);
+
+    public void setClusterShared(boolean clusterShared);
 }
@@ -16,17 +16,24 @@
 // under the License.
 package org.apache.cloudstack.ratelimit;
 
+import java.util.AbstractMap;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.ejb.Local;
 import javax.inject.Inject;
 import javax.naming.ConfigurationException;
 
-import net.sf.ehcache.Cache;
-import net.sf.ehcache.CacheManager;
-
 import org.apache.log4j.Logger;
 import org.springframework.stereotype.Component;
 
@@ -35,27 +42,38 @@ import org.apache.cloudstack.api.command.admin.ratelimit.ResetApiLimitCmd;
 import org.apache.cloudstack.api.command.user.ratelimit.GetApiLimitCmd;
 import org.apache.cloudstack.api.response.ApiLimitResponse;
 import org.apache.cloudstack.framework.config.dao.ConfigurationDao;
+import org.apache.cloudstack.managed.context.ManagedContextRunnable;
 
+import com.cloud.cluster.ClusterManager;
 import com.cloud.configuration.Config;
 import com.cloud.exception.PermissionDeniedException;
 import com.cloud.exception.RequestLimitException;
 import com.cloud.user.Account;
 import com.cloud.user.AccountService;
 import com.cloud.user.User;
+import com.cloud.utils.NumbersUtil;
 import com.cloud.utils.component.AdapterBase;
+import com.cloud.utils.concurrency.NamedThreadFactory;
 
 @Component
 @Local(value = APIChecker.class)
-public class ApiRateLimitServiceImpl extends AdapterBase implements APIChecker, ApiRateLimitService {
+public class ApiRateLimitServiceImpl extends AdapterBase implements APIChecker, ApiRateLimitService, ClusterManager.NotificationHandler {
     private static final Logger s_logger = Logger.getLogger(ApiRateLimitServiceImpl.class);
 
+    private static final String LEASE_SUBJECT = "api.limit.lease";
+
+    /**
+     * Max number of buckets reported in a lease, the ones with the highest demand are sent.
+     */
+    static final int MAX_LEASE_BUCKETS = 1000;
+
     /**
      * True if api rate limiting is enabled
      */
     private boolean enabled = false;
 
     /**
-     * Fixed time duration where api rate limit is set, in seconds
+     * Time it takes to refill the allowed number of api requests, in seconds
      */
     private int timeToLive = 1;
 
@@ -64,7 +82,36 @@ public class ApiRateLimitServiceImpl extends AdapterBase implements APIChecker,
      */
     private int maxAllowed = 30;
 
-    private LimitStore _store = null;
+    /**
+     * Max number of api requests an account can issue at once, 0 to use maxAllowed.
+     */
+    private int burst = 0;
+
+    /**
+     * Max number of requests of a command during timeToLive duration, by lower case command name.
+     */
+    private volatile Map<String, Integer> commandMaxAllowed = new HashMap<String, Integer>();
+
+    /**
+     * Number of buckets above which the idle ones are dropped.
+     */
+    private int maxBuckets = 10000;
+
+    /**
+     * True if the limits are shared by the management servers instead of being enforced by each of them.
+     */
+    private boolean clusterShared = false;
+
+    /**
+     * Time between exchanging the demand for the shared limits, in seconds
+     */
+    private int leaseInterval = 5;
+
+    // account buckets are keyed by account id, command buckets by account id and command
+    private final ConcurrentHashMap<String, TokenBucket> _buckets = new ConcurrentHashMap<String, TokenBucket>();
+    private final AtomicBoolean _sweeping = new AtomicBoolean();
+    private final ConcurrentHashMap<String, PeerLease> _peerLeases = new ConcurrentHashMap<String, PeerLease>();
+    private ScheduledExecutorService _leaseExecutor;
 
     @Inject
     AccountService _accountService;
@@ -72,41 +119,143 @@ public class ApiRateLimitServiceImpl extends AdapterBase implements APIChecker,
     @Inject
     ConfigurationDao _configDao;
 
+    @Inject
+    ClusterManager _clusterMgr;
+
+    /**
+     * Demand of the buckets reported by another management server in its last lease.
+     */
+    private static class PeerLease {
+        final long received;
+        final Map<String, Long> demand;
+
+        PeerLease(long received, Map<String, Long> demand) {
+            this.received = received;
+            this.demand = demand;
+        }
+    }
+
     @Override
     public boolean configure(String name, Map<String, Object> params) throws ConfigurationException {
         super.configure(name, params);
 
-        if (_store == null) {
-            // get global configured duration and max values
-            String isEnabled = _configDao.getValue(Config.ApiLimitEnabled.key());
-            if (isEnabled != null) {
-                enabled = Boolean.parseBoolean(isEnabled);
-            }
-            String duration = _configDao.getValue(Config.ApiLimitInterval.key());
-            if (duration != null) {
-                timeToLive = Integer.parseInt(duration);
+        // get global configured duration and max values
+        String isEnabled = _configDao.getValue(Config.ApiLimitEnabled.key());
+        if (isEnabled != null) {
+            enabled = Boolean.parseBoolean(isEnabled);
+        }
+        String duration = _configDao.getValue(Config.ApiLimitInterval.key());
+        if (duration != null) {
+            timeToLive = Integer.parseInt(duration);
+        }
+        String maxReqs = _configDao.getValue(Config.ApiLimitMax.key());
+        if (maxReqs != null) {
+            maxAllowed = Integer.parseInt(maxReqs);
+        }
+        burst = NumbersUtil.parseInt(_configDao.getValue(Config.ApiLimitBurst.key()), 0);
+        commandMaxAllowed = parseCommandLimits(_configDao.getValue(Config.ApiLimitCommandMax.key()));
+        String cachesize = _configDao.getValue(Config.ApiLimitCacheSize.key());
+        if (cachesize != null) {
+            maxBuckets = Integer.parseInt(cachesize);
+        }
+        clusterShared = Boolean.parseBoolean(_configDao.getValue(Config.ApiLimitClusterShared.key()));
+        leaseInterval = NumbersUtil.parseInt(_configDao.getValue(Config.ApiLimitClusterLeaseInterval.key()), 5);
+
+        s_logger.info("Api limit configured with timeToLive=" + timeToLive + ", maxAllowed=" + maxAllowed + ", burst=" + burst + ", command limits=" + commandMaxAllowed +
+            ", maxBuckets=" + maxBuckets + ", clusterShared=" + clusterShared);
+        return true;
+    }
+
+    static Map<String, Integer> parseCommandLimits(String value) {
+        Map<String, Integer> limits = new HashMap<String, Integer>();
+        if (value == null || value.trim().isEmpty()) {
+            return limits;
+        }
+        for (String limit : value.split(",")) {
+            String[] pair = limit.split("=");
+            int max = pair.length == 2 ? NumbersUtil.parseInt(pair[1].trim(), -1) : -1;
+            if (max < 0 || pair[0].trim().isEmpty()) {
+                s_logger.warn("Ignoring invalid api command limit: " + limit);
+                continue;
             }
-            String maxReqs = _configDao.getValue(Config.ApiLimitMax.key());
-            if (maxReqs != null) {
-                maxAllowed = Integer.parseInt(maxReqs);
+            limits.put(pair[0].trim().toLowerCase(), max);
+        }
+        return limits;
+    }
+
+    @Override
+    public boolean start() {
+        if (clusterShared) {
+            _clusterMgr.registerNotificationHandler(LEASE_SUBJECT, this);
+            _leaseExecutor = Executors.newScheduledThreadPool(1, new NamedThreadFactory("ApiLimitLease"));
+            _leaseExecutor.scheduleWithFixedDelay(new ManagedContextRunnable() {
+                @Override
+                protected void runInContext() {
+                    try {
+                        renewLeases();
+                    } catch (Exception e) {
+                        s_logger.warn("Unable to renew the api limit leases", e);
+                    }
+                }
+            }, leaseInterval, leaseInterval, TimeUnit.SECONDS);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        if (_leaseExecutor != null) {
+            _leaseExecutor.shutdownNow();
+            _clusterMgr.unregisterNotificationHandler(LEASE_SUBJECT, this);
+        }
+        return true;
+    }
+
+    private TokenBucket getBucket(String key) {
+        TokenBucket bucket = _buckets.get(key);
+        if (bucket == null) {
+            bucket = new TokenBucket();
+            bucket.setShare(computeShare(key, 0));
+            TokenBucket existing = _buckets.putIfAbsent(key, bucket);
+            if (existing != null) {
+                return existing;
             }
-            // create limit store
-            EhcacheLimitStore cacheStore = new EhcacheLimitStore();
-            int maxElements = 10000;
-            String cachesize = _configDao.getValue(Config.ApiLimitCacheSize.key());
-            if (cachesize != null) {
-                maxElements = Integer.parseInt(cachesize);
+            if (_buckets.size() > maxBuckets) {
+                sweepIdleBuckets();
             }
-            CacheManager cm = CacheManager.create();
-            Cache cache = new Cache("api-limit-cache", maxElements, false, false, timeToLive, timeToLive);
-            cm.addCache(cache);
-            s_logger.info("Limit Cache created with timeToLive=" + timeToLive + ", maxAllowed=" + maxAllowed + ", maxElements=" + maxElements);
-            cacheStore.setCache(cache);
-            _store = cacheStore;
+        }
+        return bucket;
+    }
 
+    // a full bucket behaves like a missing one, so it can be dropped without losing any state
+    private void sweepIdleBuckets() {
+        if (!_sweeping.compareAndSet(false, true)) {
+            return;
         }
+        try {
+            long now = System.nanoTime();
+            Iterator<TokenBucket> it = _buckets.values().iterator();
+            while (it.hasNext()) {
+                if (it.next().isFull(now)) {
+                    it.remove();
+                }
+            }
+        } finally {
+            _sweeping.set(false);
+        }
+    }
 
-        return true;
+    // time to refill one token of a bucket allowing max requests per timeToLive
+    private long getInterval(TokenBucket bucket, int max) {
+        return (long)(TimeUnit.SECONDS.toNanos(timeToLive) / Math.max(max, 1) / bucket.getShare());
+    }
+
+    private static int getSize(TokenBucket bucket, int size) {
+        return Math.max(1, (int)(size * bucket.getShare()));
+    }
+
+    private int getAccountSize() {
+        return burst > 0 ? burst : maxAllowed;
     }
 
     @Override
@@ -114,18 +263,18 @@ public class ApiRateLimitServiceImpl extends AdapterBase implements APIChecker,
         ApiLimitResponse response = new ApiLimitResponse();
         response.setAccountId(caller.getUuid());
         response.setAccountName(caller.getAccountName());
-        StoreEntry entry = _store.get(caller.getId());
-        if (entry == null) {
-
-            /* Populate the entry, thus unlocking any underlying mutex */
-            entry = _store.create(caller.getId(), timeToLive);
+        TokenBucket bucket = _buckets.get(String.valueOf(caller.getId()));
+        if (bucket == null) {
             response.setApiIssued(0);
-            response.setApiAllowed(maxAllowed);
-            response.setExpireAfter(timeToLive);
+            response.setApiAllowed(getAccountSize());
+            response.setExpireAfter(0);
         } else {
-            response.setApiIssued(entry.getCounter());
-            response.setApiAllowed(maxAllowed - entry.getCounter());
-            response.setExpireAfter(entry.getExpireDuration());
+            long now = System.nanoTime();
+            int size = getSize(bucket, getAccountSize());
+            int available = bucket.getAvailable(now, getInterval(bucket, maxAllowed), size);
+            response.setApiIssued(size - available);
+            response.setApiAllowed(available);
+            response.setExpireAfter(TimeUnit.NANOSECONDS.toMillis(bucket.getTimeToFull(now)));
         }
 
         return response;
@@ -134,9 +283,15 @@ public class ApiRateLimitServiceImpl extends AdapterBase implements APIChecker,
     @Override
     public boolean resetApiLimit(Long accountId) {
         if (accountId != null) {
-            _store.create(accountId, timeToLive);
+            String accountKey = String.valueOf(accountId);
+            String commandPrefix = accountKey + ":";
+            for (Map.Entry<String, TokenBucket> entry : _buckets.entrySet()) {
+                if (entry.getKey().equals(accountKey) || entry.getKey().startsWith(commandPrefix)) {
+                    entry.getValue().reset();
+                }
+            }
         } else {
-            _store.resetCounters();
+            _buckets.clear();
         }
         return true;
     }
@@ -153,27 +308,136 @@ public class ApiRateLimitServiceImpl extends AdapterBase implements APIChecker,
             // no API throttling on root admin
             return true;
         }
-        StoreEntry entry = _store.get(accountId);
+        long now = System.nanoTime();
+
+        TokenBucket commandBucket = null;
+        long commandInterval = 0;
+        Integer commandMax = apiCommandName == null ? null : commandMaxAllowed.get(apiCommandName.toLowerCase());
+        if (commandMax != null) {
+            if (commandMax == 0) {
+                String msg = "The api " + apiCommandName + " is disabled by its api limit";
+                s_logger.warn(msg + " Account: " + account.getAccountName());
+                throw new PermissionDeniedException(msg);
+            }
+            commandBucket = getBucket(accountId + ":" + apiCommandName.toLowerCase());
+            commandInterval = getInterval(commandBucket, commandMax);
+            long wait = commandBucket.tryAcquire(now, commandInterval, getSize(commandBucket, commandMax));
+            if (wait > 0) {
+                throw createLimitException(account, "api limit of " + apiCommandName, wait);
+            }
+        }
 
-        if (entry == null) {
+        TokenBucket bucket = getBucket(String.valueOf(accountId));
+        long wait = bucket.tryAcquire(now, getInterval(bucket, maxAllowed), getSize(bucket, getAccountSize()));
+        if (wait > 0) {
+            if (commandBucket != null) {
+                // the request is not going to be run, don't count it against the command either
+                commandBucket.release(commandInterval);
+            }
+            throw createLimitException(account, "account api limit", wait);
+        }
 
-            /* Populate the entry, thus unlocking any underlying mutex */
-            entry = _store.create(accountId, timeToLive);
+        if (s_logger.isTraceEnabled()) {
+            s_logger.trace("account (" + account.getAccountId() + "," + account.getAccountName() + ") is within its api limit");
         }
+        return true;
+    }
 
-        /* Increment the client count and see whether we have hit the maximum allowed clients yet. */
-        int current = entry.incrementAndGet();
+    private static RequestLimitException createLimitException(Account account, String limit, long wait) {
+        long retryAfter = Math.max(1, TimeUnit.NANOSECONDS.toMillis(wait));
+        // for this exception, we can just show the same message to user and admin users.
+        String msg = "The given user has reached his/her " + limit + ", please retry after " + retryAfter + " ms.";
+        s_logger.warn(msg + " Account: " + account.getAccountName());
+        return new RequestLimitException(msg, retryAfter);
+    }
 
-        if (current <= maxAllowed) {
-            s_logger.trace("account (" + account.getAccountId() + "," + account.getAccountName() + ") has current count = " + current);
-            return true;
-        } else {
-            long expireAfter = entry.getExpireDuration();
-            // for this exception, we can just show the same message to user and admin users.
-            String msg = "The given user has reached his/her account api limit, please retry after " + expireAfter + " ms.";
-            s_logger.warn(msg);
-            throw new RequestLimitException(msg);
+    /**
+     * Tells the other management servers how many requests each bucket got since
+     * the last lease and recomputes the share of every bucket from what they reported.
+     * Only the MAX_LEASE_BUCKETS busiest buckets are reported, the peers keep the full
+     * limit for the others, which are too quiet to get close to it.
+     */
+    protected void renewLeases() {
+        // min heap on demand holding the busiest buckets seen so far
+        PriorityQueue<Map.Entry<String, Long>> busiest = new PriorityQueue<Map.Entry<String, Long>>(MAX_LEASE_BUCKETS + 1, new Comparator<Map.Entry<String, Long>>() {
+            @Override
+            public int compare(Map.Entry<String, Long> e1, Map.Entry<String, Long> e2) {
+                return Long.compare(e1.getValue(), e2.getValue());
+            }
+        });
+        for (Map.Entry<String, TokenBucket> entry : _buckets.entrySet()) {
+            long demand = entry.getValue().rollDemand();
+            if (demand > 0) {
+                busiest.add(new AbstractMap.SimpleImmutableEntry<String, Long>(entry.getKey(), demand));
+                if (busiest.size() > MAX_LEASE_BUCKETS) {
+                    busiest.poll();
+                }
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Long> entry : busiest) {
+            if (sb.length() > 0) {
+                sb.append(",");
+            }
+            sb.append(entry.getKey()).append("=").append(entry.getValue());
+        }
+        if (sb.length() > 0) {
+            _clusterMgr.broadcastNotification(LEASE_SUBJECT, sb.toString());
         }
+
+        long expired = System.currentTimeMillis() - 2000L * leaseInterval;
+        Iterator<PeerLease> it = _peerLeases.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().received < expired) {
+                it.remove();
+            }
+        }
+
+        for (Map.Entry<String, TokenBucket> entry : _buckets.entrySet()) {
+            TokenBucket bucket = entry.getValue();
+            bucket.setShare(computeShare(entry.getKey(), bucket.getLastDemand()));
+        }
+        if (_buckets.size() > maxBuckets) {
+            sweepIdleBuckets();
+        }
+    }
+
+    // the share of a bucket follows the part of the cluster wide demand that reaches this management server
+    private double computeShare(String key, long demand) {
+        if (!clusterShared) {
+            return 1.0;
+        }
+        long peerDemand = 0;
+        for (PeerLease lease : _peerLeases.values()) {
+            Long value = lease.demand.get(key);
+            if (value != null) {
+                peerDemand += value;
+            }
+        }
+        if (peerDemand == 0) {
+            return 1.0;
+        }
+        long own = Math.max(demand, 1);
+        return (double)own / (own + peerDemand);
+    }
+
+    @Override
+    public void onNotification(String sourcePeer, String subject, String message) {
+        Map<String, Long> demand = new HashMap<String, Long>();
+        for (String pair : message.split(",")) {
+            int index = pair.lastIndexOf('=');
+            if (index <= 0) {
+                s_logger.warn("Ignoring malformed api limit lease from " + sourcePeer + ": " + message);
+                return;
+            }
+            try {
+                demand.put(pair.substring(0, index), Long.valueOf(pair.substring(index + 1)));
+            } catch (NumberFormatException e) {
+                s_logger.warn("Ignoring malformed api limit lease from " + sourcePeer + ": " + message);
+                return;
+            }
+        }
+        _peerLeases.put(sourcePeer, new PeerLease(System.currentTimeMillis(), demand));
     }
 
     @Override
@@ -201,4 +465,18 @@ public class ApiRateLimitServiceImpl extends AdapterBase implements APIChecker,
 
     }
 
+    @Override
+    public void setBurst(int burst) {
+        this.burst = burst;
+    }
+
+    @Override
+    public void setCommandMaxAllowed(String commandLimits) {
+        commandMaxAllowed = parseCommandLimits(commandLimits);
+    }
+
+    @Override
+    public void setClusterShared(boolean clusterShared) {
+        this.clusterShared = clusterShared;
+    }
 }
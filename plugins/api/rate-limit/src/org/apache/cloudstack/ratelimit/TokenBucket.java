@@ -0,0 +1,115 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.ratelimit;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket. Instead of a token count and a refill time the bucket
+ * keeps the single time at which it will be full again (the generic cell rate
+ * algorithm), so taking a token is one compare-and-set.
+ *
+ * The size and refill interval are passed in on every call, so a bucket follows
+ * configuration and cluster share changes without being recreated. All times
+ * are in nanoseconds.
+ */
+public class TokenBucket {
+    // far enough in the past to be full at any time, but safe to subtract from
+    private static final long FULL = Long.MIN_VALUE / 2;
+
+    private final AtomicLong _fullAt = new AtomicLong(FULL);
+
+    // requests seen since the last cluster lease, allowed or not
+    private final AtomicLong _demand = new AtomicLong();
+    private volatile long _lastDemand;
+    private volatile double _share = 1.0;
+
+    /**
+     * @param interval time it takes to refill one token
+     * @param size number of tokens the bucket holds
+     * @return 0 if a token was taken, otherwise the time until one is available
+     */
+    public long tryAcquire(long now, long interval, int size) {
+        _demand.incrementAndGet();
+        long capacity = interval * size;
+        while (true) {
+            long fullAt = _fullAt.get();
+            long next = Math.max(fullAt, now) + interval;
+            long wait = next - now - capacity;
+            if (wait > 0) {
+                return wait;
+            }
+            if (_fullAt.compareAndSet(fullAt, next)) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Puts back a token taken by tryAcquire.
+     */
+    public void release(long interval) {
+        while (true) {
+            long fullAt = _fullAt.get();
+            if (_fullAt.compareAndSet(fullAt, fullAt - interval)) {
+                return;
+            }
+        }
+    }
+
+    public int getAvailable(long now, long interval, int size) {
+        long available = (interval * size - getTimeToFull(now)) / interval;
+        return (int)Math.max(0, Math.min(size, available));
+    }
+
+    public long getTimeToFull(long now) {
+        return Math.max(0, _fullAt.get() - now);
+    }
+
+    public boolean isFull(long now) {
+        return _fullAt.get() <= now;
+    }
+
+    public void reset() {
+        _fullAt.set(FULL);
+    }
+
+    /**
+     * Ends the current lease period.
+     *
+     * @return the number of requests seen during the period
+     */
+    public long rollDemand() {
+        _lastDemand = _demand.getAndSet(0);
+        return _lastDemand;
+    }
+
+    public long getLastDemand() {
+        return _lastDemand;
+    }
+
+    /**
+     * @return the part of the cluster wide limit this management server may use
+     */
+    public double getShare() {
+        return _share;
+    }
+
+    public void setShare(double share) {
+        _share = share;
+    }
+}
@@ -19,10 +19,15 @@ package org.apache.cloudstack.ratelimit;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -32,11 +37,14 @@ import javax.naming.ConfigurationException;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 
 import org.apache.cloudstack.api.response.ApiLimitResponse;
 import org.apache.cloudstack.framework.config.dao.ConfigurationDao;
 
+import com.cloud.cluster.ClusterManager;
 import com.cloud.configuration.Config;
+import com.cloud.exception.PermissionDeniedException;
 import com.cloud.exception.RequestLimitException;
 import com.cloud.user.Account;
 import com.cloud.user.AccountService;
@@ -88,8 +96,12 @@ public static void setUp() throws ConfigurationException {
     }
 
     private boolean isUnderLimit(User key) {
+        return isUnderLimit(key, null);
+    }
+
+    private boolean isUnderLimit(User key, String apiCommandName) {
         try {
-            s_limitService.checkAccess(key, null);
+            s_limitService.checkAccess(key, apiCommandName);
             return true;
         } catch (RequestLimitException ex) {
             return false;
@@ -112,7 +124,8 @@ public static void setUp() throws ConfigurationException {
     public void canDoReasonableNumberOfApiAccessPerSecond() throws Exception {
         int allowedRequests = 200;
         s_limitService.setMaxAllowed(allowedRequests);
-        s_limitService.setTimeToLive(1);
+        // the allowance refills continuously, keep the refill slow enough that the loop below can't earn another request
+        s_limitService.setTimeToLive(60);
 
         User key = createFakeUser();
 
@@ -250,4 +263,140 @@ public static void setUp() throws ConfigurationException {
 
     }
 
+    private long retryAfter(User key, String command) {
+        try {
+            s_limitService.checkAccess(key, command);
+            return 0;
+        } catch (RequestLimitException ex) {
+            return ex.getRetryAfter();
+        }
+    }
+
+    @Test
+    public void throttledRequestCarriesRetryAfter() throws Exception {
+        s_limitService.setMaxAllowed(1);
+        s_limitService.setTimeToLive(10);
+
+        User key = createFakeUser();
+        assertEquals(0, retryAfter(key, null));
+
+        long wait = retryAfter(key, null);
+        assertTrue("Retry after should be up to the refill time of one request, was " + wait, wait > 9000 && wait <= 10000);
+    }
+
+    @Test
+    public void burstAllowsMoreRequestsAtOnce() throws Exception {
+        s_limitService.setMaxAllowed(1);
+        s_limitService.setTimeToLive(10);
+        s_limitService.setBurst(3);
+        try {
+            User key = createFakeUser();
+            for (int i = 0; i < 3; i++) {
+                assertTrue("Burst of 3 should be allowed, failed at request " + i, isUnderLimit(key));
+            }
+            assertFalse("Requests above the burst should be blocked", isUnderLimit(key));
+        } finally {
+            s_limitService.setBurst(0);
+        }
+    }
+
+    @Test
+    public void commandLimitIsEnforcedPerCommand() throws Exception {
+        s_limitService.setMaxAllowed(10);
+        s_limitService.setTimeToLive(10);
+        s_limitService.setCommandMaxAllowed("deployVirtualMachine=1, bogus");
+        try {
+            User key = createFakeUser();
+            assertEquals(0, retryAfter(key, "deployVirtualMachine"));
+            assertTrue("Second deploy should be blocked", retryAfter(key, "deployvirtualmachine") > 0);
+            assertEquals("Other commands should still be allowed", 0, retryAfter(key, "listVirtualMachines"));
+
+            // the blocked deploy did not use up the account limit
+            ApiLimitResponse response = s_limitService.searchApiLimit(s_testAccount);
+            assertEquals(2, response.getApiIssued());
+        } finally {
+            s_limitService.setCommandMaxAllowed(null);
+        }
+    }
+
+    @Test
+    public void clusterShareFollowsPeerDemand() throws Exception {
+        ClusterManager clusterMgr = mock(ClusterManager.class);
+        s_limitService._clusterMgr = clusterMgr;
+        s_limitService.setMaxAllowed(10);
+        s_limitService.setTimeToLive(10);
+        s_limitService.setClusterShared(true);
+        try {
+            User key = createFakeUser();
+            assertTrue(isUnderLimit(key));
+
+            // another management server got three times as many requests of the account
+            s_limitService.onNotification("peer", "api.limit.lease", s_acctIdSeq + "=3");
+            s_limitService.renewLeases();
+            verify(clusterMgr).broadcastNotification("api.limit.lease", s_acctIdSeq + "=1");
+
+            s_limitService.resetApiLimit(s_acctIdSeq);
+            int allowed = 0;
+            while (isUnderLimit(key)) {
+                allowed++;
+            }
+            assertEquals("This management server should get a quarter of the limit", 2, allowed);
+        } finally {
+            s_limitService.setClusterShared(false);
+            s_limitService.resetApiLimit(null);
+        }
+    }
+
+    @Test
+    public void commandLimitOfZeroBlocksTheCommand() throws Exception {
+        s_limitService.setMaxAllowed(10);
+        s_limitService.setTimeToLive(10);
+        s_limitService.setCommandMaxAllowed("deployVirtualMachine=0");
+        try {
+            User key = createFakeUser();
+            try {
+                s_limitService.checkAccess(key, "deployVirtualMachine");
+                fail("A command limit of 0 should block the command");
+            } catch (PermissionDeniedException ex) {
+                assertFalse(ex instanceof RequestLimitException);
+            }
+            assertEquals("Other commands should still be allowed", 0, retryAfter(key, "listVirtualMachines"));
+        } finally {
+            s_limitService.setCommandMaxAllowed(null);
+        }
+    }
+
+    @Test
+    public void leaseReportsOnlyTheBusiestBuckets() throws Exception {
+        ClusterManager clusterMgr = mock(ClusterManager.class);
+        s_limitService._clusterMgr = clusterMgr;
+        int commands = ApiRateLimitServiceImpl.MAX_LEASE_BUCKETS + 1;
+        StringBuilder limits = new StringBuilder();
+        for (int i = 0; i < commands; i++) {
+            limits.append(i == 0 ? "" : ",").append("cmd").append(i).append("=10");
+        }
+        s_limitService.setMaxAllowed(10 * commands);
+        s_limitService.setTimeToLive(10);
+        s_limitService.setCommandMaxAllowed(limits.toString());
+        s_limitService.setClusterShared(true);
+        try {
+            User key = createFakeUser();
+            for (int i = 0; i < commands; i++) {
+                assertTrue(isUnderLimit(key, "cmd" + i));
+            }
+            assertTrue(isUnderLimit(key, "cmd7"));
+
+            s_limitService.renewLeases();
+            ArgumentCaptor<String> lease = ArgumentCaptor.forClass(String.class);
+            verify(clusterMgr).broadcastNotification(eq("api.limit.lease"), lease.capture());
+            List<String> reported = Arrays.asList(lease.getValue().split(","));
+            assertEquals(ApiRateLimitServiceImpl.MAX_LEASE_BUCKETS, reported.size());
+            assertTrue(reported.contains(s_acctIdSeq + "=" + (commands + 1)));
+            assertTrue(reported.contains(s_acctIdSeq + ":cmd7=2"));
+        } finally {
+            s_limitService.setClusterShared(false);
+            s_limitService.setCommandMaxAllowed(null);
+            s_limitService.resetApiLimit(null);
+        }
+    }
 }
@@ -0,0 +1,87 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.ratelimit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TokenBucketTest {
+    private static final long INTERVAL = 100;
+
+    @Test
+    public void burstIsAllowedThenRefilledAtTheRate() {
+        TokenBucket bucket = new TokenBucket();
+        long now = 1000;
+
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, bucket.tryAcquire(now, INTERVAL, 5));
+        }
+        assertEquals(INTERVAL, bucket.tryAcquire(now, INTERVAL, 5));
+        assertEquals(0, bucket.getAvailable(now, INTERVAL, 5));
+
+        now += INTERVAL / 2;
+        assertEquals(INTERVAL / 2, bucket.tryAcquire(now, INTERVAL, 5));
+
+        now += INTERVAL / 2;
+        assertEquals(0, bucket.tryAcquire(now, INTERVAL, 5));
+        assertEquals(INTERVAL, bucket.tryAcquire(now, INTERVAL, 5));
+    }
+
+    @Test
+    public void idleBucketDoesNotGrowBeyondItsSize() {
+        TokenBucket bucket = new TokenBucket();
+        assertEquals(0, bucket.tryAcquire(0, INTERVAL, 2));
+
+        long now = 100 * INTERVAL;
+        assertTrue(bucket.isFull(now));
+        assertEquals(2, bucket.getAvailable(now, INTERVAL, 2));
+        assertEquals(0, bucket.tryAcquire(now, INTERVAL, 2));
+        assertEquals(0, bucket.tryAcquire(now, INTERVAL, 2));
+        assertTrue(bucket.tryAcquire(now, INTERVAL, 2) > 0);
+    }
+
+    @Test
+    public void releaseAndResetGiveTokensBack() {
+        TokenBucket bucket = new TokenBucket();
+        long now = 1000;
+        assertEquals(0, bucket.tryAcquire(now, INTERVAL, 1));
+        assertFalse(bucket.isFull(now));
+        assertEquals(INTERVAL, bucket.getTimeToFull(now));
+
+        bucket.release(INTERVAL);
+        assertTrue(bucket.isFull(now));
+        assertEquals(0, bucket.tryAcquire(now, INTERVAL, 1));
+
+        bucket.reset();
+        assertEquals(0, bucket.tryAcquire(now, INTERVAL, 1));
+    }
+
+    @Test
+    public void demandCountsAllRequests() {
+        TokenBucket bucket = new TokenBucket();
+        for (int i = 0; i < 3; i++) {
+            bucket.tryAcquire(0, INTERVAL, 1);
+        }
+
+        assertEquals(3, bucket.rollDemand());
+        assertEquals(3, bucket.getLastDemand());
+        assertEquals(0, bucket.rollDemand());
+    }
+}
@@ -22,7 +22,7 @@
 # createtmplt.sh -- install a template
 
 usage() {
-  printf "Usage: %s: -t <template-fs> -n <templatename> -f <root disk file> -c <md5 cksum> -d <descr> -h  [-u] [-v]\n" $(basename $0) >&2
+  printf "Usage: %s: -t <template-fs> -n <templatename> -f <root disk file> -c <md5 cksum> [-k] -d <descr> -h  [-u] [-v]\n" $(basename $0) >&2
 }
 
 
@@ -131,7 +131,7 @@ cleanup=false
 dflag=
 cflag=
 
-while getopts 'vuht:n:f:s:c:d:S:' OPTION
+while getopts 'vukht:n:f:s:c:d:S:' OPTION
 do
   case $OPTION in
   t)	tflag=1
@@ -148,6 +148,8 @@ do
   c)	cflag=1
 		cksum="$OPTARG"
 		;;
+  k)	cksum_verified="true"
+		;;
   d)	dflag=1
 		descr="$OPTARG"
 		;;
@@ -191,7 +193,8 @@ then
   exit 3
 fi
 
-if [ -n "$cksum" ]
+# -k: the caller computed the checksum from this file while downloading it
+if [ -n "$cksum" ] && [ "$cksum_verified" != "true" ]
 then
   verify_cksum $cksum $tmpltimg
 fi
@@ -16,6 +16,8 @@
 // under the License.
 package com.cloud.api;
 
+import java.lang.reflect.Modifier;
+
 import org.apache.cloudstack.acl.RoleType;
 import org.apache.cloudstack.api.ResponseObject;
 import org.apache.cloudstack.context.CallContext;
@@ -24,6 +26,7 @@ import com.cloud.serializer.Param;
 import com.cloud.user.Account;
 import com.google.gson.ExclusionStrategy;
 import com.google.gson.FieldAttributes;
+import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 
 /**
@@ -31,19 +34,35 @@ import com.google.gson.GsonBuilder;
  */
 public class ApiResponseGsonHelper {
     private static final GsonBuilder s_gBuilder;
+    private static final Gson s_responseGson;
 
     static {
-        s_gBuilder = new GsonBuilder().setDateFormat("yyyy-MM-dd'T'HH:mm:ssZ");
-        s_gBuilder.setVersion(1.3);
-        s_gBuilder.registerTypeAdapter(ResponseObject.class, new ResponseObjectTypeAdapter());
-        s_gBuilder.registerTypeAdapter(String.class, new EncodedStringTypeAdapter());
-        s_gBuilder.setExclusionStrategies(new ExclStrat());
+        s_gBuilder = createBuilder();
+        // the exclusion strategy looks up the caller of the current thread, so one instance can serve every request
+        s_responseGson = createBuilder().excludeFieldsWithModifiers(Modifier.TRANSIENT).disableHtmlEscaping().create();
+    }
+
+    private static GsonBuilder createBuilder() {
+        GsonBuilder builder = new GsonBuilder().setDateFormat("yyyy-MM-dd'T'HH:mm:ssZ");
+        builder.setVersion(1.3);
+        builder.registerTypeAdapter(ResponseObject.class, new ResponseObjectTypeAdapter());
+        builder.registerTypeAdapter(String.class, new EncodedStringTypeAdapter());
+        builder.setExclusionStrategies(new ExclStrat());
+        return builder;
     }
 
     public static GsonBuilder getBuilder() {
         return s_gBuilder;
     }
 
+    /**
+     * @return the shared Gson used to serialize api responses, it skips transient fields and
+     * writes non-ASCII and HTML characters as they are rather than as unicode escapes
+     */
+    public static Gson getResponseGson() {
+        return s_responseGson;
+    }
+
     private static class ExclStrat implements ExclusionStrategy {
 
         public boolean shouldSkipClass(Class<?> arg0) {
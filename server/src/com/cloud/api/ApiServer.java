@@ -51,7 +51,6 @@ import com.cloud.utils.component.PluggableService;
 import com.cloud.utils.concurrency.NamedThreadFactory;
 import com.cloud.utils.db.EntityManager;
 import com.cloud.utils.db.SearchCriteria;
-import com.cloud.utils.db.TransactionLegacy;
 import com.cloud.utils.db.UUIDManager;
 import com.cloud.utils.exception.CloudRuntimeException;
 import com.cloud.utils.exception.ExceptionProxyObject;
@@ -150,12 +149,15 @@ import javax.servlet.http.HttpSession;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InterruptedIOException;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.net.InetAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URLEncoder;
+import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.text.DateFormat;
 import java.text.ParseException;
@@ -192,6 +194,11 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
      */
     public static final String CONTROL_CHARACTERS = "[\000-\011\013-\014\016-\037\177]";
 
+    /**
+     * Characters of a response that go into the access log, large list responses are logged truncated.
+     */
+    static final int AUDIT_TRAIL_RESPONSE_CHARS = 1024;
+
     @Inject
     protected ApiDispatcher _dispatcher;
     @Inject
@@ -221,6 +228,15 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
 
     private static int s_workerCount = 0;
     private static final DateFormat DateFormatToUse = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ");
+    private static final String HMAC_SHA1 = "HmacSHA1";
+    private static final String HMAC_SHA256 = "HmacSHA256";
+    // Mac instances are not thread safe, every api thread keeps one per algorithm
+    private static final ThreadLocal<Map<String, Mac>> s_macs = new ThreadLocal<Map<String, Mac>>() {
+        @Override
+        protected Map<String, Mac> initialValue() {
+            return new HashMap<String, Mac>();
+        }
+    };
     private static Map<String, List<Class<?>>> s_apiNameCmdClassMap = new HashMap<String, List<Class<?>>>();
 
     private static ExecutorService s_executor = new ThreadPoolExecutor(10, 150, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory(
@@ -438,7 +454,6 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
                 CallContext.register(_accountMgr.getSystemUser(), _accountMgr.getSystemAccount());
                 sb.insert(0, "(userId=" + User.UID_SYSTEM + " accountId=" + Account.ACCOUNT_ID_SYSTEM + " sessionId=" + null + ") ");
                 final String responseText = handleRequest(parameterMap, responseType, sb);
-                sb.append(" 200 " + ((responseText == null) ? 0 : responseText.length()));
 
                 writeResponse(response, responseText, HttpStatus.SC_OK, responseType, null);
             } catch (final ServerApiException se) {
@@ -480,9 +495,64 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
     @Override
     @SuppressWarnings("rawtypes")
     public String handleRequest(final Map params, final String responseType, final StringBuilder auditTrailSb) throws ServerApiException {
+        final ResponseObject response = executeRequest(params, responseType, auditTrailSb);
+        if (response == null) {
+            return null;
+        }
+        final StringWriter out = new StringWriter();
+        try {
+            writeResponse(params, response, responseType, auditTrailSb, out);
+        } catch (final IOException e) {
+            throw new CloudRuntimeException("Unable to serialize the api response", e);
+        }
+        return out.toString();
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public void handleRequest(final Map params, final String responseType, final StringBuilder auditTrailSb, final Writer out) throws ServerApiException, IOException {
+        final ResponseObject response = executeRequest(params, responseType, auditTrailSb);
+        if (response != null) {
+            writeResponse(params, response, responseType, auditTrailSb, out);
+        }
+    }
+
+    /**
+     * Serializes the response of the command to out and adds the start of it, or only its size
+     * for responses with sensitive data, to the audit trail.  A response that can't be serialized
+     * fails like a command that fails unexpectedly, part of it may have been written to out.
+     */
+    @SuppressWarnings("rawtypes")
+    void writeResponse(final Map params, final ResponseObject response, final String responseType, final StringBuilder auditTrailSb, final Writer out)
+            throws IOException {
+        final String command = ((String[])params.get("command"))[0];
+        final AuditTrailWriter auditOut = new AuditTrailWriter(out, AUDIT_TRAIL_RESPONSE_CHARS);
+        try {
+            ApiResponseSerializer.toSerializedString(response, responseType, auditOut);
+        } catch (final RuntimeException ex) {
+            s_logger.error("unable to serialize the response of api command: " + command, ex);
+            String errorMsg = ex.getMessage();
+            if (!_accountMgr.isRootAdmin(CallContext.current().getCallingAccount().getId())) {
+                // hide internal details to non-admin user for security reason
+                errorMsg = BaseCmd.USER_ERROR_MESSAGE;
+            }
+            throw new ServerApiException(ApiErrorCode.INTERNAL_ERROR, errorMsg, ex);
+        }
+
+        final APICommand annotation = getCmdClass(command).getAnnotation(APICommand.class);
+        buildAuditTrail(auditTrailSb, command, auditOut, annotation.responseHasSensitiveInfo());
+    }
+
+    /**
+     * Executes the command of the request.
+     *
+     * @return the response of the command, null for the login and logout APIs.
+     */
+    @SuppressWarnings("rawtypes")
+    private ResponseObject executeRequest(final Map params, final String responseType, final StringBuilder auditTrailSb) throws ServerApiException {
         checkCharacterInkParams(params);
 
-        String response = null;
+        ResponseObject response = null;
         String[] command = null;
 
         try {
@@ -532,13 +602,6 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
 
                     // This is where the command is either serialized, or directly dispatched
                     response = queueCommand(cmdObj, paramMap);
-                    if (annotation.responseHasSensitiveInfo())
-                    {
-                        buildAuditTrail(auditTrailSb, command[0],
-                                StringUtils.cleanString(response));
-                    }
-                    else
-                        buildAuditTrail(auditTrailSb, command[0], response);
                 } else {
                     final String errorString = "Unknown API command: " + command[0];
                     s_logger.warn(errorString);
@@ -608,25 +671,25 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
         return response;
     }
 
-    private String getBaseAsyncResponse(final long jobId, final BaseAsyncCmd cmd) {
+    private ResponseObject getBaseAsyncResponse(final long jobId, final BaseAsyncCmd cmd) {
         final AsyncJobResponse response = new AsyncJobResponse();
 
         final AsyncJob job = _entityMgr.findById(AsyncJob.class, jobId);
         response.setJobId(job.getUuid());
         response.setResponseName(cmd.getCommandName());
-        return ApiResponseSerializer.toSerializedString(response, cmd.getResponseType());
+        return response;
     }
 
-    private String getBaseAsyncCreateResponse(final long jobId, final BaseAsyncCreateCmd cmd, final String objectUuid) {
+    private ResponseObject getBaseAsyncCreateResponse(final long jobId, final BaseAsyncCreateCmd cmd, final String objectUuid) {
         final CreateCmdResponse response = new CreateCmdResponse();
         final AsyncJob job = _entityMgr.findById(AsyncJob.class, jobId);
         response.setJobId(job.getUuid());
         response.setId(objectUuid);
         response.setResponseName(cmd.getCommandName());
-        return ApiResponseSerializer.toSerializedString(response, cmd.getResponseType());
+        return response;
     }
 
-    private String queueCommand(final BaseCmd cmdObj, final Map<String, String> params) throws Exception {
+    private ResponseObject queueCommand(final BaseCmd cmdObj, final Map<String, String> params) throws Exception {
         final CallContext ctx = CallContext.current();
         final Long callerUserId = ctx.getCallingUserId();
         final Account caller = ctx.getCallingAccount();
@@ -726,7 +789,7 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
             }
 
             SerializationContext.current().setUuidTranslation(true);
-            return ApiResponseSerializer.toSerializedString((ResponseObject)cmdObj.getResponseObject(), cmdObj.getResponseType());
+            return (ResponseObject)cmdObj.getResponseObject();
         }
     }
 
@@ -766,15 +829,82 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
         }
     }
 
-    private void buildAuditTrail(final StringBuilder auditTrailSb, final String command, final String result) {
-        if (result == null) {
-            return;
-        }
+    private void buildAuditTrail(final StringBuilder auditTrailSb, final String command, final AuditTrailWriter result, final boolean sensitive) {
         auditTrailSb.append(" " + HttpServletResponse.SC_OK + " ");
-        if (command.equals("createSSHKeyPair")) {
+        if (sensitive || command.equals("createSSHKeyPair")) {
             auditTrailSb.append("This result was not logged because it contains sensitive data.");
         } else {
-            auditTrailSb.append(result);
+            auditTrailSb.append(result.getHead());
+            if (!result.isComplete()) {
+                auditTrailSb.append("...");
+            }
+        }
+        auditTrailSb.append(" (" + result.getLength() + " chars)");
+    }
+
+    /**
+     * Passes a response on to the writer of the http response, keeping only its
+     * start and its length for the audit trail.
+     */
+    static class AuditTrailWriter extends Writer {
+        private final Writer _out;
+        private final StringBuilder _head;
+        private final int _maxHeadLength;
+        private long _length;
+
+        AuditTrailWriter(final Writer out, final int maxHeadLength) {
+            _out = out;
+            _maxHeadLength = maxHeadLength;
+            _head = new StringBuilder(Math.min(maxHeadLength, 128));
+        }
+
+        @Override
+        public void write(final char[] cbuf, final int off, final int len) throws IOException {
+            _out.write(cbuf, off, len);
+            if (_head.length() < _maxHeadLength) {
+                _head.append(cbuf, off, Math.min(len, _maxHeadLength - _head.length()));
+            }
+            _length += len;
+        }
+
+        @Override
+        public void write(final String str, final int off, final int len) throws IOException {
+            _out.write(str, off, len);
+            if (_head.length() < _maxHeadLength) {
+                _head.append(str, off, off + Math.min(len, _maxHeadLength - _head.length()));
+            }
+            _length += len;
+        }
+
+        @Override
+        public void write(final int c) throws IOException {
+            _out.write(c);
+            if (_head.length() < _maxHeadLength) {
+                _head.append((char)c);
+            }
+            _length++;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            _out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            _out.close();
+        }
+
+        String getHead() {
+            return _head.toString();
+        }
+
+        long getLength() {
+            return _length;
+        }
+
+        boolean isComplete() {
+            return _length == _head.length();
         }
     }
 
@@ -802,7 +932,7 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
                     checkCommandAvailable(user, commandName);
                 } catch (final RequestLimitException ex) {
                     s_logger.debug(ex.getMessage());
-                    throw new ServerApiException(ApiErrorCode.API_LIMIT_EXCEED, ex.getMessage());
+                    throw new ServerApiException(ApiErrorCode.API_LIMIT_EXCEED, ex.getMessage(), ex);
                 } catch (final PermissionDeniedException ex) {
                     s_logger.debug("The given command:" + commandName + " does not exist or it is not available for user with id:" + userId);
                     throw new ServerApiException(ApiErrorCode.UNSUPPORTED_ACTION_ERROR, "The given command does not exist or it is not available for user");
@@ -827,6 +957,7 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
             Collections.sort(parameterNames);
 
             String signatureVersion = null;
+            String signatureMethod = null;
             String expires = null;
 
             for (final String paramName : parameterNames) {
@@ -840,6 +971,8 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
                         apiKey = paramValue;
                     } else if (ApiConstants.SIGNATURE_VERSION.equalsIgnoreCase(paramName)) {
                         signatureVersion = paramValue;
+                    } else if (ApiConstants.SIGNATURE_METHOD.equalsIgnoreCase(paramName)) {
+                        signatureMethod = paramValue;
                     } else if (ApiConstants.EXPIRES.equalsIgnoreCase(paramName)) {
                         expires = paramValue;
                     }
@@ -881,8 +1014,16 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
                 }
             }
 
-            final TransactionLegacy txn = TransactionLegacy.open(TransactionLegacy.CLOUD_DB);
-            txn.close();
+            String algorithm = HMAC_SHA1;
+            if (signatureMethod != null) {
+                if (HMAC_SHA256.equalsIgnoreCase(signatureMethod)) {
+                    algorithm = HMAC_SHA256;
+                } else if (!HMAC_SHA1.equalsIgnoreCase(signatureMethod)) {
+                    s_logger.debug("Unsupported signature method " + signatureMethod + " -- ignoring request, apiKey: " + apiKey);
+                    return false;
+                }
+            }
+
             User user = null;
             // verify there is a user with this api key
             final Pair<User, Account> userAcctPair = _accountMgr.findUserByApiKey(apiKey);
@@ -904,7 +1045,7 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
                 checkCommandAvailable(user, commandName);
             } catch (final RequestLimitException ex) {
                 s_logger.debug(ex.getMessage());
-                throw new ServerApiException(ApiErrorCode.API_LIMIT_EXCEED, ex.getMessage());
+                throw new ServerApiException(ApiErrorCode.API_LIMIT_EXCEED, ex.getMessage(), ex);
             } catch (final PermissionDeniedException ex) {
                 s_logger.debug("The given command:" + commandName + " does not exist or it is not available for user");
                 throw new ServerApiException(ApiErrorCode.UNSUPPORTED_ACTION_ERROR, "The given command:" + commandName + " does not exist or it is not available for user with id:"
@@ -920,8 +1061,8 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
 
             unsignedRequest = unsignedRequest.toLowerCase();
 
-            final Mac mac = Mac.getInstance("HmacSHA1");
-            final SecretKeySpec keySpec = new SecretKeySpec(secretKey.getBytes(), "HmacSHA1");
+            final Mac mac = getMac(algorithm);
+            final SecretKeySpec keySpec = new SecretKeySpec(secretKey.getBytes(), algorithm);
             mac.init(keySpec);
             mac.update(unsignedRequest.getBytes());
 
@@ -943,6 +1084,16 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
         return false;
     }
 
+    private static Mac getMac(final String algorithm) throws NoSuchAlgorithmException {
+        final Map<String, Mac> macs = s_macs.get();
+        Mac mac = macs.get(algorithm);
+        if (mac == null) {
+            mac = Mac.getInstance(algorithm);
+            macs.put(algorithm, mac);
+        }
+        return mac;
+    }
+
     @Override
     public Long fetchDomainId(final String domainUUID) {
         final Domain domain = _domainMgr.getDomain(domainUUID);
@@ -16,12 +16,14 @@
 // under the License.
 package com.cloud.api;
 
+import com.cloud.exception.RequestLimitException;
 import com.cloud.user.Account;
 import com.cloud.user.AccountService;
 import com.cloud.user.User;
 import com.cloud.utils.HttpUtils;
 import com.cloud.utils.StringUtils;
 import com.cloud.utils.db.EntityManager;
+import com.cloud.utils.exception.CloudRuntimeException;
 import com.cloud.utils.net.NetUtils;
 import org.apache.cloudstack.api.ApiConstants;
 import org.apache.cloudstack.api.ApiServerService;
@@ -43,6 +45,7 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
 import java.util.HashMap;
@@ -286,8 +289,8 @@ public class ApiServlet extends HttpServlet {
 
                 // Add the HTTP method (GET/POST/PUT/DELETE) as well into the params map.
                 params.put("httpmethod", new String[] {req.getMethod()});
-                final String response = _apiServer.handleRequest(params, responseType, auditTrailSb);
-                HttpUtils.writeHttpResponse(resp, response != null ? response : "", HttpServletResponse.SC_OK, responseType, ApiServer.getJSONContentType());
+                HttpUtils.prepareHttpResponse(resp, HttpServletResponse.SC_OK, responseType, ApiServer.getJSONContentType());
+                _apiServer.handleRequest(params, responseType, auditTrailSb, resp.getWriter());
             } else {
                 if (session != null) {
                     try {
@@ -304,10 +307,28 @@ public class ApiServlet extends HttpServlet {
 
             }
         } catch (final ServerApiException se) {
+            if (resp.isCommitted()) {
+                // the client already got a successful status and part of the response, it must not look complete
+                auditTrailSb.append(" " + se.getErrorCode() + " " + se.getDescription() + " after the response was committed");
+                throw new CloudRuntimeException("Unable to complete the api response", se);
+            }
+            // drop what was written of the response, e.g. before its serialization failed
+            resp.resetBuffer();
             final String serializedResponseText = _apiServer.getSerializedApiError(se, params, responseType);
             resp.setHeader("X-Description", se.getDescription());
+            if (se.getCause() instanceof RequestLimitException) {
+                final long retryAfter = ((RequestLimitException)se.getCause()).getRetryAfter();
+                if (retryAfter > 0) {
+                    resp.setHeader("Retry-After", String.valueOf((retryAfter + 999) / 1000));
+                }
+            }
             HttpUtils.writeHttpResponse(resp, serializedResponseText, se.getErrorCode().getHttpCode(), responseType, ApiServer.getJSONContentType());
             auditTrailSb.append(" " + se.getErrorCode() + " " + se.getDescription());
+        } catch (final IOException ex) {
+            if (s_logger.isTraceEnabled()) {
+                s_logger.trace("Exception writing api response: " + ex);
+            }
+            auditTrailSb.append(" unable to write api response");
         } catch (final Exception ex) {
             s_logger.error("unknown exception writing api response", ex);
             auditTrailSb.append(" unknown exception writing api response");
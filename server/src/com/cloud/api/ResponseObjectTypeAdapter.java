@@ -45,7 +45,7 @@ public class ResponseObjectTypeAdapter implements JsonSerializer<ResponseObject>
             obj.addProperty("context", ((ExceptionResponse)responseObj).getContext());
             return obj;
         } else {
-            obj.add(responseObj.getObjectName(), ApiResponseGsonHelper.getBuilder().create().toJsonTree(responseObj));
+            obj.add(responseObj.getObjectName(), ApiResponseGsonHelper.getResponseGson().toJsonTree(responseObj));
             return obj;
         }
     }
@@ -0,0 +1,65 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.api.query;
+
+import java.nio.charset.Charset;
+
+import org.apache.commons.codec.binary.Base64;
+
+import com.cloud.exception.InvalidParameterValueException;
+
+/**
+ * Opaque startafter tokens for position based paging. A token holds the
+ * sort key of the last row of a page, so the next page is read with a
+ * range condition on the key instead of skipping the preceding rows.
+ */
+public class ListCursor {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private ListCursor() {
+    }
+
+    public static String encode(long... keys) {
+        StringBuilder sb = new StringBuilder();
+        for (long key : keys) {
+            if (sb.length() > 0) {
+                sb.append(':');
+            }
+            sb.append(key);
+        }
+        return Base64.encodeBase64URLSafeString(sb.toString().getBytes(UTF8));
+    }
+
+    /**
+     * @param keyCount number of keys the token of this list must hold
+     */
+    public static long[] decode(String token, int keyCount) {
+        String[] parts = new String(Base64.decodeBase64(token), UTF8).split(":");
+        if (parts.length != keyCount) {
+            throw new InvalidParameterValueException("Invalid startafter value " + token);
+        }
+        long[] keys = new long[keyCount];
+        try {
+            for (int i = 0; i < keyCount; i++) {
+                keys[i] = Long.parseLong(parts[i]);
+            }
+        } catch (NumberFormatException e) {
+            throw new InvalidParameterValueException("Invalid startafter value " + token);
+        }
+        return keys;
+    }
+}
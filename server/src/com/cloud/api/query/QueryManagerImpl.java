@@ -504,6 +504,11 @@ public class QueryManagerImpl extends ManagerBase implements QueryService {
         ListResponse<EventResponse> response = new ListResponse<EventResponse>();
         List<EventResponse> eventResponses = ViewResponseHelper.createEventResponse(result.first().toArray(new EventJoinVO[result.first().size()]));
         response.setResponses(eventResponses, result.second());
+        Long pageSize = cmd.getPageSizeVal();
+        if (pageSize != null && result.first().size() == pageSize.intValue()) {
+            EventJoinVO last = result.first().get(result.first().size() - 1);
+            response.setNextStartAfter(ListCursor.encode(last.getCreateDate().getTime(), last.getId()));
+        }
         return response;
     }
 
@@ -528,7 +533,11 @@ public class QueryManagerImpl extends ManagerBase implements QueryService {
         Boolean isRecursive = domainIdRecursiveListProject.second();
         ListProjectResourcesCriteria listProjectResourcesCriteria = domainIdRecursiveListProject.third();
 
+        // with startafter the page starts at a position rather than an offset
+        String startAfter = cmd.getStartAfter();
         Filter searchFilter = new Filter(EventJoinVO.class, "createDate", false, cmd.getStartIndex(), cmd.getPageSizeVal());
+        // events created in the same second need a stable order to page through them by position
+        searchFilter.addOrderBy(EventJoinVO.class, "id", false);
         SearchBuilder<EventJoinVO> sb = _eventJoinDao.createSearchBuilder();
         _accountMgr.buildACLViewSearchBuilder(sb, domainId, isRecursive, permittedAccounts,
                 listProjectResourcesCriteria);
@@ -586,6 +595,18 @@ public class QueryManagerImpl extends ManagerBase implements QueryService {
 
         sc.setParameters("archived", false);
 
+        if (startAfter != null) {
+            long[] position = ListCursor.decode(startAfter, 2);
+            Date createDate = new Date(position[0]);
+            SearchCriteria<EventJoinVO> sameDate = _eventJoinDao.createSearchCriteria();
+            sameDate.addAnd("createDate", SearchCriteria.Op.EQ, createDate);
+            sameDate.addAnd("id", SearchCriteria.Op.LT, position[1]);
+            SearchCriteria<EventJoinVO> ssc = _eventJoinDao.createSearchCriteria();
+            ssc.addOr("createDate", SearchCriteria.Op.LT, createDate);
+            ssc.addOr("createDate", SearchCriteria.Op.SC, sameDate);
+            sc.addAnd("createDate", SearchCriteria.Op.SC, ssc);
+        }
+
         Pair<List<EventJoinVO>, Integer> eventPair = null;
         // event_view will not have duplicate rows for each event, so
         // searchAndCount should be good enough.
@@ -610,6 +631,9 @@ public class QueryManagerImpl extends ManagerBase implements QueryService {
              * _eventDao.findCompletedEvent(event.getId()); if (completedEvent
              * == null) { pendingEvents.add(event); } } return pendingEvents;
              */
+        } else if (startAfter != null) {
+            // the total count would cost as much as reading all the preceding pages
+            eventPair = new Pair<List<EventJoinVO>, Integer>(_eventJoinDao.search(sc, searchFilter), null);
         } else {
             eventPair = _eventJoinDao.searchAndCount(sc, searchFilter);
         }
@@ -767,6 +791,19 @@ public class QueryManagerImpl extends ManagerBase implements QueryService {
 
 
         response.setResponses(vmResponses, result.second());
+        Long pageSize = cmd.getPageSizeVal();
+        if (pageSize != null) {
+            // the view has a row per nic, tag and so on of a vm
+            Set<Long> vmIds = new HashSet<Long>();
+            long lastId = 0;
+            for (UserVmJoinVO vm : result.first()) {
+                vmIds.add(vm.getId());
+                lastId = Math.max(lastId, vm.getId());
+            }
+            if (vmIds.size() == pageSize.intValue()) {
+                response.setNextStartAfter(ListCursor.encode(lastId));
+            }
+        }
         return response;
     }
 
@@ -786,6 +823,8 @@ public class QueryManagerImpl extends ManagerBase implements QueryService {
         Boolean isRecursive = domainIdRecursiveListProject.second();
         ListProjectResourcesCriteria listProjectResourcesCriteria = domainIdRecursiveListProject.third();
 
+        // with startafter the page starts at a position rather than an offset
+        String startAfter = cmd.getStartAfter();
         Filter searchFilter = new Filter(UserVmJoinVO.class, "id", true, cmd.getStartIndex(),
                 cmd.getPageSizeVal());
 
@@ -844,6 +883,7 @@ public class QueryManagerImpl extends ManagerBase implements QueryService {
 
         sb.and("displayName", sb.entity().getDisplayName(), SearchCriteria.Op.LIKE);
         sb.and("idIN", sb.entity().getId(), SearchCriteria.Op.IN);
+        sb.and("idGT", sb.entity().getId(), SearchCriteria.Op.GT);
         sb.and("name", sb.entity().getName(), SearchCriteria.Op.LIKE);
         sb.and("stateEQ", sb.entity().getState(), SearchCriteria.Op.EQ);
         sb.and("stateNEQ", sb.entity().getState(), SearchCriteria.Op.NEQ);
@@ -996,14 +1036,23 @@ public class QueryManagerImpl extends ManagerBase implements QueryService {
         if (!isRootAdmin) {
             sc.setParameters("displayVm", 1);
         }
-        // search vm details by ids
-        Pair<List<UserVmJoinVO>, Integer> uniqueVmPair = _userVmJoinDao.searchAndCount(sc, searchFilter);
-        Integer count = uniqueVmPair.second();
-        if (count.intValue() == 0) {
+
+        Integer count = null;
+        List<UserVmJoinVO> uniqueVms;
+        if (startAfter != null) {
+            sc.setParameters("idGT", ListCursor.decode(startAfter, 1)[0]);
+            // the total count would cost as much as reading all the preceding pages
+            uniqueVms = _userVmJoinDao.search(sc, searchFilter);
+        } else {
+            Pair<List<UserVmJoinVO>, Integer> uniqueVmPair = _userVmJoinDao.searchAndCount(sc, searchFilter);
+            uniqueVms = uniqueVmPair.first();
+            count = uniqueVmPair.second();
+        }
+        if (uniqueVms.isEmpty()) {
             // handle empty result cases
-            return uniqueVmPair;
+            return new Pair<List<UserVmJoinVO>, Integer>(uniqueVms, count == null ? 0 : count);
         }
-        List<UserVmJoinVO> uniqueVms = uniqueVmPair.first();
+        // search vm details by ids
         Long[] vmIds = new Long[uniqueVms.size()];
         int i = 0;
         for (UserVmJoinVO v : uniqueVms) {
@@ -41,6 +41,9 @@ import org.apache.cloudstack.api.response.SuccessResponse;
 import org.apache.cloudstack.context.CallContext;
 import org.apache.log4j.Logger;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
@@ -48,134 +51,144 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 public class ApiResponseSerializer {
     private static final Logger s_logger = Logger.getLogger(ApiResponseSerializer.class.getName());
 
     public static String toSerializedString(ResponseObject result, String responseType) {
+        StringWriter out = new StringWriter();
+        try {
+            toSerializedString(result, responseType, out);
+        } catch (IOException e) {
+            throw new CloudRuntimeException("Unable to serialize response", e);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Writes the response to the given writer as it is serialized, without building the
+     * serialized form of the list elements first.
+     */
+    public static void toSerializedString(ResponseObject result, String responseType, Writer out) throws IOException {
         s_logger.trace("===Serializing Response===");
         if (HttpUtils.RESPONSE_TYPE_JSON.equalsIgnoreCase(responseType)) {
-            return toJSONSerializedString(result);
+            toJSONSerializedString(result, out);
         } else {
-            return toXMLSerializedString(result);
+            toXMLSerializedString(result, out);
         }
     }
 
-    private static final Pattern s_unicodeEscapePattern = Pattern.compile("\\\\u([0-9A-Fa-f]{4})");
-
-    public static String unescape(String escaped) {
-        String str = escaped;
-        Matcher matcher = s_unicodeEscapePattern.matcher(str);
-        while (matcher.find()) {
-            str = str.replaceAll("\\" + matcher.group(0), Character.toString((char)Integer.parseInt(matcher.group(1), 16)));
+    public static String toJSONSerializedString(ResponseObject result) {
+        if (result == null) {
+            return null;
+        }
+        StringWriter out = new StringWriter();
+        try {
+            toJSONSerializedString(result, out);
+        } catch (IOException e) {
+            throw new CloudRuntimeException("Unable to serialize response", e);
         }
-        return str;
+        return out.toString();
     }
 
-    public static String toJSONSerializedString(ResponseObject result) {
-        if (result != null) {
-            Gson gson = ApiResponseGsonHelper.getBuilder().excludeFieldsWithModifiers(Modifier.TRANSIENT).create();
+    public static void toJSONSerializedString(ResponseObject result, Writer out) throws IOException {
+        if (result == null) {
+            return;
+        }
+        Gson gson = ApiResponseGsonHelper.getResponseGson();
 
-            StringBuilder sb = new StringBuilder();
+        out.append("{\"").append(result.getResponseName()).append("\":");
+        if (result instanceof ListResponse) {
+            List<? extends ResponseObject> responses = ((ListResponse)result).getResponses();
+            Integer count = ((ListResponse)result).getCount();
+            String context = ((ListResponse)result).getContext();
+            String nextStartAfter = ((ListResponse)result).getNextStartAfter();
+            boolean nonZeroCount = (count != null && count.longValue() != 0);
+            if (nonZeroCount) {
+                out.append("{\"").append(ApiConstants.COUNT).append("\":").append(count.toString());
+                if (context != null) {
+                    out.append(",\"").append(ApiConstants.CONTEXT).append("\":\"").append(context).append("\"");
+                }
+                if (nextStartAfter != null) {
+                    out.append(",\"").append(ApiConstants.NEXT_START_AFTER).append("\":\"").append(nextStartAfter).append("\"");
+                }
+            }
 
-            sb.append("{\"").append(result.getResponseName()).append("\":");
-            if (result instanceof ListResponse) {
-                List<? extends ResponseObject> responses = ((ListResponse)result).getResponses();
-                Integer count = ((ListResponse)result).getCount();
-                String context = ((ListResponse)result).getContext();
-                boolean nonZeroCount = (count != null && count.longValue() != 0);
+            if ((responses != null) && !responses.isEmpty()) {
                 if (nonZeroCount) {
-                    sb.append("{\"").append(ApiConstants.COUNT).append("\":").append(count);
-                    if (context != null) {
-                        sb.append(",\"").append(ApiConstants.CONTEXT).append("\":\"").append(context).append("\"");
-                    }
+                    out.append(",\"").append(responses.get(0).getObjectName()).append("\":[");
+                    gson.toJson(responses.get(0), out);
                 }
 
-                if ((responses != null) && !responses.isEmpty()) {
-                    String jsonStr = gson.toJson(responses.get(0));
-                    jsonStr = unescape(jsonStr);
-
-                    if (nonZeroCount) {
-                        sb.append(",\"").append(responses.get(0).getObjectName()).append("\":[").append(jsonStr);
-                    }
-
-                    for (int i = 1; i < ((ListResponse)result).getResponses().size(); i++) {
-                        jsonStr = gson.toJson(responses.get(i));
-                        jsonStr = unescape(jsonStr);
-                        sb.append(",").append(jsonStr);
-                    }
-                    sb.append("]}");
-                } else  {
-                    if (!nonZeroCount) {
-                        sb.append("{");
-                    }
-
-                    sb.append("}");
+                for (int i = 1; i < responses.size(); i++) {
+                    out.append(",");
+                    gson.toJson(responses.get(i), out);
                 }
-            } else if (result instanceof SuccessResponse) {
-                sb.append("{\"success\":\"").append(((SuccessResponse)result).getSuccess()).append("\"}");
-            } else if (result instanceof ExceptionResponse) {
-                String jsonErrorText = gson.toJson(result);
-                jsonErrorText = unescape(jsonErrorText);
-                sb.append(jsonErrorText);
+                out.append("]}");
             } else {
-                ((BaseResponse)result).buildCurrentContext();
-                String jsonStr = gson.toJson(result);
-                if ((jsonStr != null) && !"".equals(jsonStr)) {
-                    jsonStr = unescape(jsonStr);
-                    if (result instanceof AsyncJobResponse || result instanceof CreateCmdResponse || result instanceof AuthenticationCmdResponse) {
-                        sb.append(jsonStr);
-                    } else {
-                        sb.append("{\"").append(result.getObjectName()).append("\":").append(jsonStr).append("}");
-                    }
-                } else {
-                    sb.append("{}");
+                if (!nonZeroCount) {
+                    out.append("{");
                 }
+
+                out.append("}");
+            }
+        } else if (result instanceof SuccessResponse) {
+            out.append("{\"success\":\"").append(String.valueOf(((SuccessResponse)result).getSuccess())).append("\"}");
+        } else if (result instanceof ExceptionResponse) {
+            gson.toJson(result, out);
+        } else {
+            ((BaseResponse)result).buildCurrentContext();
+            if (result instanceof AsyncJobResponse || result instanceof CreateCmdResponse || result instanceof AuthenticationCmdResponse) {
+                gson.toJson(result, out);
+            } else {
+                out.append("{\"").append(result.getObjectName()).append("\":");
+                gson.toJson(result, out);
+                out.append("}");
             }
-            sb.append("}");
-            return sb.toString();
         }
-        return null;
+        out.append("}");
+        out.flush();
     }
 
-    private static String toXMLSerializedString(ResponseObject result) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
-        sb.append("<").append(result.getResponseName()).append(" cloud-stack-version=\"").append(ApiDBUtils.getVersion()).append("\">");
+    private static void toXMLSerializedString(ResponseObject result, Writer out) throws IOException {
+        out.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+        out.append("<").append(result.getResponseName()).append(" cloud-stack-version=\"").append(ApiDBUtils.getVersion()).append("\">");
 
         if (result instanceof ListResponse) {
             Integer count = ((ListResponse)result).getCount();
 
             if (count != null && count != 0) {
-                sb.append("<").append(ApiConstants.COUNT).append(">").append(((ListResponse)result).getCount()).append("</").append(ApiConstants.COUNT).append(">");
+                out.append("<").append(ApiConstants.COUNT).append(">").append(count.toString()).append("</").append(ApiConstants.COUNT).append(">");
+            }
+            String nextStartAfter = ((ListResponse)result).getNextStartAfter();
+            if (nextStartAfter != null) {
+                out.append("<").append(ApiConstants.NEXT_START_AFTER).append(">").append(nextStartAfter).append("</").append(ApiConstants.NEXT_START_AFTER).append(">");
             }
             List<? extends ResponseObject> responses = ((ListResponse)result).getResponses();
             if ((responses != null) && !responses.isEmpty()) {
                 for (ResponseObject obj : responses) {
-                    serializeResponseObjXML(sb, obj);
+                    serializeResponseObjXML(out, obj);
                 }
             }
         } else {
             if (result instanceof CreateCmdResponse || result instanceof AsyncJobResponse || result instanceof AuthenticationCmdResponse) {
-                serializeResponseObjFieldsXML(sb, result);
+                serializeResponseObjFieldsXML(out, result);
             } else {
-                serializeResponseObjXML(sb, result);
+                serializeResponseObjXML(out, result);
             }
         }
 
-        sb.append("</").append(result.getResponseName()).append(">");
-        return sb.toString();
+        out.append("</").append(result.getResponseName()).append(">");
+        out.flush();
     }
 
-    private static void serializeResponseObjXML(StringBuilder sb, ResponseObject obj) {
+    private static void serializeResponseObjXML(Writer out, ResponseObject obj) throws IOException {
         if (!(obj instanceof SuccessResponse) && !(obj instanceof ExceptionResponse)) {
-            sb.append("<").append(obj.getObjectName()).append(">");
+            out.append("<").append(obj.getObjectName()).append(">");
         }
-        serializeResponseObjFieldsXML(sb, obj);
+        serializeResponseObjFieldsXML(out, obj);
         if (!(obj instanceof SuccessResponse) && !(obj instanceof ExceptionResponse)) {
-            sb.append("</").append(obj.getObjectName()).append(">");
+            out.append("</").append(obj.getObjectName()).append(">");
         }
     }
 
@@ -188,7 +201,7 @@ public class ApiResponseSerializer {
         return fields.toArray(new Field[] {});
     }
 
-    private static void serializeResponseObjFieldsXML(StringBuilder sb, ResponseObject obj) {
+    private static void serializeResponseObjFieldsXML(Writer out, ResponseObject obj) throws IOException {
         boolean isAsync = false;
         if (obj instanceof AsyncJobResponse)
             isAsync = true;
@@ -238,11 +251,11 @@ public class ApiResponseSerializer {
                 if (fieldValue instanceof ResponseObject) {
                     ResponseObject subObj = (ResponseObject)fieldValue;
                     if (isAsync) {
-                        sb.append("<jobresult>");
+                        out.append("<jobresult>");
                     }
-                    serializeResponseObjXML(sb, subObj);
+                    serializeResponseObjXML(out, subObj);
                     if (isAsync) {
-                        sb.append("</jobresult>");
+                        out.append("</jobresult>");
                     }
                 } else if (fieldValue instanceof Collection<?>) {
                     Collection<?> subResponseList = (Collection<?>)fieldValue;
@@ -253,7 +266,7 @@ public class ApiResponseSerializer {
                             if (serializedName != null) {
                                 subObj.setObjectName(serializedName.value());
                             }
-                            serializeResponseObjXML(sb, subObj);
+                            serializeResponseObjXML(out, subObj);
                         } else if (value instanceof ExceptionProxyObject) {
                             // Only exception reponses carry a list of
                             // ExceptionProxyObject objects.
@@ -261,25 +274,25 @@ public class ApiResponseSerializer {
                             // If this is the first IdentityProxy field
                             // encountered, put in a uuidList tag.
                             if (!usedUuidList) {
-                                sb.append("<" + serializedName.value() + ">");
+                                out.append("<" + serializedName.value() + ">");
                                 usedUuidList = true;
                             }
-                            sb.append("<" + "uuid" + ">" + idProxy.getUuid() + "</" + "uuid" + ">");
+                            out.append("<" + "uuid" + ">" + idProxy.getUuid() + "</" + "uuid" + ">");
                             // Append the new descriptive property also.
                             String idFieldName = idProxy.getDescription();
                             if (idFieldName != null) {
-                                sb.append("<" + "uuidProperty" + ">" + idFieldName + "</" + "uuidProperty" + ">");
+                                out.append("<" + "uuidProperty" + ">" + idFieldName + "</" + "uuidProperty" + ">");
                             }
                         } else if (value instanceof String) {
-                            sb.append("<").append(serializedName.value()).append(">").append(value).append("</").append(serializedName.value()).append(">");
+                            out.append("<").append(serializedName.value()).append(">").append((String)value).append("</").append(serializedName.value()).append(">");
                         }
                     }
                     if (usedUuidList) {
                         // close the uuidList.
-                        sb.append("</").append(serializedName.value()).append(">");
+                        out.append("</").append(serializedName.value()).append(">");
                     }
                 } else if (fieldValue instanceof Date) {
-                    sb.append("<")
+                    out.append("<")
                         .append(serializedName.value())
                         .append(">")
                         .append(BaseCmd.getDateString((Date)fieldValue))
@@ -292,7 +305,7 @@ public class ApiResponseSerializer {
                         resultString = encodeParam(resultString);
                     }
 
-                    sb.append("<").append(serializedName.value()).append(">").append(resultString).append("</").append(serializedName.value()).append(">");
+                    out.append("<").append(serializedName.value()).append(">").append(resultString).append("</").append(serializedName.value()).append(">");
                 }
             }
         }
@@ -587,6 +587,46 @@ public enum Config {
             "60000",
             "The interval (in milliseconds) when host stats are retrieved from agents.",
             null),
+    StatsCollectionParallelism(
+            "Advanced",
+            ManagementServer.class,
+            Integer.class,
+            "stats.collection.parallelism",
+            "10",
+            "The maximum number of hosts that host, vm and vm disk stats are retrieved from in parallel.",
+            null),
+    StatsCollectionHostTimeout(
+            "Advanced",
+            ManagementServer.class,
+            Integer.class,
+            "stats.collection.host.timeout",
+            "30000",
+            "The time (in milliseconds) to wait for stats from a single host before skipping it for the current collection cycle.",
+            null),
+    StatsHistoryRetention(
+            "Advanced",
+            ManagementServer.class,
+            Integer.class,
+            "stats.history.retention",
+            "60",
+            "The time (in minutes) the host, vm and storage stats history is kept in memory for the listStatsHistory API. 0 disables the history.",
+            null),
+    StatsHistoryResolution(
+            "Advanced",
+            ManagementServer.class,
+            Integer.class,
+            "stats.history.resolution",
+            "60",
+            "The interval (in seconds) the stats history is downsampled to, the samples collected within an interval are averaged.",
+            null),
+    StatsOutputUri(
+            "Advanced",
+            ManagementServer.class,
+            String.class,
+            "stats.output.uri",
+            null,
+            "The URI the collected stats are exported to, graphite://host[:port][/prefix] or prometheus://host:port[/prefix]. Empty disables the export.",
+            null),
     HostRetry("Advanced", AgentManager.class, Integer.class, "host.retry", "2", "Number of times to retry hosts for creating a volume", null),
     IntegrationAPIPort("Advanced", ManagementServer.class, Integer.class, "integration.api.port", null, "Default API port", null),
     InvestigateRetryInterval(
@@ -1062,6 +1102,22 @@ public enum Config {
             "5",
             "Incorrect login attempts allowed before the user is disabled",
             null),
+    ApiKeyCacheSize(
+            "Advanced",
+            ManagementServer.class,
+            Integer.class,
+            "api.key.cache.size",
+            "10000",
+            "The maximum number of api keys whose user and account are cached for verifying signed api requests. 0 disables the cache.",
+            null),
+    ApiKeyCacheTtl(
+            "Advanced",
+            ManagementServer.class,
+            Integer.class,
+            "api.key.cache.ttl",
+            "60",
+            "The time (in seconds) the user and account of an api key are cached before they are read again.",
+            null),
     // Ovm
     OvmPublicNetwork("Hidden", ManagementServer.class, String.class, "ovm.public.network.device", null, "Specify the public bridge on host for public network", null),
     OvmPrivateNetwork("Hidden", ManagementServer.class, String.class, "ovm.private.network.device", null, "Specify the private bridge on host for private network", null),
@@ -1317,6 +1373,14 @@ public enum Config {
             "Interval (in days) to check sanity of usage data",
             null),
     UsageAggregationTimezone("Usage", ManagementServer.class, String.class, "usage.aggregation.timezone", "GMT", "The timezone to use for usage stats aggregation", null),
+    UsageParseThreads(
+            "Usage",
+            ManagementServer.class,
+            Integer.class,
+            "usage.parse.threads",
+            "4",
+            "The number of threads parsing the usage of accounts in parallel",
+            null),
     TrafficSentinelIncludeZones(
             "Usage",
             ManagementServer.class,
@@ -1846,6 +1910,38 @@ public enum Config {
     ApiLimitInterval("Advanced", ManagementServer.class, Integer.class, "api.throttling.interval", "1", "Time interval (in seconds) to reset API count", null),
     ApiLimitMax("Advanced", ManagementServer.class, Integer.class, "api.throttling.max", "25", "Max allowed number of APIs within fixed interval", null),
     ApiLimitCacheSize("Advanced", ManagementServer.class, Integer.class, "api.throttling.cachesize", "50000", "Account based API count cache size", null),
+    ApiLimitBurst(
+            "Advanced",
+            ManagementServer.class,
+            Integer.class,
+            "api.throttling.burst",
+            "0",
+            "Max number of APIs an account can issue at once, the allowance refills at api.throttling.max per interval. 0 uses api.throttling.max",
+            null),
+    ApiLimitCommandMax(
+            "Advanced",
+            ManagementServer.class,
+            String.class,
+            "api.throttling.command.max",
+            null,
+            "Comma separated command=max pairs limiting single APIs of an account within the interval, e.g. deployVirtualMachine=5, a max of 0 disables the API",
+            null),
+    ApiLimitClusterShared(
+            "Advanced",
+            ManagementServer.class,
+            Boolean.class,
+            "api.throttling.cluster.shared",
+            "false",
+            "Share the Api rate limits among the management servers instead of enforcing them on each management server",
+            null),
+    ApiLimitClusterLeaseInterval(
+            "Advanced",
+            ManagementServer.class,
+            Integer.class,
+            "api.throttling.cluster.lease.interval",
+            "5",
+            "Time interval (in seconds) at which the management servers exchange their API counts to share the rate limits",
+            null),
 
     // object store
     S3EnableRRS("Advanced", ManagementServer.class, Boolean.class, "s3.rrs.enabled", "false", "enable s3 reduced redundancy storage", null),
@@ -0,0 +1,297 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.server;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.StandardMBean;
+
+import org.apache.log4j.Logger;
+
+import org.apache.cloudstack.managed.context.ManagedContextRunnable;
+
+import com.cloud.host.Host;
+
+/**
+ * Runs a stats collection task against a list of hosts in parallel on a
+ * shared, bounded pool. Each task publishes its own results as soon as its
+ * host answers, and a host that does not answer within the per host timeout
+ * is abandoned for the cycle so it cannot hold up the other hosts.
+ */
+public class HostStatsDispatcher extends StandardMBean implements HostStatsDispatcherMBean {
+    private static final Logger s_logger = Logger.getLogger(HostStatsDispatcher.class);
+
+    public interface HostTask<T extends Host> {
+        /**
+         * @return false if the host did not return usable stats
+         */
+        boolean collect(T host);
+    }
+
+    private final String _name;
+    private final ExecutorService _executor;
+    private final long _hostTimeout;
+    private final long _cycleTimeout;
+
+    private final ConcurrentHashMap<Long, Long> _hostLatencies = new ConcurrentHashMap<Long, Long>();
+    private final AtomicLong _cycleCount = new AtomicLong();
+    private volatile long _lastCycleDuration;
+    private volatile long _maxCycleDuration;
+    private volatile int _lastCycleHostCount;
+    private volatile int _lastCycleTimeoutCount;
+    private volatile int _lastCycleFailureCount;
+    private volatile long _lastCycleAverageHostLatency;
+    private volatile long _lastCycleMaxHostLatency;
+
+    /**
+     * @param hostTimeout milliseconds a single host may take once its task has started
+     * @param cycleTimeout milliseconds after which hosts still waiting for a free thread are skipped
+     */
+    public HostStatsDispatcher(String name, ExecutorService executor, long hostTimeout, long cycleTimeout) {
+        super(HostStatsDispatcherMBean.class, false);
+        _name = name;
+        _executor = executor;
+        _hostTimeout = hostTimeout;
+        _cycleTimeout = Math.max(cycleTimeout, hostTimeout);
+    }
+
+    /**
+     * Collects from all hosts and returns once every host has answered,
+     * failed or timed out.
+     *
+     * @return ids of the hosts the task collected from successfully
+     */
+    public <T extends Host> Set<Long> dispatch(List<T> hosts, HostTask<T> task) {
+        long cycleStart = System.currentTimeMillis();
+        CompletionService<Boolean> completionService = new ExecutorCompletionService<Boolean>(_executor);
+        Map<Future<Boolean>, HostCollection<T>> pending = new HashMap<Future<Boolean>, HostCollection<T>>();
+        Set<Long> hostIds = new HashSet<Long>();
+        for (T host : hosts) {
+            hostIds.add(host.getId());
+            HostCollection<T> collection = new HostCollection<T>(host, task);
+            try {
+                pending.put(completionService.submit(collection), collection);
+            } catch (RejectedExecutionException e) {
+                s_logger.warn("Unable to schedule " + _name + " collection for host " + host.getId() + ", the collector is shutting down");
+                break;
+            }
+        }
+
+        Set<Long> collected = new HashSet<Long>();
+        int timeouts = 0;
+        int failures = 0;
+        long latencySum = 0;
+        long maxLatency = 0;
+        while (!pending.isEmpty()) {
+            long now = System.currentTimeMillis();
+            boolean cycleExpired = now - cycleStart >= _cycleTimeout;
+            long wait = _cycleTimeout - (now - cycleStart);
+
+            Iterator<Map.Entry<Future<Boolean>, HostCollection<T>>> it = pending.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Future<Boolean>, HostCollection<T>> entry = it.next();
+                HostCollection<T> collection = entry.getValue();
+                long startTick = collection.getStartTick();
+                // a collection that hasn't started yet is checked again within the host timeout,
+                // it may start and hang while waiting for the others
+                long remaining = startTick == 0 ? Math.min(wait, _hostTimeout) : startTick + _hostTimeout - now;
+                if (remaining <= 0 || cycleExpired) {
+                    // A collection that started is left to finish, interrupting it could break the
+                    // agent request or the db connection it is in the middle of.
+                    entry.getKey().cancel(false);
+                    it.remove();
+                    timeouts++;
+                    latencySum += _hostTimeout;
+                    maxLatency = Math.max(maxLatency, _hostTimeout);
+                    _hostLatencies.put(collection.getHost().getId(), _hostTimeout);
+                    s_logger.warn("Timed out collecting " + _name + " from host " + collection.getHost().getId() +
+                        (startTick == 0 ? ", no collector thread became available" : " after " + _hostTimeout + "ms"));
+                } else {
+                    wait = Math.min(wait, remaining);
+                }
+            }
+            if (pending.isEmpty()) {
+                break;
+            }
+
+            Future<Boolean> done;
+            try {
+                done = completionService.poll(wait, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                for (Future<Boolean> future : pending.keySet()) {
+                    future.cancel(false);
+                }
+                Thread.currentThread().interrupt();
+                break;
+            }
+            if (done == null) {
+                continue;
+            }
+            // futures cancelled on timeout are delivered too, they are no longer pending
+            HostCollection<T> collection = pending.remove(done);
+            if (collection == null) {
+                continue;
+            }
+
+            long latency = collection.getLatency();
+            latencySum += latency;
+            maxLatency = Math.max(maxLatency, latency);
+            if (isCollected(done)) {
+                collected.add(collection.getHost().getId());
+            } else {
+                failures++;
+            }
+        }
+
+        _hostLatencies.keySet().retainAll(hostIds);
+        long duration = System.currentTimeMillis() - cycleStart;
+        _cycleCount.incrementAndGet();
+        _lastCycleDuration = duration;
+        _maxCycleDuration = Math.max(_maxCycleDuration, duration);
+        _lastCycleHostCount = hosts.size();
+        _lastCycleTimeoutCount = timeouts;
+        _lastCycleFailureCount = failures;
+        _lastCycleAverageHostLatency = hosts.isEmpty() ? 0 : latencySum / hosts.size();
+        _lastCycleMaxHostLatency = maxLatency;
+
+        if (s_logger.isDebugEnabled()) {
+            s_logger.debug("Collected " + _name + " from " + collected.size() + " of " + hosts.size() + " hosts in " + duration + "ms, " + timeouts + " timed out, " +
+                failures + " failed, max host latency " + maxLatency + "ms");
+        }
+        return collected;
+    }
+
+    private static boolean isCollected(Future<Boolean> future) {
+        try {
+            return Boolean.TRUE.equals(future.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            return false;
+        }
+    }
+
+    private class HostCollection<T extends Host> extends ManagedContextRunnable implements Callable<Boolean> {
+        private final T _host;
+        private final HostTask<T> _task;
+        private volatile long _startTick;
+        private volatile long _latency;
+        private boolean _collected;
+
+        HostCollection(T host, HostTask<T> task) {
+            _host = host;
+            _task = task;
+        }
+
+        @Override
+        public Boolean call() {
+            run();
+            return _collected;
+        }
+
+        @Override
+        protected void runInContext() {
+            _startTick = System.currentTimeMillis();
+            try {
+                _collected = _task.collect(_host);
+            } catch (Exception e) {
+                s_logger.warn("Failed to collect " + _name + " from host " + _host.getId(), e);
+            } finally {
+                _latency = System.currentTimeMillis() - _startTick;
+                _hostLatencies.put(_host.getId(), _latency);
+            }
+        }
+
+        T getHost() {
+            return _host;
+        }
+
+        long getStartTick() {
+            return _startTick;
+        }
+
+        long getLatency() {
+            return _latency;
+        }
+    }
+
+    @Override
+    public String getName() {
+        return _name;
+    }
+
+    @Override
+    public long getCycleCount() {
+        return _cycleCount.get();
+    }
+
+    @Override
+    public long getLastCycleDurationMs() {
+        return _lastCycleDuration;
+    }
+
+    @Override
+    public long getMaxCycleDurationMs() {
+        return _maxCycleDuration;
+    }
+
+    @Override
+    public int getLastCycleHostCount() {
+        return _lastCycleHostCount;
+    }
+
+    @Override
+    public int getLastCycleTimeoutCount() {
+        return _lastCycleTimeoutCount;
+    }
+
+    @Override
+    public int getLastCycleFailureCount() {
+        return _lastCycleFailureCount;
+    }
+
+    @Override
+    public long getLastCycleAverageHostLatencyMs() {
+        return _lastCycleAverageHostLatency;
+    }
+
+    @Override
+    public long getLastCycleMaxHostLatencyMs() {
+        return _lastCycleMaxHostLatency;
+    }
+
+    @Override
+    public Map<Long, Long> getHostLatenciesMs() {
+        return new HashMap<Long, Long>(_hostLatencies);
+    }
+}
@@ -18,6 +18,9 @@ package com.cloud.server;
 
 import java.util.List;
 
+import org.apache.log4j.Logger;
+
+import com.cloud.cluster.ClusterManager;
 import com.cloud.cluster.ClusterManagerListener;
 import com.cloud.cluster.ManagementServerHost;
 import com.cloud.utils.db.Merovingian2;
@@ -25,14 +28,31 @@ import com.cloud.utils.db.Merovingian2;
 /**
  * when a management server is down.
  *
+ * It also carries lock contention and releases between the management
+ * servers so that threads waiting for a lock owned by another management
+ * server are woken up as soon as it is released.
  */
-public class LockMasterListener implements ClusterManagerListener {
+public class LockMasterListener implements ClusterManagerListener, ClusterManager.NotificationHandler, Merovingian2.LockNotifier {
+    private static final Logger s_logger = Logger.getLogger(LockMasterListener.class);
+
+    public static final String LOCK_WAITING_SUBJECT = "lock.waiting";
+    public static final String LOCK_RELEASED_SUBJECT = "lock.released";
+
     Merovingian2 _lockMaster;
+    ClusterManager _clusterMgr;
 
     public LockMasterListener(long msId) {
         _lockMaster = Merovingian2.createLockMaster(msId);
     }
 
+    public void registerWith(ClusterManager clusterMgr) {
+        _clusterMgr = clusterMgr;
+        clusterMgr.registerListener(this);
+        clusterMgr.registerNotificationHandler(LOCK_WAITING_SUBJECT, this);
+        clusterMgr.registerNotificationHandler(LOCK_RELEASED_SUBJECT, this);
+        _lockMaster.setNotifier(this);
+    }
+
     @Override
     public void onManagementNodeJoined(List<? extends ManagementServerHost> nodeList, long selfNodeId) {
     }
@@ -48,4 +68,27 @@ public class LockMasterListener implements ClusterManagerListener {
     public void onManagementNodeIsolated() {
     }
 
+    @Override
+    public void waiting(long ownerMsId, String key) {
+        _clusterMgr.sendNotification(Long.toString(ownerMsId), LOCK_WAITING_SUBJECT, ownerMsId + " " + key);
+    }
+
+    @Override
+    public void released(String key) {
+        _clusterMgr.broadcastNotification(LOCK_RELEASED_SUBJECT, key);
+    }
+
+    @Override
+    public void onNotification(String sourcePeer, String subject, String message) {
+        if (LOCK_RELEASED_SUBJECT.equals(subject)) {
+            _lockMaster.onRemoteReleased(message);
+        } else if (LOCK_WAITING_SUBJECT.equals(subject)) {
+            int index = message.indexOf(' ');
+            if (index <= 0) {
+                s_logger.warn("Ignoring malformed lock notification from " + sourcePeer + ": " + message);
+                return;
+            }
+            _lockMaster.onRemoteWaiting(Long.parseLong(message.substring(0, index)), message.substring(index + 1));
+        }
+    }
 }
@@ -41,6 +41,7 @@ import org.apache.cloudstack.acl.ControlledEntity;
 import org.apache.cloudstack.affinity.AffinityGroupProcessor;
 import org.apache.cloudstack.affinity.dao.AffinityGroupVMMapDao;
 import org.apache.cloudstack.api.ApiConstants;
+import org.apache.cloudstack.api.InternalIdentity;
 import org.apache.cloudstack.api.command.admin.account.CreateAccountCmd;
 import org.apache.cloudstack.api.command.admin.account.DeleteAccountCmd;
 import org.apache.cloudstack.api.command.admin.account.DisableAccountCmd;
@@ -147,6 +148,7 @@ import org.apache.cloudstack.api.command.admin.resource.CleanVMReservationsCmd;
 import org.apache.cloudstack.api.command.admin.resource.DeleteAlertsCmd;
 import org.apache.cloudstack.api.command.admin.resource.ListAlertsCmd;
 import org.apache.cloudstack.api.command.admin.resource.ListCapacityCmd;
+import org.apache.cloudstack.api.command.admin.resource.ListStatsHistoryCmd;
 import org.apache.cloudstack.api.command.admin.resource.UploadCustomCertificateCmd;
 import org.apache.cloudstack.api.command.admin.router.ConfigureOvsElementCmd;
 import org.apache.cloudstack.api.command.admin.router.ConfigureVirtualRouterElementCmd;
@@ -595,6 +597,7 @@ import com.cloud.projects.Project.ListProjectResourcesCriteria;
 import com.cloud.projects.ProjectManager;
 import com.cloud.resource.ResourceManager;
 import com.cloud.server.ResourceTag.ResourceObjectType;
+import com.cloud.server.StatsSeries.ResourceType;
 import com.cloud.server.auth.UserAuthenticator;
 import com.cloud.service.ServiceOfferingVO;
 import com.cloud.service.dao.ServiceOfferingDao;
@@ -888,7 +891,7 @@ public class ManagementServerImpl extends ManagerBase implements ManagementServe
             _lockMasterListener = new LockMasterListener(ManagementServerNode.getManagementServerId());
         }
 
-        _clusterMgr.registerListener(_lockMasterListener);
+        _lockMasterListener.registerWith(_clusterMgr);
 
         enableAdminUser("password");
         return true;
@@ -2493,6 +2496,30 @@ public class ManagementServerImpl extends ManagerBase implements ManagementServe
         return null;
     }
 
+    @Override
+    public List<StatsSeries> listStatsHistory(ListStatsHistoryCmd cmd) {
+        ResourceType resourceType = cmd.getResourceType();
+        InternalIdentity resource = null;
+        switch (resourceType) {
+        case Host:
+            resource = _hostDao.findByUuid(cmd.getId());
+            break;
+        case VirtualMachine:
+            resource = _vmInstanceDao.findByUuid(cmd.getId());
+            break;
+        case StoragePool:
+            resource = _poolDao.findByUuid(cmd.getId());
+            break;
+        case ImageStore:
+            resource = _imgStoreDao.findByUuid(cmd.getId());
+            break;
+        }
+        if (resource == null) {
+            throw new InvalidParameterValueException("Unable to find " + resourceType + " with id " + cmd.getId());
+        }
+        return StatsCollector.getInstance().listStatsHistory(resourceType, resource.getId(), cmd.getId(), cmd.getMetric(), cmd.getStartDate());
+    }
+
     @Override
     public List<CapacityVO> listCapacities(ListCapacityCmd cmd) {
 
@@ -2627,6 +2654,7 @@ public class ManagementServerImpl extends ManagerBase implements ManagementServe
         cmdList.add(UpdateRegionCmd.class);
         cmdList.add(ListAlertsCmd.class);
         cmdList.add(ListCapacityCmd.class);
+        cmdList.add(ListStatsHistoryCmd.class);
         cmdList.add(UploadCustomCertificateCmd.class);
         cmdList.add(ConfigureVirtualRouterElementCmd.class);
         cmdList.add(CreateVirtualRouterElementCmd.class);
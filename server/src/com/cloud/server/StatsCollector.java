@@ -16,15 +16,21 @@
 // under the License.
 package com.cloud.server;
 
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TimeZone;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -56,6 +62,7 @@ import com.cloud.agent.api.VmDiskStatsEntry;
 import com.cloud.agent.api.VmStatsEntry;
 import com.cloud.cluster.ManagementServerHostVO;
 import com.cloud.cluster.dao.ManagementServerHostDao;
+import com.cloud.exception.InvalidParameterValueException;
 import com.cloud.exception.StorageUnavailableException;
 import com.cloud.gpu.dao.HostGpuGroupsDao;
 import com.cloud.host.Host;
@@ -66,6 +73,11 @@ import com.cloud.host.dao.HostDao;
 import com.cloud.hypervisor.Hypervisor.HypervisorType;
 import com.cloud.resource.ResourceManager;
 import com.cloud.resource.ResourceState;
+import com.cloud.server.StatsSeries.ResourceType;
+import com.cloud.server.stats.GraphiteStatsExporter;
+import com.cloud.server.stats.PrometheusStatsExporter;
+import com.cloud.server.stats.StatsExporter;
+import com.cloud.server.stats.StatsHistory;
 import com.cloud.storage.StorageManager;
 import com.cloud.storage.StorageStats;
 import com.cloud.storage.VolumeStats;
@@ -84,6 +96,7 @@ import com.cloud.utils.db.SearchCriteria;
 import com.cloud.utils.db.Transaction;
 import com.cloud.utils.db.TransactionCallbackNoReturn;
 import com.cloud.utils.db.TransactionStatus;
+import com.cloud.utils.mgmt.JmxUtil;
 import com.cloud.utils.net.MacAddress;
 import com.cloud.vm.UserVmManager;
 import com.cloud.vm.UserVmVO;
@@ -102,7 +115,17 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
 
     private static StatsCollector s_instance = null;
 
+    // the samples recorded for each resource type, in this order
+    private static final String[] HOST_METRICS = {"cpu_utilization", "total_memory_kbs", "free_memory_kbs", "network_read_kbs", "network_write_kbs"};
+    private static final String[] VM_METRICS = {"cpu_utilization", "network_read_kbs", "network_write_kbs", "disk_read_kbs", "disk_write_kbs", "disk_read_ios",
+        "disk_write_ios"};
+    private static final String[] STORAGE_METRICS = {"capacity_bytes", "used_bytes"};
+
     private ScheduledExecutorService _executor = null;
+    private ExecutorService _collectionExecutor = null;
+    private HostStatsDispatcher _hostStatsDispatcher;
+    private HostStatsDispatcher _vmStatsDispatcher;
+    private HostStatsDispatcher _vmDiskStatsDispatcher;
     @Inject
     private AgentManager _agentMgr;
     @Inject
@@ -140,12 +163,18 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
     @Inject
     private AutoScaleCounterCollector _autoScaleCounterCollector;
 
-    private ConcurrentHashMap<Long, HostStats> _hostStats = new ConcurrentHashMap<Long, HostStats>();
+    private final ConcurrentHashMap<Long, HostStats> _hostStats = new ConcurrentHashMap<Long, HostStats>();
     private final ConcurrentHashMap<Long, VmStats> _VmStats = new ConcurrentHashMap<Long, VmStats>();
     private final ConcurrentHashMap<Long, VolumeStats> _volumeStats = new ConcurrentHashMap<Long, VolumeStats>();
     private ConcurrentHashMap<Long, StorageStats> _storageStats = new ConcurrentHashMap<Long, StorageStats>();
     private ConcurrentHashMap<Long, StorageStats> _storagePoolStats = new ConcurrentHashMap<Long, StorageStats>();
 
+    private StatsHistory _hostStatsHistory;
+    private StatsHistory _vmStatsHistory;
+    private StatsHistory _storagePoolStatsHistory;
+    private StatsHistory _imageStoreStatsHistory;
+    private StatsExporter _statsExporter;
+
     long hostStatsInterval = -1L;
     long hostAndVmStatsInterval = -1L;
     long storageStatsInterval = -1L;
@@ -153,6 +182,10 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
     long autoScaleStatsInterval = -1L;
     long autoScaleCounterCollectorInterval = -1L;
     int vmDiskStatsInterval = 0;
+    int statsCollectionParallelism = 10;
+    long statsCollectionHostTimeout = 30000L;
+    int statsHistoryRetention = 60;
+    int statsHistoryResolution = 60;
     List<Long> hostIds = null;
 
     private ScheduledExecutorService _diskStatsUpdateExecutor;
@@ -193,6 +226,27 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
         autoScaleStatsInterval = NumbersUtil.parseLong(configs.get("autoscale.stats.interval"), 60000L);
         autoScaleCounterCollectorInterval = NumbersUtil.parseLong(configs.get("autoscale.reading.interval"), 10000L);
         vmDiskStatsInterval = NumbersUtil.parseInt(configs.get("vm.disk.stats.interval"), 0);
+        statsCollectionParallelism = Math.max(1, NumbersUtil.parseInt(configs.get("stats.collection.parallelism"), 10));
+        statsCollectionHostTimeout = NumbersUtil.parseLong(configs.get("stats.collection.host.timeout"), 30000L);
+
+        // hosts are queried in parallel, shared by the host, vm and vm disk stats collectors
+        _collectionExecutor = Executors.newFixedThreadPool(statsCollectionParallelism, new NamedThreadFactory("StatsCollector-Host"));
+        _hostStatsDispatcher = createDispatcher("HostStats", hostStatsInterval);
+        _vmStatsDispatcher = createDispatcher("VmStats", hostAndVmStatsInterval);
+        _vmDiskStatsDispatcher = createDispatcher("VmDiskStats", vmDiskStatsInterval * 1000L);
+
+        statsHistoryRetention = NumbersUtil.parseInt(configs.get("stats.history.retention"), 60);
+        statsHistoryResolution = Math.max(1, NumbersUtil.parseInt(configs.get("stats.history.resolution"), 60));
+        _statsExporter = createStatsExporter(configs.get("stats.output.uri"));
+        if (statsHistoryRetention > 0 || _statsExporter != null) {
+            // without retention only the current interval is kept, for the exporter
+            int capacity = Math.max(1, statsHistoryRetention * 60 / statsHistoryResolution);
+            long resolution = statsHistoryResolution * 1000L;
+            _hostStatsHistory = new StatsHistory(ResourceType.Host, HOST_METRICS, capacity, resolution);
+            _vmStatsHistory = new StatsHistory(ResourceType.VirtualMachine, VM_METRICS, capacity, resolution);
+            _storagePoolStatsHistory = new StatsHistory(ResourceType.StoragePool, STORAGE_METRICS, capacity, resolution);
+            _imageStoreStatsHistory = new StatsHistory(ResourceType.ImageStore, STORAGE_METRICS, capacity, resolution);
+        }
 
         if (hostStatsInterval > 0) {
             _executor.scheduleWithFixedDelay(new HostCollector(), 15000L, hostStatsInterval, TimeUnit.MILLISECONDS);
@@ -264,6 +318,109 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
 
     }
 
+    private HostStatsDispatcher createDispatcher(String name, long interval) {
+        HostStatsDispatcher dispatcher = new HostStatsDispatcher(name, _collectionExecutor, statsCollectionHostTimeout, interval);
+        try {
+            JmxUtil.registerMBean("StatsCollector", name, dispatcher);
+        } catch (Exception e) {
+            s_logger.warn("Unable to register stats collector MBean " + name, e);
+        }
+        return dispatcher;
+    }
+
+    private StatsExporter createStatsExporter(String outputUri) {
+        if (outputUri == null || outputUri.trim().isEmpty()) {
+            return null;
+        }
+
+        try {
+            URI uri = new URI(outputUri.trim());
+            String prefix = uri.getPath() == null || uri.getPath().length() <= 1 ? "cloudstack" : uri.getPath().substring(1);
+            if ("graphite".equalsIgnoreCase(uri.getScheme()) && uri.getHost() != null) {
+                return new GraphiteStatsExporter(uri.getHost(), uri.getPort() > 0 ? uri.getPort() : GraphiteStatsExporter.DEFAULT_PORT, prefix);
+            } else if ("prometheus".equalsIgnoreCase(uri.getScheme()) && uri.getHost() != null && uri.getPort() > 0) {
+                return new PrometheusStatsExporter(uri.getHost(), uri.getPort(), prefix);
+            }
+            s_logger.warn("Unsupported stats.output.uri " + outputUri + ", expected graphite://host[:port][/prefix] or prometheus://host:port[/prefix]");
+        } catch (URISyntaxException e) {
+            s_logger.warn("Invalid stats.output.uri " + outputUri, e);
+        }
+        return null;
+    }
+
+    /**
+     * Replaces the exporter configured by stats.output.uri, null stops exporting.
+     */
+    public void setStatsExporter(StatsExporter exporter) {
+        StatsExporter previous = _statsExporter;
+        _statsExporter = exporter;
+        if (previous != null && previous != exporter) {
+            previous.close();
+        }
+    }
+
+    private void exportStats(StatsHistory history, long timestamp) {
+        StatsExporter exporter = _statsExporter;
+        if (exporter == null || history == null) {
+            return;
+        }
+        try {
+            exporter.export(history, timestamp);
+        } catch (IOException e) {
+            s_logger.warn("Failed to export " + history.getResourceType() + " stats to " + exporter + ": " + e.getMessage());
+        }
+    }
+
+    private void recordHostStats(long hostId, HostStats stats, long timestamp) {
+        if (_hostStatsHistory != null) {
+            _hostStatsHistory.record(hostId, 0, timestamp, stats.getCpuUtilization());
+            _hostStatsHistory.record(hostId, 1, timestamp, stats.getTotalMemoryKBs());
+            _hostStatsHistory.record(hostId, 2, timestamp, stats.getFreeMemoryKBs());
+            _hostStatsHistory.record(hostId, 3, timestamp, stats.getNetworkReadKBs());
+            _hostStatsHistory.record(hostId, 4, timestamp, stats.getNetworkWriteKBs());
+        }
+    }
+
+    private void recordVmStats(long vmId, VmStats stats, long timestamp) {
+        if (_vmStatsHistory != null) {
+            _vmStatsHistory.record(vmId, 0, timestamp, stats.getCPUUtilization());
+            _vmStatsHistory.record(vmId, 1, timestamp, stats.getNetworkReadKBs());
+            _vmStatsHistory.record(vmId, 2, timestamp, stats.getNetworkWriteKBs());
+            _vmStatsHistory.record(vmId, 3, timestamp, stats.getDiskReadKBs());
+            _vmStatsHistory.record(vmId, 4, timestamp, stats.getDiskWriteKBs());
+            _vmStatsHistory.record(vmId, 5, timestamp, stats.getDiskReadIOs());
+            _vmStatsHistory.record(vmId, 6, timestamp, stats.getDiskWriteIOs());
+        }
+    }
+
+    private static void recordStorageStats(StatsHistory history, long id, StorageStats stats, long timestamp) {
+        if (history != null) {
+            history.record(id, 0, timestamp, stats.getCapacityBytes());
+            history.record(id, 1, timestamp, stats.getByteUsed());
+        }
+    }
+
+    private static void retainStatsHistory(StatsHistory history, Set<Long> ids) {
+        if (history != null) {
+            history.retain(ids);
+        }
+    }
+
+    @Override
+    public boolean stop() {
+        if (_executor != null) {
+            _executor.shutdownNow();
+        }
+        if (_diskStatsUpdateExecutor != null) {
+            _diskStatsUpdateExecutor.shutdownNow();
+        }
+        if (_collectionExecutor != null) {
+            _collectionExecutor.shutdownNow();
+        }
+        setStatsExporter(null);
+        return true;
+    }
+
     class HostCollector extends ManagedContextRunnable {
         @Override
         protected void runInContext() {
@@ -284,35 +441,38 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
                 sc.addAnd("type", SearchCriteria.Op.NEQ, Host.Type.L2Networking.toString());
                 sc.addAnd("type", SearchCriteria.Op.NEQ, Host.Type.BaremetalDhcp.toString());
                 sc.addAnd("type", SearchCriteria.Op.NEQ, Host.Type.BaremetalPxe.toString());
-                ConcurrentHashMap<Long, HostStats> hostStats = new ConcurrentHashMap<Long, HostStats>();
                 List<HostVO> hosts = _hostDao.search(sc, null);
-                for (HostVO host : hosts) {
-                    HostStatsEntry stats = (HostStatsEntry)_resourceMgr.getHostStatistics(host.getId());
-                    if (stats != null) {
-                        hostStats.put(host.getId(), stats);
-                    } else {
-                        s_logger.warn("Received invalid host stats for host: " + host.getId());
-                    }
-                }
-                _hostStats = hostStats;
-                // Get a subset of hosts with GPU support from the list of "hosts"
-                List<HostVO> gpuEnabledHosts = new ArrayList<HostVO>();
-                if (hostIds != null) {
-                    for (HostVO host : hosts) {
-                        if (hostIds.contains(host.getId())) {
-                            gpuEnabledHosts.add(host);
+                // hosts with GPU support, null checks all the hosts managed by CloudStack
+                final List<Long> gpuHostIds = hostIds;
+                final long now = System.currentTimeMillis();
+                Set<Long> collected = _hostStatsDispatcher.dispatch(hosts, new HostStatsDispatcher.HostTask<HostVO>() {
+                    @Override
+                    public boolean collect(HostVO host) {
+                        HostStatsEntry stats = (HostStatsEntry)_resourceMgr.getHostStatistics(host.getId());
+                        if (stats != null) {
+                            _hostStats.put(host.getId(), stats);
+                            recordHostStats(host.getId(), stats, now);
+                        } else {
+                            s_logger.warn("Received invalid host stats for host: " + host.getId());
                         }
+
+                        if (gpuHostIds == null || gpuHostIds.contains(host.getId())) {
+                            HashMap<String, HashMap<String, VgpuTypesInfo>> groupDetails = _resourceMgr.getGPUStatistics(host);
+                            if (groupDetails != null) {
+                                _resourceMgr.updateGPUDetails(host.getId(), groupDetails);
+                            }
+                        }
+                        return stats != null;
                     }
-                } else {
-                    // Check for all the hosts managed by CloudStack.
-                    gpuEnabledHosts = hosts;
-                }
-                for (HostVO host : gpuEnabledHosts) {
-                    HashMap<String, HashMap<String, VgpuTypesInfo>> groupDetails = _resourceMgr.getGPUStatistics(host);
-                    if (groupDetails != null) {
-                        _resourceMgr.updateGPUDetails(host.getId(), groupDetails);
-                    }
+                });
+                // drop hosts that went away or did not answer this cycle
+                _hostStats.keySet().retainAll(collected);
+                Set<Long> upHostIds = new HashSet<Long>();
+                for (HostVO host : hosts) {
+                    upHostIds.add(host.getId());
                 }
+                retainStatsHistory(_hostStatsHistory, upHostIds);
+                exportStats(_hostStatsHistory, now);
                 hostIds = _hostGpuGroupsDao.listHostIds();
             } catch (Throwable t) {
                 s_logger.error("Error trying to retrieve host stats", t);
@@ -337,52 +497,61 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
                 sc.addAnd("type", SearchCriteria.Op.NEQ, Host.Type.SecondaryStorageVM.toString());
                 List<HostVO> hosts = _hostDao.search(sc, null);
 
-                for (HostVO host : hosts) {
-                    List<UserVmVO> vms = _userVmDao.listRunningByHostId(host.getId());
-                    List<Long> vmIds = new ArrayList<Long>();
-
-                    for (UserVmVO vm : vms) {
-                        vmIds.add(vm.getId());
+                final long now = System.currentTimeMillis();
+                final Set<Long> runningVmIds = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+                _vmStatsDispatcher.dispatch(hosts, new HostStatsDispatcher.HostTask<HostVO>() {
+                    @Override
+                    public boolean collect(HostVO host) {
+                        return collectVmStats(host, now, runningVmIds);
                     }
+                });
+                retainStatsHistory(_vmStatsHistory, runningVmIds);
+                exportStats(_vmStatsHistory, now);
+            } catch (Throwable t) {
+                s_logger.error("Error trying to retrieve VM stats", t);
+            }
+        }
 
-                    try {
-                        HashMap<Long, VmStatsEntry> vmStatsById = _userVmMgr.getVirtualMachineStatistics(host.getId(), host.getName(), vmIds);
-
-                        if (vmStatsById != null) {
-                            VmStatsEntry statsInMemory = null;
-
-                            Set<Long> vmIdSet = vmStatsById.keySet();
-                            for (Long vmId : vmIdSet) {
-                                VmStatsEntry statsForCurrentIteration = vmStatsById.get(vmId);
-                                statsInMemory = (VmStatsEntry)_VmStats.get(vmId);
-
-                                if (statsInMemory == null) {
-                                    //no stats exist for this vm, directly persist
-                                    _VmStats.put(vmId, statsForCurrentIteration);
-                                } else {
-                                    //update each field
-                                    statsInMemory.setCPUUtilization(statsForCurrentIteration.getCPUUtilization());
-                                    statsInMemory.setNumCPUs(statsForCurrentIteration.getNumCPUs());
-                                    statsInMemory.setNetworkReadKBs(statsInMemory.getNetworkReadKBs() + statsForCurrentIteration.getNetworkReadKBs());
-                                    statsInMemory.setNetworkWriteKBs(statsInMemory.getNetworkWriteKBs() + statsForCurrentIteration.getNetworkWriteKBs());
-                                    statsInMemory.setDiskWriteKBs(statsInMemory.getDiskWriteKBs() + statsForCurrentIteration.getDiskWriteKBs());
-                                    statsInMemory.setDiskReadIOs(statsInMemory.getDiskReadIOs() + statsForCurrentIteration.getDiskReadIOs());
-                                    statsInMemory.setDiskWriteIOs(statsInMemory.getDiskWriteIOs() + statsForCurrentIteration.getDiskWriteIOs());
-                                    statsInMemory.setDiskReadKBs(statsInMemory.getDiskReadKBs() + statsForCurrentIteration.getDiskReadKBs());
-
-                                    _VmStats.put(vmId, statsInMemory);
-                                }
+        private boolean collectVmStats(HostVO host, long now, Set<Long> runningVmIds) {
+            List<UserVmVO> vms = _userVmDao.listRunningByHostId(host.getId());
+            List<Long> vmIds = new ArrayList<Long>();
+
+            for (UserVmVO vm : vms) {
+                vmIds.add(vm.getId());
+            }
+            runningVmIds.addAll(vmIds);
+
+            try {
+                HashMap<Long, VmStatsEntry> vmStatsById = _userVmMgr.getVirtualMachineStatistics(host.getId(), host.getName(), vmIds);
+
+                if (vmStatsById != null) {
+                    Set<Long> vmIdSet = vmStatsById.keySet();
+                    for (Long vmId : vmIdSet) {
+                        VmStatsEntry statsForCurrentIteration = vmStatsById.get(vmId);
+                        recordVmStats(vmId, statsForCurrentIteration, now);
+                        //no stats exist for this vm, directly persist
+                        VmStatsEntry statsInMemory = (VmStatsEntry)_VmStats.putIfAbsent(vmId, statsForCurrentIteration);
+
+                        if (statsInMemory != null) {
+                            // a migrating vm may be reported by two hosts at once
+                            synchronized (statsInMemory) {
+                                //update each field
+                                statsInMemory.setCPUUtilization(statsForCurrentIteration.getCPUUtilization());
+                                statsInMemory.setNumCPUs(statsForCurrentIteration.getNumCPUs());
+                                statsInMemory.setNetworkReadKBs(statsInMemory.getNetworkReadKBs() + statsForCurrentIteration.getNetworkReadKBs());
+                                statsInMemory.setNetworkWriteKBs(statsInMemory.getNetworkWriteKBs() + statsForCurrentIteration.getNetworkWriteKBs());
+                                statsInMemory.setDiskWriteKBs(statsInMemory.getDiskWriteKBs() + statsForCurrentIteration.getDiskWriteKBs());
+                                statsInMemory.setDiskReadIOs(statsInMemory.getDiskReadIOs() + statsForCurrentIteration.getDiskReadIOs());
+                                statsInMemory.setDiskWriteIOs(statsInMemory.getDiskWriteIOs() + statsForCurrentIteration.getDiskWriteIOs());
+                                statsInMemory.setDiskReadKBs(statsInMemory.getDiskReadKBs() + statsForCurrentIteration.getDiskReadKBs());
                             }
                         }
-
-                    } catch (Exception e) {
-                        s_logger.debug("Failed to get VM stats for host with ID: " + host.getId());
-                        continue;
                     }
                 }
-
-            } catch (Throwable t) {
-                s_logger.error("Error trying to retrieve VM stats", t);
+                return vmStatsById != null;
+            } catch (Exception e) {
+                s_logger.debug("Failed to get VM stats for host with ID: " + host.getId());
+                return false;
             }
         }
     }
@@ -443,123 +612,132 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
         protected void runInContext() {
             // collect the vm disk statistics(total) from hypervisor. added by weizhou, 2013.03.
             try {
-                Transaction.execute(new TransactionCallbackNoReturn() {
-                    @Override
-                    public void doInTransactionWithoutResult(TransactionStatus status) {
-                        SearchCriteria<HostVO> sc = _hostDao.createSearchCriteria();
-                        sc.addAnd("status", SearchCriteria.Op.EQ, Status.Up.toString());
-                        sc.addAnd("resourceState", SearchCriteria.Op.NIN, ResourceState.Maintenance, ResourceState.PrepareForMaintenance,
-                            ResourceState.ErrorInMaintenance);
-                        sc.addAnd("type", SearchCriteria.Op.EQ, Host.Type.Routing.toString());
-                        sc.addAnd("hypervisorType", SearchCriteria.Op.EQ, HypervisorType.KVM); // support KVM only util 2013.06.25
-                        List<HostVO> hosts = _hostDao.search(sc, null);
-
-                        for (HostVO host : hosts) {
-                            List<UserVmVO> vms = _userVmDao.listRunningByHostId(host.getId());
-                            List<Long> vmIds = new ArrayList<Long>();
-
-                            for (UserVmVO vm : vms) {
-                                if (vm.getType() == VirtualMachine.Type.User) // user vm
-                                    vmIds.add(vm.getId());
-                            }
+                SearchCriteria<HostVO> sc = _hostDao.createSearchCriteria();
+                sc.addAnd("status", SearchCriteria.Op.EQ, Status.Up.toString());
+                sc.addAnd("resourceState", SearchCriteria.Op.NIN, ResourceState.Maintenance, ResourceState.PrepareForMaintenance,
+                    ResourceState.ErrorInMaintenance);
+                sc.addAnd("type", SearchCriteria.Op.EQ, Host.Type.Routing.toString());
+                sc.addAnd("hypervisorType", SearchCriteria.Op.EQ, HypervisorType.KVM); // support KVM only util 2013.06.25
+                List<HostVO> hosts = _hostDao.search(sc, null);
 
-                            HashMap<Long, List<VmDiskStatsEntry>> vmDiskStatsById = _userVmMgr.getVmDiskStatistics(host.getId(), host.getName(), vmIds);
-                            if (vmDiskStatsById == null)
-                                continue;
+                _vmDiskStatsDispatcher.dispatch(hosts, new HostStatsDispatcher.HostTask<HostVO>() {
+                    @Override
+                    public boolean collect(HostVO host) {
+                        return collectVmDiskStats(host);
+                    }
+                });
+            } catch (Exception e) {
+                s_logger.warn("Error while collecting vm disk stats from hosts", e);
+            }
+        }
 
-                            Set<Long> vmIdSet = vmDiskStatsById.keySet();
-                            for (Long vmId : vmIdSet) {
-                                List<VmDiskStatsEntry> vmDiskStats = vmDiskStatsById.get(vmId);
-                                if (vmDiskStats == null)
-                                    continue;
-                                UserVmVO userVm = _userVmDao.findById(vmId);
-                                for (VmDiskStatsEntry vmDiskStat : vmDiskStats) {
-                                    SearchCriteria<VolumeVO> sc_volume = _volsDao.createSearchCriteria();
-                                    sc_volume.addAnd("path", SearchCriteria.Op.EQ, vmDiskStat.getPath());
-                                    List<VolumeVO> volumes = _volsDao.search(sc_volume, null);
-                                    if ((volumes == null) || (volumes.size() == 0))
-                                        break;
-                                    VolumeVO volume = volumes.get(0);
-                                    VmDiskStatisticsVO previousVmDiskStats =
-                                        _vmDiskStatsDao.findBy(userVm.getAccountId(), userVm.getDataCenterId(), vmId, volume.getId());
-                                    VmDiskStatisticsVO vmDiskStat_lock = _vmDiskStatsDao.lock(userVm.getAccountId(), userVm.getDataCenterId(), vmId, volume.getId());
-
-                                    if ((vmDiskStat.getBytesRead() == 0) && (vmDiskStat.getBytesWrite() == 0) && (vmDiskStat.getIORead() == 0) &&
-                                        (vmDiskStat.getIOWrite() == 0)) {
-                                        s_logger.debug("IO/bytes read and write are all 0. Not updating vm_disk_statistics");
-                                        continue;
-                                    }
+        private boolean collectVmDiskStats(final HostVO host) {
+            List<UserVmVO> vms = _userVmDao.listRunningByHostId(host.getId());
+            List<Long> vmIds = new ArrayList<Long>();
 
-                                    if (vmDiskStat_lock == null) {
-                                        s_logger.warn("unable to find vm disk stats from host for account: " + userVm.getAccountId() + " with vmId: " + userVm.getId() +
-                                            " and volumeId:" + volume.getId());
-                                        continue;
-                                    }
+            for (UserVmVO vm : vms) {
+                if (vm.getType() == VirtualMachine.Type.User) // user vm
+                    vmIds.add(vm.getId());
+            }
 
-                                    if (previousVmDiskStats != null &&
-                                        ((previousVmDiskStats.getCurrentBytesRead() != vmDiskStat_lock.getCurrentBytesRead()) ||
-                                            (previousVmDiskStats.getCurrentBytesWrite() != vmDiskStat_lock.getCurrentBytesWrite()) ||
-                                            (previousVmDiskStats.getCurrentIORead() != vmDiskStat_lock.getCurrentIORead()) || (previousVmDiskStats.getCurrentIOWrite() != vmDiskStat_lock.getCurrentIOWrite()))) {
-                                        s_logger.debug("vm disk stats changed from the time GetVmDiskStatsCommand was sent. " + "Ignoring current answer. Host: " +
-                                            host.getName() + " . VM: " + vmDiskStat.getVmName() + " Read(Bytes): " + vmDiskStat.getBytesRead() + " write(Bytes): " +
-                                            vmDiskStat.getBytesWrite() + " Read(IO): " + vmDiskStat.getIORead() + " write(IO): " + vmDiskStat.getIOWrite());
-                                        continue;
-                                    }
+            // only the updates of a single host run in a transaction, the agent is not called while holding the row locks
+            final HashMap<Long, List<VmDiskStatsEntry>> vmDiskStatsById = _userVmMgr.getVmDiskStatistics(host.getId(), host.getName(), vmIds);
+            if (vmDiskStatsById == null)
+                return false;
+
+            Transaction.execute(new TransactionCallbackNoReturn() {
+                @Override
+                public void doInTransactionWithoutResult(TransactionStatus status) {
+                    Set<Long> vmIdSet = vmDiskStatsById.keySet();
+                    for (Long vmId : vmIdSet) {
+                        List<VmDiskStatsEntry> vmDiskStats = vmDiskStatsById.get(vmId);
+                        if (vmDiskStats == null)
+                            continue;
+                        UserVmVO userVm = _userVmDao.findById(vmId);
+                        for (VmDiskStatsEntry vmDiskStat : vmDiskStats) {
+                            SearchCriteria<VolumeVO> sc_volume = _volsDao.createSearchCriteria();
+                            sc_volume.addAnd("path", SearchCriteria.Op.EQ, vmDiskStat.getPath());
+                            List<VolumeVO> volumes = _volsDao.search(sc_volume, null);
+                            if ((volumes == null) || (volumes.size() == 0))
+                                break;
+                            VolumeVO volume = volumes.get(0);
+                            VmDiskStatisticsVO previousVmDiskStats =
+                                _vmDiskStatsDao.findBy(userVm.getAccountId(), userVm.getDataCenterId(), vmId, volume.getId());
+                            VmDiskStatisticsVO vmDiskStat_lock = _vmDiskStatsDao.lock(userVm.getAccountId(), userVm.getDataCenterId(), vmId, volume.getId());
+
+                            if ((vmDiskStat.getBytesRead() == 0) && (vmDiskStat.getBytesWrite() == 0) && (vmDiskStat.getIORead() == 0) &&
+                                (vmDiskStat.getIOWrite() == 0)) {
+                                s_logger.debug("IO/bytes read and write are all 0. Not updating vm_disk_statistics");
+                                continue;
+                            }
 
-                                    if (vmDiskStat_lock.getCurrentBytesRead() > vmDiskStat.getBytesRead()) {
-                                        if (s_logger.isDebugEnabled()) {
-                                            s_logger.debug("Read # of bytes that's less than the last one.  " +
-                                                "Assuming something went wrong and persisting it. Host: " + host.getName() + " . VM: " + vmDiskStat.getVmName() +
-                                                " Reported: " + vmDiskStat.getBytesRead() + " Stored: " + vmDiskStat_lock.getCurrentBytesRead());
-                                        }
-                                        vmDiskStat_lock.setNetBytesRead(vmDiskStat_lock.getNetBytesRead() + vmDiskStat_lock.getCurrentBytesRead());
-                                    }
-                                    vmDiskStat_lock.setCurrentBytesRead(vmDiskStat.getBytesRead());
-                                    if (vmDiskStat_lock.getCurrentBytesWrite() > vmDiskStat.getBytesWrite()) {
-                                        if (s_logger.isDebugEnabled()) {
-                                            s_logger.debug("Write # of bytes that's less than the last one.  " +
-                                                "Assuming something went wrong and persisting it. Host: " + host.getName() + " . VM: " + vmDiskStat.getVmName() +
-                                                " Reported: " + vmDiskStat.getBytesWrite() + " Stored: " + vmDiskStat_lock.getCurrentBytesWrite());
-                                        }
-                                        vmDiskStat_lock.setNetBytesWrite(vmDiskStat_lock.getNetBytesWrite() + vmDiskStat_lock.getCurrentBytesWrite());
-                                    }
-                                    vmDiskStat_lock.setCurrentBytesWrite(vmDiskStat.getBytesWrite());
-                                    if (vmDiskStat_lock.getCurrentIORead() > vmDiskStat.getIORead()) {
-                                        if (s_logger.isDebugEnabled()) {
-                                            s_logger.debug("Read # of IO that's less than the last one.  " + "Assuming something went wrong and persisting it. Host: " +
-                                                host.getName() + " . VM: " + vmDiskStat.getVmName() + " Reported: " + vmDiskStat.getIORead() + " Stored: " +
-                                                vmDiskStat_lock.getCurrentIORead());
-                                        }
-                                        vmDiskStat_lock.setNetIORead(vmDiskStat_lock.getNetIORead() + vmDiskStat_lock.getCurrentIORead());
-                                    }
-                                    vmDiskStat_lock.setCurrentIORead(vmDiskStat.getIORead());
-                                    if (vmDiskStat_lock.getCurrentIOWrite() > vmDiskStat.getIOWrite()) {
-                                        if (s_logger.isDebugEnabled()) {
-                                            s_logger.debug("Write # of IO that's less than the last one.  " + "Assuming something went wrong and persisting it. Host: " +
-                                                host.getName() + " . VM: " + vmDiskStat.getVmName() + " Reported: " + vmDiskStat.getIOWrite() + " Stored: " +
-                                                vmDiskStat_lock.getCurrentIOWrite());
-                                        }
-                                        vmDiskStat_lock.setNetIOWrite(vmDiskStat_lock.getNetIOWrite() + vmDiskStat_lock.getCurrentIOWrite());
-                                    }
-                                    vmDiskStat_lock.setCurrentIOWrite(vmDiskStat.getIOWrite());
+                            if (vmDiskStat_lock == null) {
+                                s_logger.warn("unable to find vm disk stats from host for account: " + userVm.getAccountId() + " with vmId: " + userVm.getId() +
+                                    " and volumeId:" + volume.getId());
+                                continue;
+                            }
 
-                                    if (!_dailyOrHourly) {
-                                        //update agg bytes
-                                        vmDiskStat_lock.setAggBytesWrite(vmDiskStat_lock.getNetBytesWrite() + vmDiskStat_lock.getCurrentBytesWrite());
-                                        vmDiskStat_lock.setAggBytesRead(vmDiskStat_lock.getNetBytesRead() + vmDiskStat_lock.getCurrentBytesRead());
-                                        vmDiskStat_lock.setAggIOWrite(vmDiskStat_lock.getNetIOWrite() + vmDiskStat_lock.getCurrentIOWrite());
-                                        vmDiskStat_lock.setAggIORead(vmDiskStat_lock.getNetIORead() + vmDiskStat_lock.getCurrentIORead());
-                                    }
+                            if (previousVmDiskStats != null &&
+                                ((previousVmDiskStats.getCurrentBytesRead() != vmDiskStat_lock.getCurrentBytesRead()) ||
+                                    (previousVmDiskStats.getCurrentBytesWrite() != vmDiskStat_lock.getCurrentBytesWrite()) ||
+                                    (previousVmDiskStats.getCurrentIORead() != vmDiskStat_lock.getCurrentIORead()) || (previousVmDiskStats.getCurrentIOWrite() != vmDiskStat_lock.getCurrentIOWrite()))) {
+                                s_logger.debug("vm disk stats changed from the time GetVmDiskStatsCommand was sent. " + "Ignoring current answer. Host: " +
+                                    host.getName() + " . VM: " + vmDiskStat.getVmName() + " Read(Bytes): " + vmDiskStat.getBytesRead() + " write(Bytes): " +
+                                    vmDiskStat.getBytesWrite() + " Read(IO): " + vmDiskStat.getIORead() + " write(IO): " + vmDiskStat.getIOWrite());
+                                continue;
+                            }
 
-                                    _vmDiskStatsDao.update(vmDiskStat_lock.getId(), vmDiskStat_lock);
+                            if (vmDiskStat_lock.getCurrentBytesRead() > vmDiskStat.getBytesRead()) {
+                                if (s_logger.isDebugEnabled()) {
+                                    s_logger.debug("Read # of bytes that's less than the last one.  " +
+                                        "Assuming something went wrong and persisting it. Host: " + host.getName() + " . VM: " + vmDiskStat.getVmName() +
+                                        " Reported: " + vmDiskStat.getBytesRead() + " Stored: " + vmDiskStat_lock.getCurrentBytesRead());
+                                }
+                                vmDiskStat_lock.setNetBytesRead(vmDiskStat_lock.getNetBytesRead() + vmDiskStat_lock.getCurrentBytesRead());
+                            }
+                            vmDiskStat_lock.setCurrentBytesRead(vmDiskStat.getBytesRead());
+                            if (vmDiskStat_lock.getCurrentBytesWrite() > vmDiskStat.getBytesWrite()) {
+                                if (s_logger.isDebugEnabled()) {
+                                    s_logger.debug("Write # of bytes that's less than the last one.  " +
+                                        "Assuming something went wrong and persisting it. Host: " + host.getName() + " . VM: " + vmDiskStat.getVmName() +
+                                        " Reported: " + vmDiskStat.getBytesWrite() + " Stored: " + vmDiskStat_lock.getCurrentBytesWrite());
+                                }
+                                vmDiskStat_lock.setNetBytesWrite(vmDiskStat_lock.getNetBytesWrite() + vmDiskStat_lock.getCurrentBytesWrite());
+                            }
+                            vmDiskStat_lock.setCurrentBytesWrite(vmDiskStat.getBytesWrite());
+                            if (vmDiskStat_lock.getCurrentIORead() > vmDiskStat.getIORead()) {
+                                if (s_logger.isDebugEnabled()) {
+                                    s_logger.debug("Read # of IO that's less than the last one.  " + "Assuming something went wrong and persisting it. Host: " +
+                                        host.getName() + " . VM: " + vmDiskStat.getVmName() + " Reported: " + vmDiskStat.getIORead() + " Stored: " +
+                                        vmDiskStat_lock.getCurrentIORead());
                                 }
+                                vmDiskStat_lock.setNetIORead(vmDiskStat_lock.getNetIORead() + vmDiskStat_lock.getCurrentIORead());
                             }
+                            vmDiskStat_lock.setCurrentIORead(vmDiskStat.getIORead());
+                            if (vmDiskStat_lock.getCurrentIOWrite() > vmDiskStat.getIOWrite()) {
+                                if (s_logger.isDebugEnabled()) {
+                                    s_logger.debug("Write # of IO that's less than the last one.  " + "Assuming something went wrong and persisting it. Host: " +
+                                        host.getName() + " . VM: " + vmDiskStat.getVmName() + " Reported: " + vmDiskStat.getIOWrite() + " Stored: " +
+                                        vmDiskStat_lock.getCurrentIOWrite());
+                                }
+                                vmDiskStat_lock.setNetIOWrite(vmDiskStat_lock.getNetIOWrite() + vmDiskStat_lock.getCurrentIOWrite());
+                            }
+                            vmDiskStat_lock.setCurrentIOWrite(vmDiskStat.getIOWrite());
+
+                            if (!_dailyOrHourly) {
+                                //update agg bytes
+                                vmDiskStat_lock.setAggBytesWrite(vmDiskStat_lock.getNetBytesWrite() + vmDiskStat_lock.getCurrentBytesWrite());
+                                vmDiskStat_lock.setAggBytesRead(vmDiskStat_lock.getNetBytesRead() + vmDiskStat_lock.getCurrentBytesRead());
+                                vmDiskStat_lock.setAggIOWrite(vmDiskStat_lock.getNetIOWrite() + vmDiskStat_lock.getCurrentIOWrite());
+                                vmDiskStat_lock.setAggIORead(vmDiskStat_lock.getNetIORead() + vmDiskStat_lock.getCurrentIORead());
+                            }
+
+                            _vmDiskStatsDao.update(vmDiskStat_lock.getId(), vmDiskStat_lock);
                         }
                     }
-                });
-            } catch (Exception e) {
-                s_logger.warn("Error while collecting vm disk stats from hosts", e);
-            }
+                }
+            });
+            return true;
         }
     }
 
@@ -571,9 +749,12 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
                     s_logger.debug("StorageCollector is running...");
                 }
 
+                long now = System.currentTimeMillis();
                 List<DataStore> stores = _dataStoreMgr.listImageStores();
                 ConcurrentHashMap<Long, StorageStats> storageStats = new ConcurrentHashMap<Long, StorageStats>();
+                Set<Long> storeIds = new HashSet<Long>();
                 for (DataStore store : stores) {
+                    storeIds.add(store.getId());
                     if (store.getUri() == null) {
                         continue;
                     }
@@ -588,15 +769,20 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
                     Answer answer = ssAhost.sendMessage(command);
                     if (answer != null && answer.getResult()) {
                         storageStats.put(storeId, (StorageStats)answer);
+                        recordStorageStats(_imageStoreStatsHistory, storeId, (StorageStats)answer, now);
                         s_logger.trace("HostId: " + storeId + " Used: " + ((StorageStats)answer).getByteUsed() + " Total Available: " +
                             ((StorageStats)answer).getCapacityBytes());
                     }
                 }
                 _storageStats = storageStats;
+                retainStatsHistory(_imageStoreStatsHistory, storeIds);
+                exportStats(_imageStoreStatsHistory, now);
                 ConcurrentHashMap<Long, StorageStats> storagePoolStats = new ConcurrentHashMap<Long, StorageStats>();
 
                 List<StoragePoolVO> storagePools = _storagePoolDao.listAll();
+                Set<Long> poolIds = new HashSet<Long>();
                 for (StoragePoolVO pool : storagePools) {
+                    poolIds.add(pool.getId());
                     // check if the pool has enabled hosts
                     List<Long> hostIds = _storageManager.getUpHostsInPool(pool.getId());
                     if (hostIds == null || hostIds.isEmpty())
@@ -607,6 +793,7 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
                         Answer answer = _storageManager.sendToPool(pool, command);
                         if (answer != null && answer.getResult()) {
                             storagePoolStats.put(pool.getId(), (StorageStats)answer);
+                            recordStorageStats(_storagePoolStatsHistory, poolId, (StorageStats)answer, now);
 
                             // Seems like we have dynamically updated the pool size since the prev. size and the current do not match
                             if (_storagePoolStats.get(poolId) != null && _storagePoolStats.get(poolId).getCapacityBytes() != ((StorageStats)answer).getCapacityBytes()) {
@@ -621,6 +808,8 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
                     }
                 }
                 _storagePoolStats = storagePoolStats;
+                retainStatsHistory(_storagePoolStatsHistory, poolIds);
+                exportStats(_storagePoolStatsHistory, now);
             } catch (Throwable t) {
                 s_logger.error("Error trying to retrieve storage stats", t);
             }
@@ -638,4 +827,34 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
     public StorageStats getStoragePoolStats(long id) {
         return _storagePoolStats.get(id);
     }
+
+    /**
+     * @param metric null for all metrics
+     * @param startDate null for the whole retained history
+     * @return empty if the history is disabled or has no samples of the resource
+     */
+    public List<StatsSeries> listStatsHistory(ResourceType resourceType, long resourceId, String resourceUuid, String metric, Date startDate) {
+        StatsHistory history = null;
+        switch (resourceType) {
+        case Host:
+            history = _hostStatsHistory;
+            break;
+        case VirtualMachine:
+            history = _vmStatsHistory;
+            break;
+        case StoragePool:
+            history = _storagePoolStatsHistory;
+            break;
+        case ImageStore:
+            history = _imageStoreStatsHistory;
+            break;
+        }
+        if (history == null) {
+            return Collections.emptyList();
+        }
+        if (metric != null && history.getMetricIndex(metric) < 0) {
+            throw new InvalidParameterValueException("Unknown metric " + metric + " for resource type " + resourceType);
+        }
+        return history.getSeries(resourceId, resourceUuid, metric, startDate == null ? 0 : startDate.getTime());
+    }
 }
@@ -0,0 +1,38 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.server.stats;
+
+/**
+ * Sends the stats in the Graphite plaintext protocol,
+ * {@code <prefix>.<type>.<id>.<metric> <value> <seconds>}.
+ */
+public class GraphiteStatsExporter extends SocketStatsExporter {
+    public static final int DEFAULT_PORT = 2003;
+
+    private final String _prefix;
+
+    public GraphiteStatsExporter(String host, int port, String prefix) {
+        super(host, port);
+        _prefix = prefix;
+    }
+
+    @Override
+    protected void formatSample(StringBuilder line, String resourceType, long resourceId, String metric, double value, long timestamp) {
+        line.append(_prefix).append('.').append(resourceType).append('.').append(resourceId).append('.').append(metric);
+        line.append(' ').append(value).append(' ').append(timestamp / 1000).append('\n');
+    }
+}
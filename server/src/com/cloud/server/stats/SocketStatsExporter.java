@@ -0,0 +1,126 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.server.stats;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.Charset;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Writes one text line per sample to a TCP connection, which is kept open
+ * between exports and reopened on the next export after a failure.
+ */
+public abstract class SocketStatsExporter implements StatsExporter {
+    private static final Logger s_logger = Logger.getLogger(SocketStatsExporter.class);
+    private static final int TIMEOUT = 5000;
+
+    private final String _host;
+    private final int _port;
+    private Socket _socket;
+    private Writer _writer;
+    private final StringBuilder _line = new StringBuilder(128);
+    private char[] _chars = new char[128];
+
+    protected SocketStatsExporter(String host, int port) {
+        _host = host;
+        _port = port;
+    }
+
+    /**
+     * Appends the line of a sample, including the line terminator.
+     *
+     * @param resourceType lower case name of the resource type
+     */
+    protected abstract void formatSample(StringBuilder line, String resourceType, long resourceId, String metric, double value, long timestamp);
+
+    @Override
+    public synchronized void export(StatsHistory history, long timestamp) throws IOException {
+        try {
+            Writer writer = connect();
+            String resourceType = history.getResourceType().name().toLowerCase();
+            for (Long resourceId : history.getResourceIds()) {
+                for (int metric = 0; metric < history.getMetricCount(); metric++) {
+                    StatsRingBuffer buffer = history.getBuffer(resourceId, metric);
+                    if (buffer == null) {
+                        continue;
+                    }
+                    double value = buffer.get(timestamp);
+                    if (Double.isNaN(value)) {
+                        continue;
+                    }
+
+                    _line.setLength(0);
+                    formatSample(_line, resourceType, resourceId, history.getMetric(metric), value, timestamp);
+                    write(writer, _line);
+                }
+            }
+            writer.flush();
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    private void write(Writer writer, StringBuilder line) throws IOException {
+        int length = line.length();
+        if (_chars.length < length) {
+            _chars = new char[length];
+        }
+        line.getChars(0, length, _chars, 0);
+        writer.write(_chars, 0, length);
+    }
+
+    private Writer connect() throws IOException {
+        if (_writer == null) {
+            Socket socket = new Socket();
+            try {
+                socket.connect(new InetSocketAddress(_host, _port), TIMEOUT);
+                socket.setSoTimeout(TIMEOUT);
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+            _socket = socket;
+            _writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), Charset.forName("US-ASCII")));
+        }
+        return _writer;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (_socket != null) {
+            try {
+                _socket.close();
+            } catch (IOException e) {
+                s_logger.debug("Failed to close stats connection to " + _host + ":" + _port, e);
+            }
+        }
+        _socket = null;
+        _writer = null;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[" + _host + ":" + _port + "]";
+    }
+}
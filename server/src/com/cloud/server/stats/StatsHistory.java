@@ -0,0 +1,175 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.server.stats;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.cloud.server.StatsSeries;
+import com.cloud.server.StatsSeries.ResourceType;
+
+/**
+ * Keeps a {@link StatsRingBuffer} for every metric of each resource of one
+ * type. The buffers of a resource are created with its first sample.
+ */
+public class StatsHistory {
+    private final ResourceType _resourceType;
+    private final String[] _metrics;
+    private final int _capacity;
+    private final long _resolution;
+    private final ConcurrentHashMap<Long, StatsRingBuffer[]> _buffers = new ConcurrentHashMap<Long, StatsRingBuffer[]>();
+
+    public StatsHistory(ResourceType resourceType, String[] metrics, int capacity, long resolution) {
+        _resourceType = resourceType;
+        _metrics = metrics.clone();
+        _capacity = capacity;
+        _resolution = resolution;
+    }
+
+    public void record(long resourceId, int metric, long timestamp, double value) {
+        StatsRingBuffer[] buffers = _buffers.get(resourceId);
+        if (buffers == null) {
+            buffers = new StatsRingBuffer[_metrics.length];
+            for (int i = 0; i < buffers.length; i++) {
+                buffers[i] = new StatsRingBuffer(_capacity, _resolution);
+            }
+            StatsRingBuffer[] existing = _buffers.putIfAbsent(resourceId, buffers);
+            if (existing != null) {
+                buffers = existing;
+            }
+        }
+        buffers[metric].add(timestamp, value);
+    }
+
+    /**
+     * Drops the history of the resources not in the collection.
+     */
+    public void retain(Collection<Long> resourceIds) {
+        _buffers.keySet().retainAll(resourceIds);
+    }
+
+    public Set<Long> getResourceIds() {
+        return _buffers.keySet();
+    }
+
+    /**
+     * @return null if there is no history for the resource
+     */
+    public StatsRingBuffer getBuffer(long resourceId, int metric) {
+        StatsRingBuffer[] buffers = _buffers.get(resourceId);
+        return buffers == null ? null : buffers[metric];
+    }
+
+    /**
+     * @return -1 if the metric is unknown
+     */
+    public int getMetricIndex(String metric) {
+        for (int i = 0; i < _metrics.length; i++) {
+            if (_metrics[i].equalsIgnoreCase(metric)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public int getMetricCount() {
+        return _metrics.length;
+    }
+
+    public String getMetric(int metric) {
+        return _metrics[metric];
+    }
+
+    public ResourceType getResourceType() {
+        return _resourceType;
+    }
+
+    public long getResolution() {
+        return _resolution;
+    }
+
+    /**
+     * @param metric null for all metrics
+     * @return the samples of the resource taken at or after since
+     */
+    public List<StatsSeries> getSeries(long resourceId, String resourceUuid, String metric, long since) {
+        List<StatsSeries> series = new ArrayList<StatsSeries>();
+        StatsRingBuffer[] buffers = _buffers.get(resourceId);
+        if (buffers == null) {
+            return series;
+        }
+
+        long[] timestamps = new long[_capacity];
+        double[] values = new double[_capacity];
+        for (int i = 0; i < buffers.length; i++) {
+            if (metric != null && !_metrics[i].equalsIgnoreCase(metric)) {
+                continue;
+            }
+            int count = buffers[i].read(since, timestamps, values);
+            series.add(new Series(_metrics[i], resourceUuid, Arrays.copyOf(timestamps, count), Arrays.copyOf(values, count)));
+        }
+        return series;
+    }
+
+    private class Series implements StatsSeries {
+        private final String _metric;
+        private final String _resourceUuid;
+        private final long[] _timestamps;
+        private final double[] _values;
+
+        Series(String metric, String resourceUuid, long[] timestamps, double[] values) {
+            _metric = metric;
+            _resourceUuid = resourceUuid;
+            _timestamps = timestamps;
+            _values = values;
+        }
+
+        @Override
+        public ResourceType getResourceType() {
+            return _resourceType;
+        }
+
+        @Override
+        public String getResourceUuid() {
+            return _resourceUuid;
+        }
+
+        @Override
+        public String getMetric() {
+            return _metric;
+        }
+
+        @Override
+        public long getInterval() {
+            return _resolution;
+        }
+
+        @Override
+        public long[] getTimestamps() {
+            return _timestamps;
+        }
+
+        @Override
+        public double[] getValues() {
+            return _values;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.server.stats;
+
+/**
+ * Fixed size history of a single metric. Samples are downsampled into
+ * buckets of the given resolution, each bucket holding the average of the
+ * samples that fell into it, and the oldest bucket is overwritten once the
+ * buffer is full. Recording a sample does not allocate.
+ */
+public class StatsRingBuffer {
+    private final long _resolution;
+    private final double[] _values;
+    private final int[] _counts;
+    private long _headBucket = -1;
+
+    /**
+     * @param capacity number of buckets kept
+     * @param resolution milliseconds covered by a bucket
+     */
+    public StatsRingBuffer(int capacity, long resolution) {
+        if (capacity <= 0 || resolution <= 0) {
+            throw new IllegalArgumentException("Capacity and resolution must be positive");
+        }
+        _resolution = resolution;
+        _values = new double[capacity];
+        _counts = new int[capacity];
+    }
+
+    public synchronized void add(long timestamp, double value) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+
+        long bucket = timestamp / _resolution;
+        if (_headBucket < 0) {
+            _headBucket = bucket;
+        } else if (bucket > _headBucket) {
+            // clear the buckets between the last sample and this one, they have no samples
+            for (long b = Math.max(_headBucket + 1, bucket - _values.length + 1); b <= bucket; b++) {
+                _counts[slot(b)] = 0;
+            }
+            _headBucket = bucket;
+        } else if (bucket <= _headBucket - _values.length) {
+            // older than the retained history
+            return;
+        }
+
+        int slot = slot(bucket);
+        int count = _counts[slot];
+        _values[slot] = count == 0 ? value : _values[slot] + (value - _values[slot]) / (count + 1);
+        _counts[slot] = count + 1;
+    }
+
+    /**
+     * @return the average of the bucket holding the timestamp, NaN if it has no samples
+     */
+    public synchronized double get(long timestamp) {
+        long bucket = timestamp / _resolution;
+        if (_headBucket < 0 || bucket > _headBucket || bucket <= _headBucket - _values.length) {
+            return Double.NaN;
+        }
+        int slot = slot(bucket);
+        return _counts[slot] > 0 ? _values[slot] : Double.NaN;
+    }
+
+    /**
+     * Copies the buckets with samples from the one holding since onwards,
+     * oldest first, stopping when the arrays are full.
+     *
+     * @return number of buckets copied
+     */
+    public synchronized int read(long since, long[] timestamps, double[] values) {
+        if (_headBucket < 0) {
+            return 0;
+        }
+
+        int count = 0;
+        long first = Math.max(_headBucket - _values.length + 1, Math.max(since, 0) / _resolution);
+        for (long bucket = first; bucket <= _headBucket && count < timestamps.length && count < values.length; bucket++) {
+            int slot = slot(bucket);
+            if (_counts[slot] > 0) {
+                timestamps[count] = bucket * _resolution;
+                values[count] = _values[slot];
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public int getCapacity() {
+        return _values.length;
+    }
+
+    public long getResolution() {
+        return _resolution;
+    }
+
+    private int slot(long bucket) {
+        return (int)(bucket % _values.length);
+    }
+}
@@ -18,6 +18,7 @@ package com.cloud.user;
 
 import com.cloud.api.ApiDBUtils;
 import com.cloud.api.query.vo.ControlledViewEntity;
+import com.cloud.cluster.ClusterManager;
 import com.cloud.configuration.Config;
 import com.cloud.configuration.ConfigurationManager;
 import com.cloud.configuration.Resource.ResourceOwnerType;
@@ -102,6 +103,7 @@ import com.cloud.utils.db.SearchCriteria;
 import com.cloud.utils.db.Transaction;
 import com.cloud.utils.db.TransactionCallback;
 import com.cloud.utils.db.TransactionCallbackNoReturn;
+import com.cloud.utils.db.TransactionLegacy;
 import com.cloud.utils.db.TransactionStatus;
 import com.cloud.utils.exception.CloudRuntimeException;
 import com.cloud.utils.net.NetUtils;
@@ -164,7 +166,7 @@ import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 @Local(value = {AccountManager.class, AccountService.class})
-public class AccountManagerImpl extends ManagerBase implements AccountManager, Manager {
+public class AccountManagerImpl extends ManagerBase implements AccountManager, Manager, ClusterManager.NotificationHandler {
     public static final Logger s_logger = Logger.getLogger(AccountManagerImpl.class);
 
     @Inject
@@ -262,6 +264,8 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
 
     @Inject
     MessageBus _messageBus;
+    @Inject
+    ClusterManager _clusterMgr;
 
     @Inject
     public com.cloud.region.ha.GlobalLoadBalancingRulesService _gslbService;
@@ -282,6 +286,9 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
     List<SecurityChecker> _securityCheckers;
     int _cleanupInterval;
 
+    private static final String API_KEY_INVALIDATE_SUBJECT = "api.key.invalidate";
+    ApiKeyCache _apiKeyCache = new ApiKeyCache(0, 0);
+
     public List<UserAuthenticator> getUserAuthenticators() {
         return _userAuthenticators;
     }
@@ -334,9 +341,36 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
         String value = configs.get(Config.AccountCleanupInterval.key());
         _cleanupInterval = NumbersUtil.parseInt(value, 60 * 60 * 24); // 1 day.
 
+        int apiKeyCacheSize = NumbersUtil.parseInt(configs.get(Config.ApiKeyCacheSize.key()), 10000);
+        int apiKeyCacheTtl = NumbersUtil.parseInt(configs.get(Config.ApiKeyCacheTtl.key()), 60);
+        _apiKeyCache = new ApiKeyCache(apiKeyCacheSize, apiKeyCacheTtl * 1000L);
+        _apiKeyCache.setInvalidationListener(new ApiKeyCache.InvalidationListener() {
+            @Override
+            public void onInvalidate(Long userId, Long accountId) {
+                _clusterMgr.broadcastNotification(API_KEY_INVALIDATE_SUBJECT, (userId == null ? "" : userId.toString()) + ":" + (accountId == null ? "" : accountId.toString()));
+            }
+        });
+        _clusterMgr.registerNotificationHandler(API_KEY_INVALIDATE_SUBJECT, this);
+
         return true;
     }
 
+    @Override
+    public void onNotification(String sourcePeer, String subject, String message) {
+        int index = message.indexOf(':');
+        if (index < 0) {
+            s_logger.warn("Ignoring malformed api key invalidation from " + sourcePeer + ": " + message);
+            return;
+        }
+        try {
+            String userId = message.substring(0, index);
+            String accountId = message.substring(index + 1);
+            _apiKeyCache.invalidateLocal(userId.isEmpty() ? null : Long.valueOf(userId), accountId.isEmpty() ? null : Long.valueOf(accountId));
+        } catch (NumberFormatException e) {
+            s_logger.warn("Ignoring malformed api key invalidation from " + sourcePeer + ": " + message);
+        }
+    }
+
     @Override
     public UserVO getSystemUser() {
         if (_systemUser == null) {
@@ -353,6 +387,7 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
 
     @Override
     public boolean stop() {
+        _clusterMgr.unregisterNotificationHandler(API_KEY_INVALIDATE_SUBJECT, this);
         return true;
     }
 
@@ -383,48 +418,12 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
 
     @Override
     public boolean isRootAdmin(Long accountId) {
-        if (accountId != null) {
-            AccountVO acct = _accountDao.findById(accountId);
-            if (acct == null) {
-                return false;  //account is deleted or does not exist
-            }
-            for (SecurityChecker checker : _securityCheckers) {
-                try {
-                    if (checker.checkAccess(acct, null, null, "SystemCapability")) {
-                        if (s_logger.isTraceEnabled()) {
-                            s_logger.trace("Root Access granted to " + acct + " by " + checker.getName());
-                        }
-                        return true;
-                    }
-                } catch (PermissionDeniedException ex) {
-                    return false;
-                }
-            }
-        }
-        return false;
+        return hasCapability(accountId, "SystemCapability");
     }
 
     @Override
     public boolean isDomainAdmin(Long accountId) {
-        if (accountId != null) {
-            AccountVO acct = _accountDao.findById(accountId);
-            if (acct == null) {
-                return false;  //account is deleted or does not exist
-            }
-            for (SecurityChecker checker : _securityCheckers) {
-                try {
-                    if (checker.checkAccess(acct, null, null, "DomainCapability")) {
-                        if (s_logger.isTraceEnabled()) {
-                            s_logger.trace("DomainAdmin Access granted to " + acct + " by " + checker.getName());
-                        }
-                        return true;
-                    }
-                } catch (PermissionDeniedException ex) {
-                    return false;
-                }
-            }
-        }
-        return false;
+        return hasCapability(accountId, "DomainCapability");
     }
 
     @Override
@@ -437,25 +436,46 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
     }
 
     public boolean isResourceDomainAdmin(Long accountId) {
-        if (accountId != null) {
-            AccountVO acct = _accountDao.findById(accountId);
-            if (acct == null) {
-                return false;  //account is deleted or does not exist
+        return hasCapability(accountId, "DomainResourceCapability");
+    }
+
+    private boolean hasCapability(Long accountId, String capability) {
+        if (accountId == null) {
+            return false;
+        }
+
+        // a call checks the capabilities of its caller many times, the checkers are asked once per call
+        CallContext ctx = CallContext.current();
+        boolean isCaller = ctx.getCallingAccountId() == accountId.longValue();
+        if (isCaller) {
+            Boolean granted = ctx.getAccessDecision(capability);
+            if (granted != null) {
+                return granted;
             }
-            for (SecurityChecker checker : _securityCheckers) {
-                try {
-                    if (checker.checkAccess(acct, null, null, "DomainResourceCapability")) {
-                        if (s_logger.isTraceEnabled()) {
-                            s_logger.trace("ResourceDomainAdmin Access granted to " + acct + " by " + checker.getName());
-                        }
-                        return true;
+        }
+
+        AccountVO acct = _accountDao.findById(accountId);
+        if (acct == null) {
+            return false;  //account is deleted or does not exist
+        }
+        boolean granted = false;
+        for (SecurityChecker checker : _securityCheckers) {
+            try {
+                if (checker.checkAccess(acct, null, null, capability)) {
+                    if (s_logger.isTraceEnabled()) {
+                        s_logger.trace(capability + " granted to " + acct + " by " + checker.getName());
                     }
-                } catch (PermissionDeniedException ex) {
-                    return false;
+                    granted = true;
+                    break;
                 }
+            } catch (PermissionDeniedException ex) {
+                break;
             }
         }
-        return false;
+        if (isCaller) {
+            ctx.putAccessDecision(capability, granted);
+        }
+        return granted;
     }
 
     public boolean isInternalAccount(long accountId) {
@@ -554,11 +574,11 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
         }
 
         for (Map.Entry<Long, List<ControlledEntity>> domain : domains.entrySet()) {
+            Domain d = _domainMgr.getDomain(domain.getKey());
+            if (d == null || d.getRemoved() != null) {
+                throw new PermissionDeniedException("Domain is not found.", caller, domain.getValue());
+            }
             for (SecurityChecker checker : _securityCheckers) {
-                Domain d = _domainMgr.getDomain(domain.getKey());
-                if (d == null || d.getRemoved() != null) {
-                    throw new PermissionDeniedException("Domain is not found.", caller, domain.getValue());
-                }
                 try {
                     checker.checkAccess(caller, d);
                 } catch (PermissionDeniedException e) {
@@ -635,6 +655,9 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
             _userAccountDao.update(id, user);
                 }
             });
+            if (toDisable) {
+                _apiKeyCache.invalidateUser(id);
+            }
         } catch (Exception e) {
             s_logger.error("Failed to update login attempts for user with id " + id);
         }
@@ -643,7 +666,9 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
     private boolean doSetUserStatus(long userId, State state) {
         UserVO userForUpdate = _userDao.createForUpdate();
         userForUpdate.setState(state);
-        return _userDao.update(Long.valueOf(userId), userForUpdate);
+        boolean success = _userDao.update(Long.valueOf(userId), userForUpdate);
+        _apiKeyCache.invalidateUser(userId);
+        return success;
     }
 
     @Override
@@ -653,6 +678,7 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
         acctForUpdate.setState(State.enabled);
         acctForUpdate.setNeedsCleanup(false);
         success = _accountDao.update(Long.valueOf(accountId), acctForUpdate);
+        _apiKeyCache.invalidateAccount(accountId);
         return success;
     }
 
@@ -666,6 +692,7 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
                 AccountVO acctForUpdate = _accountDao.createForUpdate();
                 acctForUpdate.setState(State.locked);
                 success = _accountDao.update(Long.valueOf(accountId), acctForUpdate);
+                _apiKeyCache.invalidateAccount(accountId);
             } else {
                 if (s_logger.isInfoEnabled()) {
                     s_logger.info("Attempting to lock a non-enabled account, current state is " + account.getState() + " (accountId: " + accountId + "), locking failed.");
@@ -686,6 +713,7 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
             s_logger.error("Unable to delete account " + accountId);
             return false;
         }
+        _apiKeyCache.invalidateAccount(accountId);
 
         if (s_logger.isDebugEnabled()) {
             s_logger.debug("Removed account " + accountId);
@@ -963,6 +991,7 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
             AccountVO acctForUpdate = _accountDao.createForUpdate();
             acctForUpdate.setState(State.disabled);
             success = _accountDao.update(Long.valueOf(accountId), acctForUpdate);
+            _apiKeyCache.invalidateAccount(accountId);
 
             if (success) {
                 boolean disableAccountResult = false;
@@ -1266,6 +1295,7 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
             }
 
             _userDao.update(userId, user);
+            _apiKeyCache.invalidateUser(userId);
         } catch (Throwable th) {
             s_logger.error("error updating user", th);
             throw new CloudRuntimeException("Unable to update user " + userId);
@@ -1673,6 +1703,7 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
         });
 
         if (success) {
+            _apiKeyCache.invalidateAccount(account.getId());
             CallContext.current().putContextParameter(Account.class, account.getUuid());
             return _accountDao.findById(account.getId());
         } else {
@@ -1705,7 +1736,9 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
 
         checkAccess(CallContext.current().getCallingAccount(), AccessType.OperateEntry, true, account);
         CallContext.current().putContextParameter(User.class, user.getUuid());
-        return _userDao.remove(id);
+        boolean success = _userDao.remove(id);
+        _apiKeyCache.invalidateUser(id);
+        return success;
     }
 
     protected class AccountCleanupTask extends ManagedContextRunnable {
@@ -2240,7 +2273,18 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
 
     @Override
     public Pair<User, Account> findUserByApiKey(String apiKey) {
-        return _accountDao.findUserAccountByApiKey(apiKey);
+        if (!_apiKeyCache.isEnabled()) {
+            return _accountDao.findUserAccountByApiKey(apiKey);
+        }
+        Pair<User, Account> userAcct = _apiKeyCache.get(apiKey);
+        if (userAcct == null) {
+            long version = _apiKeyCache.getVersion();
+            userAcct = _accountDao.findUserAccountByApiKey(apiKey);
+            if (userAcct != null && !TransactionLegacy.isTxnStarted()) {
+                _apiKeyCache.put(apiKey, userAcct.first(), userAcct.second(), version);
+            }
+        }
+        return userAcct;
     }
 
     @Override
@@ -2315,6 +2359,7 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
             }
             updatedUser.setApiKey(encodedKey);
             _userDao.update(userId, updatedUser);
+            _apiKeyCache.invalidateUser(userId);
             return encodedKey;
         } catch (NoSuchAlgorithmException ex) {
             s_logger.error("error generating secret key for user id=" + userId, ex);
@@ -2342,6 +2387,7 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
 
             updatedUser.setSecretKey(encodedKey);
             _userDao.update(userId, updatedUser);
+            _apiKeyCache.invalidateUser(userId);
             return encodedKey;
         } catch (NoSuchAlgorithmException ex) {
             s_logger.error("error generating secret key for user id=" + userId, ex);
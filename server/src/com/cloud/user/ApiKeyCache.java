@@ -0,0 +1,214 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.user;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.cloud.user.Account.State;
+import com.cloud.utils.Pair;
+import com.cloud.utils.db.TransactionLegacy;
+
+/**
+ * Bounded cache of the user and account an api key belongs to, so signed api
+ * calls don't look them up and decrypt the secret key on every request. Entries
+ * expire after the ttl and are dropped whenever the keys or the state of their
+ * user or account change, right away and again once the change is committed.
+ */
+public class ApiKeyCache {
+    public interface InvalidationListener {
+        /**
+         * Called for invalidations made on this node once they are committed,
+         * null ids mean all entries.
+         */
+        void onInvalidate(Long userId, Long accountId);
+    }
+
+    private static class Entry {
+        final long userId;
+        final String username;
+        final String secretKey;
+        final State userState;
+        final long accountId;
+        final String accountName;
+        final short accountType;
+        final long domainId;
+        final State accountState;
+        final long expires;
+
+        Entry(User user, Account account, long expires) {
+            userId = user.getId();
+            username = user.getUsername();
+            secretKey = user.getSecretKey();
+            userState = user.getState();
+            accountId = account.getId();
+            accountName = account.getAccountName();
+            accountType = account.getType();
+            domainId = account.getDomainId();
+            accountState = account.getState();
+            this.expires = expires;
+        }
+
+        // callers get their own copies, the same way they would from the dao
+        Pair<User, Account> toPair() {
+            User user = new UserVO(userId);
+            user.setUsername(username);
+            user.setAccountId(accountId);
+            user.setSecretKey(secretKey);
+            user.setState(userState);
+
+            AccountVO account = new AccountVO(accountId);
+            account.setAccountName(accountName);
+            account.setType(accountType);
+            account.setDomainId(domainId);
+            account.setState(accountState);
+            return new Pair<User, Account>(user, account);
+        }
+    }
+
+    private final Map<String, Entry> _entries;
+    private final int _maxSize;
+    private final long _ttl;
+    private final AtomicLong _version = new AtomicLong();
+    private volatile InvalidationListener _listener;
+
+    /**
+     * @param ttl milliseconds an entry is used before it is looked up again
+     */
+    public ApiKeyCache(final int maxSize, long ttl) {
+        _maxSize = maxSize;
+        _ttl = ttl;
+        _entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    public boolean isEnabled() {
+        return _maxSize > 0 && _ttl > 0;
+    }
+
+    public void setInvalidationListener(InvalidationListener listener) {
+        _listener = listener;
+    }
+
+    /**
+     * @return the user and account of the api key, null if it is not cached or has expired
+     */
+    public Pair<User, Account> get(String apiKey) {
+        Entry entry;
+        synchronized (_entries) {
+            entry = _entries.get(apiKey);
+            if (entry != null && entry.expires <= System.currentTimeMillis()) {
+                _entries.remove(apiKey);
+                entry = null;
+            }
+        }
+        return entry == null ? null : entry.toPair();
+    }
+
+    /**
+     * @return the number of invalidations so far, to be passed to put()
+     */
+    public long getVersion() {
+        return _version.get();
+    }
+
+    public void put(String apiKey, User user, Account account) {
+        put(apiKey, user, account, getVersion());
+    }
+
+    /**
+     * Caches the user and account unless an invalidation happened since
+     * getVersion() returned the version they were loaded at.
+     */
+    public void put(String apiKey, User user, Account account, long version) {
+        if (!isEnabled()) {
+            return;
+        }
+        Entry entry = new Entry(user, account, System.currentTimeMillis() + _ttl);
+        synchronized (_entries) {
+            if (_version.get() == version) {
+                _entries.put(apiKey, entry);
+            }
+        }
+    }
+
+    public int size() {
+        synchronized (_entries) {
+            return _entries.size();
+        }
+    }
+
+    public void invalidateUser(long userId) {
+        invalidateAfterCommit(userId, null);
+    }
+
+    public void invalidateAccount(long accountId) {
+        invalidateAfterCommit(null, accountId);
+    }
+
+    public void invalidateAll() {
+        invalidateAfterCommit(null, null);
+    }
+
+    // the entries are dropped right away so the changing transaction doesn't use them, and again once the change is committed
+    private void invalidateAfterCommit(final Long userId, final Long accountId) {
+        invalidateLocal(userId, accountId);
+        TransactionLegacy.runAfterCommit(new Runnable() {
+            @Override
+            public void run() {
+                invalidateLocal(userId, accountId);
+                notifyListener(userId, accountId);
+            }
+        });
+    }
+
+    /**
+     * Drops the entries of the user or account without notifying the listener,
+     * for invalidations received from other management servers.
+     */
+    public void invalidateLocal(Long userId, Long accountId) {
+        synchronized (_entries) {
+            _version.incrementAndGet();
+            if (userId == null && accountId == null) {
+                _entries.clear();
+                return;
+            }
+            Iterator<Entry> it = _entries.values().iterator();
+            while (it.hasNext()) {
+                Entry entry = it.next();
+                if ((userId != null && entry.userId == userId.longValue()) || (accountId != null && entry.accountId == accountId.longValue())) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    private void notifyListener(Long userId, Long accountId) {
+        InvalidationListener listener = _listener;
+        if (listener != null) {
+            listener.onInvalidate(userId, accountId);
+        }
+    }
+}
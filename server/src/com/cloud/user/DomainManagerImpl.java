@@ -18,11 +18,13 @@ package com.cloud.user;
 
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 
 import javax.ejb.Local;
 import javax.inject.Inject;
+import javax.naming.ConfigurationException;
 
 import org.apache.log4j.Logger;
 import org.springframework.stereotype.Component;
@@ -36,6 +38,7 @@ import org.apache.cloudstack.framework.messagebus.MessageBus;
 import org.apache.cloudstack.framework.messagebus.PublishScope;
 import org.apache.cloudstack.region.RegionManager;
 
+import com.cloud.cluster.ClusterManager;
 import com.cloud.configuration.Resource.ResourceOwnerType;
 import com.cloud.configuration.ResourceLimit;
 import com.cloud.configuration.dao.ResourceCountDao;
@@ -77,9 +80,11 @@ import com.cloud.vm.ReservationContextImpl;
 
 @Component
 @Local(value = {DomainManager.class, DomainService.class})
-public class DomainManagerImpl extends ManagerBase implements DomainManager, DomainService {
+public class DomainManagerImpl extends ManagerBase implements DomainManager, DomainService, ClusterManager.NotificationHandler {
     public static final Logger s_logger = Logger.getLogger(DomainManagerImpl.class);
 
+    private static final String DOMAIN_PATH_CHANGE_SUBJECT = "domain.path.change";
+
     @Inject
     private DomainDao _domainDao;
     @Inject
@@ -109,6 +114,38 @@ public class DomainManagerImpl extends ManagerBase implements DomainManager, Dom
 
     @Inject
     MessageBus _messageBus;
+    @Inject
+    ClusterManager _clusterMgr;
+
+    @Override
+    public boolean configure(final String name, final Map<String, Object> params) throws ConfigurationException {
+        super.configure(name, params);
+
+        // other management servers cache domain paths too
+        _domainDao.setPathChangeListener(new DomainDao.PathChangeListener() {
+            @Override
+            public void onPathChange(long domainId) {
+                _clusterMgr.broadcastNotification(DOMAIN_PATH_CHANGE_SUBJECT, Long.toString(domainId));
+            }
+        });
+        _clusterMgr.registerNotificationHandler(DOMAIN_PATH_CHANGE_SUBJECT, this);
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        _clusterMgr.unregisterNotificationHandler(DOMAIN_PATH_CHANGE_SUBJECT, this);
+        return true;
+    }
+
+    @Override
+    public void onNotification(String sourcePeer, String subject, String message) {
+        try {
+            _domainDao.invalidatePath(Long.parseLong(message));
+        } catch (NumberFormatException e) {
+            s_logger.warn("Ignoring malformed domain path change from " + sourcePeer + ": " + message);
+        }
+    }
 
     @Override
     public Domain getDomain(long domainId) {
@@ -21,9 +21,18 @@ import org.apache.cloudstack.api.auth.APIAuthenticationType;
 import org.apache.cloudstack.api.auth.APIAuthenticator;
 import com.cloud.server.ManagementServer;
 import com.cloud.user.Account;
+import com.cloud.user.AccountManager;
 import com.cloud.user.AccountService;
 import com.cloud.user.User;
+import com.cloud.utils.HttpUtils;
+import com.cloud.utils.exception.CloudRuntimeException;
+import com.google.gson.annotations.SerializedName;
 import org.apache.cloudstack.api.ApiConstants;
+import org.apache.cloudstack.api.ApiErrorCode;
+import org.apache.cloudstack.api.BaseCmd;
+import org.apache.cloudstack.api.BaseResponse;
+import org.apache.cloudstack.api.ServerApiException;
+import org.apache.cloudstack.context.CallContext;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
@@ -31,7 +40,9 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
 import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -40,6 +51,7 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
 import java.lang.reflect.Field;
 import java.net.URLEncoder;
 import java.util.HashMap;
@@ -166,7 +178,7 @@ public class ApiServletTest {
 
     @SuppressWarnings("unchecked")
     @Test
-    public void processRequestInContextUnauthorizedGET() {
+    public void processRequestInContextUnauthorizedGET() throws IOException {
         Mockito.when(request.getMethod()).thenReturn("GET");
         Mockito.when(
                 apiServer.verifyRequest(Mockito.anyMap(), Mockito.anyLong()))
@@ -175,12 +187,12 @@ public class ApiServletTest {
         Mockito.verify(response).setStatus(HttpServletResponse.SC_UNAUTHORIZED);
         Mockito.verify(apiServer, Mockito.never()).handleRequest(
                 Mockito.anyMap(), Mockito.anyString(),
-                Mockito.any(StringBuilder.class));
+                Mockito.any(StringBuilder.class), Mockito.any(Writer.class));
     }
 
     @SuppressWarnings("unchecked")
     @Test
-    public void processRequestInContextAuthorizedGet() {
+    public void processRequestInContextAuthorizedGet() throws IOException {
         Mockito.when(request.getMethod()).thenReturn("GET");
         Mockito.when(
                 apiServer.verifyRequest(Mockito.anyMap(), Mockito.anyLong()))
@@ -189,7 +201,123 @@ public class ApiServletTest {
         Mockito.verify(response).setStatus(HttpServletResponse.SC_OK);
         Mockito.verify(apiServer, Mockito.times(1)).handleRequest(
                 Mockito.anyMap(), Mockito.anyString(),
-                Mockito.any(StringBuilder.class));
+                Mockito.any(StringBuilder.class), Mockito.any(Writer.class));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void processRequestInContextStreamsTheResponse() throws IOException {
+        Mockito.when(request.getMethod()).thenReturn("GET");
+        Mockito.when(
+                apiServer.verifyRequest(Mockito.anyMap(), Mockito.anyLong()))
+                .thenReturn(true);
+        Mockito.doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                ((Writer)invocation.getArguments()[3]).write("{\"listtestsresponse\":{}}");
+                return null;
+            }
+        }).when(apiServer).handleRequest(Mockito.anyMap(), Mockito.anyString(),
+                Mockito.any(StringBuilder.class), Mockito.any(Writer.class));
+        servlet.processRequestInContext(request, response);
+        Mockito.verify(response).setStatus(HttpServletResponse.SC_OK);
+        Assert.assertEquals("{\"listtestsresponse\":{}}", responseWriter.toString());
+    }
+
+    static class FailingResponse extends BaseResponse {
+        @SerializedName("value")
+        private final Object value = new Object() {
+            @Override
+            public String toString() {
+                throw new CloudRuntimeException("unable to format the value");
+            }
+        };
+
+        FailingResponse() {
+            setResponseName("failingresponse");
+            setObjectName("failing");
+        }
+    }
+
+    @Test
+    public void responseFailingToSerializeIsAnInternalError() throws Exception {
+        ApiServer server = new ApiServer();
+        AccountManager accountMgr = Mockito.mock(AccountManager.class);
+        Field accountMgrField = ApiServer.class.getDeclaredField("_accountMgr");
+        accountMgrField.setAccessible(true);
+        accountMgrField.set(server, accountMgr);
+        HashMap<String, String[]> params = new HashMap<String, String[]>();
+        params.put("command", new String[] {"listFailing"});
+        StringWriter out = new StringWriter();
+
+        CallContext.register(user, account);
+        try {
+            server.writeResponse(params, new FailingResponse(), HttpUtils.RESPONSE_TYPE_XML, new StringBuilder(), out);
+            Assert.fail("The response should not serialize");
+        } catch (ServerApiException e) {
+            Assert.assertEquals(ApiErrorCode.INTERNAL_ERROR, e.getErrorCode());
+            Assert.assertEquals(BaseCmd.USER_ERROR_MESSAGE, e.getDescription());
+            // the servlet has to drop what was written
+            Assert.assertTrue(out.toString().startsWith("<?xml"));
+        } finally {
+            CallContext.unregister();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void failToSerializeTheResponse() throws IOException {
+        Mockito.when(request.getMethod()).thenReturn("GET");
+        Mockito.when(
+                apiServer.verifyRequest(Mockito.anyMap(), Mockito.anyLong()))
+                .thenReturn(true);
+        Mockito.doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                ((Writer)invocation.getArguments()[3]).write("{\"listtestsresponse\":{");
+                throw new ServerApiException(ApiErrorCode.INTERNAL_ERROR, "unable to format the value");
+            }
+        }).when(apiServer).handleRequest(Mockito.anyMap(), Mockito.anyString(),
+                Mockito.any(StringBuilder.class), Mockito.any(Writer.class));
+    }
+
+    @Test
+    public void processRequestInContextSerializationFailureBeforeCommit() throws IOException {
+        failToSerializeTheResponse();
+        servlet.processRequestInContext(request, response);
+        Mockito.verify(response).resetBuffer();
+        Mockito.verify(response).setStatus(ApiErrorCode.INTERNAL_ERROR.getHttpCode());
+    }
+
+    @Test
+    public void processRequestInContextSerializationFailureAfterCommit() throws IOException {
+        failToSerializeTheResponse();
+        Mockito.when(response.isCommitted()).thenReturn(true);
+        try {
+            servlet.processRequestInContext(request, response);
+            Assert.fail("A committed response should be aborted");
+        } catch (CloudRuntimeException e) {
+            Assert.assertTrue(e.getCause() instanceof ServerApiException);
+        }
+        Mockito.verify(response, Mockito.never()).resetBuffer();
+        Mockito.verify(response, Mockito.never()).setStatus(ApiErrorCode.INTERNAL_ERROR.getHttpCode());
+    }
+
+    @Test
+    public void auditTrailKeepsTheStartOfTheResponse() throws IOException {
+        StringWriter out = new StringWriter();
+        ApiServer.AuditTrailWriter auditOut = new ApiServer.AuditTrailWriter(out, 8);
+        auditOut.write("0123456789");
+        auditOut.write('a');
+        auditOut.write("bcdef".toCharArray());
+        Assert.assertEquals("0123456789abcdef", out.toString());
+        Assert.assertEquals("01234567", auditOut.getHead());
+        Assert.assertEquals(16, auditOut.getLength());
+        Assert.assertFalse(auditOut.isComplete());
+
+        auditOut = new ApiServer.AuditTrailWriter(new StringWriter(), 8);
+        auditOut.write("0123");
+        Assert.assertEquals("0123", auditOut.getHead());
+        Assert.assertTrue(auditOut.isComplete());
     }
 
     @Test
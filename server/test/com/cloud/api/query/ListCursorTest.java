@@ -0,0 +1,49 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.api.query;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.cloud.exception.InvalidParameterValueException;
+
+public class ListCursorTest {
+
+    @Test
+    public void positionRoundTrips() {
+        String token = ListCursor.encode(1413475200000L, 42L);
+
+        Assert.assertArrayEquals(new long[] {1413475200000L, 42L}, ListCursor.decode(token, 2));
+    }
+
+    @Test
+    public void tokenIsSafeInUrls() {
+        String token = ListCursor.encode(Long.MAX_VALUE, -1L);
+
+        Assert.assertTrue(token.matches("[A-Za-z0-9_-]+"));
+    }
+
+    @Test(expected = InvalidParameterValueException.class)
+    public void tokenOfOtherListIsRejected() {
+        ListCursor.decode(ListCursor.encode(42L), 2);
+    }
+
+    @Test(expected = InvalidParameterValueException.class)
+    public void garbageTokenIsRejected() {
+        ListCursor.decode("not a token", 1);
+    }
+}
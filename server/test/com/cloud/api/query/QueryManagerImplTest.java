@@ -0,0 +1,136 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package com.cloud.api.query;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+
+import org.apache.cloudstack.api.command.user.event.ListEventsCmd;
+import org.apache.cloudstack.api.response.EventResponse;
+import org.apache.cloudstack.api.response.ListResponse;
+import org.apache.cloudstack.context.CallContext;
+
+import com.cloud.api.ApiDBUtils;
+import com.cloud.api.query.vo.EventJoinVO;
+import com.cloud.event.dao.EventJoinDao;
+import com.cloud.user.AccountManager;
+import com.cloud.user.AccountVO;
+import com.cloud.user.User;
+import com.cloud.user.UserVO;
+import com.cloud.utils.db.Filter;
+import com.cloud.utils.db.SearchBuilder;
+import com.cloud.utils.db.SearchCriteria;
+
+@RunWith(MockitoJUnitRunner.class)
+public class QueryManagerImplTest {
+    private static final long PAGE_SIZE = 3;
+
+    @Mock
+    private EventJoinDao _eventJoinDao;
+
+    @Mock
+    private AccountManager _accountMgr;
+
+    @InjectMocks
+    private QueryManagerImpl _queryManager = new QueryManagerImpl();
+
+    private final List<EventJoinVO> _events = new ArrayList<EventJoinVO>();
+    private Filter _filter;
+    private Field _eventJoinDaoField;
+    private Object _originalEventJoinDao;
+
+    @SuppressWarnings("unchecked")
+    @Before
+    public void setUp() throws Exception {
+        AccountVO account = new AccountVO("testaccount", 1, "networkdomain", (short)0, UUID.randomUUID().toString());
+        UserVO user = new UserVO(1, "testuser", "password", "firstname", "lastName", "email", "timezone", UUID.randomUUID().toString(), User.Source.UNKNOWN);
+        CallContext.register(user, account);
+
+        _eventJoinDaoField = ApiDBUtils.class.getDeclaredField("s_eventJoinDao");
+        _eventJoinDaoField.setAccessible(true);
+        _originalEventJoinDao = _eventJoinDaoField.get(null);
+        _eventJoinDaoField.set(null, _eventJoinDao);
+
+        SearchBuilder<EventJoinVO> sb = Mockito.mock(SearchBuilder.class);
+        Mockito.when(sb.entity()).thenReturn(Mockito.mock(EventJoinVO.class));
+        Mockito.when(sb.create()).thenReturn(Mockito.mock(SearchCriteria.class));
+        Mockito.when(_eventJoinDao.createSearchBuilder()).thenReturn(sb);
+        Mockito.when(_eventJoinDao.createSearchCriteria()).thenReturn(Mockito.mock(SearchCriteria.class));
+        Mockito.when(_eventJoinDao.newEventResponse(Mockito.any(EventJoinVO.class))).thenReturn(new EventResponse());
+
+        for (long id = 10; id > 0; id--) {
+            EventJoinVO event = Mockito.mock(EventJoinVO.class);
+            Mockito.when(event.getId()).thenReturn(id);
+            Mockito.when(event.getCreateDate()).thenReturn(new Date(id * 1000));
+            _events.add(event);
+        }
+        // limits the rows the way GenericDaoBase does, only when the filter has an offset
+        Mockito.when(_eventJoinDao.search(Mockito.any(SearchCriteria.class), Mockito.any(Filter.class))).thenAnswer(new Answer<List<EventJoinVO>>() {
+            @Override
+            public List<EventJoinVO> answer(InvocationOnMock invocation) {
+                _filter = (Filter)invocation.getArguments()[1];
+                if (_filter.getOffset() == null) {
+                    return _events;
+                }
+                int from = _filter.getOffset().intValue();
+                return _events.subList(from, Math.min(_events.size(), from + _filter.getLimit().intValue()));
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        _eventJoinDaoField.set(null, _originalEventJoinDao);
+        CallContext.unregister();
+    }
+
+    @Test
+    public void startAfterPageIsLimitedToThePageSize() {
+        ListEventsCmd cmd = Mockito.mock(ListEventsCmd.class);
+        Mockito.when(cmd.getPageSizeVal()).thenReturn(PAGE_SIZE);
+        // what BaseListCmd returns with a page size and no page
+        Mockito.when(cmd.getStartIndex()).thenReturn(Long.valueOf(0));
+        Mockito.when(cmd.getStartAfter()).thenReturn(ListCursor.encode(11000, 11));
+        // mocks return 0 rather than null for wrapper types
+        Mockito.when(cmd.getId()).thenReturn(null);
+        Mockito.when(cmd.getEntryTime()).thenReturn(null);
+        Mockito.when(cmd.getDuration()).thenReturn(null);
+
+        ListResponse<EventResponse> response = _queryManager.searchForEvents(cmd);
+
+        Assert.assertEquals(Long.valueOf(0), _filter.getOffset());
+        Assert.assertEquals(Long.valueOf(PAGE_SIZE), _filter.getLimit());
+        Assert.assertEquals(PAGE_SIZE, response.getResponses().size());
+        Assert.assertEquals(ListCursor.encode(8000, 8), response.getNextStartAfter());
+    }
+}
@@ -0,0 +1,112 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.api.response;
+
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+
+import org.apache.log4j.Logger;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.apache.cloudstack.api.response.ListResponse;
+
+import com.cloud.api.response.ApiResponseSerializerTest.TestResponse;
+import com.cloud.utils.HttpUtils;
+
+/**
+ * Compares the time and the memory allocated to serialize a 50000 element
+ * list per element, to a string and straight to a writer.  It is excluded
+ * from the regular build, run it with -Dtest=ApiResponseSerializerPerfTest.
+ */
+public class ApiResponseSerializerPerfTest {
+    private static final Logger s_logger = Logger.getLogger(ApiResponseSerializerPerfTest.class);
+
+    private final ApiResponseSerializerTest _serializerTest = new ApiResponseSerializerTest();
+
+    // stands in for the writer of the servlet response
+    private static class NullWriter extends Writer {
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+        }
+
+        @Override
+        public void write(String str, int off, int len) {
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        _serializerTest.setUp();
+    }
+
+    @After
+    public void tearDown() {
+        _serializerTest.tearDown();
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    @Test
+    public void testLargeListResponse() throws Exception {
+        ListResponse<TestResponse> response = ApiResponseSerializerTest.createListResponse(50000);
+        String expected = ApiResponseSerializerTest.serializePerElement(response);
+        Assert.assertEquals(expected, ApiResponseSerializer.toSerializedString(response, HttpUtils.RESPONSE_TYPE_JSON));
+
+        int rounds = 5;
+        long startTick = System.currentTimeMillis();
+        long startBytes = allocatedBytes();
+        for (int i = 0; i < rounds; i++) {
+            ApiResponseSerializerTest.serializePerElement(response);
+        }
+        long perElementTime = System.currentTimeMillis() - startTick;
+        long perElementBytes = allocatedBytes() - startBytes;
+
+        startTick = System.currentTimeMillis();
+        startBytes = allocatedBytes();
+        for (int i = 0; i < rounds; i++) {
+            ApiResponseSerializer.toSerializedString(response, HttpUtils.RESPONSE_TYPE_JSON);
+        }
+        long stringTime = System.currentTimeMillis() - startTick;
+        long stringBytes = allocatedBytes() - startBytes;
+
+        Writer out = new NullWriter();
+        startTick = System.currentTimeMillis();
+        startBytes = allocatedBytes();
+        for (int i = 0; i < rounds; i++) {
+            ApiResponseSerializer.toSerializedString(response, HttpUtils.RESPONSE_TYPE_JSON, out);
+        }
+        long streamingTime = System.currentTimeMillis() - startTick;
+        long streamingBytes = allocatedBytes() - startBytes;
+
+        s_logger.info("Serialized " + response.getCount() + " responses (" + expected.length() + " chars) " + rounds + " times: per element " + perElementTime + "ms " +
+            perElementBytes / rounds / 1024 + "KB per response, to a string " + stringTime + "ms " + stringBytes / rounds / 1024 + "KB per response, to the writer " +
+            streamingTime + "ms " + streamingBytes / rounds / 1024 + "KB per response");
+    }
+}
@@ -0,0 +1,181 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.api.response;
+
+import java.io.StringWriter;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import org.apache.cloudstack.api.BaseResponse;
+import org.apache.cloudstack.api.response.ListResponse;
+import org.apache.cloudstack.api.response.SuccessResponse;
+import org.apache.cloudstack.context.CallContext;
+
+import com.cloud.api.ApiDBUtils;
+import com.cloud.api.ApiResponseGsonHelper;
+import com.cloud.server.ManagementServer;
+import com.cloud.user.AccountVO;
+import com.cloud.user.User;
+import com.cloud.user.UserVO;
+import com.cloud.utils.HttpUtils;
+import com.google.gson.Gson;
+import com.google.gson.annotations.SerializedName;
+
+public class ApiResponseSerializerTest {
+    static class TestResponse extends BaseResponse {
+        @SerializedName("id")
+        private String id;
+
+        @SerializedName("name")
+        private String name;
+
+        TestResponse(String id, String name) {
+            this.id = id;
+            this.name = name;
+            setObjectName("test");
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        AccountVO account = new AccountVO("testaccount", 1, "networkdomain", (short)0, UUID.randomUUID().toString());
+        UserVO user = new UserVO(1, "testuser", "password", "firstname", "lastName", "email", "timezone", UUID.randomUUID().toString(), User.Source.UNKNOWN);
+        CallContext.register(user, account);
+
+        ManagementServer ms = Mockito.mock(ManagementServer.class);
+        Mockito.when(ms.getVersion()).thenReturn("4.6.0");
+        Field msField = ApiDBUtils.class.getDeclaredField("s_ms");
+        msField.setAccessible(true);
+        msField.set(null, ms);
+    }
+
+    @After
+    public void tearDown() {
+        CallContext.unregister();
+    }
+
+    static ListResponse<TestResponse> createListResponse(int count) {
+        List<TestResponse> responses = new ArrayList<TestResponse>();
+        for (int i = 0; i < count; i++) {
+            responses.add(new TestResponse("id-" + i, "name " + i));
+        }
+        ListResponse<TestResponse> response = new ListResponse<TestResponse>();
+        response.setResponses(responses);
+        response.setResponseName("listtestsresponse");
+        // drop the context of the registered call so the output is predictable
+        response.setContext(null);
+        return response;
+    }
+
+    @Test
+    public void jsonListResponse() {
+        String json = ApiResponseSerializer.toSerializedString(createListResponse(2), HttpUtils.RESPONSE_TYPE_JSON);
+
+        Assert.assertEquals("{\"listtestsresponse\":{\"count\":2,\"test\":[{\"id\":\"id-0\",\"name\":\"name 0\"},{\"id\":\"id-1\",\"name\":\"name 1\"}]}}", json);
+    }
+
+    @Test
+    public void jsonEmptyListResponse() {
+        String json = ApiResponseSerializer.toSerializedString(createListResponse(0), HttpUtils.RESPONSE_TYPE_JSON);
+
+        Assert.assertEquals("{\"listtestsresponse\":{}}", json);
+    }
+
+    @Test
+    public void jsonKeepsHtmlAndUnicodeCharacters() {
+        ListResponse<TestResponse> response = new ListResponse<TestResponse>();
+        response.setResponses(Arrays.asList(new TestResponse("1", "<b>café & \"bar\"</b>\n")));
+        response.setResponseName("listtestsresponse");
+
+        String json = ApiResponseSerializer.toSerializedString(response, HttpUtils.RESPONSE_TYPE_JSON);
+
+        Assert.assertTrue(json.contains("\"name\":\"<b>café & \\\"bar\\\"</b>\\n\""));
+    }
+
+    @Test
+    public void nextStartAfterIsSerialized() {
+        ListResponse<TestResponse> response = createListResponse(1);
+        response.setNextStartAfter("MTIz");
+
+        String json = ApiResponseSerializer.toSerializedString(response, HttpUtils.RESPONSE_TYPE_JSON);
+        String xml = ApiResponseSerializer.toSerializedString(response, HttpUtils.RESPONSE_TYPE_XML);
+
+        Assert.assertEquals("{\"listtestsresponse\":{\"count\":1,\"nextstartafter\":\"MTIz\",\"test\":[{\"id\":\"id-0\",\"name\":\"name 0\"}]}}", json);
+        Assert.assertTrue(xml.contains("<count>1</count><nextstartafter>MTIz</nextstartafter><test>"));
+    }
+
+    @Test
+    public void jsonSuccessResponse() {
+        SuccessResponse response = new SuccessResponse("deletetestresponse");
+        response.setSuccess(true);
+
+        String json = ApiResponseSerializer.toSerializedString(response, HttpUtils.RESPONSE_TYPE_JSON);
+
+        Assert.assertEquals("{\"deletetestresponse\":{\"success\":\"true\"}}", json);
+    }
+
+    @Test
+    public void xmlListResponse() {
+        ListResponse<TestResponse> response = createListResponse(1);
+        response.getResponses().get(0).name = "a<b";
+
+        String xml = ApiResponseSerializer.toSerializedString(response, HttpUtils.RESPONSE_TYPE_XML);
+
+        Assert.assertEquals("<?xml version=\"1.0\" encoding=\"UTF-8\"?><listtestsresponse cloud-stack-version=\"4.6.0\"><count>1</count>" +
+            "<test><id>id-0</id><name>a&lt;b</name></test></listtestsresponse>", xml);
+    }
+
+    @Test
+    public void writerMatchesSerializedString() throws Exception {
+        ListResponse<TestResponse> response = createListResponse(10);
+
+        for (String responseType : new String[] {HttpUtils.RESPONSE_TYPE_JSON, HttpUtils.RESPONSE_TYPE_XML}) {
+            StringWriter out = new StringWriter();
+            ApiResponseSerializer.toSerializedString(response, responseType, out);
+            Assert.assertEquals(ApiResponseSerializer.toSerializedString(response, responseType), out.toString());
+        }
+    }
+
+    // the way responses were serialized before, a new Gson per call and a string per list element
+    static String serializePerElement(ListResponse<TestResponse> response) {
+        Gson gson = ApiResponseGsonHelper.getBuilder().create();
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"").append(response.getResponseName()).append("\":{\"count\":").append(response.getCount());
+        List<TestResponse> responses = response.getResponses();
+        sb.append(",\"").append(responses.get(0).getObjectName()).append("\":[").append(gson.toJson(responses.get(0)));
+        for (int i = 1; i < responses.size(); i++) {
+            sb.append(",").append(gson.toJson(responses.get(i)));
+        }
+        sb.append("]}}");
+        return sb.toString();
+    }
+
+    @Test
+    public void largeListResponse() {
+        ListResponse<TestResponse> response = createListResponse(500);
+        Assert.assertEquals(serializePerElement(response), ApiResponseSerializer.toSerializedString(response, HttpUtils.RESPONSE_TYPE_JSON));
+    }
+}
@@ -0,0 +1,158 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.cloud.host.Host;
+
+public class HostStatsDispatcherTest {
+    ExecutorService _executor;
+
+    @Before
+    public void setUp() {
+        _executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        _executor.shutdownNow();
+    }
+
+    private List<Host> createHosts(int count) {
+        List<Host> hosts = new ArrayList<Host>();
+        for (long id = 1; id <= count; id++) {
+            Host host = Mockito.mock(Host.class);
+            Mockito.when(host.getId()).thenReturn(id);
+            hosts.add(host);
+        }
+        return hosts;
+    }
+
+    @Test
+    public void hostsAreCollectedInParallel() {
+        final CountDownLatch allStarted = new CountDownLatch(4);
+        HostStatsDispatcher dispatcher = new HostStatsDispatcher("test", _executor, 5000, 5000);
+
+        Set<Long> collected = dispatcher.dispatch(createHosts(4), new HostStatsDispatcher.HostTask<Host>() {
+            @Override
+            public boolean collect(Host host) {
+                allStarted.countDown();
+                try {
+                    // only returns if all the hosts are queried at the same time
+                    return allStarted.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    return false;
+                }
+            }
+        });
+
+        Assert.assertEquals(4, collected.size());
+        Assert.assertEquals(1, dispatcher.getCycleCount());
+        Assert.assertEquals(4, dispatcher.getLastCycleHostCount());
+        Assert.assertEquals(0, dispatcher.getLastCycleTimeoutCount());
+        Assert.assertEquals(4, dispatcher.getHostLatenciesMs().size());
+    }
+
+    @Test
+    public void hungHostDoesNotDelayOthers() {
+        final AtomicInteger answered = new AtomicInteger();
+        HostStatsDispatcher dispatcher = new HostStatsDispatcher("test", _executor, 200, 5000);
+
+        long startTick = System.currentTimeMillis();
+        Set<Long> collected = dispatcher.dispatch(createHosts(6), new HostStatsDispatcher.HostTask<Host>() {
+            @Override
+            public boolean collect(Host host) {
+                if (host.getId() == 1) {
+                    try {
+                        Thread.sleep(10000);
+                    } catch (InterruptedException e) {
+                        return false;
+                    }
+                }
+                answered.incrementAndGet();
+                return true;
+            }
+        });
+
+        Assert.assertTrue(System.currentTimeMillis() - startTick < 5000);
+        Assert.assertEquals(5, collected.size());
+        Assert.assertFalse(collected.contains(1L));
+        Assert.assertEquals(5, answered.get());
+        Assert.assertEquals(1, dispatcher.getLastCycleTimeoutCount());
+        Assert.assertEquals(200, dispatcher.getLastCycleMaxHostLatencyMs());
+    }
+
+    @Test
+    public void failedHostsAreCounted() {
+        HostStatsDispatcher dispatcher = new HostStatsDispatcher("test", _executor, 5000, 5000);
+
+        Set<Long> collected = dispatcher.dispatch(createHosts(3), new HostStatsDispatcher.HostTask<Host>() {
+            @Override
+            public boolean collect(Host host) {
+                if (host.getId() == 2) {
+                    throw new RuntimeException("agent unavailable");
+                }
+                return host.getId() != 3;
+            }
+        });
+
+        Assert.assertEquals(1, collected.size());
+        Assert.assertTrue(collected.contains(1L));
+        Assert.assertEquals(2, dispatcher.getLastCycleFailureCount());
+        Assert.assertEquals(0, dispatcher.getLastCycleTimeoutCount());
+    }
+
+    @Test
+    public void timedOutHostIsNotInterrupted() throws InterruptedException {
+        final CountDownLatch finished = new CountDownLatch(1);
+        final AtomicBoolean interrupted = new AtomicBoolean();
+        HostStatsDispatcher dispatcher = new HostStatsDispatcher("test", _executor, 100, 5000);
+
+        Set<Long> collected = dispatcher.dispatch(createHosts(1), new HostStatsDispatcher.HostTask<Host>() {
+            @Override
+            public boolean collect(Host host) {
+                try {
+                    Thread.sleep(300);
+                } catch (InterruptedException e) {
+                    interrupted.set(true);
+                }
+                finished.countDown();
+                return true;
+            }
+        });
+
+        Assert.assertTrue(collected.isEmpty());
+        Assert.assertEquals(1, dispatcher.getLastCycleTimeoutCount());
+        Assert.assertTrue(finished.await(5, TimeUnit.SECONDS));
+        Assert.assertFalse(interrupted.get());
+    }
+}
@@ -0,0 +1,116 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.server.stats;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.cloud.server.StatsSeries.ResourceType;
+
+public class SocketStatsExporterTest {
+    ServerSocket _server;
+    StatsHistory _history;
+
+    @Before
+    public void setUp() throws IOException {
+        _server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        _server.setSoTimeout(5000);
+
+        _history = new StatsHistory(ResourceType.Host, new String[] {"cpu_utilization", "free_memory_kbs"}, 10, 60000);
+        _history.record(7, 0, 120000, 12.5);
+        _history.record(7, 1, 120000, 2048);
+        // outside the exported interval
+        _history.record(7, 0, 60000, 99);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        _server.close();
+    }
+
+    private List<String> readLines(Socket socket, int count) throws IOException {
+        socket.setSoTimeout(5000);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+        List<String> lines = new ArrayList<String>();
+        for (int i = 0; i < count; i++) {
+            lines.add(reader.readLine());
+        }
+        Collections.sort(lines);
+        return lines;
+    }
+
+    @Test
+    public void graphitePlaintext() throws IOException {
+        StatsExporter exporter = new GraphiteStatsExporter("127.0.0.1", _server.getLocalPort(), "cloudstack");
+        try {
+            exporter.export(_history, 150000);
+            Socket socket = _server.accept();
+            List<String> lines = readLines(socket, 2);
+            Assert.assertEquals("cloudstack.host.7.cpu_utilization 12.5 150", lines.get(0));
+            Assert.assertEquals("cloudstack.host.7.free_memory_kbs 2048.0 150", lines.get(1));
+
+            // the connection is kept for the next export
+            exporter.export(_history, 150000);
+            Assert.assertEquals(2, readLines(socket, 2).size());
+            socket.close();
+        } finally {
+            exporter.close();
+        }
+    }
+
+    @Test
+    public void prometheusText() throws IOException {
+        StatsExporter exporter = new PrometheusStatsExporter("127.0.0.1", _server.getLocalPort(), "cloudstack");
+        try {
+            exporter.export(_history, 150000);
+            Socket socket = _server.accept();
+            List<String> lines = readLines(socket, 2);
+            Assert.assertEquals("cloudstack_host_cpu_utilization{id=\"7\"} 12.5 150000", lines.get(0));
+            Assert.assertEquals("cloudstack_host_free_memory_kbs{id=\"7\"} 2048.0 150000", lines.get(1));
+            socket.close();
+        } finally {
+            exporter.close();
+        }
+    }
+
+    @Test
+    public void exportFailsWhenCollectorIsDown() throws IOException {
+        int port = _server.getLocalPort();
+        _server.close();
+        StatsExporter exporter = new GraphiteStatsExporter("127.0.0.1", port, "cloudstack");
+        try {
+            exporter.export(_history, 150000);
+            Assert.fail("Export to a closed port should fail");
+        } catch (IOException e) {
+            // expected, the next export reconnects
+        } finally {
+            exporter.close();
+        }
+    }
+}
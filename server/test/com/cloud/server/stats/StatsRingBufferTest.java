@@ -0,0 +1,90 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.server.stats;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class StatsRingBufferTest {
+    private static final long RESOLUTION = 1000;
+
+    @Test
+    public void samplesInIntervalAreAveraged() {
+        StatsRingBuffer buffer = new StatsRingBuffer(4, RESOLUTION);
+        buffer.add(10000, 1);
+        buffer.add(10500, 2);
+        buffer.add(10999, 6);
+        buffer.add(11000, 8);
+
+        Assert.assertEquals(3, buffer.get(10000), 0.0001);
+        Assert.assertEquals(8, buffer.get(11400), 0.0001);
+        Assert.assertTrue(Double.isNaN(buffer.get(12000)));
+    }
+
+    @Test
+    public void oldestIntervalsAreOverwritten() {
+        StatsRingBuffer buffer = new StatsRingBuffer(3, RESOLUTION);
+        for (int i = 0; i < 5; i++) {
+            buffer.add(i * RESOLUTION, i);
+        }
+
+        long[] timestamps = new long[3];
+        double[] values = new double[3];
+        Assert.assertEquals(3, buffer.read(0, timestamps, values));
+        Assert.assertArrayEquals(new long[] {2000, 3000, 4000}, timestamps);
+        Assert.assertArrayEquals(new double[] {2, 3, 4}, values, 0.0001);
+        Assert.assertTrue(Double.isNaN(buffer.get(1000)));
+
+        // too old for the retained history
+        buffer.add(1000, 100);
+        Assert.assertEquals(3, buffer.read(0, timestamps, values));
+        Assert.assertEquals(2000, timestamps[0]);
+    }
+
+    @Test
+    public void intervalsWithoutSamplesAreSkipped() {
+        StatsRingBuffer buffer = new StatsRingBuffer(10, RESOLUTION);
+        buffer.add(1000, 1);
+        buffer.add(5000, 5);
+        // late sample of an interval still in the history
+        buffer.add(3000, 3);
+
+        long[] timestamps = new long[10];
+        double[] values = new double[10];
+        Assert.assertEquals(3, buffer.read(0, timestamps, values));
+        Assert.assertEquals(1000, timestamps[0]);
+        Assert.assertEquals(3000, timestamps[1]);
+        Assert.assertEquals(5000, timestamps[2]);
+
+        Assert.assertEquals(2, buffer.read(2500, timestamps, values));
+        Assert.assertEquals(3000, timestamps[0]);
+    }
+
+    @Test
+    public void gapLongerThanHistoryClearsAllIntervals() {
+        StatsRingBuffer buffer = new StatsRingBuffer(3, RESOLUTION);
+        buffer.add(0, 1);
+        buffer.add(1000, 2);
+        buffer.add(100000, 3);
+
+        long[] timestamps = new long[3];
+        double[] values = new double[3];
+        Assert.assertEquals(1, buffer.read(0, timestamps, values));
+        Assert.assertEquals(100000, timestamps[0]);
+        Assert.assertEquals(3, values[0], 0.0001);
+    }
+}
@@ -80,6 +80,8 @@ import com.cloud.user.Account.State;
 import com.cloud.user.dao.AccountDao;
 import com.cloud.user.dao.UserAccountDao;
 import com.cloud.user.dao.UserDao;
+import com.cloud.utils.Pair;
+import com.cloud.utils.db.TransactionLegacy;
 import com.cloud.vm.UserVmManager;
 import com.cloud.vm.UserVmVO;
 import com.cloud.vm.VMInstanceVO;
@@ -312,4 +314,73 @@ public class AccountManagerImplTest {
         Mockito.verify(_accountDao, Mockito.atLeastOnce()).markForCleanup(
                 Mockito.eq(42l));
     }
+
+    @Test
+    public void findUserByApiKeyIsCachedUntilAccountIsDisabled() throws ConcurrentOperationException, ResourceUnavailableException {
+        accountManager._apiKeyCache = new ApiKeyCache(10, 60000);
+        UserVO user = new UserVO(7);
+        user.setAccountId(42);
+        user.setSecretKey("secret");
+        user.setState(State.enabled);
+        AccountVO account = new AccountVO(42);
+        account.setState(State.enabled);
+        Mockito.when(_accountDao.findUserAccountByApiKey("key")).thenReturn(new Pair<User, Account>(user, account));
+
+        Assert.assertEquals("secret", accountManager.findUserByApiKey("key").first().getSecretKey());
+        Assert.assertEquals(42, accountManager.findUserByApiKey("key").second().getId());
+        Mockito.verify(_accountDao, Mockito.times(1)).findUserAccountByApiKey("key");
+
+        Mockito.when(_accountDao.findById(42l)).thenReturn(account);
+        Mockito.when(_accountDao.createForUpdate()).thenReturn(new AccountVO());
+        Mockito.when(_accountDao.update(Mockito.eq(42l), Mockito.any(AccountVO.class))).thenReturn(true);
+        Assert.assertTrue(accountManager.disableAccount(42));
+
+        accountManager.findUserByApiKey("key");
+        Mockito.verify(_accountDao, Mockito.times(2)).findUserAccountByApiKey("key");
+    }
+
+    @Test
+    public void findUserByApiKeyIsNotCachedInsideTransaction() {
+        accountManager._apiKeyCache = new ApiKeyCache(10, 60000);
+        UserVO user = new UserVO(7);
+        user.setAccountId(42);
+        user.setSecretKey("secret");
+        AccountVO account = new AccountVO(42);
+        Mockito.when(_accountDao.findUserAccountByApiKey("key")).thenReturn(new Pair<User, Account>(user, account));
+
+        TransactionLegacy txn = TransactionLegacy.open("AccountManagerImplTest");
+        try {
+            txn.start();
+            accountManager.findUserByApiKey("key");
+            txn.commit();
+        } finally {
+            txn.close();
+        }
+        Assert.assertEquals(0, accountManager._apiKeyCache.size());
+
+        accountManager.findUserByApiKey("key");
+        Assert.assertEquals(1, accountManager._apiKeyCache.size());
+    }
+
+    @Test
+    public void callerCapabilitiesAreCheckedOncePerCall() {
+        AccountVO account = new AccountVO(42);
+        Mockito.when(_accountDao.findById(42l)).thenReturn(account);
+        Mockito.when(securityChecker.checkAccess(account, null, null, "SystemCapability")).thenReturn(true);
+        Account caller = Mockito.mock(Account.class);
+        Mockito.when(caller.getId()).thenReturn(42l);
+
+        CallContext.register(callingUser, caller);
+        try {
+            Assert.assertTrue(accountManager.isRootAdmin(42l));
+            Assert.assertTrue(accountManager.isRootAdmin(42l));
+            Mockito.verify(securityChecker, Mockito.times(1)).checkAccess(account, null, null, "SystemCapability");
+        } finally {
+            CallContext.unregister();
+        }
+
+        // 42 is not the caller any more
+        Assert.assertTrue(accountManager.isRootAdmin(42l));
+        Mockito.verify(securityChecker, Mockito.times(2)).checkAccess(account, null, null, "SystemCapability");
+    }
 }
@@ -0,0 +1,185 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.user;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.cloud.user.Account.State;
+import com.cloud.utils.Pair;
+import com.cloud.utils.db.TransactionLegacy;
+
+public class ApiKeyCacheTest {
+    private static User createUser(long id, long accountId) {
+        UserVO user = new UserVO(id);
+        user.setUsername("user" + id);
+        user.setAccountId(accountId);
+        user.setSecretKey("secret" + id);
+        user.setState(State.enabled);
+        return user;
+    }
+
+    private static Account createAccount(long id) {
+        AccountVO account = new AccountVO(id);
+        account.setAccountName("account" + id);
+        account.setDomainId(1);
+        account.setState(State.enabled);
+        return account;
+    }
+
+    @Test
+    public void cachedEntriesAreCopies() {
+        ApiKeyCache cache = new ApiKeyCache(10, 60000);
+        cache.put("key", createUser(1, 2), createAccount(2));
+
+        Pair<User, Account> first = cache.get("key");
+        first.first().setState(State.disabled);
+        Pair<User, Account> second = cache.get("key");
+
+        Assert.assertNotSame(first.first(), second.first());
+        Assert.assertEquals(State.enabled, second.first().getState());
+        Assert.assertEquals("secret1", second.first().getSecretKey());
+        Assert.assertEquals("account2", second.second().getAccountName());
+        Assert.assertEquals(2, second.second().getId());
+    }
+
+    @Test
+    public void entriesExpire() throws InterruptedException {
+        ApiKeyCache cache = new ApiKeyCache(10, 50);
+        cache.put("key", createUser(1, 2), createAccount(2));
+        Assert.assertNotNull(cache.get("key"));
+
+        Thread.sleep(100);
+
+        Assert.assertNull(cache.get("key"));
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void leastRecentlyUsedEntryIsEvicted() {
+        ApiKeyCache cache = new ApiKeyCache(2, 60000);
+        cache.put("key1", createUser(1, 10), createAccount(10));
+        cache.put("key2", createUser(2, 10), createAccount(10));
+        cache.get("key1");
+        cache.put("key3", createUser(3, 10), createAccount(10));
+
+        Assert.assertNotNull(cache.get("key1"));
+        Assert.assertNull(cache.get("key2"));
+        Assert.assertNotNull(cache.get("key3"));
+    }
+
+    @Test
+    public void invalidationDropsEntriesAndNotifiesListener() {
+        final List<String> invalidations = new ArrayList<String>();
+        ApiKeyCache cache = new ApiKeyCache(10, 60000);
+        cache.setInvalidationListener(new ApiKeyCache.InvalidationListener() {
+            @Override
+            public void onInvalidate(Long userId, Long accountId) {
+                invalidations.add(userId + ":" + accountId);
+            }
+        });
+        cache.put("key1", createUser(1, 10), createAccount(10));
+        cache.put("key2", createUser(2, 10), createAccount(10));
+        cache.put("key3", createUser(3, 11), createAccount(11));
+
+        cache.invalidateUser(1);
+        Assert.assertNull(cache.get("key1"));
+        Assert.assertNotNull(cache.get("key2"));
+
+        cache.invalidateAccount(10);
+        Assert.assertNull(cache.get("key2"));
+        Assert.assertNotNull(cache.get("key3"));
+
+        cache.invalidateLocal(null, null);
+        Assert.assertEquals(0, cache.size());
+
+        Assert.assertEquals(2, invalidations.size());
+        Assert.assertEquals("1:null", invalidations.get(0));
+        Assert.assertEquals("null:10", invalidations.get(1));
+    }
+
+    @Test
+    public void invalidationIsRepeatedAndPropagatedAfterCommit() {
+        final List<String> invalidations = new ArrayList<String>();
+        ApiKeyCache cache = new ApiKeyCache(10, 60000);
+        cache.setInvalidationListener(new ApiKeyCache.InvalidationListener() {
+            @Override
+            public void onInvalidate(Long userId, Long accountId) {
+                invalidations.add(userId + ":" + accountId);
+            }
+        });
+        cache.put("key", createUser(1, 2), createAccount(2));
+        long loadedBefore = cache.getVersion();
+
+        TransactionLegacy txn = TransactionLegacy.open("ApiKeyCacheTest");
+        try {
+            txn.start();
+            cache.invalidateUser(1);
+            Assert.assertNull(cache.get("key"));
+
+            // a request outside of the transaction reloads the old keys
+            cache.put("key", createUser(1, 2), createAccount(2));
+            Assert.assertNotNull(cache.get("key"));
+            Assert.assertTrue(invalidations.isEmpty());
+
+            txn.commit();
+            Assert.assertNull(cache.get("key"));
+            Assert.assertEquals(1, invalidations.size());
+            Assert.assertEquals("1:null", invalidations.get(0));
+
+            // nor is a lookup cached that started before the invalidation
+            cache.put("key", createUser(1, 2), createAccount(2), loadedBefore);
+            Assert.assertNull(cache.get("key"));
+        } finally {
+            txn.close();
+        }
+    }
+
+    @Test
+    public void invalidationIsNotPropagatedOnRollback() {
+        final List<String> invalidations = new ArrayList<String>();
+        ApiKeyCache cache = new ApiKeyCache(10, 60000);
+        cache.setInvalidationListener(new ApiKeyCache.InvalidationListener() {
+            @Override
+            public void onInvalidate(Long userId, Long accountId) {
+                invalidations.add(userId + ":" + accountId);
+            }
+        });
+
+        TransactionLegacy txn = TransactionLegacy.open("ApiKeyCacheTest");
+        try {
+            txn.start();
+            cache.invalidateAccount(2);
+            txn.rollback();
+        } finally {
+            txn.close();
+        }
+        Assert.assertTrue(invalidations.isEmpty());
+    }
+
+    @Test
+    public void disabledCacheKeepsNothing() {
+        ApiKeyCache cache = new ApiKeyCache(0, 60000);
+        cache.put("key", createUser(1, 2), createAccount(2));
+
+        Assert.assertFalse(cache.isEnabled());
+        Assert.assertNull(cache.get("key"));
+    }
+}
@@ -40,6 +40,7 @@ import com.google.gson.Gson;
 import com.sun.net.httpserver.HttpServer;
 
 import com.cloud.consoleproxy.util.Logger;
+import com.cloud.consoleproxy.websocket.WebSocketServer;
 import com.cloud.utils.PropertiesUtil;
 
 /**
@@ -68,6 +69,8 @@ public class ConsoleProxy {
     static Hashtable<String, ConsoleProxyClient> connectionMap = new Hashtable<String, ConsoleProxyClient>();
     static int httpListenPort = 80;
     static int httpCmdListenPort = 8001;
+    static int webSocketListenPort = 0;
+    static int webSocketWorkers = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
     static int reconnectMaxRetry = 5;
     static int readTimeoutSeconds = 90;
     static int keyboardType = KEYBOARD_RAW;
@@ -137,6 +140,8 @@ public class ConsoleProxy {
             s_logger.info("Premium setting will override settings from consoleproxy.properties, listen at port 443");
             httpListenPort = 443;
             factoryClzName = "com.cloud.consoleproxy.ConsoleProxySecureServerFactoryImpl";
+            // browsers do not allow a plain WebSocket from a HTTPS page, AJAX polling is used instead
+            webSocketListenPort = 0;
         } else {
             factoryClzName = ConsoleProxyBaseServerFactoryImpl.class.getName();
         }
@@ -147,6 +152,18 @@ public class ConsoleProxy {
             s_logger.info("Setting httpCmdListenPort=" + s);
         }
 
+        s = conf.getProperty("consoleproxy.webSocketListenPort");
+        if (s != null) {
+            webSocketListenPort = Integer.parseInt(s);
+            s_logger.info("Setting webSocketListenPort=" + s);
+        }
+
+        s = conf.getProperty("consoleproxy.webSocketWorkers");
+        if (s != null) {
+            webSocketWorkers = Integer.parseInt(s);
+            s_logger.info("Setting webSocketWorkers=" + s);
+        }
+
         s = conf.getProperty("consoleproxy.reconnectMaxRetry");
         if (s != null) {
             reconnectMaxRetry = Integer.parseInt(s);
@@ -340,6 +357,12 @@ public class ConsoleProxy {
             s_logger.info("HTTP command port is disabled");
         }
 
+        if (webSocketListenPort > 0) {
+            startupWebSocket();
+        } else {
+            s_logger.info("WebSocket viewer port is disabled");
+        }
+
         ConsoleProxyGCThread cthread = new ConsoleProxyGCThread(connectionMap);
         cthread.setName("Console Proxy GC Thread");
         cthread.start();
@@ -379,6 +402,18 @@ public class ConsoleProxy {
         }
     }
 
+    private static void startupWebSocket() {
+        try {
+            s_logger.info("Listening for WebSocket viewers on port " + webSocketListenPort + " with " + webSocketWorkers + " workers");
+            WebSocketServer webSocketServer = new WebSocketServer(webSocketListenPort, new ConsoleProxyWebSocketHandler(webSocketWorkers));
+            webSocketServer.start();
+        } catch (IOException e) {
+            // the AJAX viewer keeps working without it
+            s_logger.error("Unable to start WebSocket server on port " + webSocketListenPort, e);
+            webSocketListenPort = 0;
+        }
+    }
+
     public static void main(String[] argv) {
         standaloneStart = true;
         configLog4j();
@@ -484,6 +519,30 @@ public class ConsoleProxy {
         }
     }
 
+    /**
+     * A WebSocket viewer only attaches to a session that has been started by
+     * the AJAX viewer, it must present the sid and AJAX session id of that
+     * session.
+     */
+    public static ConsoleProxyClient getWebSocketViewer(ConsoleProxyClientParam param, long ajaxSessionId) throws AuthenticationException {
+        ConsoleProxyClient viewer;
+        synchronized (connectionMap) {
+            viewer = connectionMap.get(param.getClientMapKey());
+        }
+
+        if (viewer == null)
+            throw new AuthenticationException("No viewer for console session " + param.getClientMapKey());
+
+        if (ajaxSessionId == 0 || ajaxSessionId != viewer.getAjaxSessionId())
+            throw new AuthenticationException("Cannot use the existing viewer " + viewer + ": modified AJAX session id");
+
+        if (param.getClientHostPassword() == null || param.getClientHostPassword().isEmpty() ||
+                !param.getClientHostPassword().equals(viewer.getClientHostPassword()))
+            throw new AuthenticationException("Cannot use the existing viewer " + viewer + ": bad sid");
+
+        return viewer;
+    }
+
     private static ConsoleProxyClient getClient(ConsoleProxyClientParam param) {
         if (param.getHypervHost() != null) {
             return new ConsoleProxyRdpClient();
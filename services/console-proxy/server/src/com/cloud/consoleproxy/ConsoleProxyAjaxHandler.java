@@ -224,7 +224,7 @@ public class ConsoleProxyAjaxHandler implements HttpHandler {
     }
 
     @SuppressWarnings("deprecation")
-    private void handleClientEventBag(ConsoleProxyClient viewer, String requestData) {
+    static void handleClientEventBag(ConsoleProxyClient viewer, String requestData) {
         if (s_logger.isTraceEnabled())
             s_logger.trace("Handle event bag, event bag: " + requestData);
 
@@ -282,7 +282,7 @@ public class ConsoleProxyAjaxHandler implements HttpHandler {
         }
     }
 
-    private void handleClientEvent(ConsoleProxyClient viewer, int event, Map<String, String> queryMap) {
+    private static void handleClientEvent(ConsoleProxyClient viewer, int event, Map<String, String> queryMap) {
         int code = 0;
         int x = 0, y = 0;
         int modifiers = 0;
@@ -50,6 +50,15 @@ public interface ConsoleProxyClient {
 
     String onAjaxClientKickoff();
 
+    //
+    // WebSocket viewer
+    //
+    void addTileDirtyListener(Runnable listener);
+
+    void removeTileDirtyListener(Runnable listener);
+
+    byte[] onWebSocketClientUpdate();               // null if no tile is dirty
+
     //
     // Input handling
     //
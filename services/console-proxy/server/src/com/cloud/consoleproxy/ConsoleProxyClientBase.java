@@ -18,7 +18,11 @@ package com.cloud.consoleproxy;
 
 import java.awt.Image;
 import java.awt.Rectangle;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.apache.log4j.Logger;
 
@@ -45,6 +49,7 @@ public abstract class ConsoleProxyClientBase implements ConsoleProxyClient, Cons
     protected Object tileDirtyEvent = new Object();
     protected TileTracker tracker;
     protected AjaxFIFOImageCache ajaxImageCache = new AjaxFIFOImageCache(2);
+    protected List<Runnable> tileDirtyListeners = new CopyOnWriteArrayList<Runnable>();
 
     protected ConsoleProxyClientParam clientParam;
     protected String clientToken;
@@ -326,7 +331,8 @@ public abstract class ConsoleProxyClientBase implements ConsoleProxyClient, Cons
                 "var ajaxViewer = new AjaxViewer('main_panel', '" + imgUrl + "', '" + updateUrl + "', '" + locale + "', '" + guest + "', tileMap, ",
                 String.valueOf(width) + ", " + String.valueOf(height) + ", " + String.valueOf(tileWidth) + ", " + String.valueOf(tileHeight) + ");",
 
-                "$(function() {", "ajaxViewer.start();", "});",
+                "$(function() {", "ajaxViewer.start();",
+                ConsoleProxy.webSocketListenPort > 0 ? "ajaxViewer.startWebSocket(" + ConsoleProxy.webSocketListenPort + ");" : "", "});",
 
                 "</script>", "</body>", "</html>"};
 
@@ -387,6 +393,73 @@ public abstract class ConsoleProxyClientBase implements ConsoleProxyClient, Cons
             tracker.getTileHeight());
     }
 
+    @Override
+    public void addTileDirtyListener(Runnable listener) {
+        tileDirtyListeners.add(listener);
+    }
+
+    @Override
+    public void removeTileDirtyListener(Runnable listener) {
+        tileDirtyListeners.remove(listener);
+    }
+
+    /**
+     * Encodes the dirty tiles for the WebSocket viewer, a flags byte, the new
+     * frame buffer and tile size if the frame buffer has been resized, the
+     * tile count and the row and column of each tile, followed by the tiles
+     * merged into a single JPEG image.
+     */
+    @Override
+    public byte[] onWebSocketClientUpdate() {
+        updateFrontEndActivityTime();
+        if (getFrameBufferCavas() == null)
+            return null;
+
+        boolean doResize = false;
+        synchronized (this) {
+            if (framebufferResized) {
+                framebufferResized = false;
+                doResize = true;
+            }
+        }
+
+        List<TileInfo> tiles = tracker.scan(doResize);
+        dirtyFlag = false;
+        if (tiles.isEmpty())
+            return null;
+
+        byte[] imgBits = getTilesMergedJpeg(tiles, tracker.getTileWidth(), tracker.getTileHeight());
+        if (imgBits == null) {
+            s_logger.warn("Unable to generate jpeg image");
+            return null;
+        }
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(imgBits.length + 16 + tiles.size() * 4);
+        DataOutputStream os = new DataOutputStream(bos);
+        try {
+            os.writeByte(doResize ? 1 : 0);
+            if (doResize) {
+                os.writeShort(resizedFramebufferWidth);
+                os.writeShort(resizedFramebufferHeight);
+                os.writeShort(tracker.getTileWidth());
+                os.writeShort(tracker.getTileHeight());
+            }
+            os.writeShort(tiles.size());
+            for (TileInfo tile : tiles) {
+                os.writeShort(tile.getRow());
+                os.writeShort(tile.getCol());
+            }
+            os.write(imgBits);
+        } catch (IOException e) {
+            // not thrown by a ByteArrayOutputStream
+            throw new IllegalStateException(e);
+        }
+
+        if (s_logger.isTraceEnabled())
+            s_logger.trace("Generated WebSocket update, tiles: " + tiles.size() + ", size: " + bos.size());
+        return bos.toByteArray();
+    }
+
     private String getAjaxViewerUpdatePageContent(String tileSequence, String imgUrl, boolean resized, int width, int height, int tileWidth, int tileHeight) {
 
         String[] content =
@@ -413,6 +486,9 @@ public abstract class ConsoleProxyClientBase implements ConsoleProxyClient, Cons
             dirtyFlag = true;
             tileDirtyEvent.notifyAll();
         }
+
+        for (Runnable listener : tileDirtyListeners)
+            listener.run();
     }
 
     public void updateFrontEndActivityTime() {
@@ -0,0 +1,217 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.consoleproxy;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.cloud.consoleproxy.util.Logger;
+import com.cloud.consoleproxy.websocket.WebSocketConnection;
+import com.cloud.consoleproxy.websocket.WebSocketHandler;
+
+/**
+ * Pushes the dirty tiles of a console session to a WebSocket viewer as soon
+ * as they change, instead of the viewer polling for them, and feeds the input
+ * events the viewer sends back to the session.
+ *
+ * The work for a session is done by a fixed pool of workers, at most one of
+ * them works for a given session at a time, and a new update is only encoded
+ * once the previous one has been written, so a slow viewer gets fewer but
+ * larger updates rather than a growing backlog.
+ */
+public class ConsoleProxyWebSocketHandler implements WebSocketHandler {
+    private static final Logger s_logger = Logger.getLogger(ConsoleProxyWebSocketHandler.class);
+
+    private static final int KEEPALIVE_INTERVAL_SECONDS = 30;
+
+    private final ScheduledExecutorService executor;
+
+    public ConsoleProxyWebSocketHandler(int workers) {
+        executor = new ScheduledThreadPoolExecutor(workers, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "Console Proxy WebSocket Worker-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    @Override
+    public boolean onOpen(WebSocketConnection conn, String uri) {
+        try {
+            String query = new URI(uri).getRawQuery();
+            if (query == null)
+                return false;
+
+            Map<String, String> queryMap = ConsoleProxyHttpHandlerHelper.getQueryMap(query);
+            String host = queryMap.get("host");
+            String portStr = queryMap.get("port");
+            String sid = queryMap.get("sid");
+            String tag = queryMap.get("tag");
+            String ajaxSessionIdStr = queryMap.get("sess");
+            if (host == null || portStr == null || sid == null || ajaxSessionIdStr == null)
+                return false;
+
+            ConsoleProxyClientParam param = new ConsoleProxyClientParam();
+            param.setClientHostAddress(host);
+            param.setClientHostPort(Integer.parseInt(portStr));
+            param.setClientHostPassword(sid);
+            param.setClientTag(tag != null ? tag : "");
+
+            long ajaxSessionId = Long.parseLong(ajaxSessionIdStr);
+            ConsoleProxyClient viewer = ConsoleProxy.getWebSocketViewer(param, ajaxSessionId);
+
+            ViewerSession session = new ViewerSession(conn, viewer, ajaxSessionId);
+            conn.setAttachment(session);
+            session.start();
+
+            if (s_logger.isDebugEnabled())
+                s_logger.debug("WebSocket viewer from " + conn.getRemoteAddress() + " attached to " + viewer);
+            return true;
+        } catch (URISyntaxException e) {
+            s_logger.warn("Invalid WebSocket request URI: " + uri);
+        } catch (NumberFormatException e) {
+            s_logger.warn("Invalid number parameter in WebSocket request: " + e.getMessage());
+        } catch (AuthenticationException e) {
+            s_logger.warn("WebSocket viewer from " + conn.getRemoteAddress() + " refused: " + e.getMessage());
+        }
+        return false;
+    }
+
+    @Override
+    public void onText(WebSocketConnection conn, String text) {
+        ViewerSession session = (ViewerSession)conn.getAttachment();
+        if (session != null)
+            session.onEvents(text);
+    }
+
+    @Override
+    public void onDrained(WebSocketConnection conn) {
+        ViewerSession session = (ViewerSession)conn.getAttachment();
+        if (session != null && session.dirty)
+            session.schedule();
+    }
+
+    @Override
+    public void onClose(WebSocketConnection conn) {
+        ViewerSession session = (ViewerSession)conn.getAttachment();
+        if (session != null)
+            session.stop();
+    }
+
+    private class ViewerSession implements Runnable {
+        private final WebSocketConnection conn;
+        private final ConsoleProxyClient viewer;
+        private final long ajaxSessionId;
+
+        private final Queue<String> events = new ConcurrentLinkedQueue<String>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private final Runnable dirtyListener = new Runnable() {
+            @Override
+            public void run() {
+                dirty = true;
+                schedule();
+            }
+        };
+        private volatile boolean dirty = true;
+        private volatile boolean stopped;
+        private ScheduledFuture<?> keepalive;
+
+        ViewerSession(WebSocketConnection conn, ConsoleProxyClient viewer, long ajaxSessionId) {
+            this.conn = conn;
+            this.viewer = viewer;
+            this.ajaxSessionId = ajaxSessionId;
+        }
+
+        void start() {
+            viewer.addTileDirtyListener(dirtyListener);
+            // also keeps the viewer from being recycled while its screen is idle
+            keepalive = executor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    conn.sendPing();
+                    dirtyListener.run();
+                }
+            }, KEEPALIVE_INTERVAL_SECONDS, KEEPALIVE_INTERVAL_SECONDS, TimeUnit.SECONDS);
+            schedule();
+        }
+
+        void stop() {
+            stopped = true;
+            viewer.removeTileDirtyListener(dirtyListener);
+            if (keepalive != null)
+                keepalive.cancel(false);
+        }
+
+        void onEvents(String eventBag) {
+            events.add(eventBag);
+            schedule();
+        }
+
+        void schedule() {
+            if (!stopped && scheduled.compareAndSet(false, true))
+                executor.execute(this);
+        }
+
+        private boolean hasWork() {
+            return !events.isEmpty() || (dirty && conn.isWriteQueueEmpty());
+        }
+
+        @Override
+        public void run() {
+            try {
+                String eventBag;
+                while ((eventBag = events.poll()) != null)
+                    ConsoleProxyAjaxHandler.handleClientEventBag(viewer, eventBag);
+
+                if (viewer.getAjaxSessionId() != ajaxSessionId) {
+                    s_logger.info("WebSocket viewer from " + conn.getRemoteAddress() + " has been replaced by a new session of " + viewer);
+                    conn.sendText(viewer.onAjaxClientKickoff());
+                    conn.close();
+                } else if (!viewer.isFrontEndAlive()) {
+                    conn.sendText("onDisconnect();");
+                    conn.close();
+                } else if (dirty && conn.isWriteQueueEmpty()) {
+                    dirty = false;
+                    byte[] update = viewer.onWebSocketClientUpdate();
+                    if (update != null)
+                        conn.sendBinary(update);
+                }
+            } catch (Throwable e) {
+                s_logger.warn("Unexpected exception in WebSocket viewer of " + viewer + ", ", e);
+                conn.close();
+            } finally {
+                scheduled.set(false);
+                if (conn.isOpen() && hasWork())
+                    schedule();
+            }
+        }
+    }
+}
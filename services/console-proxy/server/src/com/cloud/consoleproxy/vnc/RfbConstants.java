@@ -49,7 +49,8 @@ public interface RfbConstants {
     /**
      * Encodings.
      */
-    public final static int ENCODING_RAW = 0, ENCODING_COPY_RECT = 1, ENCODING_RRE = 2, ENCODING_CO_RRE = 4, ENCODING_HEXTILE = 5, ENCODING_ZRLE = 16;
+    public final static int ENCODING_RAW = 0, ENCODING_COPY_RECT = 1, ENCODING_RRE = 2, ENCODING_CO_RRE = 4, ENCODING_HEXTILE = 5, ENCODING_TIGHT = 7,
+            ENCODING_ZRLE = 16;
 
     /**
      * Pseudo-encodings.
@@ -57,9 +58,12 @@ public interface RfbConstants {
     public final static int ENCODING_CURSOR = -239 /* 0xFFFFFF11 */, ENCODING_DESKTOP_SIZE = -223 /* 0xFFFFFF21 */;
 
     /**
-     * Encodings, which we support.
+     * Encodings, which we support, in order of preference. The server picks the
+     * first one it supports for each session. No JPEG quality level is sent, so
+     * Tight stays lossless.
      */
-    public final static int[] SUPPORTED_ENCODINGS_ARRAY = {ENCODING_RAW, ENCODING_COPY_RECT, ENCODING_DESKTOP_SIZE};
+    public final static int[] SUPPORTED_ENCODINGS_ARRAY = {ENCODING_TIGHT, ENCODING_ZRLE, ENCODING_HEXTILE, ENCODING_COPY_RECT, ENCODING_RAW,
+            ENCODING_DESKTOP_SIZE};
 
     /**
      * Frame buffer update request type: update of whole screen or partial
@@ -20,6 +20,7 @@ import java.awt.Frame;
 import java.awt.ScrollPane;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
+import java.io.BufferedInputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
@@ -151,7 +152,8 @@ public class VncClient {
     }
 
     private void doConnect(String password) throws IOException {
-        is = new DataInputStream(socket.getInputStream());
+        // the compressed encodings are read in small pieces, so buffer the socket
+        is = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
         os = new DataOutputStream(socket.getOutputStream());
 
         // Initialize connection
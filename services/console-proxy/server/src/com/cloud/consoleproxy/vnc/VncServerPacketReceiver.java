@@ -23,6 +23,7 @@ import java.io.IOException;
 
 import com.cloud.consoleproxy.ConsoleProxyClientListener;
 import com.cloud.consoleproxy.util.Logger;
+import com.cloud.consoleproxy.vnc.packet.server.DecoderContext;
 import com.cloud.consoleproxy.vnc.packet.server.FramebufferUpdatePacket;
 import com.cloud.consoleproxy.vnc.packet.server.ServerCutText;
 
@@ -37,6 +38,8 @@ public class VncServerPacketReceiver implements Runnable {
     private VncClient vncConnection;
     private final FrameBufferUpdateListener fburListener;
     private final ConsoleProxyClientListener clientListener;
+    // zlib streams of the session, they continue from one update to the next
+    private final DecoderContext decoderContext = new DecoderContext();
 
     public VncServerPacketReceiver(DataInputStream is, BufferedImageCanvas canvas, VncScreenDescription screen, VncClient vncConnection,
             FrameBufferUpdateListener fburListener, ConsoleProxyClientListener clientListener) {
@@ -68,7 +71,7 @@ public class VncServerPacketReceiver implements Runnable {
                         // so it can send another frame buffer update request
                         fburListener.frameBufferPacketReceived();
                         // Handle frame buffer update
-                        new FramebufferUpdatePacket(canvas, screen, is, clientListener);
+                        new FramebufferUpdatePacket(canvas, screen, is, clientListener, decoderContext);
                         break;
                     }
 
@@ -93,6 +96,7 @@ public class VncServerPacketReceiver implements Runnable {
             }
         } finally {
             s_logger.info("Receiving thread exit processing, shutdown connection");
+            decoderContext.close();
             vncConnection.shutdown();
         }
     }
@@ -0,0 +1,122 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.consoleproxy.vnc.packet.server;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * State of the decoders which lives as long as the connection to the VNC
+ * server. The zlib streams of the ZRLE and Tight encodings continue from one
+ * rectangle to the next, so they can not be created per update.
+ */
+public class DecoderContext {
+
+    public static final int ZRLE_STREAM = 0;
+    public static final int TIGHT_STREAMS = 4;
+
+    // one stream for ZRLE, followed by the four Tight streams
+    private final Inflater[] inflaters = new Inflater[1 + TIGHT_STREAMS];
+
+    private byte[] input = new byte[8192];
+    private byte[] output = new byte[65536];
+
+    /**
+     * Reads length compressed bytes and inflates them with the given stream.
+     * The returned buffer is reused by the next call.
+     */
+    public ByteBuffer inflate(int stream, DataInputStream is, int length) throws IOException {
+        readInput(is, length);
+
+        Inflater inflater = inflaters[stream];
+        if (inflater == null) {
+            inflater = new Inflater();
+            inflaters[stream] = inflater;
+        }
+        inflater.setInput(input, 0, length);
+
+        // the server flushes its stream at the end of each rectangle, so all the output is for this rectangle
+        int produced = 0;
+        try {
+            while (true) {
+                if (produced == output.length) {
+                    byte[] grown = new byte[output.length * 2];
+                    System.arraycopy(output, 0, grown, 0, produced);
+                    output = grown;
+                }
+                int count = inflater.inflate(output, produced, output.length - produced);
+                produced += count;
+                if (count == 0) {
+                    if (inflater.needsInput() || inflater.finished()) {
+                        break;
+                    }
+                    if (inflater.needsDictionary()) {
+                        throw new IOException("Unexpected zlib dictionary request in stream " + stream);
+                    }
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupted zlib data in stream " + stream, e);
+        }
+        return ByteBuffer.wrap(output, 0, produced);
+    }
+
+    /**
+     * Reads length uncompressed bytes. The returned buffer is reused by the next call.
+     */
+    public ByteBuffer read(DataInputStream is, int length) throws IOException {
+        readInput(is, length);
+        return ByteBuffer.wrap(input, 0, length);
+    }
+
+    /**
+     * Resets the Tight streams whose bit is set in the mask.
+     */
+    public void resetTightStreams(int mask) {
+        for (int i = 0; i < TIGHT_STREAMS; i++) {
+            if ((mask & (1 << i)) != 0 && inflaters[1 + i] != null) {
+                inflaters[1 + i].reset();
+            }
+        }
+    }
+
+    public static int tightStream(int id) {
+        return 1 + id;
+    }
+
+    private void readInput(DataInputStream is, int length) throws IOException {
+        if (length < 0) {
+            throw new IOException("Invalid data length " + length);
+        }
+        if (input.length < length) {
+            input = new byte[Math.max(length, input.length * 2)];
+        }
+        is.readFully(input, 0, length);
+    }
+
+    public void close() {
+        for (int i = 0; i < inflaters.length; i++) {
+            if (inflaters[i] != null) {
+                inflaters[i].end();
+                inflaters[i] = null;
+            }
+        }
+    }
+}
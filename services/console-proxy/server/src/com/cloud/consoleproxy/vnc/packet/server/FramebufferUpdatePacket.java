@@ -29,13 +29,15 @@ public class FramebufferUpdatePacket {
     private final VncScreenDescription screen;
     private final BufferedImageCanvas canvas;
     private final ConsoleProxyClientListener clientListener;
+    private final DecoderContext context;
 
-    public FramebufferUpdatePacket(BufferedImageCanvas canvas, VncScreenDescription screen, DataInputStream is, ConsoleProxyClientListener clientListener)
-            throws IOException {
+    public FramebufferUpdatePacket(BufferedImageCanvas canvas, VncScreenDescription screen, DataInputStream is, ConsoleProxyClientListener clientListener,
+            DecoderContext context) throws IOException {
 
         this.screen = screen;
         this.canvas = canvas;
         this.clientListener = clientListener;
+        this.context = context;
         readPacketData(is);
     }
 
@@ -70,6 +72,21 @@ public class FramebufferUpdatePacket {
                     break;
                 }
 
+                case RfbConstants.ENCODING_HEXTILE: {
+                    rect = new HextileRect(x, y, width, height, is);
+                    break;
+                }
+
+                case RfbConstants.ENCODING_ZRLE: {
+                    rect = new ZrleRect(context, x, y, width, height, is);
+                    break;
+                }
+
+                case RfbConstants.ENCODING_TIGHT: {
+                    rect = new TightRect(context, x, y, width, height, is);
+                    break;
+                }
+
                 case RfbConstants.ENCODING_DESKTOP_SIZE: {
                     rect = new FrameBufferSizeChangeRequest(canvas, width, height);
                     if (this.clientListener != null)
@@ -0,0 +1,81 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.consoleproxy.vnc.packet.server;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+
+/**
+ * Hextile encoded rectangle: 16x16 tiles, each either raw or a background
+ * colour with coloured subrectangles on top of it.
+ */
+public class HextileRect extends PixelRect {
+
+    private static final int TILE_SIZE = 16;
+
+    /**
+     * Tile subencoding mask.
+     */
+    private static final int RAW = 1, BACKGROUND_SPECIFIED = 2, FOREGROUND_SPECIFIED = 4, ANY_SUBRECTS = 8, SUBRECTS_COLOURED = 16;
+
+    public HextileRect(int x, int y, int width, int height, DataInputStream is) throws IOException {
+        super(x, y, width, height);
+
+        // background and foreground carry over from the previous tile when not specified
+        int background = 0;
+        int foreground = 0;
+        for (int tileY = 0; tileY < height; tileY += TILE_SIZE) {
+            int tileHeight = Math.min(TILE_SIZE, height - tileY);
+            for (int tileX = 0; tileX < width; tileX += TILE_SIZE) {
+                int tileWidth = Math.min(TILE_SIZE, width - tileX);
+
+                int subencoding = is.readUnsignedByte();
+                if ((subencoding & RAW) != 0) {
+                    for (int line = tileY; line < tileY + tileHeight; line++) {
+                        for (int i = line * width + tileX, end = i + tileWidth; i < end; i++) {
+                            buf[i] = readPixel(is);
+                        }
+                    }
+                    continue;
+                }
+
+                if ((subencoding & BACKGROUND_SPECIFIED) != 0) {
+                    background = readPixel(is);
+                }
+                fill(tileX, tileY, tileWidth, tileHeight, background);
+
+                if ((subencoding & FOREGROUND_SPECIFIED) != 0) {
+                    foreground = readPixel(is);
+                }
+
+                if ((subencoding & ANY_SUBRECTS) != 0) {
+                    int subrects = is.readUnsignedByte();
+                    boolean coloured = (subencoding & SUBRECTS_COLOURED) != 0;
+                    for (int i = 0; i < subrects; i++) {
+                        int color = coloured ? readPixel(is) : foreground;
+                        int position = is.readUnsignedByte();
+                        int size = is.readUnsignedByte();
+                        // the subrectangle may not leave its tile
+                        int subX = position >> 4;
+                        int subY = position & 0x0F;
+                        fill(tileX + subX, tileY + subY, Math.min((size >> 4) + 1, tileWidth - subX), Math.min((size & 0x0F) + 1, tileHeight - subY), color);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.consoleproxy.vnc.packet.server;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferInt;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A rectangle decoded to RGB888 pixels, which are copied to the frame buffer
+ * line by line.
+ */
+public abstract class PixelRect extends AbstractRect {
+    protected final int[] buf;
+
+    public PixelRect(int x, int y, int width, int height) {
+        super(x, y, width, height);
+        buf = new int[width * height];
+    }
+
+    /**
+     * Reads a pixel in our pixel format, RGB 24bit packed into 32bit little-endian int.
+     */
+    protected static int readPixel(DataInputStream is) throws IOException {
+        return Integer.reverseBytes(is.readInt());
+    }
+
+    /**
+     * Fills the area of the rectangle, clipped to its bounds.
+     */
+    protected void fill(int fillX, int fillY, int fillWidth, int fillHeight, int color) {
+        int right = Math.min(fillX + fillWidth, width);
+        int bottom = Math.min(fillY + fillHeight, height);
+        if (fillX >= right) {
+            return;
+        }
+        for (int line = fillY; line < bottom; line++) {
+            Arrays.fill(buf, line * width + fillX, line * width + right, color);
+        }
+    }
+
+    @Override
+    public void paint(BufferedImage image, Graphics2D graphics) {
+
+        DataBuffer dataBuf = image.getRaster().getDataBuffer();
+
+        switch (dataBuf.getDataType()) {
+
+            case DataBuffer.TYPE_INT: {
+                // We chose RGB888 model, so Raster will use DataBufferInt type
+                DataBufferInt dataBuffer = (DataBufferInt)dataBuf;
+
+                int imageWidth = image.getWidth();
+                int imageHeight = image.getHeight();
+
+                // Paint rectangle directly on buffer, line by line
+                int[] imageBuffer = dataBuffer.getData();
+                for (int srcLine = 0, dstLine = y; srcLine < height && dstLine < imageHeight; srcLine++, dstLine++) {
+                    try {
+                        System.arraycopy(buf, srcLine * width, imageBuffer, x + dstLine * imageWidth, width);
+                    } catch (IndexOutOfBoundsException e) {
+                    }
+                }
+                break;
+            }
+
+            default:
+                throw new RuntimeException("Unsupported data buffer in buffered image: expected data buffer of type int (DataBufferInt). Actual data buffer type: " +
+                    dataBuf.getClass().getSimpleName());
+        }
+    }
+}
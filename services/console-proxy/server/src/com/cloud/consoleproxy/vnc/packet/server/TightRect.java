@@ -0,0 +1,179 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.consoleproxy.vnc.packet.server;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Tight encoded rectangle: a solid fill, a JPEG image or pixel data run
+ * through a copy, palette or gradient filter and compressed with one of the
+ * four zlib streams of the connection.
+ */
+public class TightRect extends PixelRect {
+
+    /**
+     * Compression types, the high four bits of the compression control byte.
+     */
+    private static final int FILL = 0x08, JPEG = 0x09;
+
+    // set in the compression type of basic compression when a filter id follows
+    private static final int EXPLICIT_FILTER = 0x04;
+
+    private static final int FILTER_COPY = 0, FILTER_PALETTE = 1, FILTER_GRADIENT = 2;
+
+    // data shorter than this is sent uncompressed
+    private static final int MIN_TO_COMPRESS = 12;
+
+    // a pixel is sent as 3 bytes, red, green and blue, when the pixel format is RGB888
+    private static final int TPIXEL_SIZE = 3;
+
+    public TightRect(DecoderContext context, int x, int y, int width, int height, DataInputStream is) throws IOException {
+        super(x, y, width, height);
+
+        int control = is.readUnsignedByte();
+        context.resetTightStreams(control & 0x0F);
+
+        int type = control >> 4;
+        if (type == FILL) {
+            fill(0, 0, width, height, readTPixel(is));
+        } else if (type == JPEG) {
+            decodeJpeg(is);
+        } else if (type < FILL) {
+            int stream = DecoderContext.tightStream(type & 0x03);
+            int filter = (type & EXPLICIT_FILTER) != 0 ? is.readUnsignedByte() : FILTER_COPY;
+            switch (filter) {
+                case FILTER_COPY: {
+                    ByteBuffer data = readData(context, stream, width * height * TPIXEL_SIZE, is);
+                    for (int i = 0; i < buf.length; i++) {
+                        buf[i] = ((data.get() & 0xFF) << 16) | ((data.get() & 0xFF) << 8) | (data.get() & 0xFF);
+                    }
+                    break;
+                }
+
+                case FILTER_PALETTE: {
+                    int[] palette = new int[is.readUnsignedByte() + 1];
+                    for (int i = 0; i < palette.length; i++) {
+                        palette[i] = readTPixel(is);
+                    }
+                    decodePalette(palette, context, stream, is);
+                    break;
+                }
+
+                case FILTER_GRADIENT: {
+                    decodeGradient(readData(context, stream, width * height * TPIXEL_SIZE, is));
+                    break;
+                }
+
+                default:
+                    throw new IOException("Unsupported Tight filter: " + filter);
+            }
+        } else {
+            throw new IOException("Unsupported Tight compression type: " + type);
+        }
+    }
+
+    private void decodePalette(int[] palette, DecoderContext context, int stream, DataInputStream is) throws IOException {
+        if (palette.length == 2) {
+            // one bit per pixel, every line starts on a byte boundary
+            int lineSize = (width + 7) / 8;
+            ByteBuffer data = readData(context, stream, lineSize * height, is);
+            for (int line = 0; line < height; line++) {
+                int offset = line * width;
+                int bits = 0;
+                for (int column = 0; column < width; column++) {
+                    if ((column & 7) == 0) {
+                        bits = data.get() & 0xFF;
+                    }
+                    buf[offset + column] = palette[(bits >> (7 - (column & 7))) & 1];
+                }
+            }
+        } else {
+            ByteBuffer data = readData(context, stream, width * height, is);
+            for (int i = 0; i < buf.length; i++) {
+                int index = data.get() & 0xFF;
+                buf[i] = index < palette.length ? palette[index] : 0;
+            }
+        }
+    }
+
+    /**
+     * Every colour component was sent as the difference to left + up - up-left, clamped to 0..255.
+     */
+    private void decodeGradient(ByteBuffer data) {
+        int[] previousLine = new int[width * TPIXEL_SIZE];
+        int[] currentLine = new int[width * TPIXEL_SIZE];
+        for (int line = 0; line < height; line++) {
+            for (int column = 0; column < width; column++) {
+                int offset = column * TPIXEL_SIZE;
+                for (int c = 0; c < TPIXEL_SIZE; c++) {
+                    int left = column > 0 ? currentLine[offset - TPIXEL_SIZE + c] : 0;
+                    int upLeft = column > 0 ? previousLine[offset - TPIXEL_SIZE + c] : 0;
+                    int prediction = Math.max(0, Math.min(255, left + previousLine[offset + c] - upLeft));
+                    currentLine[offset + c] = (prediction + data.get()) & 0xFF;
+                }
+                buf[line * width + column] = (currentLine[offset] << 16) | (currentLine[offset + 1] << 8) | currentLine[offset + 2];
+            }
+            int[] swap = previousLine;
+            previousLine = currentLine;
+            currentLine = swap;
+        }
+    }
+
+    private void decodeJpeg(DataInputStream is) throws IOException {
+        byte[] jpeg = new byte[readCompactLength(is)];
+        is.readFully(jpeg);
+
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(jpeg));
+        if (image == null) {
+            throw new IOException("Unable to decode Tight JPEG rectangle");
+        }
+        image.getRGB(0, 0, Math.min(width, image.getWidth()), Math.min(height, image.getHeight()), buf, 0, width);
+    }
+
+    private static ByteBuffer readData(DecoderContext context, int stream, int size, DataInputStream is) throws IOException {
+        if (size < MIN_TO_COMPRESS) {
+            return context.read(is, size);
+        }
+        return context.inflate(stream, is, readCompactLength(is));
+    }
+
+    /**
+     * Reads a length sent in one to three bytes, seven bits per byte, least significant first.
+     */
+    private static int readCompactLength(DataInputStream is) throws IOException {
+        int value = is.readUnsignedByte();
+        int length = value & 0x7F;
+        if ((value & 0x80) != 0) {
+            value = is.readUnsignedByte();
+            length |= (value & 0x7F) << 7;
+            if ((value & 0x80) != 0) {
+                length |= is.readUnsignedByte() << 14;
+            }
+        }
+        return length;
+    }
+
+    private static int readTPixel(DataInputStream is) throws IOException {
+        return (is.readUnsignedByte() << 16) | (is.readUnsignedByte() << 8) | is.readUnsignedByte();
+    }
+}
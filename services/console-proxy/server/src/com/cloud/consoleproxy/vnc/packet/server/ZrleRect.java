@@ -0,0 +1,143 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.consoleproxy.vnc.packet.server;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * ZRLE encoded rectangle: 64x64 tiles, raw, solid, palette or run-length
+ * encoded, compressed with the zlib stream of the connection.
+ */
+public class ZrleRect extends PixelRect {
+
+    private static final int TILE_SIZE = 64;
+
+    /**
+     * Tile subencodings, values between 2 and 16 are packed palettes of that size and values
+     * above 130 run-length encoded palettes of the value minus 128 colours.
+     */
+    private static final int RAW = 0, SOLID = 1, MAX_PACKED_PALETTE = 16, PLAIN_RLE = 128, MIN_PALETTE_RLE = 130;
+
+    private final int[] palette = new int[128];
+
+    public ZrleRect(DecoderContext context, int x, int y, int width, int height, DataInputStream is) throws IOException {
+        super(x, y, width, height);
+
+        int length = is.readInt();
+        ByteBuffer data = context.inflate(DecoderContext.ZRLE_STREAM, is, length);
+
+        for (int tileY = 0; tileY < height; tileY += TILE_SIZE) {
+            int tileHeight = Math.min(TILE_SIZE, height - tileY);
+            for (int tileX = 0; tileX < width; tileX += TILE_SIZE) {
+                int tileWidth = Math.min(TILE_SIZE, width - tileX);
+                decodeTile(data, tileX, tileY, tileWidth, tileHeight);
+            }
+        }
+    }
+
+    private void decodeTile(ByteBuffer data, int tileX, int tileY, int tileWidth, int tileHeight) throws IOException {
+        int subencoding = data.get() & 0xFF;
+
+        if (subencoding == RAW) {
+            for (int line = tileY; line < tileY + tileHeight; line++) {
+                for (int i = line * width + tileX, end = i + tileWidth; i < end; i++) {
+                    buf[i] = readCPixel(data);
+                }
+            }
+        } else if (subencoding == SOLID) {
+            fill(tileX, tileY, tileWidth, tileHeight, readCPixel(data));
+        } else if (subencoding <= MAX_PACKED_PALETTE) {
+            readPalette(data, subencoding);
+            int bitsPerIndex = subencoding == 2 ? 1 : subencoding <= 4 ? 2 : 4;
+            int mask = (1 << bitsPerIndex) - 1;
+            for (int line = tileY; line < tileY + tileHeight; line++) {
+                // every line starts on a byte boundary
+                int bits = 0;
+                int available = 0;
+                for (int i = line * width + tileX, end = i + tileWidth; i < end; i++) {
+                    if (available == 0) {
+                        bits = data.get() & 0xFF;
+                        available = 8;
+                    }
+                    available -= bitsPerIndex;
+                    buf[i] = palette[(bits >> available) & mask];
+                }
+            }
+        } else if (subencoding == PLAIN_RLE) {
+            int total = tileWidth * tileHeight;
+            for (int i = 0; i < total;) {
+                int color = readCPixel(data);
+                int run = Math.min(readRunLength(data), total - i);
+                fillRun(tileX, tileY, tileWidth, i, run, color);
+                i += run;
+            }
+        } else if (subencoding >= MIN_PALETTE_RLE) {
+            readPalette(data, subencoding - 128);
+            int total = tileWidth * tileHeight;
+            for (int i = 0; i < total;) {
+                int index = data.get() & 0xFF;
+                int run = (index & 0x80) != 0 ? Math.min(readRunLength(data), total - i) : 1;
+                fillRun(tileX, tileY, tileWidth, i, run, palette[index & 0x7F]);
+                i += run;
+            }
+        } else {
+            throw new IOException("Unsupported ZRLE tile subencoding: " + subencoding);
+        }
+    }
+
+    private void readPalette(ByteBuffer data, int size) {
+        for (int i = 0; i < size; i++) {
+            palette[i] = readCPixel(data);
+        }
+    }
+
+    /**
+     * Fills run pixels of the tile starting at the given pixel of the tile, left to right and top to bottom.
+     */
+    private void fillRun(int tileX, int tileY, int tileWidth, int start, int run, int color) {
+        while (run > 0) {
+            int line = start / tileWidth;
+            int column = start % tileWidth;
+            int count = Math.min(run, tileWidth - column);
+            int offset = (tileY + line) * width + tileX + column;
+            for (int i = offset; i < offset + count; i++) {
+                buf[i] = color;
+            }
+            start += count;
+            run -= count;
+        }
+    }
+
+    private static int readRunLength(ByteBuffer data) {
+        int run = 1;
+        int value;
+        do {
+            value = data.get() & 0xFF;
+            run += value;
+        } while (value == 255);
+        return run;
+    }
+
+    /**
+     * Reads a compressed pixel: the three least significant bytes of our 32bit little-endian pixel.
+     */
+    private static int readCPixel(ByteBuffer data) {
+        return (data.get() & 0xFF) | ((data.get() & 0xFF) << 8) | ((data.get() & 0xFF) << 16);
+    }
+}
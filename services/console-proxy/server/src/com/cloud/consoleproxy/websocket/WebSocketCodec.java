@@ -0,0 +1,267 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.consoleproxy.websocket;
+
+import java.io.UnsupportedEncodingException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import org.apache.commons.codec.binary.Base64;
+
+/**
+ * Encoding and decoding of the RFC 6455 opening handshake and data framing.
+ * The decoders work on a buffer that may hold a partial message, they return
+ * null and leave the buffer untouched until the whole message has arrived.
+ */
+public class WebSocketCodec {
+    public static final int OPCODE_CONTINUATION = 0x0;
+    public static final int OPCODE_TEXT = 0x1;
+    public static final int OPCODE_BINARY = 0x2;
+    public static final int OPCODE_CLOSE = 0x8;
+    public static final int OPCODE_PING = 0x9;
+    public static final int OPCODE_PONG = 0xA;
+
+    private static final String ACCEPT_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+    private static final byte[] HEADER_END = new byte[] {'\r', '\n', '\r', '\n'};
+
+    public static class HandshakeRequest {
+        private final String method;
+        private final String uri;
+        private final Map<String, String> headers;
+
+        HandshakeRequest(String method, String uri, Map<String, String> headers) {
+            this.method = method;
+            this.uri = uri;
+            this.headers = headers;
+        }
+
+        public String getMethod() {
+            return method;
+        }
+
+        public String getUri() {
+            return uri;
+        }
+
+        /**
+         * @param name case insensitive header name
+         */
+        public String getHeader(String name) {
+            return headers.get(name.toLowerCase(Locale.ENGLISH));
+        }
+
+        public boolean isWebSocketUpgrade() {
+            String upgrade = getHeader("Upgrade");
+            String connection = getHeader("Connection");
+            return "GET".equals(method) && upgrade != null && upgrade.equalsIgnoreCase("websocket") && connection != null &&
+                connection.toLowerCase(Locale.ENGLISH).contains("upgrade") && "13".equals(getHeader("Sec-WebSocket-Version")) &&
+                getHeader("Sec-WebSocket-Key") != null;
+        }
+    }
+
+    public static class Frame {
+        private final boolean fin;
+        private final int opcode;
+        private final byte[] payload;
+
+        public Frame(boolean fin, int opcode, byte[] payload) {
+            this.fin = fin;
+            this.opcode = opcode;
+            this.payload = payload;
+        }
+
+        public boolean isFin() {
+            return fin;
+        }
+
+        public int getOpcode() {
+            return opcode;
+        }
+
+        public boolean isControl() {
+            return (opcode & 0x8) != 0;
+        }
+
+        public byte[] getPayload() {
+            return payload;
+        }
+    }
+
+    /**
+     * @return the request, null if the header block is not complete yet
+     * @throws ProtocolException if the header block is longer than maxLength or is not a HTTP request
+     */
+    public static HandshakeRequest decodeHandshake(ByteBuffer buf, int maxLength) throws ProtocolException {
+        int start = buf.position();
+        int end = -1;
+        for (int i = start; i <= buf.limit() - HEADER_END.length && end < 0; i++) {
+            int j = 0;
+            while (j < HEADER_END.length && buf.get(i + j) == HEADER_END[j]) {
+                j++;
+            }
+            if (j == HEADER_END.length) {
+                end = i;
+            }
+        }
+        if (end < 0) {
+            if (buf.remaining() >= maxLength) {
+                throw new ProtocolException("Handshake request exceeds " + maxLength + " bytes");
+            }
+            return null;
+        }
+
+        byte[] bytes = new byte[end - start];
+        buf.get(bytes);
+        buf.position(end + HEADER_END.length);
+
+        String[] lines;
+        try {
+            lines = new String(bytes, "ISO-8859-1").split("\r\n");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        String[] requestLine = lines[0].split(" ");
+        if (requestLine.length != 3 || !requestLine[2].startsWith("HTTP/")) {
+            throw new ProtocolException("Invalid request line: " + lines[0]);
+        }
+
+        Map<String, String> headers = new HashMap<String, String>();
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            if (colon > 0) {
+                headers.put(lines[i].substring(0, colon).trim().toLowerCase(Locale.ENGLISH), lines[i].substring(colon + 1).trim());
+            }
+        }
+        return new HandshakeRequest(requestLine[0], requestLine[1], headers);
+    }
+
+    public static String getAcceptKey(String key) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            return new String(Base64.encodeBase64(digest.digest((key + ACCEPT_GUID).getBytes("ISO-8859-1"))), "ISO-8859-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static ByteBuffer encodeHandshakeResponse(HandshakeRequest request) {
+        String response =
+            "HTTP/1.1 101 Switching Protocols\r\n" + "Upgrade: websocket\r\n" + "Connection: Upgrade\r\n" + "Sec-WebSocket-Accept: " +
+                getAcceptKey(request.getHeader("Sec-WebSocket-Key")) + "\r\n\r\n";
+        return encodeAscii(response);
+    }
+
+    public static ByteBuffer encodeErrorResponse(int status, String reason) {
+        return encodeAscii("HTTP/1.1 " + status + " " + reason + "\r\n" + "Connection: close\r\n" + "Content-Length: 0\r\n\r\n");
+    }
+
+    private static ByteBuffer encodeAscii(String text) {
+        try {
+            return ByteBuffer.wrap(text.getBytes("ISO-8859-1"));
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Decodes a frame sent by a client, which is always masked.
+     *
+     * @return the frame, null if it has not been received completely
+     * @throws ProtocolException if the frame is malformed or its payload is longer than maxPayload
+     */
+    public static Frame decodeFrame(ByteBuffer buf, int maxPayload) throws ProtocolException {
+        int start = buf.position();
+        if (buf.remaining() < 2) {
+            return null;
+        }
+
+        int b0 = buf.get(start) & 0xff;
+        int b1 = buf.get(start + 1) & 0xff;
+        boolean fin = (b0 & 0x80) != 0;
+        int opcode = b0 & 0x0f;
+        if ((b0 & 0x70) != 0) {
+            throw new ProtocolException("Reserved bits are set in frame header");
+        }
+        if ((b1 & 0x80) == 0) {
+            throw new ProtocolException("Client frame is not masked");
+        }
+
+        long length = b1 & 0x7f;
+        int headerLength = 2;
+        if (length == 126) {
+            if (buf.remaining() < 4) {
+                return null;
+            }
+            length = buf.getShort(start + 2) & 0xffff;
+            headerLength = 4;
+        } else if (length == 127) {
+            if (buf.remaining() < 10) {
+                return null;
+            }
+            length = buf.getLong(start + 2);
+            headerLength = 10;
+        }
+        if ((opcode & 0x8) != 0 && (length > 125 || !fin)) {
+            throw new ProtocolException("Invalid control frame");
+        }
+        if (length < 0 || length > maxPayload) {
+            throw new ProtocolException("Frame payload of " + length + " bytes exceeds " + maxPayload + " bytes");
+        }
+
+        int maskOffset = start + headerLength;
+        int payloadOffset = maskOffset + 4;
+        if (buf.limit() - payloadOffset < length) {
+            return null;
+        }
+
+        byte[] payload = new byte[(int)length];
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] = (byte)(buf.get(payloadOffset + i) ^ buf.get(maskOffset + (i & 3)));
+        }
+        buf.position(payloadOffset + payload.length);
+        return new Frame(fin, opcode, payload);
+    }
+
+    /**
+     * Encodes an unfragmented, unmasked frame as sent by a server.
+     */
+    public static ByteBuffer encodeFrame(int opcode, byte[] payload) {
+        int length = payload.length;
+        int headerLength = length < 126 ? 2 : (length <= 0xffff ? 4 : 10);
+        ByteBuffer buf = ByteBuffer.allocate(headerLength + length);
+        buf.put((byte)(0x80 | opcode));
+        if (length < 126) {
+            buf.put((byte)length);
+        } else if (length <= 0xffff) {
+            buf.put((byte)126);
+            buf.putShort((short)length);
+        } else {
+            buf.put((byte)127);
+            buf.putLong(length);
+        }
+        buf.put(payload);
+        buf.flip();
+        return buf;
+    }
+}
@@ -0,0 +1,292 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.consoleproxy.websocket;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.ProtocolException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.cloud.consoleproxy.util.Logger;
+
+/**
+ * A client connection of a WebSocketServer. Reads and writes are done by the
+ * selector thread, frames can be queued for sending from any thread.
+ */
+public class WebSocketConnection {
+    private static final Logger s_logger = Logger.getLogger(WebSocketConnection.class);
+
+    private static final int MAX_HANDSHAKE_LENGTH = 8192;
+    private static final int MAX_MESSAGE_LENGTH = 65536;
+
+    private final WebSocketServer server;
+    private final SocketChannel channel;
+    private final SocketAddress remoteAddress;
+    private final Queue<ByteBuffer> writeQueue = new ConcurrentLinkedQueue<ByteBuffer>();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private SelectionKey key;
+
+    private ByteBuffer readBuffer = ByteBuffer.allocate(4096);
+    private boolean handshakeDone;
+    private ByteArrayOutputStream fragments;
+    private int fragmentsOpcode;
+    private volatile boolean closing;
+    private volatile Object attachment;
+
+    WebSocketConnection(WebSocketServer server, SocketChannel channel) {
+        this.server = server;
+        this.channel = channel;
+        this.remoteAddress = channel.socket().getRemoteSocketAddress();
+    }
+
+    void setKey(SelectionKey key) {
+        this.key = key;
+    }
+
+    SelectionKey getKey() {
+        return key;
+    }
+
+    SocketChannel getChannel() {
+        return channel;
+    }
+
+    public SocketAddress getRemoteAddress() {
+        return remoteAddress;
+    }
+
+    public Object getAttachment() {
+        return attachment;
+    }
+
+    public void setAttachment(Object attachment) {
+        this.attachment = attachment;
+    }
+
+    public boolean isOpen() {
+        return handshakeDone && !closing && !closed.get();
+    }
+
+    /**
+     * @return true if every queued frame has been handed over to the socket
+     */
+    public boolean isWriteQueueEmpty() {
+        return writeQueue.isEmpty();
+    }
+
+    public void sendText(String text) {
+        try {
+            send(WebSocketCodec.encodeFrame(WebSocketCodec.OPCODE_TEXT, text.getBytes("UTF-8")));
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public void sendBinary(byte[] data) {
+        send(WebSocketCodec.encodeFrame(WebSocketCodec.OPCODE_BINARY, data));
+    }
+
+    public void sendPing() {
+        send(WebSocketCodec.encodeFrame(WebSocketCodec.OPCODE_PING, new byte[0]));
+    }
+
+    /**
+     * Sends a close frame and closes the connection once the frames queued
+     * before it have been written.
+     */
+    public void close() {
+        if (!closing && !closed.get()) {
+            writeQueue.add(WebSocketCodec.encodeFrame(WebSocketCodec.OPCODE_CLOSE, new byte[0]));
+            closing = true;
+            server.requestWrite(this);
+        }
+    }
+
+    private void send(ByteBuffer frame) {
+        if (closing || closed.get()) {
+            return;
+        }
+        writeQueue.add(frame);
+        server.requestWrite(this);
+    }
+
+    //
+    // Selector thread
+    //
+    void onReadable() throws IOException {
+        if (!readBuffer.hasRemaining()) {
+            int limit = handshakeDone ? MAX_MESSAGE_LENGTH + 14 : MAX_HANDSHAKE_LENGTH;
+            if (readBuffer.capacity() >= limit) {
+                throw new ProtocolException("Message from " + remoteAddress + " exceeds " + limit + " bytes");
+            }
+            ByteBuffer larger = ByteBuffer.allocate(Math.min(readBuffer.capacity() * 2, limit));
+            readBuffer.flip();
+            larger.put(readBuffer);
+            readBuffer = larger;
+        }
+
+        int count = channel.read(readBuffer);
+        if (count < 0) {
+            closeNow();
+            return;
+        }
+
+        readBuffer.flip();
+        try {
+            if (!handshakeDone) {
+                WebSocketCodec.HandshakeRequest request = WebSocketCodec.decodeHandshake(readBuffer, MAX_HANDSHAKE_LENGTH);
+                if (request != null) {
+                    onHandshake(request);
+                }
+            }
+            while (handshakeDone && !closed.get()) {
+                WebSocketCodec.Frame frame = WebSocketCodec.decodeFrame(readBuffer, MAX_MESSAGE_LENGTH);
+                if (frame == null) {
+                    break;
+                }
+                onFrame(frame);
+            }
+        } finally {
+            readBuffer.compact();
+        }
+    }
+
+    private void onHandshake(WebSocketCodec.HandshakeRequest request) {
+        if (!request.isWebSocketUpgrade()) {
+            s_logger.info("Refused non WebSocket request " + request.getUri() + " from " + remoteAddress);
+            writeQueue.add(WebSocketCodec.encodeErrorResponse(400, "Bad Request"));
+            closing = true;
+            server.requestWrite(this);
+            return;
+        }
+
+        if (!server.getHandler().onOpen(this, request.getUri())) {
+            writeQueue.add(WebSocketCodec.encodeErrorResponse(403, "Forbidden"));
+            closing = true;
+            server.requestWrite(this);
+            return;
+        }
+
+        // the handshake response has to go out ahead of anything queued by onOpen
+        ByteBuffer[] queued = writeQueue.toArray(new ByteBuffer[0]);
+        writeQueue.clear();
+        writeQueue.add(WebSocketCodec.encodeHandshakeResponse(request));
+        for (ByteBuffer frame : queued) {
+            writeQueue.add(frame);
+        }
+        handshakeDone = true;
+        server.requestWrite(this);
+    }
+
+    private void onFrame(WebSocketCodec.Frame frame) throws IOException {
+        switch (frame.getOpcode()) {
+            case WebSocketCodec.OPCODE_PING:
+                send(WebSocketCodec.encodeFrame(WebSocketCodec.OPCODE_PONG, frame.getPayload()));
+                return;
+
+            case WebSocketCodec.OPCODE_PONG:
+                return;
+
+            case WebSocketCodec.OPCODE_CLOSE:
+                close();
+                return;
+
+            case WebSocketCodec.OPCODE_TEXT:
+            case WebSocketCodec.OPCODE_BINARY:
+                if (fragments != null) {
+                    throw new ProtocolException("New message started before the previous one was complete");
+                }
+                if (!frame.isFin()) {
+                    fragments = new ByteArrayOutputStream();
+                    fragments.write(frame.getPayload());
+                    fragmentsOpcode = frame.getOpcode();
+                    return;
+                }
+                onMessage(frame.getOpcode(), frame.getPayload());
+                return;
+
+            case WebSocketCodec.OPCODE_CONTINUATION:
+                if (fragments == null) {
+                    throw new ProtocolException("Continuation frame without a message");
+                }
+                fragments.write(frame.getPayload());
+                if (fragments.size() > MAX_MESSAGE_LENGTH) {
+                    throw new ProtocolException("Message from " + remoteAddress + " exceeds " + MAX_MESSAGE_LENGTH + " bytes");
+                }
+                if (frame.isFin()) {
+                    byte[] payload = fragments.toByteArray();
+                    fragments = null;
+                    onMessage(fragmentsOpcode, payload);
+                }
+                return;
+
+            default:
+                throw new ProtocolException("Unknown opcode " + frame.getOpcode());
+        }
+    }
+
+    private void onMessage(int opcode, byte[] payload) throws UnsupportedEncodingException {
+        if (opcode == WebSocketCodec.OPCODE_TEXT) {
+            server.getHandler().onText(this, new String(payload, "UTF-8"));
+        } else if (s_logger.isDebugEnabled()) {
+            s_logger.debug("Ignored binary message of " + payload.length + " bytes from " + remoteAddress);
+        }
+    }
+
+    /**
+     * @return true if the write queue has been drained
+     */
+    boolean onWritable() throws IOException {
+        ByteBuffer frame;
+        while ((frame = writeQueue.peek()) != null) {
+            channel.write(frame);
+            if (frame.hasRemaining()) {
+                return false;
+            }
+            writeQueue.poll();
+        }
+
+        if (closing) {
+            closeNow();
+        }
+        return true;
+    }
+
+    void closeNow() {
+        if (closed.compareAndSet(false, true)) {
+            if (key != null) {
+                key.cancel();
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                s_logger.debug("Exception when closing connection from " + remoteAddress, e);
+            }
+            writeQueue.clear();
+            if (handshakeDone) {
+                server.getHandler().onClose(this);
+            }
+        }
+    }
+}
@@ -0,0 +1,38 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.consoleproxy.websocket;
+
+/**
+ * Callbacks of a WebSocketServer. They are invoked on the selector thread,
+ * so implementations must hand anything that may block over to their own
+ * threads.
+ */
+public interface WebSocketHandler {
+    /**
+     * @return false to refuse the connection
+     */
+    boolean onOpen(WebSocketConnection conn, String uri);
+
+    void onText(WebSocketConnection conn, String text);
+
+    /**
+     * Called whenever all the frames queued on the connection have been written.
+     */
+    void onDrained(WebSocketConnection conn);
+
+    void onClose(WebSocketConnection conn);
+}
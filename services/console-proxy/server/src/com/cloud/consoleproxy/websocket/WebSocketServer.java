@@ -0,0 +1,187 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.consoleproxy.websocket;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import com.cloud.consoleproxy.util.Logger;
+
+/**
+ * A minimal RFC 6455 WebSocket server. A single selector thread accepts the
+ * connections and does all the socket I/O without blocking, so the number of
+ * connections is not bound to the number of threads.
+ */
+public class WebSocketServer implements Runnable {
+    private static final Logger s_logger = Logger.getLogger(WebSocketServer.class);
+
+    private final WebSocketHandler handler;
+    private final Selector selector;
+    private final ServerSocketChannel serverChannel;
+    private final Queue<WebSocketConnection> pendingWrites = new ConcurrentLinkedQueue<WebSocketConnection>();
+    private Thread thread;
+    private volatile boolean running;
+
+    public WebSocketServer(int port, WebSocketHandler handler) throws IOException {
+        this.handler = handler;
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.socket().setReuseAddress(true);
+        serverChannel.socket().bind(new InetSocketAddress(port), 256);
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    WebSocketHandler getHandler() {
+        return handler;
+    }
+
+    public synchronized void start() {
+        running = true;
+        thread = new Thread(this, "Console Proxy WebSocket Server");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public synchronized void stop() {
+        running = false;
+        selector.wakeup();
+        if (thread != null) {
+            try {
+                thread.join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    void requestWrite(WebSocketConnection conn) {
+        pendingWrites.add(conn);
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        s_logger.info("WebSocket server listening on port " + getPort());
+        try {
+            while (running) {
+                selector.select();
+
+                WebSocketConnection conn;
+                while ((conn = pendingWrites.poll()) != null) {
+                    SelectionKey key = conn.getKey();
+                    if (key != null && key.isValid()) {
+                        key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    }
+                }
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    if (key.isValid() && key.isAcceptable()) {
+                        accept();
+                    } else {
+                        process(key);
+                    }
+                }
+            }
+        } catch (ClosedSelectorException e) {
+            s_logger.warn("WebSocket server selector has been closed");
+        } catch (Throwable e) {
+            s_logger.error("Unexpected exception in WebSocket server", e);
+        } finally {
+            shutdown();
+        }
+    }
+
+    private void accept() {
+        SocketChannel channel = null;
+        try {
+            channel = serverChannel.accept();
+            if (channel == null) {
+                return;
+            }
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            WebSocketConnection conn = new WebSocketConnection(this, channel);
+            conn.setKey(channel.register(selector, SelectionKey.OP_READ, conn));
+        } catch (IOException e) {
+            s_logger.warn("Unable to accept WebSocket connection", e);
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ex) {
+                }
+            }
+        }
+    }
+
+    private void process(SelectionKey key) {
+        WebSocketConnection conn = (WebSocketConnection)key.attachment();
+        try {
+            if (key.isValid() && key.isReadable()) {
+                conn.onReadable();
+            }
+            if (key.isValid() && key.isWritable()) {
+                if (conn.onWritable()) {
+                    if (key.isValid()) {
+                        key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+                        // frames queued since the queue was found empty will request a write again
+                        if (conn.isOpen()) {
+                            handler.onDrained(conn);
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            if (s_logger.isDebugEnabled()) {
+                s_logger.debug("Closing WebSocket connection from " + conn.getRemoteAddress() + ": " + e.getMessage());
+            }
+            conn.closeNow();
+        } catch (RuntimeException e) {
+            s_logger.warn("Unexpected exception on WebSocket connection from " + conn.getRemoteAddress(), e);
+            conn.closeNow();
+        }
+    }
+
+    private void shutdown() {
+        for (SelectionKey key : selector.keys()) {
+            if (key.attachment() instanceof WebSocketConnection) {
+                ((WebSocketConnection)key.attachment()).closeNow();
+            }
+        }
+        try {
+            serverChannel.close();
+            selector.close();
+        } catch (IOException e) {
+            s_logger.warn("Exception when closing WebSocket server", e);
+        }
+    }
+}
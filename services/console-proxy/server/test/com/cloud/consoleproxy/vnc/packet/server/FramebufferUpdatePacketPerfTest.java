@@ -0,0 +1,59 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.consoleproxy.vnc.packet.server;
+
+import java.io.IOException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.cloud.consoleproxy.util.Logger;
+import com.cloud.consoleproxy.vnc.packet.server.FramebufferUpdatePacketTest.Encoder;
+
+/**
+ * Replays 200 frames of every encoding without checking the pixels.  It is
+ * excluded from the regular build, run it with
+ * -Dtest=FramebufferUpdatePacketPerfTest.
+ */
+public class FramebufferUpdatePacketPerfTest {
+    private static final Logger s_logger = Logger.getLogger(FramebufferUpdatePacketPerfTest.class);
+
+    private final FramebufferUpdatePacketTest frames = new FramebufferUpdatePacketTest();
+
+    @Before
+    public void setUp() {
+        frames.setUp();
+    }
+
+    private void measure(String name, Encoder encoder) throws IOException {
+        int count = 200;
+        byte[] stream = frames.record(encoder, count);
+        long startTick = System.nanoTime();
+        frames.replay(stream, count, false);
+        long nanos = System.nanoTime() - startTick;
+        s_logger.info(name + ": " + stream.length / count + " bytes per frame, " + (long)count * FramebufferUpdatePacketTest.WIDTH * FramebufferUpdatePacketTest.HEIGHT *
+            1000L / Math.max(1, nanos / 1000) + " pixels/ms");
+    }
+
+    @Test
+    public void testReplayThroughput() throws IOException {
+        measure("Raw", frames.raw);
+        measure("Hextile", frames.hextile);
+        measure("ZRLE", frames.zrle);
+        measure("Tight", frames.tight);
+    }
+}
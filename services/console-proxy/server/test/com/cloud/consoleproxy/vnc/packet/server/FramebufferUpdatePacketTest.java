@@ -0,0 +1,510 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.consoleproxy.vnc.packet.server;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.Deflater;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.cloud.consoleproxy.vnc.BufferedImageCanvas;
+import com.cloud.consoleproxy.vnc.RfbConstants;
+import com.cloud.consoleproxy.vnc.VncScreenDescription;
+
+/**
+ * Encodes synthetic frames the way a VNC server does, then replays the
+ * recorded RFB stream through the decoders.
+ */
+public class FramebufferUpdatePacketTest {
+    static final int WIDTH = 256;
+    static final int HEIGHT = 128;
+    private static final int FRAMES = 4;
+
+    private final VncScreenDescription screen = new VncScreenDescription();
+    private BufferedImage image;
+    private BufferedImageCanvas canvas;
+
+    @Before
+    public void setUp() {
+        screen.setPixelFormat(32, 24, RfbConstants.LITTLE_ENDIAN, RfbConstants.TRUE_COLOR, 255, 255, 255, 16, 8, 0);
+        image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        canvas = Mockito.mock(BufferedImageCanvas.class);
+        Mockito.when(canvas.getOfflineImage()).thenReturn(image);
+    }
+
+    /**
+     * A solid area, an area with few colours like text and a noisy area like a picture.
+     */
+    private static int[] createFrame(int frame) {
+        int[] colors = {0x202020, 0xF0F0F0, 0x3366CC};
+        int[] pixels = new int[WIDTH * HEIGHT];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int pixel;
+                if (x < 64) {
+                    pixel = 0x102030 + frame;
+                } else if (x < 128) {
+                    pixel = colors[(x / 4 + y / 3 + frame) % 3];
+                } else {
+                    int hash = (x * 73856093) ^ (y * 19349663) ^ (frame * 83492791);
+                    pixel = (hash ^ (hash >>> 13)) & 0xFFFFFF;
+                }
+                pixels[y * WIDTH + x] = pixel;
+            }
+        }
+        return pixels;
+    }
+
+    interface Encoder {
+        /**
+         * Writes the body of a frame buffer update message for the frame.
+         */
+        void encode(int[] pixels, int frame, DataOutputStream os) throws IOException;
+    }
+
+    byte[] record(Encoder encoder, int frames) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream os = new DataOutputStream(bytes);
+        for (int frame = 0; frame < frames; frame++) {
+            encoder.encode(createFrame(frame % FRAMES), frame, os);
+        }
+        return bytes.toByteArray();
+    }
+
+    private void replay(byte[] stream, int frames) throws IOException {
+        replay(stream, frames, true);
+    }
+
+    void replay(byte[] stream, int frames, boolean verify) throws IOException {
+        DecoderContext context = new DecoderContext();
+        DataInputStream is = new DataInputStream(new ByteArrayInputStream(stream));
+        try {
+            for (int frame = 0; frame < frames; frame++) {
+                new FramebufferUpdatePacket(canvas, screen, is, null, context);
+                if (verify) {
+                    int[] expected = createFrame(frame % FRAMES);
+                    for (int i = 0; i < expected.length; i++) {
+                        int actual = image.getRGB(i % WIDTH, i / WIDTH) & 0xFFFFFF;
+                        if (actual != expected[i]) {
+                            Assert.fail("Frame " + frame + " differs at " + i % WIDTH + "," + i / WIDTH + ": " + Integer.toHexString(actual));
+                        }
+                    }
+                }
+            }
+            Assert.assertEquals(0, is.available());
+        } finally {
+            context.close();
+        }
+    }
+
+    private static void writeRectHeader(DataOutputStream os, int x, int y, int width, int height, int encoding) throws IOException {
+        os.writeShort(x);
+        os.writeShort(y);
+        os.writeShort(width);
+        os.writeShort(height);
+        os.writeInt(encoding);
+    }
+
+    private static void writeUpdateHeader(DataOutputStream os, int rects) throws IOException {
+        os.writeByte(0);
+        os.writeShort(rects);
+    }
+
+    private static void writePixel(DataOutputStream os, int pixel) throws IOException {
+        os.writeInt(Integer.reverseBytes(pixel));
+    }
+
+    private static Set<Integer> colorsOf(int[] pixels, int x, int y, int width, int height) {
+        Set<Integer> colors = new LinkedHashSet<Integer>();
+        for (int line = y; line < y + height; line++) {
+            for (int column = x; column < x + width; column++) {
+                colors.add(pixels[line * WIDTH + column]);
+            }
+        }
+        return colors;
+    }
+
+    private static void deflate(Deflater deflater, byte[] data, ByteArrayOutputStream out) {
+        deflater.setInput(data);
+        byte[] chunk = new byte[4096];
+        int count;
+        do {
+            count = deflater.deflate(chunk, 0, chunk.length, Deflater.SYNC_FLUSH);
+            out.write(chunk, 0, count);
+        } while (count == chunk.length);
+    }
+
+    final Encoder raw = new Encoder() {
+        @Override
+        public void encode(int[] pixels, int frame, DataOutputStream os) throws IOException {
+            writeUpdateHeader(os, 1);
+            writeRectHeader(os, 0, 0, WIDTH, HEIGHT, RfbConstants.ENCODING_RAW);
+            for (int pixel : pixels) {
+                writePixel(os, pixel);
+            }
+        }
+    };
+
+    final Encoder hextile = new Encoder() {
+        @Override
+        public void encode(int[] pixels, int frame, DataOutputStream os) throws IOException {
+            writeUpdateHeader(os, 1);
+            writeRectHeader(os, 0, 0, WIDTH, HEIGHT, RfbConstants.ENCODING_HEXTILE);
+            Integer background = null;
+            for (int tileY = 0; tileY < HEIGHT; tileY += 16) {
+                for (int tileX = 0; tileX < WIDTH; tileX += 16) {
+                    background = encodeTile(pixels, tileX, tileY, background, os);
+                }
+            }
+        }
+
+        private Integer encodeTile(int[] pixels, int tileX, int tileY, Integer previousBackground, DataOutputStream os) throws IOException {
+            List<Integer> colors = new ArrayList<Integer>(colorsOf(pixels, tileX, tileY, 16, 16));
+            if (colors.size() > 4) {
+                os.writeByte(1);
+                for (int line = tileY; line < tileY + 16; line++) {
+                    for (int column = tileX; column < tileX + 16; column++) {
+                        writePixel(os, pixels[line * WIDTH + column]);
+                    }
+                }
+                return null;
+            }
+
+            int background = colors.get(0);
+            // runs of the other colours on every line
+            List<int[]> subrects = new ArrayList<int[]>();
+            for (int line = 0; line < 16; line++) {
+                for (int column = 0; column < 16;) {
+                    int color = pixels[(tileY + line) * WIDTH + tileX + column];
+                    int end = column + 1;
+                    while (end < 16 && pixels[(tileY + line) * WIDTH + tileX + end] == color) {
+                        end++;
+                    }
+                    if (color != background) {
+                        subrects.add(new int[] {color, column, line, end - column});
+                    }
+                    column = end;
+                }
+            }
+
+            int subencoding = 0;
+            if (previousBackground == null || previousBackground != background) {
+                subencoding |= 2;
+            }
+            if (colors.size() == 2) {
+                subencoding |= 4;
+            }
+            if (!subrects.isEmpty()) {
+                subencoding |= colors.size() > 2 ? 8 | 16 : 8;
+            }
+            os.writeByte(subencoding);
+            if ((subencoding & 2) != 0) {
+                writePixel(os, background);
+            }
+            if ((subencoding & 4) != 0) {
+                writePixel(os, colors.get(1));
+            }
+            if (!subrects.isEmpty()) {
+                os.writeByte(subrects.size());
+                for (int[] subrect : subrects) {
+                    if ((subencoding & 16) != 0) {
+                        writePixel(os, subrect[0]);
+                    }
+                    os.writeByte(subrect[1] << 4 | subrect[2]);
+                    os.writeByte((subrect[3] - 1) << 4);
+                }
+            }
+            return background;
+        }
+    };
+
+    final Encoder zrle = new Encoder() {
+        private final Deflater deflater = new Deflater();
+
+        @Override
+        public void encode(int[] pixels, int frame, DataOutputStream os) throws IOException {
+            if (frame == 0) {
+                deflater.reset();
+            }
+            ByteArrayOutputStream tiles = new ByteArrayOutputStream();
+            int tile = 0;
+            for (int tileY = 0; tileY < HEIGHT; tileY += 64) {
+                for (int tileX = 0; tileX < WIDTH; tileX += 64) {
+                    encodeTile(pixels, tileX, tileY, tile++ + frame, new DataOutputStream(tiles));
+                }
+            }
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            deflate(deflater, tiles.toByteArray(), compressed);
+
+            writeUpdateHeader(os, 1);
+            writeRectHeader(os, 0, 0, WIDTH, HEIGHT, RfbConstants.ENCODING_ZRLE);
+            os.writeInt(compressed.size());
+            compressed.writeTo(os);
+        }
+
+        private void encodeTile(int[] pixels, int tileX, int tileY, int variant, DataOutputStream os) throws IOException {
+            List<Integer> colors = new ArrayList<Integer>(colorsOf(pixels, tileX, tileY, 64, 64));
+            if (colors.size() == 1) {
+                os.writeByte(1);
+                writeCPixel(os, colors.get(0));
+            } else if (colors.size() <= 16 && variant % 2 == 0) {
+                os.writeByte(colors.size());
+                for (int color : colors) {
+                    writeCPixel(os, color);
+                }
+                int bitsPerIndex = colors.size() == 2 ? 1 : colors.size() <= 4 ? 2 : 4;
+                for (int line = tileY; line < tileY + 64; line++) {
+                    int bits = 0;
+                    int used = 0;
+                    for (int column = tileX; column < tileX + 64; column++) {
+                        bits = bits << bitsPerIndex | colors.indexOf(pixels[line * WIDTH + column]);
+                        used += bitsPerIndex;
+                        if (used == 8) {
+                            os.writeByte(bits);
+                            bits = 0;
+                            used = 0;
+                        }
+                    }
+                    if (used > 0) {
+                        os.writeByte(bits << (8 - used));
+                    }
+                }
+            } else if (colors.size() <= 127) {
+                os.writeByte(128 + colors.size());
+                for (int color : colors) {
+                    writeCPixel(os, color);
+                }
+                for (int[] run : runs(pixels, tileX, tileY)) {
+                    int index = colors.indexOf(run[0]);
+                    if (run[1] == 1) {
+                        os.writeByte(index);
+                    } else {
+                        os.writeByte(index | 128);
+                        writeRunLength(os, run[1]);
+                    }
+                }
+            } else if (variant % 2 == 0) {
+                os.writeByte(128);
+                for (int[] run : runs(pixels, tileX, tileY)) {
+                    writeCPixel(os, run[0]);
+                    writeRunLength(os, run[1]);
+                }
+            } else {
+                os.writeByte(0);
+                for (int line = tileY; line < tileY + 64; line++) {
+                    for (int column = tileX; column < tileX + 64; column++) {
+                        writeCPixel(os, pixels[line * WIDTH + column]);
+                    }
+                }
+            }
+        }
+
+        private List<int[]> runs(int[] pixels, int tileX, int tileY) {
+            List<int[]> runs = new ArrayList<int[]>();
+            for (int line = tileY; line < tileY + 64; line++) {
+                for (int column = tileX; column < tileX + 64; column++) {
+                    int color = pixels[line * WIDTH + column];
+                    if (!runs.isEmpty() && runs.get(runs.size() - 1)[0] == color) {
+                        runs.get(runs.size() - 1)[1]++;
+                    } else {
+                        runs.add(new int[] {color, 1});
+                    }
+                }
+            }
+            return runs;
+        }
+
+        private void writeRunLength(DataOutputStream os, int run) throws IOException {
+            run--;
+            while (run >= 255) {
+                os.writeByte(255);
+                run -= 255;
+            }
+            os.writeByte(run);
+        }
+
+        private void writeCPixel(DataOutputStream os, int pixel) throws IOException {
+            os.writeByte(pixel & 0xFF);
+            os.writeByte(pixel >> 8 & 0xFF);
+            os.writeByte(pixel >> 16 & 0xFF);
+        }
+    };
+
+    final Encoder tight = new Encoder() {
+        private final Deflater[] deflaters = {new Deflater(), new Deflater(), new Deflater(), new Deflater()};
+
+        @Override
+        public void encode(int[] pixels, int frame, DataOutputStream os) throws IOException {
+            writeUpdateHeader(os, 6);
+
+            writeRectHeader(os, 0, 0, 64, HEIGHT, RfbConstants.ENCODING_TIGHT);
+            os.writeByte(0x80);
+            writeTPixel(os, pixels[0]);
+
+            // three colour palette, one byte per pixel
+            List<Integer> colors = new ArrayList<Integer>(colorsOf(pixels, 64, 0, 64, HEIGHT));
+            writeRectHeader(os, 64, 0, 64, HEIGHT, RfbConstants.ENCODING_TIGHT);
+            os.writeByte(0x40 | 1 << 4);
+            os.writeByte(1);
+            os.writeByte(colors.size() - 1);
+            for (int color : colors) {
+                writeTPixel(os, color);
+            }
+            ByteArrayOutputStream data = new ByteArrayOutputStream();
+            for (int y = 0; y < HEIGHT; y++) {
+                for (int x = 64; x < 128; x++) {
+                    data.write(colors.indexOf(pixels[y * WIDTH + x]));
+                }
+            }
+            writeCompressed(os, 1, data.toByteArray());
+
+            // two colour palette, one bit per pixel
+            writeRectHeader(os, 64, 0, 7, 2, RfbConstants.ENCODING_TIGHT);
+            List<Integer> twoColors = new ArrayList<Integer>(colorsOf(pixels, 64, 0, 7, 2));
+            Assert.assertEquals(2, twoColors.size());
+            os.writeByte(0x40 | 3 << 4);
+            os.writeByte(1);
+            os.writeByte(1);
+            writeTPixel(os, twoColors.get(0));
+            writeTPixel(os, twoColors.get(1));
+            data.reset();
+            for (int y = 0; y < 2; y++) {
+                for (int x = 64; x < 71; x += 8) {
+                    int bits = 0;
+                    for (int bit = 0; bit < 8; bit++) {
+                        bits = bits << 1 | (x + bit < 71 ? twoColors.indexOf(pixels[y * WIDTH + x + bit]) : 0);
+                    }
+                    data.write(bits);
+                }
+            }
+            os.write(data.toByteArray());
+
+            // copy filter, the stream is reset every other frame
+            writeRectHeader(os, 128, 0, 64, HEIGHT, RfbConstants.ENCODING_TIGHT);
+            os.writeByte(frame % 2 == 1 ? 0x01 : 0x00);
+            if (frame % 2 == 1) {
+                deflaters[0].reset();
+            }
+            writeCompressed(os, 0, tpixels(pixels, 128, 0, 64, HEIGHT));
+
+            // gradient filter
+            writeRectHeader(os, 192, 0, 64, HEIGHT, RfbConstants.ENCODING_TIGHT);
+            os.writeByte(0x40 | 2 << 4);
+            os.writeByte(2);
+            writeCompressed(os, 2, gradient(pixels, 192, 0, 64, HEIGHT));
+
+            // too small to be compressed
+            writeRectHeader(os, 200, 10, 3, 1, RfbConstants.ENCODING_TIGHT);
+            os.writeByte(0x00);
+            os.write(tpixels(pixels, 200, 10, 3, 1));
+        }
+
+        private byte[] tpixels(int[] pixels, int x, int y, int width, int height) {
+            ByteArrayOutputStream data = new ByteArrayOutputStream();
+            for (int line = y; line < y + height; line++) {
+                for (int column = x; column < x + width; column++) {
+                    int pixel = pixels[line * WIDTH + column];
+                    data.write(pixel >> 16 & 0xFF);
+                    data.write(pixel >> 8 & 0xFF);
+                    data.write(pixel & 0xFF);
+                }
+            }
+            return data.toByteArray();
+        }
+
+        private byte[] gradient(int[] pixels, int x, int y, int width, int height) {
+            byte[] data = new byte[width * height * 3];
+            for (int line = 0; line < height; line++) {
+                for (int column = 0; column < width; column++) {
+                    for (int c = 0; c < 3; c++) {
+                        int shift = 16 - c * 8;
+                        int left = column > 0 ? component(pixels, x + column - 1, y + line, shift) : 0;
+                        int up = line > 0 ? component(pixels, x + column, y + line - 1, shift) : 0;
+                        int upLeft = column > 0 && line > 0 ? component(pixels, x + column - 1, y + line - 1, shift) : 0;
+                        int prediction = Math.max(0, Math.min(255, left + up - upLeft));
+                        data[(line * width + column) * 3 + c] = (byte)(component(pixels, x + column, y + line, shift) - prediction);
+                    }
+                }
+            }
+            return data;
+        }
+
+        private int component(int[] pixels, int x, int y, int shift) {
+            return pixels[y * WIDTH + x] >> shift & 0xFF;
+        }
+
+        private void writeCompressed(DataOutputStream os, int stream, byte[] data) throws IOException {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            deflate(deflaters[stream], data, compressed);
+            int length = compressed.size();
+            os.writeByte(length & 0x7F | (length > 0x7F ? 0x80 : 0));
+            if (length > 0x7F) {
+                os.writeByte(length >> 7 & 0x7F | (length > 0x3FFF ? 0x80 : 0));
+                if (length > 0x3FFF) {
+                    os.writeByte(length >> 14);
+                }
+            }
+            compressed.writeTo(os);
+        }
+
+        private void writeTPixel(DataOutputStream os, int pixel) throws IOException {
+            os.writeByte(pixel >> 16 & 0xFF);
+            os.writeByte(pixel >> 8 & 0xFF);
+            os.writeByte(pixel & 0xFF);
+        }
+    };
+
+    @Test
+    public void rawFramesAreDecoded() throws IOException {
+        replay(record(raw, FRAMES), FRAMES);
+    }
+
+    @Test
+    public void hextileFramesAreDecoded() throws IOException {
+        replay(record(hextile, FRAMES), FRAMES);
+    }
+
+    @Test
+    public void zrleFramesAreDecodedWithOneZlibStream() throws IOException {
+        replay(record(zrle, FRAMES), FRAMES);
+    }
+
+    @Test
+    public void tightFramesAreDecodedWithFourZlibStreams() throws IOException {
+        replay(record(tight, FRAMES), FRAMES);
+    }
+
+    @Test
+    public void compressedEncodingsAreSmallerThanRaw() throws IOException {
+        int rawSize = record(raw, FRAMES).length;
+        Assert.assertTrue(record(hextile, FRAMES).length < rawSize);
+        Assert.assertTrue(record(zrle, FRAMES).length < rawSize);
+        Assert.assertTrue(record(tight, FRAMES).length < rawSize);
+    }
+}
@@ -0,0 +1,143 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.consoleproxy.websocket;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class WebSocketCodecTest {
+
+    private static ByteBuffer ascii(String text) throws Exception {
+        return ByteBuffer.wrap(text.getBytes("ISO-8859-1"));
+    }
+
+    private static byte[] maskedFrame(int opcode, boolean fin, byte[] payload) {
+        byte[] mask = new byte[] {0x37, (byte)0xfa, 0x21, 0x3d};
+        int headerLength = payload.length < 126 ? 2 : 4;
+        ByteBuffer buf = ByteBuffer.allocate(headerLength + 4 + payload.length);
+        buf.put((byte)((fin ? 0x80 : 0) | opcode));
+        if (payload.length < 126) {
+            buf.put((byte)(0x80 | payload.length));
+        } else {
+            buf.put((byte)(0x80 | 126));
+            buf.putShort((short)payload.length);
+        }
+        buf.put(mask);
+        for (int i = 0; i < payload.length; i++) {
+            buf.put((byte)(payload[i] ^ mask[i & 3]));
+        }
+        return buf.array();
+    }
+
+    @Test
+    public void acceptKeyMatchesRfcExample() {
+        Assert.assertEquals("s3pPLMBiTxaQ9kYGzzhZRbK+xOo=", WebSocketCodec.getAcceptKey("dGhlIHNhbXBsZSBub25jZQ=="));
+    }
+
+    @Test
+    public void handshakeIsDecodedOnceComplete() throws Exception {
+        String request =
+            "GET /websocket?token=abc&sess=2 HTTP/1.1\r\n" + "Host: 10.1.1.1:8080\r\n" + "Upgrade: websocket\r\n" + "Connection: keep-alive, Upgrade\r\n" +
+                "Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\n" + "Sec-WebSocket-Version: 13\r\n\r\n";
+
+        ByteBuffer partial = ascii(request.substring(0, request.length() - 2));
+        Assert.assertNull(WebSocketCodec.decodeHandshake(partial, 8192));
+        Assert.assertEquals(0, partial.position());
+
+        ByteBuffer buf = ascii(request);
+        WebSocketCodec.HandshakeRequest handshake = WebSocketCodec.decodeHandshake(buf, 8192);
+        Assert.assertNotNull(handshake);
+        Assert.assertFalse(buf.hasRemaining());
+        Assert.assertEquals("/websocket?token=abc&sess=2", handshake.getUri());
+        Assert.assertEquals("dGhlIHNhbXBsZSBub25jZQ==", handshake.getHeader("sec-websocket-key"));
+        Assert.assertTrue(handshake.isWebSocketUpgrade());
+
+        String response = new String(WebSocketCodec.encodeHandshakeResponse(handshake).array(), "ISO-8859-1");
+        Assert.assertTrue(response.startsWith("HTTP/1.1 101 "));
+        Assert.assertTrue(response.contains("Sec-WebSocket-Accept: s3pPLMBiTxaQ9kYGzzhZRbK+xOo=\r\n"));
+    }
+
+    @Test
+    public void plainHttpRequestIsNotAnUpgrade() throws Exception {
+        WebSocketCodec.HandshakeRequest handshake = WebSocketCodec.decodeHandshake(ascii("GET /ajax HTTP/1.1\r\nHost: x\r\n\r\n"), 8192);
+        Assert.assertFalse(handshake.isWebSocketUpgrade());
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void oversizedHandshakeIsRejected() throws Exception {
+        WebSocketCodec.decodeHandshake(ByteBuffer.allocate(8192), 8192);
+    }
+
+    @Test
+    public void maskedFramesAreDecodedOnceComplete() throws Exception {
+        byte[] payload = new byte[300];
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] = (byte)i;
+        }
+        byte[] first = maskedFrame(WebSocketCodec.OPCODE_TEXT, true, "1|2|5|65|0|".getBytes("UTF-8"));
+        byte[] second = maskedFrame(WebSocketCodec.OPCODE_BINARY, true, payload);
+
+        ByteBuffer buf = ByteBuffer.allocate(first.length + second.length);
+        buf.put(first).put(second, 0, 3).flip();
+
+        WebSocketCodec.Frame frame = WebSocketCodec.decodeFrame(buf, 65536);
+        Assert.assertEquals(WebSocketCodec.OPCODE_TEXT, frame.getOpcode());
+        Assert.assertTrue(frame.isFin());
+        Assert.assertEquals("1|2|5|65|0|", new String(frame.getPayload(), "UTF-8"));
+
+        Assert.assertNull(WebSocketCodec.decodeFrame(buf, 65536));
+        Assert.assertEquals(first.length, buf.position());
+
+        buf.compact();
+        buf.put(second, 3, second.length - 3).flip();
+        frame = WebSocketCodec.decodeFrame(buf, 65536);
+        Assert.assertEquals(WebSocketCodec.OPCODE_BINARY, frame.getOpcode());
+        Assert.assertArrayEquals(payload, frame.getPayload());
+        Assert.assertFalse(buf.hasRemaining());
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void unmaskedClientFrameIsRejected() throws Exception {
+        WebSocketCodec.decodeFrame(WebSocketCodec.encodeFrame(WebSocketCodec.OPCODE_TEXT, new byte[4]), 65536);
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void oversizedFrameIsRejected() throws Exception {
+        WebSocketCodec.decodeFrame(ByteBuffer.wrap(maskedFrame(WebSocketCodec.OPCODE_BINARY, true, new byte[300])), 256);
+    }
+
+    @Test
+    public void payloadLengthIsEncodedInShortestForm() {
+        ByteBuffer small = WebSocketCodec.encodeFrame(WebSocketCodec.OPCODE_BINARY, new byte[125]);
+        Assert.assertEquals(127, small.remaining());
+        Assert.assertEquals((byte)0x82, small.get(0));
+        Assert.assertEquals(125, small.get(1));
+
+        ByteBuffer medium = WebSocketCodec.encodeFrame(WebSocketCodec.OPCODE_BINARY, new byte[65535]);
+        Assert.assertEquals(65535 + 4, medium.remaining());
+        Assert.assertEquals(126, medium.get(1));
+        Assert.assertEquals(65535, medium.getShort(2) & 0xffff);
+
+        ByteBuffer large = WebSocketCodec.encodeFrame(WebSocketCodec.OPCODE_BINARY, new byte[65536]);
+        Assert.assertEquals(65536 + 10, large.remaining());
+        Assert.assertEquals(127, large.get(1));
+        Assert.assertEquals(65536, large.getLong(2));
+    }
+}
@@ -0,0 +1,140 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.consoleproxy.websocket;
+
+import java.io.DataInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class WebSocketServerTest {
+    WebSocketServer _server;
+    CountDownLatch _closed = new CountDownLatch(1);
+
+    @Before
+    public void setUp() throws Exception {
+        _server = new WebSocketServer(0, new WebSocketHandler() {
+            @Override
+            public boolean onOpen(WebSocketConnection conn, String uri) {
+                return uri.startsWith("/echo");
+            }
+
+            @Override
+            public void onText(WebSocketConnection conn, String text) {
+                conn.sendText(text.toUpperCase());
+            }
+
+            @Override
+            public void onDrained(WebSocketConnection conn) {
+            }
+
+            @Override
+            public void onClose(WebSocketConnection conn) {
+                _closed.countDown();
+            }
+        });
+        _server.start();
+    }
+
+    @After
+    public void tearDown() {
+        _server.stop();
+    }
+
+    private static String readHeaders(InputStream is) throws Exception {
+        StringBuilder sb = new StringBuilder();
+        while (!sb.toString().endsWith("\r\n\r\n")) {
+            int b = is.read();
+            Assert.assertTrue(b >= 0);
+            sb.append((char)b);
+        }
+        return sb.toString();
+    }
+
+    private static void writeHandshake(OutputStream os, String uri) throws Exception {
+        os.write(("GET " + uri + " HTTP/1.1\r\nHost: localhost\r\nUpgrade: websocket\r\nConnection: Upgrade\r\n" +
+            "Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\nSec-WebSocket-Version: 13\r\n\r\n").getBytes("ISO-8859-1"));
+        os.flush();
+    }
+
+    @Test
+    public void textMessagesAreExchanged() throws Exception {
+        Socket socket = new Socket("localhost", _server.getPort());
+        try {
+            socket.setSoTimeout(5000);
+            OutputStream os = socket.getOutputStream();
+            DataInputStream is = new DataInputStream(socket.getInputStream());
+
+            writeHandshake(os, "/echo");
+            String response = readHeaders(is);
+            Assert.assertTrue(response.startsWith("HTTP/1.1 101 "));
+            Assert.assertTrue(response.contains("Sec-WebSocket-Accept: s3pPLMBiTxaQ9kYGzzhZRbK+xOo=\r\n"));
+
+            // masked "ping me" text frame, sent in two writes
+            byte[] payload = "ping me".getBytes("UTF-8");
+            byte[] mask = new byte[] {1, 2, 3, 4};
+            byte[] frame = new byte[2 + 4 + payload.length];
+            frame[0] = (byte)0x81;
+            frame[1] = (byte)(0x80 | payload.length);
+            System.arraycopy(mask, 0, frame, 2, 4);
+            for (int i = 0; i < payload.length; i++) {
+                frame[6 + i] = (byte)(payload[i] ^ mask[i & 3]);
+            }
+            os.write(frame, 0, 5);
+            os.flush();
+            Thread.sleep(50);
+            os.write(frame, 5, frame.length - 5);
+            os.flush();
+
+            Assert.assertEquals(0x81, is.readUnsignedByte());
+            Assert.assertEquals(payload.length, is.readUnsignedByte());
+            byte[] echoed = new byte[payload.length];
+            is.readFully(echoed);
+            Assert.assertEquals("PING ME", new String(echoed, "UTF-8"));
+
+            // masked close frame, answered by a close frame
+            os.write(new byte[] {(byte)0x88, (byte)0x80, 1, 2, 3, 4});
+            os.flush();
+            Assert.assertEquals(0x88, is.readUnsignedByte());
+            Assert.assertEquals(0, is.readUnsignedByte());
+            Assert.assertEquals(-1, is.read());
+            Assert.assertTrue(_closed.await(5, TimeUnit.SECONDS));
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void refusedConnectionGetsErrorResponse() throws Exception {
+        Socket socket = new Socket("localhost", _server.getPort());
+        try {
+            socket.setSoTimeout(5000);
+            writeHandshake(socket.getOutputStream(), "/other");
+            Assert.assertTrue(readHeaders(socket.getInputStream()).startsWith("HTTP/1.1 403 "));
+            Assert.assertEquals(-1, socket.getInputStream().read());
+        } finally {
+            socket.close();
+        }
+    }
+}
@@ -349,8 +349,11 @@ public class DownloadManagerImpl extends ManagerBase implements DownloadManager
         // storage
         ResourceType resourceType = dnld.getResourceType();
 
-        File originalTemplate = new File(td.getDownloadLocalPath());
-        String checkSum = computeCheckSum(originalTemplate);
+        // downloaders that digest the file as they write it save reading it all again here
+        String checkSum = td.getDownloadChecksum();
+        if (checkSum == null) {
+            checkSum = computeCheckSum(new File(td.getDownloadLocalPath()));
+        }
         if (checkSum == null) {
             s_logger.warn("Something wrong happened when try to calculate the checksum of downloaded template!");
         }
@@ -391,6 +394,7 @@ public class DownloadManagerImpl extends ManagerBase implements DownloadManager
         // template file downloaded
         if (dnld.getChecksum() != null && dnld.getChecksum().length() > 1) {
             scr.add("-c", dnld.getChecksum());
+            scr.add("-k"); // the checksum was computed from this very file, no need to verify it
         }
         scr.add("-u"); // cleanup
         String result;
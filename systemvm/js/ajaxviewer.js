@@ -378,6 +378,10 @@ function AjaxViewer(panelId, imageUrl, updateUrl, locale, guestos, tileMap, widt
 	this.eventQueue = [];
 	this.sendingEventInProgress = false;
 	
+	this.panelId = panelId;
+	this.webSocket = null;
+	this.socketFrames = [];
+	
 	this.lastClickEvent = { x: 0, y: 0, button: 0, modifiers: 0, time: new Date().getTime() };
 	
 	if(window.onStatusNotify == undefined)
@@ -646,8 +650,100 @@ AjaxViewer.prototype = {
 		});
 	},
 	
+	// once connected, tile updates are pushed over the WebSocket instead of being polled for,
+	// the viewer falls back to polling if the WebSocket can not be opened or is dropped
+	startWebSocket: function(port) {
+		if(window.WebSocket == undefined || window.ArrayBuffer == undefined)
+			return;
+		
+		var ajaxViewer = this;
+		var url = (window.location.protocol == "https:" ? "wss://" : "ws://") + window.location.hostname + ":" + port +
+			"/websocket" + this.updateUrl.substring(this.updateUrl.indexOf("?"));
+		
+		var socket;
+		try {
+			socket = new WebSocket(url);
+		} catch(e) {
+			g_logger.log(Logger.LEVEL_WARN, "Unable to open WebSocket " + url + ", " + e);
+			return;
+		}
+		socket.binaryType = "arraybuffer";
+		
+		socket.onopen = function() {
+			g_logger.log(Logger.LEVEL_INFO, "WebSocket " + url + " is connected");
+			ajaxViewer.webSocket = socket;
+		};
+		socket.onmessage = function(e) {
+			if(typeof e.data == "string")
+				eval(e.data);		// kickoff or disconnect
+			else
+				ajaxViewer.onSocketUpdate(e.data);
+		};
+		socket.onclose = function() {
+			if(ajaxViewer.webSocket == socket) {
+				g_logger.log(Logger.LEVEL_INFO, "WebSocket " + url + " is closed, falling back to polling");
+				ajaxViewer.webSocket = null;
+				ajaxViewer.setDirty(true);
+			}
+		};
+	},
+	
+	onSocketUpdate: function(data) {
+		var ajaxViewer = this;
+		var view = new DataView(data);
+		var pos = 0;
+		
+		var frame = { resized: (view.getUint8(pos++) & 1) != 0, tileMap: [], url: null, loaded: false };
+		if(frame.resized) {
+			frame.width = view.getUint16(pos); pos += 2;
+			frame.height = view.getUint16(pos); pos += 2;
+			frame.tileWidth = view.getUint16(pos); pos += 2;
+			frame.tileHeight = view.getUint16(pos); pos += 2;
+		}
+		var count = view.getUint16(pos); pos += 2;
+		for(var i = 0; i < count; i++) {
+			frame.tileMap.push([view.getUint16(pos), view.getUint16(pos + 2)]);
+			pos += 4;
+		}
+		
+		var bytes = new Uint8Array(data, pos);
+		var chunks = [];
+		for(var i = 0; i < bytes.length; i += 8192)
+			chunks.push(String.fromCharCode.apply(null, bytes.subarray(i, Math.min(i + 8192, bytes.length))));
+		frame.url = "data:image/jpeg;base64," + window.btoa(chunks.join(""));
+		
+		// images may finish decoding out of order, tiles are painted in the order they were sent
+		this.socketFrames.push(frame);
+		var img = new Image();
+		img.onload = function() {
+			frame.loaded = true;
+			ajaxViewer.paintSocketFrames();
+		};
+		img.src = frame.url;
+	},
+	
+	paintSocketFrames: function() {
+		while(this.socketFrames.length > 0 && this.socketFrames[0].loaded) {
+			var frame = this.socketFrames.shift();
+			if(frame.resized)
+				this.resize(this.panelId, frame.width, frame.height, frame.tileWidth, frame.tileHeight);
+			
+			this.imgUrl = frame.url;
+			this.tileMap = frame.tileMap;
+			this.fullImage = false;
+			this.imageLoaded = true;
+			this.dirty = true;
+			this.updateTile();
+		}
+	},
+	
 	stop: function() {
 		clearInterval(this.timer);
+		if(this.webSocket != null) {
+			var socket = this.webSocket;
+			this.webSocket = null;
+			socket.close();
+		}
 		this.deleteCanvas();
 
 		this.uninstallMouseHook();
@@ -951,6 +1047,12 @@ AjaxViewer.prototype = {
 			});
 			this.eventQueue.length = 0;
 			
+			if(this.webSocket != null) {
+				g_logger.log(Logger.LEVEL_TRACE, "Sending client event " + sb.toString() + " over WebSocket");
+				this.webSocket.send(sb.toString());
+				return;
+			}
+			
 			var url = ajaxViewer.updateUrl + "&event=" + AjaxViewer.EVENT_BAG;
 			
 			g_logger.log(Logger.LEVEL_TRACE, "Posting client event " + sb.toString() + "...");
@@ -1117,6 +1219,9 @@ AjaxViewer.prototype = {
 		
 		if(this.isImageLoaded()) {
 			this.updateTile();
+			if(this.webSocket != null)
+				return;
+			
 			var url = this.updateUrl;
 			var ajaxViewer = this;
 
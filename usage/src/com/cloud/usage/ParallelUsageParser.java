@@ -0,0 +1,218 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.usage;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.log4j.Logger;
+
+import org.apache.cloudstack.managed.context.ManagedContextRunnable;
+
+import com.cloud.usage.parser.HelperTableParser;
+import com.cloud.user.AccountVO;
+import com.cloud.utils.concurrency.NamedThreadFactory;
+import com.cloud.utils.db.TransactionLegacy;
+
+/**
+ * Parses the usage of the submitted accounts on a pool of worker threads.
+ * Every worker parses the accounts it takes in its own cloud_usage
+ * transaction. The transactions are only committed once all the accounts
+ * were parsed without error and are rolled back otherwise.
+ *
+ * The workers commit one after the other, so when a commit fails, or the
+ * job's own transaction fails after them, the usage records of the other
+ * workers stay.  The workers must therefore only add usage records, which
+ * the next run removes before it parses the same period again, see
+ * UsageDao.removeRecordsEndingAfter().  Parsers that update the helper
+ * tables run in the job's transaction instead.
+ */
+public class ParallelUsageParser {
+    private static final Logger s_logger = Logger.getLogger(ParallelUsageParser.class);
+    private static final long PROGRESS_INTERVAL = 60000;
+    private static final int QUEUE_SIZE = 1000;
+    private static final AccountVO END_OF_WORK = new AccountVO();
+
+    public interface AccountParser {
+        /**
+         * Runs all the usage parsers for the account, in the worker's transaction.
+         *
+         * @return true if the usage of the account was parsed
+         */
+        boolean parse(AccountVO account, ParallelUsageParser run);
+    }
+
+    private final int _workers;
+    private final AccountParser _parser;
+    private final ExecutorService _executor;
+    private final BlockingQueue<AccountVO> _queue = new LinkedBlockingQueue<AccountVO>(QUEUE_SIZE);
+    private final CountDownLatch _parsed;
+    private final CountDownLatch _decided = new CountDownLatch(1);
+    private final CountDownLatch _completed;
+
+    private final long _startTick = System.currentTimeMillis();
+    private final AtomicLong _lastProgressTick = new AtomicLong(_startTick);
+    private final AtomicInteger _accounts = new AtomicInteger();
+    private final AtomicBoolean _anyParsed = new AtomicBoolean();
+    private final AtomicBoolean _failed = new AtomicBoolean();
+    private final AtomicBoolean _commitFailed = new AtomicBoolean();
+    private final AtomicLongArray _parserTimes = new AtomicLongArray(HelperTableParser.values().length);
+    private volatile boolean _commit;
+
+    public ParallelUsageParser(int workers, AccountParser parser) {
+        _workers = Math.max(1, workers);
+        _parser = parser;
+        _parsed = new CountDownLatch(_workers);
+        _completed = new CountDownLatch(_workers);
+        _executor = Executors.newFixedThreadPool(_workers, new NamedThreadFactory("Usage-Parser"));
+        for (int i = 0; i < _workers; i++) {
+            _executor.execute(new Worker());
+        }
+    }
+
+    /**
+     * Queues the account for one of the workers, blocks while the queue is full.
+     */
+    public void submit(AccountVO account) throws InterruptedException {
+        _queue.put(account);
+    }
+
+    /**
+     * Makes the run fail, the accounts parsed so far are rolled back.
+     */
+    public void fail() {
+        _failed.set(true);
+    }
+
+    public void addParserTime(HelperTableParser parser, long nanos) {
+        _parserTimes.addAndGet(parser.ordinal(), nanos);
+    }
+
+    /**
+     * Waits for the workers to parse the submitted accounts, then commits
+     * their transactions if all of them succeeded.
+     *
+     * @return true if the usage of all accounts was parsed and committed
+     */
+    public boolean finish() throws InterruptedException {
+        try {
+            for (int i = 0; i < _workers; i++) {
+                _queue.put(END_OF_WORK);
+            }
+            _parsed.await();
+
+            _commit = !_failed.get() && _anyParsed.get();
+            _decided.countDown();
+            _completed.await();
+        } catch (InterruptedException e) {
+            _executor.shutdownNow();
+            throw e;
+        }
+        _executor.shutdown();
+
+        if (s_logger.isInfoEnabled()) {
+            StringBuilder timings = new StringBuilder();
+            for (HelperTableParser parser : HelperTableParser.values()) {
+                timings.append(timings.length() == 0 ? "" : ", ").append(parser.getDescription()).append(": ");
+                timings.append(TimeUnit.NANOSECONDS.toMillis(_parserTimes.get(parser.ordinal()))).append("ms");
+            }
+            s_logger.info("Parsed usage of " + _accounts.get() + " accounts on " + _workers + " threads in " + (System.currentTimeMillis() - _startTick) + "ms, " +
+                (_commit ? "committed" : "rolled back") + ". Time spent per parser: " + timings);
+        }
+        return _commit && !_commitFailed.get();
+    }
+
+    private void reportProgress() {
+        int count = _accounts.incrementAndGet();
+        long now = System.currentTimeMillis();
+        long last = _lastProgressTick.get();
+        if (now - last >= PROGRESS_INTERVAL && _lastProgressTick.compareAndSet(last, now)) {
+            s_logger.info("Parsed usage of " + count + " accounts in " + (now - _startTick) / 1000 + "s");
+        }
+    }
+
+    private class Worker extends ManagedContextRunnable {
+        @Override
+        protected void runInContext() {
+            TransactionLegacy txn = null;
+            try {
+                try {
+                    txn = TransactionLegacy.open(TransactionLegacy.USAGE_DB);
+                    txn.start();
+                } catch (Exception e) {
+                    s_logger.error("Unable to start the usage parser transaction", e);
+                    _failed.set(true);
+                }
+                parseAccounts();
+
+                _decided.await();
+                if (txn != null) {
+                    if (_commit) {
+                        txn.commit();
+                    } else {
+                        txn.rollback();
+                    }
+                }
+            } catch (InterruptedException e) {
+                s_logger.warn("Usage parser interrupted, rolling back");
+                _commitFailed.set(true);
+                if (txn != null) {
+                    txn.rollback();
+                }
+            } catch (Exception e) {
+                s_logger.error("Failed to commit parsed usage", e);
+                _commitFailed.set(true);
+            } finally {
+                if (txn != null) {
+                    txn.close();
+                }
+                _completed.countDown();
+            }
+        }
+
+        private void parseAccounts() throws InterruptedException {
+            try {
+                AccountVO account;
+                while ((account = _queue.take()) != END_OF_WORK) {
+                    // keep taking accounts after a failure so the producer is not blocked
+                    if (_failed.get()) {
+                        continue;
+                    }
+                    try {
+                        if (_parser.parse(account, ParallelUsageParser.this)) {
+                            _anyParsed.set(true);
+                        }
+                    } catch (Exception e) {
+                        s_logger.error("Failed to parse usage of account " + account.getId(), e);
+                        _failed.set(true);
+                    }
+                    reportProgress();
+                }
+            } finally {
+                _parsed.countDown();
+            }
+        }
+    }
+}
@@ -62,18 +62,7 @@ import com.cloud.usage.dao.UsageVMSnapshotDao;
 import com.cloud.usage.dao.UsageVPNUserDao;
 import com.cloud.usage.dao.UsageVmDiskDao;
 import com.cloud.usage.dao.UsageVolumeDao;
-import com.cloud.usage.parser.IPAddressUsageParser;
-import com.cloud.usage.parser.LoadBalancerUsageParser;
-import com.cloud.usage.parser.NetworkOfferingUsageParser;
-import com.cloud.usage.parser.NetworkUsageParser;
-import com.cloud.usage.parser.PortForwardingUsageParser;
-import com.cloud.usage.parser.SecurityGroupUsageParser;
-import com.cloud.usage.parser.StorageUsageParser;
-import com.cloud.usage.parser.VMInstanceUsageParser;
-import com.cloud.usage.parser.VMSnapshotUsageParser;
-import com.cloud.usage.parser.VPNUserUsageParser;
-import com.cloud.usage.parser.VmDiskUsageParser;
-import com.cloud.usage.parser.VolumeUsageParser;
+import com.cloud.usage.parser.HelperTableParser;
 import com.cloud.user.Account;
 import com.cloud.user.AccountVO;
 import com.cloud.user.UserStatisticsVO;
@@ -81,6 +70,7 @@ import com.cloud.user.VmDiskStatisticsVO;
 import com.cloud.user.dao.AccountDao;
 import com.cloud.user.dao.UserStatisticsDao;
 import com.cloud.user.dao.VmDiskStatisticsDao;
+import com.cloud.utils.NumbersUtil;
 import com.cloud.utils.component.ManagerBase;
 import com.cloud.utils.concurrency.NamedThreadFactory;
 import com.cloud.utils.db.DB;
@@ -149,6 +139,7 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
     private final Calendar _jobExecTime = Calendar.getInstance();
     private int _aggregationDuration = 0;
     private int _sanityCheckInterval = 0;
+    private int _parseThreads = 4;
     String _hostname = null;
     int _pid = 0;
     TimeZone _usageTimezone = TimeZone.getTimeZone("GMT");;
@@ -203,6 +194,8 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
             _sanityCheckInterval = Integer.parseInt(sanityCheckInterval);
         }
 
+        _parseThreads = NumbersUtil.parseInt(configs.get("usage.parse.threads"), 4);
+
         if (aggreagationTimeZone != null && !aggreagationTimeZone.isEmpty()) {
             _usageTimezone = TimeZone.getTimeZone(aggreagationTimeZone);
         }
@@ -443,131 +436,123 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
             TransactionLegacy userTxn = TransactionLegacy.open(TransactionLegacy.CLOUD_DB);
             try {
                 Long limit = Long.valueOf(500);
-                Long offset = Long.valueOf(0);
                 Long lastAccountId = _usageDao.getLastAccountId();
                 if (lastAccountId == null) {
                     lastAccountId = Long.valueOf(0);
                 }
 
+                // every page starts after the last id of the previous one, so deep pages cost no more than the first
+                long lastId = 0;
                 do {
-                    Filter filter = new Filter(AccountVO.class, "id", true, offset, limit);
+                    Filter filter = new Filter(AccountVO.class, "id", true, 0L, limit);
 
-                    accounts = _accountDao.findActiveAccounts(lastAccountId, filter);
+                    accounts = _accountDao.findActiveAccounts(lastAccountId, lastId, filter);
 
                     if ((accounts != null) && !accounts.isEmpty()) {
                         // now update the accounts in the cloud_usage db
                         _usageDao.updateAccounts(accounts);
+                        lastId = accounts.get(accounts.size() - 1).getId();
                     }
-                    offset = new Long(offset.longValue() + limit.longValue());
                 } while ((accounts != null) && !accounts.isEmpty());
 
-                // reset offset
-                offset = Long.valueOf(0);
-
+                lastId = 0;
                 do {
-                    Filter filter = new Filter(AccountVO.class, "id", true, offset, limit);
+                    Filter filter = new Filter(AccountVO.class, "id", true, 0L, limit);
 
-                    accounts = _accountDao.findRecentlyDeletedAccounts(lastAccountId, startDate, filter);
+                    accounts = _accountDao.findRecentlyDeletedAccounts(lastAccountId, lastId, startDate, filter);
 
                     if ((accounts != null) && !accounts.isEmpty()) {
                         // now update the accounts in the cloud_usage db
                         _usageDao.updateAccounts(accounts);
+                        lastId = accounts.get(accounts.size() - 1).getId();
                     }
-                    offset = new Long(offset.longValue() + limit.longValue());
                 } while ((accounts != null) && !accounts.isEmpty());
 
-                // reset offset
-                offset = Long.valueOf(0);
-
+                lastId = 0;
                 do {
-                    Filter filter = new Filter(AccountVO.class, "id", true, offset, limit);
+                    Filter filter = new Filter(AccountVO.class, "id", true, 0L, limit);
 
-                    accounts = _accountDao.findNewAccounts(lastAccountId, filter);
+                    accounts = _accountDao.findNewAccounts(lastAccountId, lastId, filter);
 
                     if ((accounts != null) && !accounts.isEmpty()) {
                         // now copy the accounts to cloud_usage db
                         _usageDao.saveAccounts(accounts);
+                        lastId = accounts.get(accounts.size() - 1).getId();
                     }
-                    offset = new Long(offset.longValue() + limit.longValue());
                 } while ((accounts != null) && !accounts.isEmpty());
 
-                // reset offset
-                offset = Long.valueOf(0);
-
                 // get all the user stats to create usage records for the network usage
                 Long lastUserStatsId = _usageDao.getLastUserStatsId();
                 if (lastUserStatsId == null) {
                     lastUserStatsId = Long.valueOf(0);
                 }
 
-                SearchCriteria<UserStatisticsVO> sc2 = _userStatsDao.createSearchCriteria();
-                sc2.addAnd("id", SearchCriteria.Op.LTEQ, lastUserStatsId);
+                lastId = 0;
                 do {
-                    Filter filter = new Filter(UserStatisticsVO.class, "id", true, offset, limit);
+                    Filter filter = new Filter(UserStatisticsVO.class, "id", true, 0L, limit);
+                    SearchCriteria<UserStatisticsVO> sc2 = _userStatsDao.createSearchCriteria();
+                    sc2.addAnd("id", SearchCriteria.Op.LTEQ, lastUserStatsId);
+                    sc2.addAnd("id", SearchCriteria.Op.GT, lastId);
 
                     userStats = _userStatsDao.search(sc2, filter);
 
                     if ((userStats != null) && !userStats.isEmpty()) {
                         // now copy the accounts to cloud_usage db
                         _usageDao.updateUserStats(userStats);
+                        lastId = userStats.get(userStats.size() - 1).getId();
                     }
-                    offset = new Long(offset.longValue() + limit.longValue());
                 } while ((userStats != null) && !userStats.isEmpty());
 
-                // reset offset
-                offset = Long.valueOf(0);
-
-                sc2 = _userStatsDao.createSearchCriteria();
-                sc2.addAnd("id", SearchCriteria.Op.GT, lastUserStatsId);
+                lastId = lastUserStatsId;
                 do {
-                    Filter filter = new Filter(UserStatisticsVO.class, "id", true, offset, limit);
+                    Filter filter = new Filter(UserStatisticsVO.class, "id", true, 0L, limit);
+                    SearchCriteria<UserStatisticsVO> sc2 = _userStatsDao.createSearchCriteria();
+                    sc2.addAnd("id", SearchCriteria.Op.GT, lastId);
 
                     userStats = _userStatsDao.search(sc2, filter);
 
                     if ((userStats != null) && !userStats.isEmpty()) {
                         // now copy the accounts to cloud_usage db
                         _usageDao.saveUserStats(userStats);
+                        lastId = userStats.get(userStats.size() - 1).getId();
                     }
-                    offset = new Long(offset.longValue() + limit.longValue());
                 } while ((userStats != null) && !userStats.isEmpty());
 
-                // reset offset
-                offset = Long.valueOf(0);
-
                 // get all the vm network stats to create usage_VM_network records for the vm network usage
                 Long lastVmDiskStatsId = _usageDao.getLastVmDiskStatsId();
                 if (lastVmDiskStatsId == null) {
                     lastVmDiskStatsId = Long.valueOf(0);
                 }
-                SearchCriteria<VmDiskStatisticsVO> sc4 = _vmDiskStatsDao.createSearchCriteria();
-                sc4.addAnd("id", SearchCriteria.Op.LTEQ, lastVmDiskStatsId);
+
+                lastId = 0;
                 do {
-                    Filter filter = new Filter(VmDiskStatisticsVO.class, "id", true, offset, limit);
+                    Filter filter = new Filter(VmDiskStatisticsVO.class, "id", true, 0L, limit);
+                    SearchCriteria<VmDiskStatisticsVO> sc4 = _vmDiskStatsDao.createSearchCriteria();
+                    sc4.addAnd("id", SearchCriteria.Op.LTEQ, lastVmDiskStatsId);
+                    sc4.addAnd("id", SearchCriteria.Op.GT, lastId);
 
                     vmDiskStats = _vmDiskStatsDao.search(sc4, filter);
 
                     if ((vmDiskStats != null) && !vmDiskStats.isEmpty()) {
                         // now copy the accounts to cloud_usage db
                         _usageDao.updateVmDiskStats(vmDiskStats);
+                        lastId = vmDiskStats.get(vmDiskStats.size() - 1).getId();
                     }
-                    offset = new Long(offset.longValue() + limit.longValue());
                 } while ((vmDiskStats != null) && !vmDiskStats.isEmpty());
 
-                // reset offset
-                offset = Long.valueOf(0);
-
-                sc4 = _vmDiskStatsDao.createSearchCriteria();
-                sc4.addAnd("id", SearchCriteria.Op.GT, lastVmDiskStatsId);
+                lastId = lastVmDiskStatsId;
                 do {
-                    Filter filter = new Filter(VmDiskStatisticsVO.class, "id", true, offset, limit);
+                    Filter filter = new Filter(VmDiskStatisticsVO.class, "id", true, 0L, limit);
+                    SearchCriteria<VmDiskStatisticsVO> sc4 = _vmDiskStatsDao.createSearchCriteria();
+                    sc4.addAnd("id", SearchCriteria.Op.GT, lastId);
 
                     vmDiskStats = _vmDiskStatsDao.search(sc4, filter);
 
                     if ((vmDiskStats != null) && !vmDiskStats.isEmpty()) {
                         // now copy the accounts to cloud_usage db
                         _usageDao.saveVmDiskStats(vmDiskStats);
+                        lastId = vmDiskStats.get(vmDiskStats.size() - 1).getId();
                     }
-                    offset = new Long(offset.longValue() + limit.longValue());
                 } while ((vmDiskStats != null) && !vmDiskStats.isEmpty());
 
             } finally {
@@ -584,6 +569,13 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
             try {
                 usageTxn.start();
 
+                // the parser workers commit on their own, a run that failed may have left the usage records of some accounts.
+                // Records of successful runs end by the start date, so whatever ends after it was left by a failed run.
+                int removed = _usageDao.removeRecordsEndingAfter(new Date(startDateMillis - 1));
+                if (removed > 0) {
+                    s_logger.info("Removed " + removed + " usage records left by a failed usage job");
+                }
+
                 // make sure start date is before all of our un-processed events (the events are ordered oldest
                 // to newest, so just test against the first event)
                 if ((events != null) && (events.size() > 0)) {
@@ -614,9 +606,9 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
 
                 // Keep track of user stats for an account, across all of its public IPs
                 Map<String, UserStatisticsVO> aggregatedStats = new HashMap<String, UserStatisticsVO>();
-                int startIndex = 0;
+                long lastStatsId = 0;
                 do {
-                    userStats = _userStatsDao.listActiveAndRecentlyDeleted(recentlyDeletedDate, startIndex, 500);
+                    userStats = _userStatsDao.listActiveAndRecentlyDeleted(recentlyDeletedDate, lastStatsId, 500);
 
                     if (userStats != null) {
                         for (UserStatisticsVO userStat : userStats) {
@@ -633,9 +625,9 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
                                 hostAggregatedStat.setAggBytesReceived(hostAggregatedStat.getAggBytesReceived() + userStat.getAggBytesReceived());
                                 aggregatedStats.put(hostKey, hostAggregatedStat);
                             }
+                            lastStatsId = userStat.getId();
                         }
                     }
-                    startIndex += 500;
                 } while ((userStats != null) && !userStats.isEmpty());
 
                 // loop over the user stats, create delta entries in the usage_network helper table
@@ -661,11 +653,11 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
 
                 // Keep track of user stats for an account, across all of its public IPs
                 Map<String, VmDiskStatisticsVO> aggregatedDiskStats = new HashMap<String, VmDiskStatisticsVO>();
-                startIndex = 0;
+                lastStatsId = 0;
                 do {
-                    vmDiskStats = _vmDiskStatsDao.listActiveAndRecentlyDeleted(recentlyDeletedDate, startIndex, 500);
+                    vmDiskStats = _vmDiskStatsDao.listActiveAndRecentlyDeleted(recentlyDeletedDate, lastStatsId, 500);
 
-                    if (vmDiskUsages != null) {
+                    if (vmDiskStats != null) {
                         for (VmDiskStatisticsVO vmDiskStat : vmDiskStats) {
                             if (vmDiskStat.getVmId() != null) {
                                 String hostKey =
@@ -682,17 +674,17 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
                                 hostAggregatedStat.setAggBytesWrite(hostAggregatedStat.getAggBytesWrite() + vmDiskStat.getAggBytesWrite());
                                 aggregatedDiskStats.put(hostKey, hostAggregatedStat);
                             }
+                            lastStatsId = vmDiskStat.getId();
                         }
                     }
-                    startIndex += 500;
-                } while ((userStats != null) && !userStats.isEmpty());
+                } while ((vmDiskStats != null) && !vmDiskStats.isEmpty());
 
                 // loop over the user stats, create delta entries in the usage_disk helper table
                 numAcctsProcessed = 0;
                 usageVmDisks.clear();
                 for (String key : aggregatedDiskStats.keySet()) {
                     UsageVmDiskVO currentVmDiskStats = null;
-                    if (vmDiskStats != null) {
+                    if (vmDiskUsages != null) {
                         currentVmDiskStats = vmDiskUsages.get(key);
                     }
 
@@ -709,9 +701,6 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
                 usageTxn.commit();
                 usageTxn.start();
 
-                boolean parsed = false;
-                numAcctsProcessed = 0;
-
                 Date currentStartDate = startDate;
                 Date currentEndDate = endDate;
                 Date tempDate = endDate;
@@ -725,72 +714,68 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
                     tempDate = aggregateCal.getTime();
                 }
 
+                List<Date[]> aggregationWindows = new ArrayList<Date[]>();
                 while (!currentEndDate.after(endDate) || (currentEndDate.getTime() - endDate.getTime() < 60000)) {
-                    Long offset = Long.valueOf(0);
-                    Long limit = Long.valueOf(500);
+                    aggregationWindows.add(new Date[] {currentStartDate, currentEndDate});
+
+                    currentStartDate = new Date(currentEndDate.getTime() + 1);
+                    aggregateCal.setTime(currentEndDate);
+                    aggregateCal.add(Calendar.MINUTE, _aggregationDuration);
+                    currentEndDate = aggregateCal.getTime();
+                }
 
+                // the accounts are independent, they are parsed in parallel with all the aggregation windows of an account
+                // parsed in order by the same worker
+                boolean parsed = false;
+                int numActiveAccts = 0;
+                int numDeletedAccts = 0;
+                AccountUsageParser accountParser = new AccountUsageParser(aggregationWindows);
+                ParallelUsageParser parser = new ParallelUsageParser(_parseThreads, accountParser);
+                boolean submitted = false;
+                try {
+                    Long limit = Long.valueOf(500);
+                    long lastId = 0;
                     do {
-                        Filter filter = new Filter(AccountVO.class, "id", true, offset, limit);
-                        accounts = _accountDao.listAll(filter);
+                        Filter filter = new Filter(AccountVO.class, "id", true, 0L, limit);
+                        accounts = _accountDao.findActiveAccounts(Long.MAX_VALUE, lastId, filter);
                         if ((accounts != null) && !accounts.isEmpty()) {
                             for (AccountVO account : accounts) {
-                                parsed = parseHelperTables(account, currentStartDate, currentEndDate);
-                                numAcctsProcessed++;
+                                parser.submit(account);
+                                accountParser.parseInJobTransaction(account, parser);
+                                numActiveAccts++;
                             }
+                            lastId = accounts.get(accounts.size() - 1).getId();
                         }
-                        offset = new Long(offset.longValue() + limit.longValue());
                     } while ((accounts != null) && !accounts.isEmpty());
 
-                    if (s_logger.isDebugEnabled()) {
-                        s_logger.debug("processed VM/Network Usage for " + numAcctsProcessed + " ACTIVE accts");
-                    }
-                    numAcctsProcessed = 0;
-
-                    // reset offset
-                    offset = Long.valueOf(0);
-
+                    lastId = 0;
                     do {
-                        Filter filter = new Filter(AccountVO.class, "id", true, offset, limit);
-
-                        accounts = _accountDao.findRecentlyDeletedAccounts(null, recentlyDeletedDate, filter);
-
+                        Filter filter = new Filter(AccountVO.class, "id", true, 0L, limit);
+                        accounts = _accountDao.findRecentlyDeletedAccounts(null, lastId, recentlyDeletedDate, filter);
                         if ((accounts != null) && !accounts.isEmpty()) {
                             for (AccountVO account : accounts) {
-                                parsed = parseHelperTables(account, currentStartDate, currentEndDate);
-                                List<Long> publicTemplates = _usageDao.listPublicTemplatesByAccount(account.getId());
-                                for (Long templateId : publicTemplates) {
-                                    //mark public templates owned by deleted accounts as deleted
-                                    List<UsageStorageVO> storageVOs = _usageStorageDao.listById(account.getId(), templateId, StorageTypes.TEMPLATE);
-                                    if (storageVOs.size() > 1) {
-                                        s_logger.warn("More that one usage entry for storage: " + templateId + " assigned to account: " + account.getId() +
-                                                "; marking them all as deleted...");
-                                    }
-                                    for (UsageStorageVO storageVO : storageVOs) {
-                                        if (s_logger.isDebugEnabled()) {
-                                            s_logger.debug("deleting template: " + storageVO.getId() + " from account: " + storageVO.getAccountId());
-                                        }
-                                        storageVO.setDeleted(account.getRemoved());
-                                        _usageStorageDao.update(storageVO);
-                                    }
-                                }
-                                numAcctsProcessed++;
+                                parser.submit(account);
+                                accountParser.parseInJobTransaction(account, parser);
+                                numDeletedAccts++;
                             }
+                            lastId = accounts.get(accounts.size() - 1).getId();
                         }
-                        offset = new Long(offset.longValue() + limit.longValue());
                     } while ((accounts != null) && !accounts.isEmpty());
-
-                    currentStartDate = new Date(currentEndDate.getTime() + 1);
-                    aggregateCal.setTime(currentEndDate);
-                    aggregateCal.add(Calendar.MINUTE, _aggregationDuration);
-                    currentEndDate = aggregateCal.getTime();
+                    submitted = true;
+                } finally {
+                    if (!submitted) {
+                        parser.fail();
+                    }
+                    parsed = parser.finish();
                 }
 
                 if (s_logger.isDebugEnabled()) {
-                    s_logger.debug("processed Usage for " + numAcctsProcessed + " RECENTLY DELETED accts");
+                    s_logger.debug("processed VM/Network Usage for " + numActiveAccts + " ACTIVE accts");
+                    s_logger.debug("processed Usage for " + numDeletedAccts + " RECENTLY DELETED accts");
                 }
 
-                // FIXME: we don't break the above loop if something fails to parse, so it gets reset every account,
-                //        do we want to break out of processing accounts and rollback if there are errors?
+                // the workers have committed or rolled back the parsed usage, this rolls back the helper table changes
+                // made since the last commit.  Usage records committed by some of the workers are removed by the next run.
                 if (!parsed) {
                     usageTxn.rollback();
                 } else {
@@ -826,88 +811,69 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
         }
     }
 
-    private boolean parseHelperTables(AccountVO account, Date currentStartDate, Date currentEndDate) {
-        boolean parsed = false;
+    private class AccountUsageParser implements ParallelUsageParser.AccountParser {
+        private final List<Date[]> _aggregationWindows;
 
-        parsed = VMInstanceUsageParser.parse(account, currentStartDate, currentEndDate);
-        if (s_logger.isDebugEnabled()) {
-            if (!parsed) {
-                s_logger.debug("vm usage instances successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
-            }
-        }
-
-        parsed = NetworkUsageParser.parse(account, currentStartDate, currentEndDate);
-        if (s_logger.isDebugEnabled()) {
-            if (!parsed) {
-                s_logger.debug("network usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
-            }
-        }
-
-        parsed = VmDiskUsageParser.parse(account, currentStartDate, currentEndDate);
-        if (s_logger.isDebugEnabled()) {
-            if (!parsed) {
-                s_logger.debug("vm disk usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
-            }
-        }
-
-        parsed = VolumeUsageParser.parse(account, currentStartDate, currentEndDate);
-        if (s_logger.isDebugEnabled()) {
-            if (!parsed) {
-                s_logger.debug("volume usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
-            }
+        AccountUsageParser(List<Date[]> aggregationWindows) {
+            _aggregationWindows = aggregationWindows;
         }
 
-        parsed = StorageUsageParser.parse(account, currentStartDate, currentEndDate);
-        if (s_logger.isDebugEnabled()) {
-            if (!parsed) {
-                s_logger.debug("storage usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
+        @Override
+        public boolean parse(AccountVO account, ParallelUsageParser run) {
+            boolean parsed = false;
+            for (Date[] window : _aggregationWindows) {
+                parsed = parseHelperTables(account, window[0], window[1], false, run);
+                if (account.getRemoved() != null) {
+                    markPublicTemplatesDeleted(account);
+                }
             }
+            return parsed;
         }
 
-        parsed = SecurityGroupUsageParser.parse(account, currentStartDate, currentEndDate);
-        if (s_logger.isDebugEnabled()) {
-            if (!parsed) {
-                s_logger.debug("Security Group usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
+        /**
+         * Runs the parsers that update the helper tables, in the job's transaction.
+         */
+        void parseInJobTransaction(AccountVO account, ParallelUsageParser run) {
+            for (Date[] window : _aggregationWindows) {
+                parseHelperTables(account, window[0], window[1], true, run);
             }
         }
+    }
 
-        parsed = LoadBalancerUsageParser.parse(account, currentStartDate, currentEndDate);
-        if (s_logger.isDebugEnabled()) {
-            if (!parsed) {
-                s_logger.debug("load balancer usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
+    private void markPublicTemplatesDeleted(AccountVO account) {
+        List<Long> publicTemplates = _usageDao.listPublicTemplatesByAccount(account.getId());
+        for (Long templateId : publicTemplates) {
+            //mark public templates owned by deleted accounts as deleted
+            List<UsageStorageVO> storageVOs = _usageStorageDao.listById(account.getId(), templateId, StorageTypes.TEMPLATE);
+            if (storageVOs.size() > 1) {
+                s_logger.warn("More that one usage entry for storage: " + templateId + " assigned to account: " + account.getId() +
+                        "; marking them all as deleted...");
             }
-        }
-
-        parsed = PortForwardingUsageParser.parse(account, currentStartDate, currentEndDate);
-        if (s_logger.isDebugEnabled()) {
-            if (!parsed) {
-                s_logger.debug("port forwarding usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
+            for (UsageStorageVO storageVO : storageVOs) {
+                if (s_logger.isDebugEnabled()) {
+                    s_logger.debug("deleting template: " + storageVO.getId() + " from account: " + storageVO.getAccountId());
+                }
+                storageVO.setDeleted(account.getRemoved());
+                _usageStorageDao.update(storageVO);
             }
         }
+    }
 
-        parsed = NetworkOfferingUsageParser.parse(account, currentStartDate, currentEndDate);
-        if (s_logger.isDebugEnabled()) {
-            if (!parsed) {
-                s_logger.debug("network offering usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
-            }
-        }
+    private boolean parseHelperTables(AccountVO account, Date currentStartDate, Date currentEndDate, boolean updatingHelperTables, ParallelUsageParser run) {
+        boolean parsed = false;
 
-        parsed = IPAddressUsageParser.parse(account, currentStartDate, currentEndDate);
-        if (s_logger.isDebugEnabled()) {
-            if (!parsed) {
-                s_logger.debug("IPAddress usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
-            }
-        }
-        parsed = VPNUserUsageParser.parse(account, currentStartDate, currentEndDate);
-        if (s_logger.isDebugEnabled()) {
-            if (!parsed) {
-                s_logger.debug("VPN user usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
+        for (HelperTableParser parser : HelperTableParser.values()) {
+            if (parser.updatesHelperTables() != updatingHelperTables) {
+                continue;
             }
-        }
-        parsed = VMSnapshotUsageParser.parse(account, currentStartDate, currentEndDate);
-        if (s_logger.isDebugEnabled()) {
-            if (!parsed) {
-                s_logger.debug("VM Snapshot usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
+            long startTick = System.nanoTime();
+            parsed = parser.parse(account, currentStartDate, currentEndDate);
+            run.addParserTime(parser, System.nanoTime() - startTick);
+            if (s_logger.isDebugEnabled()) {
+                if (!parsed) {
+                    s_logger.debug(parser.getDescription() + " successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " +
+                            account.getId() + ")");
+                }
             }
         }
         return parsed;
@@ -0,0 +1,125 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.usage.parser;
+
+import java.util.Date;
+
+import com.cloud.user.AccountVO;
+
+/**
+ * The usage parsers run for every account, in the order they are run.
+ */
+public enum HelperTableParser {
+    VmInstance("vm usage instances") {
+        @Override
+        public boolean parse(AccountVO account, Date startDate, Date endDate) {
+            return VMInstanceUsageParser.parse(account, startDate, endDate);
+        }
+    },
+    Network("network usage") {
+        @Override
+        public boolean parse(AccountVO account, Date startDate, Date endDate) {
+            return NetworkUsageParser.parse(account, startDate, endDate);
+        }
+    },
+    VmDisk("vm disk usage") {
+        @Override
+        public boolean parse(AccountVO account, Date startDate, Date endDate) {
+            return VmDiskUsageParser.parse(account, startDate, endDate);
+        }
+    },
+    Volume("volume usage") {
+        @Override
+        public boolean parse(AccountVO account, Date startDate, Date endDate) {
+            return VolumeUsageParser.parse(account, startDate, endDate);
+        }
+    },
+    Storage("storage usage") {
+        @Override
+        public boolean parse(AccountVO account, Date startDate, Date endDate) {
+            return StorageUsageParser.parse(account, startDate, endDate);
+        }
+    },
+    SecurityGroup("Security Group usage") {
+        @Override
+        public boolean parse(AccountVO account, Date startDate, Date endDate) {
+            return SecurityGroupUsageParser.parse(account, startDate, endDate);
+        }
+    },
+    LoadBalancer("load balancer usage") {
+        @Override
+        public boolean parse(AccountVO account, Date startDate, Date endDate) {
+            return LoadBalancerUsageParser.parse(account, startDate, endDate);
+        }
+    },
+    PortForwarding("port forwarding usage") {
+        @Override
+        public boolean parse(AccountVO account, Date startDate, Date endDate) {
+            return PortForwardingUsageParser.parse(account, startDate, endDate);
+        }
+    },
+    NetworkOffering("network offering usage") {
+        @Override
+        public boolean parse(AccountVO account, Date startDate, Date endDate) {
+            return NetworkOfferingUsageParser.parse(account, startDate, endDate);
+        }
+    },
+    IPAddress("IPAddress usage") {
+        @Override
+        public boolean parse(AccountVO account, Date startDate, Date endDate) {
+            return IPAddressUsageParser.parse(account, startDate, endDate);
+        }
+    },
+    VPNUser("VPN user usage") {
+        @Override
+        public boolean parse(AccountVO account, Date startDate, Date endDate) {
+            return VPNUserUsageParser.parse(account, startDate, endDate);
+        }
+    },
+    VMSnapshot("VM Snapshot usage", true) {
+        @Override
+        public boolean parse(AccountVO account, Date startDate, Date endDate) {
+            return VMSnapshotUsageParser.parse(account, startDate, endDate);
+        }
+    };
+
+    private final String _description;
+    private final boolean _updatesHelperTables;
+
+    private HelperTableParser(String description) {
+        this(description, false);
+    }
+
+    private HelperTableParser(String description, boolean updatesHelperTables) {
+        _description = description;
+        _updatesHelperTables = updatesHelperTables;
+    }
+
+    public String getDescription() {
+        return _description;
+    }
+
+    /**
+     * @return true if the parser does more than adding usage records, it
+     *     then has to run in the transaction that records the job's success.
+     */
+    public boolean updatesHelperTables() {
+        return _updatesHelperTables;
+    }
+
+    public abstract boolean parse(AccountVO account, Date startDate, Date endDate);
+}
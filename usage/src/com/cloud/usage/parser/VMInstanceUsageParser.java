@@ -17,6 +17,7 @@
 package com.cloud.usage.parser;
 
 import java.text.DecimalFormat;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -34,8 +35,6 @@ import com.cloud.usage.UsageVO;
 import com.cloud.usage.dao.UsageDao;
 import com.cloud.usage.dao.UsageVMInstanceDao;
 import com.cloud.user.AccountVO;
-import com.cloud.utils.Pair;
-import com.cloud.utils.StringUtils;
 
 @Component
 public class VMInstanceUsageParser {
@@ -68,99 +67,22 @@ public class VMInstanceUsageParser {
         //     - look for an entry for accountId with end date in the given range
         //     - look for an entry for accountId with end date null (currently running vm or owned IP)
         //     - look for an entry for accountId with start date before given range *and* end date after given range
-        List<UsageVMInstanceVO> usageInstances = s_usageInstanceDao.getUsageRecords(account.getId(), startDate, endDate);
+        // the rows are aggregated as they are read, so the usage instances of the account are never all in memory
+        UsageAggregator aggregator = new UsageAggregator(startDate, endDate);
+        s_usageInstanceDao.scanUsageRecords(account.getId(), startDate, endDate, aggregator);
 //ToDo: Add domainID for getting usage records
 
-        // This map has both the running time *and* the usage amount.
-        Map<String, Pair<String, Long>> usageVMUptimeMap = new HashMap<String, Pair<String, Long>>();
-        Map<String, Pair<String, Long>> allocatedVMMap = new HashMap<String, Pair<String, Long>>();
-
-        Map<String, VMInfo> vmInfosMap = new HashMap<String, VMInfo>();
-
-        // loop through all the usage instances, create a usage record for each
-        for (UsageVMInstanceVO usageInstance : usageInstances) {
-            long vmId = usageInstance.getVmInstanceId();
-            long soId = usageInstance.getSerivceOfferingId();
-            long zoneId = usageInstance.getZoneId();
-            long tId = usageInstance.getTemplateId();
-            int usageType = usageInstance.getUsageType();
-            Long cpuCores = usageInstance.getCpuCores();
-            Long cpuSpeed = usageInstance.getCpuSpeed();
-            Long memory = usageInstance.getMemory();
-            String key = StringUtils.join("-", vmId, soId, usageType, cpuCores, cpuSpeed, memory);
-
-            // store the info in the VMs map
-            vmInfosMap.put(key, new VMInfo(vmId, zoneId, soId, tId, usageInstance.getHypervisorType(), cpuCores, cpuSpeed, memory));
-
-            Date vmStartDate = usageInstance.getStartDate();
-            Date vmEndDate = usageInstance.getEndDate();
-
-            if ((vmEndDate == null) || vmEndDate.after(endDate)) {
-                vmEndDate = endDate;
-            }
-
-            // clip the start date to the beginning of our aggregation range if the vm has been running for a while
-            if (vmStartDate.before(startDate)) {
-                vmStartDate = startDate;
-            }
-
-            if (vmStartDate.after(endDate)) {
-                continue;
-            }
-
-            long currentDuration = (vmEndDate.getTime() - vmStartDate.getTime()) + 1; // make sure this is an inclusive check for milliseconds (i.e. use n - m + 1 to find total number of millis to charge)
-
-            switch (usageType) {
-                case UsageTypes.ALLOCATED_VM:
-                    updateVmUsageData(allocatedVMMap, key, usageInstance.getVmName(), currentDuration);
-                    break;
-                case UsageTypes.RUNNING_VM:
-                    updateVmUsageData(usageVMUptimeMap, key, usageInstance.getVmName(), currentDuration);
-                    break;
-            }
-        }
-
-        for (String vmIdKey : usageVMUptimeMap.keySet()) {
-            Pair<String, Long> vmUptimeInfo = usageVMUptimeMap.get(vmIdKey);
-            long runningTime = vmUptimeInfo.second().longValue();
-
-            // Only create a usage record if we have a runningTime of bigger than zero.
-            if (runningTime > 0L) {
-                VMInfo info = vmInfosMap.get(vmIdKey);
-                createUsageRecord(UsageTypes.RUNNING_VM, runningTime, startDate, endDate, account, info.getVirtualMachineId(), vmUptimeInfo.first(), info.getZoneId(),
-                    info.getServiceOfferingId(), info.getTemplateId(), info.getHypervisorType(), info.getCpuCores(), info.getCpuSpeed(), info.getMemory());
-            }
-        }
-
-        for (String vmIdKey : allocatedVMMap.keySet()) {
-            Pair<String, Long> vmAllocInfo = allocatedVMMap.get(vmIdKey);
-            long allocatedTime = vmAllocInfo.second().longValue();
-
-            // Only create a usage record if we have a runningTime of bigger than zero.
-            if (allocatedTime > 0L) {
-                VMInfo info = vmInfosMap.get(vmIdKey);
-                createUsageRecord(UsageTypes.ALLOCATED_VM, allocatedTime, startDate, endDate, account, info.getVirtualMachineId(), vmAllocInfo.first(), info.getZoneId(),
-                    info.getServiceOfferingId(), info.getTemplateId(), info.getHypervisorType(), info.getCpuCores(), info.getCpuSpeed(), info.getMemory());
-            }
+        // create all the usage records of the account with batched inserts
+        List<UsageVO> usageRecords = aggregator.createUsageRecords(account);
+        if (!usageRecords.isEmpty()) {
+            s_usageDao.saveUsageRecords(usageRecords);
         }
 
         return true;
     }
 
-    private static void updateVmUsageData(Map<String, Pair<String, Long>> usageDataMap, String key, String vmName, long duration) {
-        Pair<String, Long> vmUsageInfo = usageDataMap.get(key);
-        if (vmUsageInfo == null) {
-            vmUsageInfo = new Pair<String, Long>(vmName, new Long(duration));
-        } else {
-            Long runningTime = vmUsageInfo.second();
-            runningTime = new Long(runningTime.longValue() + duration);
-            vmUsageInfo = new Pair<String, Long>(vmUsageInfo.first(), runningTime);
-        }
-        usageDataMap.put(key, vmUsageInfo);
-    }
-
-    private static void createUsageRecord(int type, long runningTime, Date startDate, Date endDate, AccountVO account, long vmId, String vmName, long zoneId,
-        long serviceOfferingId, long templateId, String hypervisorType, Long cpuCores, Long cpuSpeed, Long memory) {
+    private static UsageVO createUsageRecord(DecimalFormat dFormat, int type, long runningTime, Date startDate, Date endDate, AccountVO account, long vmId, String vmName,
+        long zoneId, long serviceOfferingId, long templateId, String hypervisorType, Long cpuCores, Long cpuSpeed, Long memory) {
         // Our smallest increment is hourly for now
         if (s_logger.isDebugEnabled()) {
             s_logger.debug("Total running time " + runningTime + "ms");
@@ -168,7 +90,6 @@ public class VMInstanceUsageParser {
 
         float usage = runningTime / 1000f / 60f / 60f;
 
-        DecimalFormat dFormat = new DecimalFormat("#.######");
         String usageDisplay = dFormat.format(usage);
 
         if (s_logger.isDebugEnabled()) {
@@ -184,63 +105,125 @@ public class VMInstanceUsageParser {
             usageDesc += " running time";
         }
         usageDesc += " (ServiceOffering: " + serviceOfferingId + ") (Template: " + templateId + ")";
-        UsageVO usageRecord =
-            new UsageVO(Long.valueOf(zoneId), account.getId(), account.getDomainId(), usageDesc, usageDisplay + " Hrs", type, new Double(usage), Long.valueOf(vmId),
-                vmName, cpuCores, cpuSpeed, memory, Long.valueOf(serviceOfferingId), Long.valueOf(templateId), Long.valueOf(vmId), startDate, endDate, hypervisorType);
-        s_usageDao.persist(usageRecord);
+        return new UsageVO(Long.valueOf(zoneId), account.getId(), account.getDomainId(), usageDesc, usageDisplay + " Hrs", type, new Double(usage), Long.valueOf(vmId),
+            vmName, cpuCores, cpuSpeed, memory, Long.valueOf(serviceOfferingId), Long.valueOf(templateId), Long.valueOf(vmId), startDate, endDate, hypervisorType);
     }
 
-    private static class VMInfo {
-        private final long virtualMachineId;
-        private final long zoneId;
-        private final long serviceOfferingId;
-        private final long templateId;
-        private final String hypervisorType;
-        private final Long cpuCores;
-        private final Long cpuSpeed;
-        private final Long memory;
-
-        public VMInfo(long vmId, long zId, long soId, long tId, String hypervisorType, Long cpuCores, Long cpuSpeed, Long memory) {
-            virtualMachineId = vmId;
-            zoneId = zId;
-            serviceOfferingId = soId;
-            templateId = tId;
-            this.hypervisorType = hypervisorType;
-            this.cpuCores = cpuCores;
-            this.cpuSpeed = cpuSpeed;
-            this.memory = memory;
-        }
+    /**
+     * Sums up the running and allocated time of the vms of an account as the usage instances are read.
+     */
+    static class UsageAggregator implements UsageVMInstanceDao.UsageRecordHandler {
+        private final Date _startDate;
+        private final Date _endDate;
+        // keyed by vm id, the usages of a vm are chained, one per usage type and service offering it had in the range
+        private final Map<Long, VMUsage> _usages = new HashMap<Long, VMUsage>();
 
-        public long getZoneId() {
-            return zoneId;
+        UsageAggregator(Date startDate, Date endDate) {
+            _startDate = startDate;
+            _endDate = endDate;
         }
 
-        public long getVirtualMachineId() {
-            return virtualMachineId;
-        }
+        @Override
+        public void handle(UsageVMInstanceVO usageInstance) {
+            int usageType = usageInstance.getUsageType();
+            if (usageType != UsageTypes.ALLOCATED_VM && usageType != UsageTypes.RUNNING_VM) {
+                return;
+            }
 
-        public long getServiceOfferingId() {
-            return serviceOfferingId;
-        }
+            Date vmStartDate = usageInstance.getStartDate();
+            Date vmEndDate = usageInstance.getEndDate();
 
-        public long getTemplateId() {
-            return templateId;
-        }
+            if ((vmEndDate == null) || vmEndDate.after(_endDate)) {
+                vmEndDate = _endDate;
+            }
 
-        private String getHypervisorType() {
-            return hypervisorType;
-        }
+            // clip the start date to the beginning of our aggregation range if the vm has been running for a while
+            if (vmStartDate.before(_startDate)) {
+                vmStartDate = _startDate;
+            }
 
-        public Long getCpuCores() {
-            return cpuCores;
+            boolean inRange = !vmStartDate.after(_endDate);
+            VMUsage vmUsage = getUsage(usageInstance, inRange);
+            if (vmUsage == null) {
+                return;
+            }
+            // the zone, template and hypervisor are the ones of the last instance, as they are not part of the key
+            vmUsage.update(usageInstance);
+            if (inRange) {
+                vmUsage.duration += (vmEndDate.getTime() - vmStartDate.getTime()) + 1; // make sure this is an inclusive check for milliseconds (i.e. use n - m + 1 to find total number of millis to charge)
+            }
         }
 
-        public Long getCpuSpeed() {
-            return cpuSpeed;
+        private VMUsage getUsage(UsageVMInstanceVO usageInstance, boolean create) {
+            Long vmId = usageInstance.getVmInstanceId();
+            VMUsage first = _usages.get(vmId);
+            for (VMUsage vmUsage = first; vmUsage != null; vmUsage = vmUsage.next) {
+                if (vmUsage.matches(usageInstance)) {
+                    return vmUsage;
+                }
+            }
+            if (!create) {
+                return null;
+            }
+            VMUsage vmUsage = new VMUsage(usageInstance);
+            vmUsage.next = first;
+            _usages.put(vmId, vmUsage);
+            return vmUsage;
+        }
+
+        List<UsageVO> createUsageRecords(AccountVO account) {
+            List<UsageVO> usageRecords = new ArrayList<UsageVO>();
+            DecimalFormat dFormat = new DecimalFormat("#.######");
+            for (VMUsage first : _usages.values()) {
+                for (VMUsage vmUsage = first; vmUsage != null; vmUsage = vmUsage.next) {
+                    // Only create a usage record if we have a runningTime of bigger than zero.
+                    if (vmUsage.duration > 0L) {
+                        usageRecords.add(createUsageRecord(dFormat, vmUsage.usageType, vmUsage.duration, _startDate, _endDate, account, vmUsage.vmId, vmUsage.vmName,
+                            vmUsage.zoneId, vmUsage.serviceOfferingId, vmUsage.templateId, vmUsage.hypervisorType, vmUsage.cpuCores, vmUsage.cpuSpeed, vmUsage.memory));
+                    }
+                }
+            }
+            return usageRecords;
         }
+    }
 
-        public Long getMemory() {
-            return memory;
+    private static class VMUsage {
+        final long vmId;
+        final int usageType;
+        final long serviceOfferingId;
+        final Long cpuCores;
+        final Long cpuSpeed;
+        final Long memory;
+        final String vmName;
+        long zoneId;
+        long templateId;
+        String hypervisorType;
+        long duration;
+        VMUsage next;
+
+        VMUsage(UsageVMInstanceVO usageInstance) {
+            vmId = usageInstance.getVmInstanceId();
+            usageType = usageInstance.getUsageType();
+            serviceOfferingId = usageInstance.getSerivceOfferingId();
+            cpuCores = usageInstance.getCpuCores();
+            cpuSpeed = usageInstance.getCpuSpeed();
+            memory = usageInstance.getMemory();
+            vmName = usageInstance.getVmName();
+        }
+
+        boolean matches(UsageVMInstanceVO usageInstance) {
+            return usageType == usageInstance.getUsageType() && serviceOfferingId == usageInstance.getSerivceOfferingId() && equal(cpuCores, usageInstance.getCpuCores()) &&
+                equal(cpuSpeed, usageInstance.getCpuSpeed()) && equal(memory, usageInstance.getMemory());
+        }
+
+        void update(UsageVMInstanceVO usageInstance) {
+            zoneId = usageInstance.getZoneId();
+            templateId = usageInstance.getTemplateId();
+            hypervisorType = usageInstance.getHypervisorType();
+        }
+
+        private static boolean equal(Long a, Long b) {
+            return a == null ? b == null : a.equals(b);
         }
     }
 }
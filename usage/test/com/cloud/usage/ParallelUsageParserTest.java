@@ -0,0 +1,108 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.usage;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.cloud.user.AccountVO;
+import com.cloud.utils.db.TransactionLegacy;
+
+public class ParallelUsageParserTest {
+    private final List<Connection> _connections = new CopyOnWriteArrayList<Connection>();
+    private final ThreadLocal<Connection> _workerConnection = new ThreadLocal<Connection>();
+
+    /**
+     * Hands the transaction of every worker a connection of its own, like the usage db pool would.
+     */
+    private class TestParser implements ParallelUsageParser.AccountParser {
+        private final long _failingAccountId;
+        private final boolean _failCommit;
+
+        TestParser(long failingAccountId, boolean failCommit) {
+            _failingAccountId = failingAccountId;
+            _failCommit = failCommit;
+        }
+
+        @Override
+        public boolean parse(AccountVO account, ParallelUsageParser run) {
+            if (_workerConnection.get() == null) {
+                Connection conn = Mockito.mock(Connection.class);
+                if (_failCommit) {
+                    try {
+                        Mockito.doThrow(new SQLException("lost connection")).when(conn).commit();
+                    } catch (SQLException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+                TransactionLegacy.currentTxn().transitToUserManagedConnection(conn);
+                _workerConnection.set(conn);
+                _connections.add(conn);
+            }
+            if (account.getId() == _failingAccountId) {
+                throw new RuntimeException("unable to parse");
+            }
+            return true;
+        }
+    }
+
+    private boolean parse(TestParser accountParser) throws InterruptedException {
+        ParallelUsageParser parser = new ParallelUsageParser(3, accountParser);
+        for (long id = 1; id <= 30; id++) {
+            parser.submit(new AccountVO(id));
+        }
+        return parser.finish();
+    }
+
+    @Test
+    public void allWorkersCommit() throws Exception {
+        Assert.assertTrue(parse(new TestParser(0, false)));
+
+        Assert.assertFalse(_connections.isEmpty());
+        for (Connection conn : _connections) {
+            Mockito.verify(conn).commit();
+            Mockito.verify(conn, Mockito.never()).rollback();
+        }
+    }
+
+    @Test
+    public void failedAccountRollsBackAllWorkers() throws Exception {
+        Assert.assertFalse(parse(new TestParser(5, false)));
+
+        Assert.assertFalse(_connections.isEmpty());
+        for (Connection conn : _connections) {
+            Mockito.verify(conn, Mockito.never()).commit();
+            Mockito.verify(conn).rollback();
+        }
+    }
+
+    @Test
+    public void failedCommitFailsTheRun() throws Exception {
+        Assert.assertFalse(parse(new TestParser(0, true)));
+
+        Assert.assertFalse(_connections.isEmpty());
+        for (Connection conn : _connections) {
+            Mockito.verify(conn).commit();
+        }
+    }
+}
@@ -0,0 +1,57 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.usage.parser;
+
+import java.util.Date;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.cloudstack.usage.UsageTypes;
+
+import com.cloud.usage.UsageVO;
+import com.cloud.user.AccountVO;
+
+/**
+ * Times the aggregation of the usage of 100k VMs.  It is excluded from the
+ * regular build, run it with -Dtest=VMInstanceUsageParserPerfTest.
+ */
+public class VMInstanceUsageParserPerfTest {
+    private static final Logger s_logger = Logger.getLogger(VMInstanceUsageParserPerfTest.class);
+    private static final long HOUR = 60 * 60 * 1000;
+
+    @Test
+    public void testAggregating100kVms() {
+        int vmCount = 100000;
+        long startTick = System.currentTimeMillis();
+        VMInstanceUsageParser.UsageAggregator aggregator = new VMInstanceUsageParser.UsageAggregator(new Date(0), new Date(10 * HOUR - 1));
+        for (long vmId = 1; vmId <= vmCount; vmId++) {
+            aggregator.handle(VMInstanceUsageParserTest.instance(UsageTypes.ALLOCATED_VM, vmId, 1, -HOUR, null));
+            aggregator.handle(VMInstanceUsageParserTest.instance(UsageTypes.RUNNING_VM, vmId, 1, HOUR, 2 * HOUR - 1));
+            aggregator.handle(VMInstanceUsageParserTest.instance(UsageTypes.RUNNING_VM, vmId, 1, 4 * HOUR, null));
+        }
+        long aggregatedTick = System.currentTimeMillis();
+        List<UsageVO> usageRecords = aggregator.createUsageRecords(new AccountVO(2));
+        long doneTick = System.currentTimeMillis();
+
+        Assert.assertEquals(2 * vmCount, usageRecords.size());
+        s_logger.info("Aggregated " + 3 * vmCount + " usage instances of " + vmCount + " vms in " + (aggregatedTick - startTick) + "ms, created " + usageRecords.size() +
+            " usage records in " + (doneTick - aggregatedTick) + "ms");
+    }
+}
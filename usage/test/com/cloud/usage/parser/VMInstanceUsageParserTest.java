@@ -0,0 +1,87 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.usage.parser;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.cloudstack.usage.UsageTypes;
+
+import com.cloud.usage.UsageVMInstanceVO;
+import com.cloud.usage.UsageVO;
+import com.cloud.user.AccountVO;
+
+public class VMInstanceUsageParserTest {
+    private static final long HOUR = 60 * 60 * 1000;
+
+    private final Date _startDate = new Date(0);
+    private final Date _endDate = new Date(10 * HOUR - 1);
+    private final AccountVO _account = new AccountVO(2);
+
+    static UsageVMInstanceVO instance(int usageType, long vmId, long serviceOfferingId, long start, Long end) {
+        return new UsageVMInstanceVO(usageType, 1, 2, vmId, "vm-" + vmId, serviceOfferingId, 3, null, 1L, 512L, "KVM", new Date(start), end == null ? null : new Date(end));
+    }
+
+    @Test
+    public void usageIsAggregatedPerVmUsageTypeAndOffering() {
+        VMInstanceUsageParser.UsageAggregator aggregator = new VMInstanceUsageParser.UsageAggregator(_startDate, _endDate);
+        aggregator.handle(instance(UsageTypes.RUNNING_VM, 1, 1, HOUR, 2 * HOUR - 1));
+        aggregator.handle(instance(UsageTypes.RUNNING_VM, 1, 1, 3 * HOUR, 4 * HOUR - 1));
+        // started before the range and still allocated, charged for the whole range
+        aggregator.handle(instance(UsageTypes.ALLOCATED_VM, 1, 1, -5 * HOUR, null));
+        // scaled to another offering
+        aggregator.handle(instance(UsageTypes.RUNNING_VM, 2, 1, HOUR, 2 * HOUR - 1));
+        aggregator.handle(instance(UsageTypes.RUNNING_VM, 2, 2, 2 * HOUR, 3 * HOUR - 1));
+        // started after the range
+        aggregator.handle(instance(UsageTypes.RUNNING_VM, 3, 1, 11 * HOUR, null));
+
+        Map<String, Double> usages = new HashMap<String, Double>();
+        for (UsageVO usageRecord : aggregator.createUsageRecords(_account)) {
+            Assert.assertEquals(2, usageRecord.getAccountId().longValue());
+            Assert.assertEquals(Long.valueOf(512), usageRecord.getMemory());
+            usages.put(usageRecord.getVmInstanceId() + "-" + usageRecord.getUsageType() + "-" + usageRecord.getOfferingId(), usageRecord.getRawUsage());
+        }
+
+        Assert.assertEquals(4, usages.size());
+        Assert.assertEquals(2.0, usages.get("1-" + UsageTypes.RUNNING_VM + "-1"), 0.0001);
+        Assert.assertEquals(10.0, usages.get("1-" + UsageTypes.ALLOCATED_VM + "-1"), 0.0001);
+        Assert.assertEquals(1.0, usages.get("2-" + UsageTypes.RUNNING_VM + "-1"), 0.0001);
+        Assert.assertEquals(1.0, usages.get("2-" + UsageTypes.RUNNING_VM + "-2"), 0.0001);
+    }
+
+    @Test
+    public void usageOfEveryVmIsRecorded() {
+        int vmCount = 10;
+        VMInstanceUsageParser.UsageAggregator aggregator = new VMInstanceUsageParser.UsageAggregator(_startDate, _endDate);
+        for (long vmId = 1; vmId <= vmCount; vmId++) {
+            aggregator.handle(instance(UsageTypes.ALLOCATED_VM, vmId, 1, -HOUR, null));
+            aggregator.handle(instance(UsageTypes.RUNNING_VM, vmId, 1, HOUR, 2 * HOUR - 1));
+            aggregator.handle(instance(UsageTypes.RUNNING_VM, vmId, 1, 4 * HOUR, null));
+        }
+        List<UsageVO> usageRecords = aggregator.createUsageRecords(_account);
+
+        Assert.assertEquals(2 * vmCount, usageRecords.size());
+        for (UsageVO usageRecord : usageRecords) {
+            Assert.assertEquals(usageRecord.getUsageType() == UsageTypes.ALLOCATED_VM ? 10.0 : 7.0, usageRecord.getRawUsage(), 0.0001);
+        }
+    }
+}
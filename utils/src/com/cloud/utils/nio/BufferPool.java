@@ -0,0 +1,121 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.utils.nio;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * BufferPool keeps direct buffers for reuse on the nio path, so that links
+ * don't allocate a new buffer for every packet they wrap or unwrap.
+ *
+ * Buffers come in power of two sizes from MIN_SIZE to MAX_SIZE and every
+ * size keeps at most a fixed number of idle buffers.  Larger requests get a
+ * heap buffer that isn't pooled.  A buffer has to be given back with
+ * release() once the caller is done with it, and must not be used after.
+ */
+public class BufferPool {
+    public static final int MIN_SIZE = 1 << 10;
+    public static final int MAX_SIZE = 1 << 20;
+    public static final int DEFAULT_MAX_IDLE = 64;
+
+    private static final BufferPool s_instance = new BufferPool(DEFAULT_MAX_IDLE);
+
+    private final int _maxIdle;
+    private final ConcurrentLinkedQueue<ByteBuffer>[] _idle;
+    private final AtomicInteger[] _idleCounts;
+    private final AtomicLong _allocated = new AtomicLong();
+    private final AtomicLong _reused = new AtomicLong();
+
+    public static BufferPool getInstance() {
+        return s_instance;
+    }
+
+    @SuppressWarnings("unchecked")
+    public BufferPool(int maxIdle) {
+        _maxIdle = maxIdle;
+        int buckets = Integer.numberOfTrailingZeros(MAX_SIZE) - Integer.numberOfTrailingZeros(MIN_SIZE) + 1;
+        _idle = new ConcurrentLinkedQueue[buckets];
+        _idleCounts = new AtomicInteger[buckets];
+        for (int i = 0; i < buckets; i++) {
+            _idle[i] = new ConcurrentLinkedQueue<ByteBuffer>();
+            _idleCounts[i] = new AtomicInteger();
+        }
+    }
+
+    protected static int bucket(int size) {
+        if (size <= MIN_SIZE) {
+            return 0;
+        }
+        return 32 - Integer.numberOfLeadingZeros(size - 1) - Integer.numberOfTrailingZeros(MIN_SIZE);
+    }
+
+    /**
+     * @param size minimum capacity needed.
+     * @return a cleared buffer with at least the capacity asked for.
+     */
+    public ByteBuffer acquire(int size) {
+        if (size > MAX_SIZE) {
+            _allocated.incrementAndGet();
+            return ByteBuffer.allocate(size);
+        }
+        int bucket = bucket(size);
+        ByteBuffer buffer = _idle[bucket].poll();
+        if (buffer != null) {
+            _idleCounts[bucket].decrementAndGet();
+            _reused.incrementAndGet();
+            buffer.clear();
+            return buffer;
+        }
+        _allocated.incrementAndGet();
+        return ByteBuffer.allocateDirect(MIN_SIZE << bucket);
+    }
+
+    /**
+     * Gives a buffer from acquire() back to the pool.  Buffers that weren't
+     * from the pool are left to the garbage collector.
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect() || buffer.capacity() > MAX_SIZE || Integer.bitCount(buffer.capacity()) != 1 || buffer.capacity() < MIN_SIZE) {
+            return;
+        }
+        int bucket = bucket(buffer.capacity());
+        if (_idleCounts[bucket].incrementAndGet() > _maxIdle) {
+            _idleCounts[bucket].decrementAndGet();
+            return;
+        }
+        _idle[bucket].offer(buffer);
+    }
+
+    /**
+     * @return how many buffers acquire() had to allocate.
+     */
+    public long getAllocatedCount() {
+        return _allocated.get();
+    }
+
+    /**
+     * @return how many buffers acquire() handed out again.
+     */
+    public long getReusedCount() {
+        return _reused.get();
+    }
+}
@@ -54,6 +54,11 @@ import com.cloud.utils.db.DbProperties;
  */
 public class Link {
     private static final Logger s_logger = Logger.getLogger(Link.class);
+    private static final BufferPool s_pool = BufferPool.getInstance();
+    // A plain text buffer larger than this is not kept once a message is read.
+    private static final int MAX_RETAINED_PLAINTEXT = 64 * 1024;
+    // Queued after the last data to write when the link is to be closed.
+    private static final ByteBuffer[] CLOSE = new ByteBuffer[0];
 
     private final InetSocketAddress _addr;
     private final NioConnection _connection;
@@ -66,6 +71,7 @@ public class Link {
     private boolean _gotFollowingPacket;
 
     private SSLEngine _sslEngine;
+    private volatile boolean _binaryCapable;
     public static String keystoreFile = "/cloudmanagementserver.keystore";
 
     public Link(InetSocketAddress addr, NioConnection connection) {
@@ -101,6 +107,17 @@ public class Link {
         _sslEngine = sslEngine;
     }
 
+    /**
+     * @return true if the other side said it understands the binary encoding of requests.
+     */
+    public boolean isBinaryCapable() {
+        return _binaryCapable;
+    }
+
+    public void setBinaryCapable(boolean binaryCapable) {
+        _binaryCapable = binaryCapable;
+    }
+
     /**
      * No user, so comment it out.
      *
@@ -146,55 +163,48 @@ public class Link {
 
     private static void doWrite(SocketChannel ch, ByteBuffer[] buffers, SSLEngine sslEngine) throws IOException {
         SSLSession sslSession = sslEngine.getSession();
-        ByteBuffer pkgBuf = ByteBuffer.allocate(sslSession.getPacketBufferSize() + 40);
+        // The 4 byte packet header goes in front of the SSL packet in the same
+        // pooled buffer so both go out in one write.
+        ByteBuffer pkgBuf = s_pool.acquire(sslSession.getPacketBufferSize() + 44);
         SSLEngineResult engResult;
 
-        ByteBuffer headBuf = ByteBuffer.allocate(4);
-
-        int totalLen = 0;
-        for (ByteBuffer buffer : buffers) {
-            totalLen += buffer.limit();
-        }
-
-        int processedLen = 0;
-        while (processedLen < totalLen) {
-            headBuf.clear();
-            pkgBuf.clear();
-            engResult = sslEngine.wrap(buffers, pkgBuf);
-            if (engResult.getHandshakeStatus() != HandshakeStatus.FINISHED && engResult.getHandshakeStatus() != HandshakeStatus.NOT_HANDSHAKING &&
-                    engResult.getStatus() != SSLEngineResult.Status.OK) {
-                throw new IOException("SSL: SSLEngine return bad result! " + engResult);
-            }
-
-            processedLen = 0;
+        try {
+            int totalLen = 0;
             for (ByteBuffer buffer : buffers) {
-                processedLen += buffer.position();
+                totalLen += buffer.limit();
             }
 
-            int dataRemaining = pkgBuf.position();
-            int header = dataRemaining;
-            int headRemaining = 4;
-            pkgBuf.flip();
-            if (processedLen < totalLen) {
-                header = header | HEADER_FLAG_FOLLOWING;
-            }
-            headBuf.putInt(header);
-            headBuf.flip();
+            int processedLen = 0;
+            while (processedLen < totalLen) {
+                pkgBuf.clear();
+                pkgBuf.position(4);
+                engResult = sslEngine.wrap(buffers, pkgBuf);
+                if (engResult.getHandshakeStatus() != HandshakeStatus.FINISHED && engResult.getHandshakeStatus() != HandshakeStatus.NOT_HANDSHAKING &&
+                        engResult.getStatus() != SSLEngineResult.Status.OK) {
+                    throw new IOException("SSL: SSLEngine return bad result! " + engResult);
+                }
 
-            while (headRemaining > 0) {
-                if (s_logger.isTraceEnabled()) {
-                    s_logger.trace("Writing Header " + headRemaining);
+                processedLen = 0;
+                for (ByteBuffer buffer : buffers) {
+                    processedLen += buffer.position();
                 }
-                long count = ch.write(headBuf);
-                headRemaining -= count;
-            }
-            while (dataRemaining > 0) {
-                if (s_logger.isTraceEnabled()) {
-                    s_logger.trace("Writing Data " + dataRemaining);
+
+                int header = pkgBuf.position() - 4;
+                if (processedLen < totalLen) {
+                    header = header | HEADER_FLAG_FOLLOWING;
+                }
+                pkgBuf.putInt(0, header);
+                pkgBuf.flip();
+
+                while (pkgBuf.hasRemaining()) {
+                    if (s_logger.isTraceEnabled()) {
+                        s_logger.trace("Writing Data " + pkgBuf.remaining());
+                    }
+                    ch.write(pkgBuf);
                 }
-                long count = ch.write(pkgBuf);
-                dataRemaining -= count;
             }
+        } finally {
+            s_pool.release(pkgBuf);
         }
     }
 
@@ -243,7 +253,11 @@ public class Link {
             }
 
             if (!_gotFollowingPacket) {
-                _plaintextBuffer = ByteBuffer.allocate(2000);
+                if (_plaintextBuffer == null || _plaintextBuffer.capacity() > MAX_RETAINED_PLAINTEXT) {
+                    _plaintextBuffer = ByteBuffer.allocate(2000);
+                } else {
+                    _plaintextBuffer.clear();
+                }
             }
 
             if ((header & HEADER_FLAG_FOLLOWING) != 0) {
@@ -277,36 +291,39 @@ public class Link {
 
         _readBuffer.flip();
 
-        ByteBuffer appBuf;
-
         SSLSession sslSession = _sslEngine.getSession();
         SSLEngineResult engResult;
         int remaining = 0;
 
-        while (_readBuffer.hasRemaining()) {
-            remaining = _readBuffer.remaining();
-            appBuf = ByteBuffer.allocate(sslSession.getApplicationBufferSize() + 40);
-            engResult = _sslEngine.unwrap(_readBuffer, appBuf);
-            if (engResult.getHandshakeStatus() != HandshakeStatus.FINISHED && engResult.getHandshakeStatus() != HandshakeStatus.NOT_HANDSHAKING &&
-                    engResult.getStatus() != SSLEngineResult.Status.OK) {
-                throw new IOException("SSL: SSLEngine return bad result! " + engResult);
-            }
-            if (remaining == _readBuffer.remaining()) {
-                throw new IOException("SSL: Unable to unwrap received data! still remaining " + remaining + "bytes!");
-            }
+        ByteBuffer appBuf = s_pool.acquire(sslSession.getApplicationBufferSize() + 40);
+        try {
+            while (_readBuffer.hasRemaining()) {
+                remaining = _readBuffer.remaining();
+                appBuf.clear();
+                engResult = _sslEngine.unwrap(_readBuffer, appBuf);
+                if (engResult.getHandshakeStatus() != HandshakeStatus.FINISHED && engResult.getHandshakeStatus() != HandshakeStatus.NOT_HANDSHAKING &&
+                        engResult.getStatus() != SSLEngineResult.Status.OK) {
+                    throw new IOException("SSL: SSLEngine return bad result! " + engResult);
+                }
+                if (remaining == _readBuffer.remaining()) {
+                    throw new IOException("SSL: Unable to unwrap received data! still remaining " + remaining + "bytes!");
+                }
 
-            appBuf.flip();
-            if (_plaintextBuffer.remaining() < appBuf.limit()) {
-                // We need to expand _plaintextBuffer for more data
-                ByteBuffer newBuffer = ByteBuffer.allocate(_plaintextBuffer.capacity() + appBuf.limit() * 5);
-                _plaintextBuffer.flip();
-                newBuffer.put(_plaintextBuffer);
-                _plaintextBuffer = newBuffer;
-            }
-            _plaintextBuffer.put(appBuf);
-            if (s_logger.isTraceEnabled()) {
-                s_logger.trace("Done with packet: " + appBuf.limit());
+                appBuf.flip();
+                if (_plaintextBuffer.remaining() < appBuf.limit()) {
+                    // We need to expand _plaintextBuffer for more data
+                    ByteBuffer newBuffer = ByteBuffer.allocate(Math.max(_plaintextBuffer.capacity() * 2, _plaintextBuffer.position() + appBuf.limit()));
+                    _plaintextBuffer.flip();
+                    newBuffer.put(_plaintextBuffer);
+                    _plaintextBuffer = newBuffer;
+                }
+                if (s_logger.isTraceEnabled()) {
+                    s_logger.trace("Done with packet: " + appBuf.limit());
+                }
+                _plaintextBuffer.put(appBuf);
             }
+        } finally {
+            s_pool.release(appBuf);
         }
 
         _readBuffer.clear();
@@ -334,24 +351,18 @@ public class Link {
     }
 
     public void send(ByteBuffer[] data, boolean close) throws ClosedChannelException {
-        ByteBuffer[] item = new ByteBuffer[data.length + 1];
-        int remaining = 0;
-        for (int i = 0; i < data.length; i++) {
-            remaining += data[i].remaining();
-            item[i + 1] = data[i];
-        }
-
-        item[0] = ByteBuffer.allocate(4);
-        item[0].putInt(remaining);
-        item[0].flip();
-
         if (s_logger.isTraceEnabled()) {
+            int remaining = 0;
+            for (ByteBuffer buffer : data) {
+                remaining += buffer.remaining();
+            }
             s_logger.trace("Sending packet of length " + remaining);
         }
 
-        _writeQueue.add(item);
+        // The packet header is written by doWrite, the data is queued as is.
+        _writeQueue.add(data);
         if (close) {
-            _writeQueue.add(new ByteBuffer[0]);
+            _writeQueue.add(CLOSE);
         }
         synchronized (this) {
             if (_key == null) {
@@ -374,17 +385,14 @@ public class Link {
     public boolean write(SocketChannel ch) throws IOException {
         ByteBuffer[] data = null;
         while ((data = _writeQueue.poll()) != null) {
-            if (data.length == 0) {
+            if (data == CLOSE) {
                 if (s_logger.isTraceEnabled()) {
                     s_logger.trace("Closing connection requested");
                 }
                 return true;
             }
 
-            ByteBuffer[] raw_data = new ByteBuffer[data.length - 1];
-            System.arraycopy(data, 1, raw_data, 0, data.length - 1);
-
-            doWrite(ch, raw_data, _sslEngine);
+            doWrite(ch, data, _sslEngine);
         }
         return false;
     }
@@ -0,0 +1,81 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.utils.nio;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class BufferPoolTest {
+
+    @Test
+    public void bucketSizes() {
+        assertEquals(0, BufferPool.bucket(1));
+        assertEquals(0, BufferPool.bucket(BufferPool.MIN_SIZE));
+        assertEquals(1, BufferPool.bucket(BufferPool.MIN_SIZE + 1));
+        assertEquals(5, BufferPool.bucket(16709 + 44));
+    }
+
+    @Test
+    public void releasedBufferIsReused() {
+        BufferPool pool = new BufferPool(2);
+        ByteBuffer buffer = pool.acquire(16709);
+        assertTrue(buffer.isDirect());
+        assertEquals(32 * 1024, buffer.capacity());
+        buffer.putInt(5);
+        pool.release(buffer);
+
+        ByteBuffer again = pool.acquire(20000);
+        assertSame(buffer, again);
+        assertEquals(0, again.position());
+        assertEquals(again.capacity(), again.limit());
+        assertEquals(1, pool.getAllocatedCount());
+        assertEquals(1, pool.getReusedCount());
+    }
+
+    @Test
+    public void idleBuffersAreBounded() {
+        BufferPool pool = new BufferPool(1);
+        ByteBuffer first = pool.acquire(100);
+        ByteBuffer second = pool.acquire(100);
+        pool.release(first);
+        pool.release(second);
+        assertSame(first, pool.acquire(100));
+        assertNotSame(second, pool.acquire(100));
+        assertEquals(3, pool.getAllocatedCount());
+    }
+
+    @Test
+    public void largeAndForeignBuffersAreNotPooled() {
+        BufferPool pool = new BufferPool(4);
+        ByteBuffer large = pool.acquire(BufferPool.MAX_SIZE + 1);
+        assertFalse(large.isDirect());
+        pool.release(large);
+        pool.release(ByteBuffer.allocate(BufferPool.MIN_SIZE));
+        pool.release(ByteBuffer.allocateDirect(3000));
+        assertTrue(pool.acquire(100).isDirect());
+        assertEquals(0, pool.getReusedCount());
+    }
+}